@@ -28,10 +28,14 @@ import io.github.muntashirakon.AppManager.debloat.SuggestionObject;
 import io.github.muntashirakon.AppManager.misc.VMRuntime;
 import io.github.muntashirakon.AppManager.utils.ContextUtils;
 import io.github.muntashirakon.AppManager.utils.FileUtils;
+import io.github.muntashirakon.AppManager.utils.SignatureMatcher;
 
 public class StaticDataset {
     private static String[] sTrackerCodeSignatures;
     private static String[] sTrackerNames;
+    private static SignatureMatcher sTrackerSignatureMatcher;
+    private static String[] sLibrarySignatures;
+    private static SignatureMatcher sLibrarySignatureMatcher;
     private static List<DebloatObject> sDebloatObjects;
 
     public static final String ARMEABI_V7A = "armeabi_v7a";
@@ -89,6 +93,35 @@ public class StaticDataset {
         return sTrackerCodeSignatures;
     }
 
+    /**
+     * Matcher for {@link #getTrackerCodeSignatures()}. Building the matcher is expensive, so it is built only once.
+     */
+    @NonNull
+    public static SignatureMatcher getTrackerSignatureMatcher() {
+        if (sTrackerSignatureMatcher == null) {
+            sTrackerSignatureMatcher = new SignatureMatcher(getTrackerCodeSignatures());
+        }
+        return sTrackerSignatureMatcher;
+    }
+
+    public static String[] getLibrarySignatures() {
+        if (sLibrarySignatures == null) {
+            sLibrarySignatures = ContextUtils.getContext().getResources().getStringArray(R.array.lib_signatures);
+        }
+        return sLibrarySignatures;
+    }
+
+    /**
+     * Matcher for {@link #getLibrarySignatures()}. Building the matcher is expensive, so it is built only once.
+     */
+    @NonNull
+    public static SignatureMatcher getLibrarySignatureMatcher() {
+        if (sLibrarySignatureMatcher == null) {
+            sLibrarySignatureMatcher = new SignatureMatcher(getLibrarySignatures());
+        }
+        return sLibrarySignatureMatcher;
+    }
+
     public static String[] getTrackerNames() {
         if (sTrackerNames == null) {
             sTrackerNames = ContextUtils.getContext().getResources().getStringArray(R.array.tracker_names);
@@ -30,6 +30,8 @@ import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 import androidx.collection.SparseArrayCompat;
 
+import com.android.apksig.util.DataSource;
+import com.android.apksig.util.DataSources;
 import com.google.android.material.color.MaterialColors;
 
 import org.json.JSONException;
@@ -41,6 +43,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.nio.ByteBuffer;
@@ -50,6 +53,7 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.zip.ZipEntry;
@@ -194,6 +198,11 @@ public final class ApkFile implements AutoCloseable {
     private ParcelFileDescriptor mFd;
     @Nullable
     private ZipFile mZipFile;
+    /**
+     * Same as {@link #mZipFile}, but used for reading the APK files stored in the bundle directly
+     */
+    @Nullable
+    private RandomAccessFile mBundleFile;
     private boolean mClosed;
 
     private ApkFile(@NonNull Uri apkUri, @Nullable String mimeType, int sparseArrayKey) throws ApkFileException {
@@ -295,15 +304,32 @@ public final class ApkFile implements AutoCloseable {
             } catch (IOException e) {
                 throw new ApkFileException(e);
             }
+            // APK files are usually stored without compression, which allows reading their manifests without
+            // extracting them
+            Map<String, DataSource> storedApks = Collections.emptyMap();
+            try {
+                mBundleFile = new RandomAccessFile(mCacheFilePath, "r");
+                storedApks = ApkUtils.getStoredApksFromBundle(DataSources.asDataSource(mBundleFile));
+            } catch (IOException e) {
+                Log.w(TAG, "Could not read the APK files stored in the bundle, extracting them instead", e);
+            }
             Enumeration<? extends ZipEntry> zipEntries = mZipFile.entries();
             while (zipEntries.hasMoreElements()) {
                 ZipEntry zipEntry = zipEntries.nextElement();
                 if (zipEntry.isDirectory()) continue;
                 String fileName = FileUtils.getFilenameFromZipEntry(zipEntry);
                 if (fileName.endsWith(".apk")) { // APK is more likely to match
-                    try (InputStream zipInputStream = mZipFile.getInputStream(zipEntry)) {
+                    DataSource storedApk = storedApks.get(zipEntry.getName());
+                    try {
                         // Get manifest attributes
-                        ByteBuffer manifest = getManifestFromApk(zipInputStream);
+                        ByteBuffer manifest;
+                        if (storedApk != null) {
+                            manifest = getManifestFromApk(storedApk);
+                        } else {
+                            try (InputStream zipInputStream = mZipFile.getInputStream(zipEntry)) {
+                                manifest = getManifestFromApk(zipInputStream);
+                            }
+                        }
                         HashMap<String, String> manifestAttrs = getManifestAttributes(manifest);
                         if (manifestAttrs.containsKey("split")) {
                             // TODO: check for duplicates
@@ -490,6 +516,7 @@ public final class ApkFile implements AutoCloseable {
             entry.close();
         }
         IoUtils.closeQuietly(mZipFile);
+        IoUtils.closeQuietly(mBundleFile);
         IoUtils.closeQuietly(mFd);
         IoUtils.closeQuietly(mFileCache);
         FileUtils.deleteSilently(mIdsigFile);
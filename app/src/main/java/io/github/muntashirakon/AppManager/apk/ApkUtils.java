@@ -41,6 +41,7 @@ import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
@@ -146,7 +147,20 @@ public final class ApkUtils {
     @NonNull
     public static ByteBuffer getManifestFromApk(File apkFile) throws ApkFile.ApkFileException {
         try (RandomAccessFile in = new RandomAccessFile(apkFile, "r")) {
-            DataSource apk = DataSources.asDataSource(in);
+            return getManifestFromApk(DataSources.asDataSource(in));
+        } catch (IOException e) {
+            throw new ApkFile.ApkFileException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Same as {@link #getManifestFromApk(File)}, except that the APK can be any region of a file, e.g. an APK stored
+     * inside an APK bundle (see {@link #getStoredApksFromBundle(DataSource)}). Only the central directory and the
+     * manifest are read.
+     */
+    @NonNull
+    public static ByteBuffer getManifestFromApk(@NonNull DataSource apk) throws ApkFile.ApkFileException {
+        try {
             com.android.apksig.apk.ApkUtils.ZipSections apkSections;
             try {
                 apkSections = com.android.apksig.apk.ApkUtils.findZipSections(apk);
@@ -173,6 +187,41 @@ public final class ApkUtils {
         }
     }
 
+    /**
+     * Find the APK files stored inside an APK bundle (APKS, XAPK, etc.) without compression, which is almost always
+     * the case. Since the contents of such an APK are the same as the APK itself, it can be read directly from the
+     * bundle without extracting it.
+     *
+     * @param bundle The APK bundle
+     * @return Map of the entry names of the stored APK files to the regions of the bundle containing them. APK files
+     * that are compressed are not included.
+     * @throws IOException If the bundle is not a valid ZIP file or could not be read
+     */
+    @NonNull
+    public static Map<String, DataSource> getStoredApksFromBundle(@NonNull DataSource bundle) throws IOException {
+        try {
+            com.android.apksig.apk.ApkUtils.ZipSections zipSections = com.android.apksig.apk.ApkUtils
+                    .findZipSections(bundle);
+            List<CentralDirectoryRecord> cdRecords = ZipUtils.parseZipCentralDirectory(bundle, zipSections);
+            long cdStartOffset = zipSections.getZipCentralDirectoryOffset();
+            Map<String, DataSource> storedApks = new HashMap<>();
+            for (CentralDirectoryRecord cdRecord : cdRecords) {
+                if (!cdRecord.getName().endsWith(EXT_APK)
+                        || cdRecord.getCompressionMethod() != ZipUtils.COMPRESSION_METHOD_STORED) {
+                    continue;
+                }
+                // The local file header is required to find where the data starts
+                LocalFileRecord localFileRecord = LocalFileRecord.getRecord(bundle, cdRecord, cdStartOffset);
+                long dataStartOffset = localFileRecord.getStartOffsetInArchive()
+                        + localFileRecord.getDataStartOffsetInRecord();
+                storedApks.put(cdRecord.getName(), bundle.slice(dataStartOffset, cdRecord.getUncompressedSize()));
+            }
+            return storedApks;
+        } catch (ZipFormatException | ApkFormatException e) {
+            throw new IOException(e);
+        }
+    }
+
     @NonNull
     public static ByteBuffer getManifestFromApk(InputStream apkInputStream) throws ApkFile.ApkFileException {
         try (ZipInputStream zipInputStream = new ZipInputStream(new BufferedInputStream(apkInputStream))) {
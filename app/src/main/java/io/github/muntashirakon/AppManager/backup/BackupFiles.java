@@ -23,9 +23,12 @@ import io.github.muntashirakon.io.PathWriter;
 public class BackupFiles {
     static final String APK_SAVING_DIRECTORY = "apks";
     static final String TEMPORARY_DIRECTORY = ".tmp";
+    static final String CHUNK_STORE_DIRECTORY = ".chunks";
 
     static final String RULES_TSV = "rules.am.tsv";
     static final String MISC_TSV = "misc.am.tsv";
+    static final String MANIFEST_PREFIX = "manifest";
+    static final String MANIFEST_TSV_SUFFIX = ".am.tsv";
     static final String CHECKSUMS_TXT = "checksums.txt";
     static final String FREEZE = ".freeze";
     static final String NO_MEDIA = ".nomedia";
@@ -137,6 +140,55 @@ public class BackupFiles {
             } else return getBackupPath().findFile(RULES_TSV + CryptoUtils.getExtension(mode));
         }
 
+        /**
+         * Get the manifest file of the data directory at the given index.
+         *
+         * @see BackupManifest
+         */
+        @NonNull
+        public Path getManifestFile(int index, @CryptoUtils.Mode String mode) throws IOException {
+            String filename = MANIFEST_PREFIX + index + MANIFEST_TSV_SUFFIX + CryptoUtils.getExtension(mode);
+            if (mIsTemporary) {
+                return getBackupPath().findOrCreateFile(filename, null);
+            } else return getBackupPath().findFile(filename);
+        }
+
+        public boolean hasManifestFile(int index, @CryptoUtils.Mode String mode) {
+            return getBackupPath().hasFile(MANIFEST_PREFIX + index + MANIFEST_TSV_SUFFIX
+                    + CryptoUtils.getExtension(mode));
+        }
+
+        /**
+         * Get the other backups of the same package, excluding this one and any temporary backups.
+         */
+        @NonNull
+        public Path[] getSiblingBackupPaths() {
+            Path packagePath = mBackupPath.getParent();
+            if (packagePath == null) {
+                return new Path[0];
+            }
+            return packagePath.listFiles(pathname -> pathname.isDirectory()
+                    && !pathname.getName().startsWith(".")
+                    && !pathname.getName().equals(mBackupPath.getName()));
+        }
+
+        /**
+         * Get the incremental backups of the same package that are based on this backup.
+         */
+        @NonNull
+        public List<String> getDependentBackupNames() {
+            List<String> dependentBackupNames = new ArrayList<>();
+            for (Path backupPath : getSiblingBackupPaths()) {
+                try {
+                    if (backupName.equals(MetadataManager.getMetadata(backupPath).baseBackupName)) {
+                        dependentBackupNames.add(backupPath.getName());
+                    }
+                } catch (IOException ignore) {
+                }
+            }
+            return dependentBackupNames;
+        }
+
         public void freeze() throws IOException {
             getBackupPath().createNewFile(FREEZE, null);
         }
@@ -156,11 +208,26 @@ public class BackupFiles {
 
         public void commit() throws IOException {
             if (mIsTemporary) {
-                if (!delete()) {
-                    throw new IOException("Could not delete " + mBackupPath);
+                // Incremental backups cannot be restored if the backup they are based on is replaced
+                List<String> dependentBackupNames = getDependentBackupNames();
+                if (!dependentBackupNames.isEmpty()) {
+                    throw new IOException("Backup " + backupName + " is required by the incremental backups "
+                            + dependentBackupNames);
                 }
-                if (!mTempBackupPath.moveTo(mBackupPath)) {
-                    throw new IOException("Could not move " + mTempBackupPath + " to " + mBackupPath);
+                // A deduplicated backup refers to its chunks only after it is committed. If the process is killed
+                // before the backup is moved, the references are never released and the chunks are kept.
+                List<String> chunks = ChunkStore.getReferencedChunks(mTempBackupPath);
+                ChunkStore.referenceChunks(chunks);
+                try {
+                    if (!delete()) {
+                        throw new IOException("Could not delete " + mBackupPath);
+                    }
+                    if (!mTempBackupPath.moveTo(mBackupPath)) {
+                        throw new IOException("Could not move " + mTempBackupPath + " to " + mBackupPath);
+                    }
+                } catch (IOException e) {
+                    ChunkStore.releaseChunks(chunks);
+                    throw e;
                 }
             }
         }
@@ -173,7 +240,13 @@ public class BackupFiles {
 
         public boolean delete() {
             if (mBackupPath.exists()) {
-                return mBackupPath.delete();
+                // Deduplicated backups share their chunks with other backups
+                List<String> chunks = ChunkStore.getReferencedChunks(mBackupPath);
+                if (mBackupPath.delete()) {
+                    ChunkStore.releaseChunks(chunks);
+                    return true;
+                }
+                return false;
             }
             return true;  // The backup path doesn't exist anyway
         }
@@ -220,6 +293,26 @@ public class BackupFiles {
         return mPackageName;
     }
 
+    /**
+     * Delete the temporary backups of this user left behind by a backup that was interrupted, e.g. when the process
+     * was killed. This must not be called while a backup of the same package is running.
+     */
+    public void discardTemporaryBackups() {
+        // Temporary backups are named after the backup names, which begin with the user ID
+        String prefix = "." + mUserId;
+        Path[] tempBackupPaths = mPackagePath.listFiles(pathname -> pathname.isDirectory()
+                && (pathname.getName().equals(prefix) || pathname.getName().startsWith(prefix + "_")));
+        boolean deduplicated = false;
+        for (Path tempBackupPath : tempBackupPaths) {
+            deduplicated |= tempBackupPath.listFiles((dir, name) -> name.endsWith(ChunkStore.INDEX_EXT)).length > 0;
+            tempBackupPath.delete();
+        }
+        if (deduplicated) {
+            // The chunks stored by the interrupted backups are not referred to by any backup
+            ChunkStore.sweepUnreferencedChunks();
+        }
+    }
+
     public BackupFile[] getBackupPaths(boolean hasTemporary) throws IOException {
         BackupFile[] backupFiles = new BackupFile[mBackupNames.length];
         for (int i = 0; i < mBackupNames.length; ++i) {
@@ -4,9 +4,16 @@ package io.github.muntashirakon.AppManager.backup;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 import io.github.muntashirakon.AppManager.logs.Log;
 import io.github.muntashirakon.AppManager.progress.ProgressHandler;
@@ -14,6 +21,7 @@ import io.github.muntashirakon.AppManager.types.UserPackagePair;
 import io.github.muntashirakon.AppManager.utils.ContextUtils;
 import io.github.muntashirakon.AppManager.utils.DateUtils;
 import io.github.muntashirakon.AppManager.utils.TarUtils;
+import io.github.muntashirakon.io.Path;
 
 /**
  * Manage backups for individual package belong to individual user.
@@ -92,16 +100,23 @@ public class BackupManager {
         try {
             // Get backup files based on the number of backupNames
             BackupFiles backupFiles = new BackupFiles(mTargetPackage.getPackageName(), mTargetPackage.getUserId(), backupNames);
-            BackupFiles.BackupFile[] backupFileList = mRequestedFlags.backupMultiple() ?
-                    backupFiles.getFreshBackupPaths() : backupFiles.getBackupPaths(true);
+            // Incremental backups must never overwrite the backups they are based on
+            boolean freshBackup = mRequestedFlags.backupMultiple() || mRequestedFlags.backupIncremental();
+            BackupFiles.BackupFile[] backupFileList = freshBackup ? backupFiles.getFreshBackupPaths()
+                    : backupFiles.getBackupPaths(true);
+            if (!freshBackup) {
+                // Fail before taking a backup that cannot replace the existing one
+                checkNotBaseBackup(backupFileList);
+            }
             if (progressHandler != null) {
                 int max = calculateMaxProgress(backupFileList.length);
                 progressHandler.setProgressTextInterface(ProgressHandler.PROGRESS_PERCENT);
                 progressHandler.postUpdate(max, 0f);
             }
             for (BackupFiles.BackupFile backupFile : backupFileList) {
-                try (BackupOp backupOp = new BackupOp(mTargetPackage.getPackageName(), mMetadataManager, mRequestedFlags,
-                        backupFile, mTargetPackage.getUserId())) {
+                // BackupOp modifies the flags, so a copy is required for each backup
+                try (BackupOp backupOp = new BackupOp(mTargetPackage.getPackageName(), mMetadataManager,
+                        new BackupFlags(mRequestedFlags.getFlags()), backupFile, mTargetPackage.getUserId())) {
                     backupOp.runBackup(progressHandler);
                     BackupUtils.putBackupToDbAndBroadcast(ContextUtils.getContext(), backupOp.getMetadata());
                 }
@@ -113,7 +128,7 @@ public class BackupManager {
 
     @Nullable
     private String[] getProcessedBackupNames(@Nullable String[] backupNames) {
-        if (mRequestedFlags.backupMultiple()) {
+        if (mRequestedFlags.backupMultiple() || mRequestedFlags.backupIncremental()) {
             // Multiple backups requested
             if (backupNames == null) {
                 // Create a singleton backupNames array with current time
@@ -195,47 +210,131 @@ public class BackupManager {
     }
 
     public void deleteBackup(@Nullable String[] backupNames) throws BackupException {
+        List<BackupFiles.BackupFile> backupFileList = new ArrayList<>();
         if (backupNames == null) {
             // No backup names supplied, use user handle
-            BackupFiles backupFiles;
-            BackupFiles.BackupFile[] backupFileList;
             try {
-                backupFiles = new BackupFiles(mTargetPackage.getPackageName(),
+                BackupFiles backupFiles = new BackupFiles(mTargetPackage.getPackageName(),
                         mTargetPackage.getUserId(), null);
-                backupFileList = backupFiles.getBackupPaths(false);
+                backupFileList.addAll(Arrays.asList(backupFiles.getBackupPaths(false)));
             } catch (IOException e) {
                 throw new BackupException("Could not get backup files.", e);
             }
-            for (BackupFiles.BackupFile backupFile : backupFileList) {
-                try {
-                    MetadataManager.Metadata metadata = MetadataManager.getMetadata(backupFile);
-                    if (!backupFile.isFrozen() && !backupFile.delete()) {
-                        throw new BackupException("Could not delete the selected backups");
-                    }
-                    BackupUtils.deleteBackupToDbAndBroadcast(ContextUtils.getContext(), metadata);
-                } catch (IOException e) {
-                    throw new BackupException("Could not delete the selected backups", e);
-                }
-            }
         } else {
             // backupNames is not null but that doesn't mean that it's not empty,
             // requested for only single backups
-            BackupFiles.BackupFile backupFile;
             for (String backupName : backupNames) {
-                MetadataManager.Metadata metadata;
                 try {
-                    backupFile = new BackupFiles.BackupFile(BackupFiles.getPackagePath(mTargetPackage.getPackageName(),
-                            false).findFile(backupName), false);
-                    metadata = MetadataManager.getMetadata(backupFile);
+                    backupFileList.add(new BackupFiles.BackupFile(BackupFiles.getPackagePath(
+                            mTargetPackage.getPackageName(), false).findFile(backupName), false));
                 } catch (IOException e) {
                     throw new BackupException("Could not get backup files.", e);
                 }
-                if (!backupFile.isFrozen() && !backupFile.delete()) {
-                    throw new BackupException("Could not delete the selected backups");
+            }
+        }
+        List<MetadataManager.Metadata> metadataList = new ArrayList<>(backupFileList.size());
+        List<MetadataManager.Metadata> deletedBackups = new ArrayList<>(backupFileList.size());
+        for (BackupFiles.BackupFile backupFile : backupFileList) {
+            MetadataManager.Metadata metadata;
+            try {
+                metadata = MetadataManager.getMetadata(backupFile);
+            } catch (IOException e) {
+                throw new BackupException("Could not delete the selected backups", e);
+            }
+            metadataList.add(metadata);
+            if (!backupFile.isFrozen()) {
+                deletedBackups.add(metadata);
+            }
+        }
+        // Fail before deleting anything if a backup is still required by an incremental backup
+        for (MetadataManager.Metadata metadata : getDeletionOrder(deletedBackups, getAllMetadata(backupFileList))) {
+            if (!metadata.backupFile.delete()) {
+                throw new BackupException("Could not delete the selected backups");
+            }
+        }
+        for (MetadataManager.Metadata metadata : metadataList) {
+            BackupUtils.deleteBackupToDbAndBroadcast(ContextUtils.getContext(), metadata);
+        }
+    }
+
+    /**
+     * Incremental backups cannot be restored if the backups they are based on are replaced.
+     */
+    private static void checkNotBaseBackup(@NonNull BackupFiles.BackupFile[] backupFileList) throws BackupException {
+        for (BackupFiles.BackupFile backupFile : backupFileList) {
+            List<String> dependentBackupNames = backupFile.getDependentBackupNames();
+            if (!dependentBackupNames.isEmpty()) {
+                for (BackupFiles.BackupFile file : backupFileList) {
+                    file.cleanup();
                 }
-                BackupUtils.deleteBackupToDbAndBroadcast(ContextUtils.getContext(), metadata);
+                throw new BackupException("Backup " + backupFile.backupName + " cannot be replaced because it is "
+                        + "required by the incremental backups " + dependentBackupNames);
+            }
+        }
+    }
+
+    /**
+     * Get the metadata of all the backups of the package the given backups belong to.
+     */
+    @NonNull
+    private static List<MetadataManager.Metadata> getAllMetadata(@NonNull List<BackupFiles.BackupFile> backupFileList) {
+        List<MetadataManager.Metadata> allBackups = new ArrayList<>();
+        if (backupFileList.isEmpty()) {
+            return allBackups;
+        }
+        BackupFiles.BackupFile backupFile = backupFileList.get(0);
+        List<Path> backupPaths = new ArrayList<>(Arrays.asList(backupFile.getSiblingBackupPaths()));
+        backupPaths.add(backupFile.getBackupPath());
+        for (Path backupPath : backupPaths) {
+            try {
+                allBackups.add(MetadataManager.getMetadata(backupPath));
+            } catch (IOException ignore) {
+            }
+        }
+        return allBackups;
+    }
+
+    /**
+     * Incremental backups cannot be restored without their base backups. So, a base backup can only be deleted along
+     * with the backups that depend on it. The deleted backups are ordered so that the incremental backups are deleted
+     * before the backups they are based on.
+     *
+     * @param deletedBackups Backups to be deleted
+     * @param allBackups     All the backups of the package
+     * @throws BackupException If a backup is required by an incremental backup that is not going to be deleted
+     */
+    @VisibleForTesting
+    @NonNull
+    static List<MetadataManager.Metadata> getDeletionOrder(@NonNull List<MetadataManager.Metadata> deletedBackups,
+                                                           @NonNull List<MetadataManager.Metadata> allBackups)
+            throws BackupException {
+        Map<String, MetadataManager.Metadata> deletedBackupMap = new HashMap<>(deletedBackups.size());
+        for (MetadataManager.Metadata metadata : deletedBackups) {
+            deletedBackupMap.put(metadata.backupName, metadata);
+        }
+        for (MetadataManager.Metadata metadata : allBackups) {
+            if (metadata.baseBackupName != null && deletedBackupMap.containsKey(metadata.baseBackupName)
+                    && !deletedBackupMap.containsKey(metadata.backupName)) {
+                throw new BackupException("Backup " + metadata.baseBackupName + " is required by the incremental "
+                        + "backup " + metadata.backupName);
+            }
+        }
+        // The longer the chain of deleted base backups, the earlier a backup is deleted
+        Map<String, Integer> depths = new HashMap<>(deletedBackups.size());
+        for (MetadataManager.Metadata metadata : deletedBackups) {
+            int depth = 0;
+            MetadataManager.Metadata base = deletedBackupMap.get(metadata.baseBackupName);
+            // A chain cannot be longer than the number of deleted backups unless it is circular
+            while (base != null && depth < deletedBackups.size()) {
+                ++depth;
+                base = deletedBackupMap.get(base.baseBackupName);
             }
+            depths.put(metadata.backupName, depth);
         }
+        List<MetadataManager.Metadata> orderedBackups = new ArrayList<>(deletedBackups);
+        Collections.sort(orderedBackups, (o1, o2) -> Integer.compare(Objects.requireNonNull(depths.get(o2.backupName)),
+                Objects.requireNonNull(depths.get(o1.backupName))));
+        return orderedBackups;
     }
 
     public void verify(@Nullable String backupName) throws BackupException {
@@ -0,0 +1,269 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.backup;
+
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+
+import aosp.libcore.util.HexEncoding;
+import io.github.muntashirakon.AppManager.utils.DigestUtils;
+import io.github.muntashirakon.io.Path;
+import io.github.muntashirakon.io.Paths;
+
+/**
+ * A per-file snapshot of a data directory. Each entry records the type, size, modification time and SHA-256 hash of a
+ * path relative to the data directory. Manifests are stored alongside data backups (since metadata version 5) and are
+ * used to find the files that changed since a base backup.
+ * <p>
+ * The manifest is stored as a TSV file with the format {@code type\tsize\tmtime\thash\tpath} where a missing hash is
+ * denoted by {@code -}. Backslashes, tabs and new lines in the path are escaped.
+ */
+public final class BackupManifest {
+    public static final String TYPE_FILE = "f";
+    public static final String TYPE_DIRECTORY = "d";
+    public static final String TYPE_SYMLINK = "l";
+
+    @DigestUtils.Algorithm
+    public static final String HASH_ALGO = DigestUtils.SHA_256;
+
+    public static final class Entry {
+        @NonNull
+        public final String type;
+        @NonNull
+        public final String path;
+        public final long size;
+        public final long lastModified;
+        @Nullable
+        public final String hash;
+
+        public Entry(@NonNull String type, @NonNull String path, long size, long lastModified, @Nullable String hash) {
+            this.type = type;
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Entry)) return false;
+            Entry entry = (Entry) o;
+            return size == entry.size && lastModified == entry.lastModified && type.equals(entry.type)
+                    && path.equals(entry.path) && Objects.equals(hash, entry.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, path, size, lastModified, hash);
+        }
+    }
+
+    /**
+     * Generate a manifest for the given directory.
+     *
+     * @param dir  The data directory
+     * @param base Manifest of the base backup. If a regular file has the same size and modification time as its
+     *             counterpart in the base manifest, its hash is reused instead of reading the file again.
+     */
+    @WorkerThread
+    @NonNull
+    public static BackupManifest generate(@NonNull Path dir, @Nullable BackupManifest base) {
+        BackupManifest manifest = new BackupManifest();
+        // Paths are listed in the same order as DigestUtils#getHexDigest(String, Path)
+        for (Path file : Paths.getAll(dir)) {
+            String relativePath = Paths.relativePath(file, dir);
+            if (relativePath.isEmpty() || relativePath.equals("/")) continue;
+            String type;
+            if (file.isSymbolicLink()) {
+                type = TYPE_SYMLINK;
+            } else if (file.isDirectory()) {
+                type = TYPE_DIRECTORY;
+            } else type = TYPE_FILE;
+            long size = file.isDirectory() ? 0 : file.length();
+            long lastModified = file.lastModified();
+            String hash = null;
+            if (!file.isDirectory()) {
+                Entry baseEntry = base != null ? base.get(relativePath) : null;
+                if (TYPE_FILE.equals(type) && baseEntry != null && TYPE_FILE.equals(baseEntry.type)
+                        && baseEntry.size == size && baseEntry.lastModified == lastModified) {
+                    hash = baseEntry.hash;
+                } else {
+                    try (InputStream is = file.openInputStream()) {
+                        hash = DigestUtils.getHexDigest(HASH_ALGO, is);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+            manifest.add(new Entry(type, relativePath, size, lastModified, hash));
+        }
+        return manifest;
+    }
+
+    @NonNull
+    public static BackupManifest read(@NonNull InputStream is) throws IOException {
+        BackupManifest manifest = new BackupManifest();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) continue;
+            String[] parts = line.split("\t", 5);
+            if (parts.length != 5) {
+                throw new IOException("Illegal line found in the manifest: " + line);
+            }
+            try {
+                manifest.add(new Entry(parts[0], unescape(parts[4]), Long.parseLong(parts[1]),
+                        Long.parseLong(parts[2]), "-".equals(parts[3]) ? null : parts[3]));
+            } catch (NumberFormatException e) {
+                throw new IOException("Illegal line found in the manifest: " + line, e);
+            }
+        }
+        return manifest;
+    }
+
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>();
+
+    @VisibleForTesting
+    BackupManifest() {
+    }
+
+    @VisibleForTesting
+    void add(@NonNull Entry entry) {
+        mEntries.put(entry.path, entry);
+    }
+
+    @Nullable
+    public Entry get(@NonNull String path) {
+        return mEntries.get(path);
+    }
+
+    @NonNull
+    public Collection<Entry> getEntries() {
+        return mEntries.values();
+    }
+
+    public boolean contains(@NonNull String path) {
+        return mEntries.containsKey(path);
+    }
+
+    /**
+     * Whether the given entry has to be archived in an incremental backup based on this manifest. Directories and
+     * symbolic links are always archived as they carry no data of their own. A regular file is archived unless the
+     * base manifest contains a regular file with the same hash.
+     */
+    public boolean hasChanged(@NonNull Entry entry) {
+        if (!TYPE_FILE.equals(entry.type) || entry.hash == null) {
+            return true;
+        }
+        Entry baseEntry = mEntries.get(entry.path);
+        return baseEntry == null || !TYPE_FILE.equals(baseEntry.type) || !entry.hash.equals(baseEntry.hash);
+    }
+
+    /**
+     * Same as {@link DigestUtils#getHexDigest(String, Path)} for the directory this manifest was generated from,
+     * provided the hashing algorithm is {@link #HASH_ALGO}.
+     */
+    @NonNull
+    public String getHexDigest() {
+        List<String> hashes = new ArrayList<>(mEntries.size());
+        for (Entry entry : mEntries.values()) {
+            if (entry.hash != null) {
+                hashes.add(entry.hash);
+            }
+        }
+        if (hashes.size() == 0) return HexEncoding.encodeToString(new byte[0], false /* lowercase */);
+        if (hashes.size() == 1) return hashes.get(0);
+        String fullString = TextUtils.join("", hashes);
+        return DigestUtils.getHexDigest(HASH_ALGO, fullString.getBytes());
+    }
+
+    public void write(@NonNull OutputStream os) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
+        for (Entry entry : mEntries.values()) {
+            writer.write(entry.type);
+            writer.write('\t');
+            writer.write(String.valueOf(entry.size));
+            writer.write('\t');
+            writer.write(String.valueOf(entry.lastModified));
+            writer.write('\t');
+            writer.write(entry.hash != null ? entry.hash : "-");
+            writer.write('\t');
+            writer.write(escape(entry.path));
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+
+    @NonNull
+    private static String escape(@NonNull String path) {
+        StringBuilder sb = new StringBuilder(path.length());
+        for (int i = 0; i < path.length(); ++i) {
+            char c = path.charAt(i);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    @NonNull
+    private static String unescape(@NonNull String path) {
+        if (path.indexOf('\\') == -1) {
+            return path;
+        }
+        StringBuilder sb = new StringBuilder(path.length());
+        for (int i = 0; i < path.length(); ++i) {
+            char c = path.charAt(i);
+            if (c == '\\' && i + 1 < path.length()) {
+                char n = path.charAt(++i);
+                switch (n) {
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    default:
+                        sb.append(n);
+                }
+            } else sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -29,14 +29,19 @@ import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 import androidx.core.content.pm.PermissionInfoCompat;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.regex.Pattern;
 
 import io.github.muntashirakon.AppManager.compat.AppOpsManagerCompat;
@@ -69,6 +74,7 @@ import io.github.muntashirakon.AppManager.utils.DigestUtils;
 import io.github.muntashirakon.AppManager.utils.ExUtils;
 import io.github.muntashirakon.AppManager.utils.FileUtils;
 import io.github.muntashirakon.AppManager.utils.KeyStoreUtils;
+import io.github.muntashirakon.AppManager.utils.MultithreadedExecutor;
 import io.github.muntashirakon.AppManager.utils.PackageUtils;
 import io.github.muntashirakon.AppManager.utils.TarUtils;
 import io.github.muntashirakon.AppManager.utils.UIUtils;
@@ -81,6 +87,11 @@ import io.github.muntashirakon.io.Paths;
 class BackupOp implements Closeable {
     static final String TAG = BackupOp.class.getSimpleName();
 
+    /**
+     * Maximum number of data directories on the same block device to archive at a time
+     */
+    private static final int MAX_DATA_DIRS_PER_DEVICE = 2;
+
     @NonNull
     private final String mPackageName;
     @NonNull
@@ -103,6 +114,16 @@ class BackupOp implements Closeable {
     private final Crypto mCrypto;
     @NonNull
     private final BackupFiles.Checksum mChecksum;
+    /**
+     * Metadata of the backup an incremental backup is based on, {@code null} for a full backup.
+     */
+    @Nullable
+    private MetadataManager.Metadata mBaseMetadata;
+    /**
+     * Chunks stored by a deduplicated backup, which remain pending until the backup is either committed or discarded.
+     * Archives may be created in parallel.
+     */
+    private final List<String> mPendingChunks = Collections.synchronizedList(new ArrayList<>());
     // We don't need privileged package manager here
     @NonNull
     private final PackageManager mPm;
@@ -116,6 +137,8 @@ class BackupOp implements Closeable {
         mBackupFlags = backupFlags;
         mTempBackupPath = mBackupFile.getBackupPath();
         mPm = ContextUtils.getContext().getPackageManager();
+        // Incremental flag is removed while setting up the metadata
+        boolean incremental = backupFlags.backupIncremental();
         try {
             mPackageInfo = PackageManagerCompat.getPackageInfo(mPackageName,
                     PackageManager.GET_META_DATA | GET_SIGNING_CERTIFICATES | PackageManager.GET_PERMISSIONS
@@ -136,6 +159,16 @@ class BackupOp implements Closeable {
             mBackupFile.cleanup();
             throw new BackupException("Failed to get crypto " + mMetadata.crypto, e);
         }
+        if (incremental && mBackupFlags.backupData()) {
+            mBaseMetadata = findBaseBackup();
+            if (mBaseMetadata != null) {
+                mMetadata.baseBackupName = mBaseMetadata.backupName;
+                mMetadata.baseBackupTime = mBaseMetadata.backupTime;
+                Log.i(TAG, "Using %s as the base backup.", mBaseMetadata.backupName);
+            } else {
+                Log.i(TAG, "No eligible base backup found. Performing a full backup.");
+            }
+        }
         try {
             mChecksum = mBackupFile.getChecksum(CryptoUtils.MODE_NO_ENCRYPTION);
             String[] certChecksums = PackageUtils.getSigningCertChecksums(mMetadata.checksumAlgo, mPackageInfo, false);
@@ -229,6 +262,8 @@ class BackupOp implements Closeable {
             if (!backupSuccess) {
                 mBackupFile.cleanup();
             }
+            // The chunks of a discarded backup are deleted unless other backups refer to them
+            ChunkStore.releasePendingChunks(mPendingChunks, !backupSuccess);
         }
     }
 
@@ -255,7 +290,6 @@ class BackupOp implements Closeable {
 
     private void backupApkFiles() throws BackupException {
         Path dataAppPath = OsEnvironment.getDataAppDirectory();
-        final String sourceBackupFilePrefix = SOURCE_PREFIX + getExt(mMetadata.tarType);
         Path sourceDir = Paths.get(PackageUtils.getSourceDir(mApplicationInfo));
         if (dataAppPath.equals(sourceDir)) {
             // APK located inside /data/app directory
@@ -266,53 +300,171 @@ class BackupOp implements Closeable {
                 throw new BackupException(mMetadata.apkName + " not found at " + sourceDir);
             }
         }
-        Path[] sourceFiles;
         try {
-            sourceFiles = TarUtils.create(mMetadata.tarType, sourceDir, mTempBackupPath, sourceBackupFilePrefix,
-                    /* language=regexp */ new String[]{".*\\.apk"}, null, null, false).toArray(new Path[0]);
+            createArchive(sourceDir, SOURCE_PREFIX, /* language=regexp */ new String[]{".*\\.apk"}, null);
         } catch (Throwable th) {
             throw new BackupException("APK files backup is requested but no source directory has been backed up.", th);
         }
+    }
+
+    private void backupData() throws BackupException {
+        int dataDirCount = mMetadata.dataDirs.length;
+        BackupManifest[] manifests = new BackupManifest[dataDirCount];
+        BackupManifest[] baseManifests = mBaseMetadata != null ? readBaseManifests(mBaseMetadata) : null;
+        Thread manifestThread = null;
+        if (baseManifests == null) {
+            mMetadata.baseBackupName = null;
+            mMetadata.baseBackupTime = 0;
+            // Full backup: Generate manifests (which also include file hashes) in a separate thread
+            manifestThread = new Thread(() -> {
+                for (int i = 0; i < dataDirCount; ++i) {
+                    manifests[i] = BackupManifest.generate(Paths.get(mMetadata.dataDirs[i]), null);
+                }
+            });
+            manifestThread.start();
+        } else {
+            // Incremental backup: Manifests are needed beforehand to find the changed files. Hashes of the files whose
+            // size and modification time are unchanged are reused from the base manifests.
+            for (int i = 0; i < dataDirCount; ++i) {
+                manifests[i] = BackupManifest.generate(Paths.get(mMetadata.dataDirs[i]), baseManifests[i]);
+            }
+        }
+        // Data directories are independent of each other, archive them in parallel. Since they are mostly I/O bound,
+        // only a limited number of directories on the same block device are archived at a time.
+        // This is independent of parallel compression, which only applies to the compression of a single archive.
+        int totalThreadCount = MultithreadedExecutor.getThreadCount();
+        int parallelCount = Math.max(1, Math.min(dataDirCount, totalThreadCount));
+        // Split the threads used for compression among the directories being archived
+        int threadCount = Prefs.BackupRestore.compressInParallel()
+                ? Math.max(1, totalThreadCount / parallelCount) : 1;
+        BlockDeviceScheduler scheduler = new BlockDeviceScheduler(parallelCount, MAX_DATA_DIRS_PER_DEVICE);
+        for (int i = 0; i < dataDirCount; ++i) {
+            int index = i;
+            Path dataDir = Paths.get(mMetadata.dataDirs[i]);
+            Path.FileFilter fileFilter = null;
+            if (baseManifests != null) {
+                BackupManifest manifest = manifests[i];
+                BackupManifest baseManifest = baseManifests[i];
+                fileFilter = file -> {
+                    BackupManifest.Entry entry = manifest.get(Paths.relativePath(file, dataDir));
+                    // New files created after generating the manifest are also archived
+                    return entry == null || baseManifest.hasChanged(entry);
+                };
+            }
+            Path.FileFilter finalFileFilter = fileFilter;
+            scheduler.add(BlockDeviceScheduler.getDeviceId(dataDir), () -> {
+                try {
+                    createArchive(dataDir, DATA_PREFIX + index, null,
+                            BackupUtils.getExcludeDirs(!mBackupFlags.backupCache()), finalFileFilter, threadCount);
+                } catch (Throwable th) {
+                    throw new BackupException("Failed to backup data directory at " + mMetadata.dataDirs[index], th);
+                }
+            });
+        }
         try {
-            sourceFiles = encrypt(sourceFiles);
-        } catch (IOException e) {
-            throw new BackupException("Failed to encrypt " + Arrays.toString(sourceFiles), e);
+            scheduler.runAll();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof BackupException) {
+                throw (BackupException) cause;
+            }
+            throw new BackupException("Failed to backup data directories.", cause);
+        } catch (InterruptedException e) {
+            throw new BackupException("Interrupted while backing up data directories.", e);
         }
-        for (Path file : sourceFiles) {
-            mChecksum.add(file.getName(), DigestUtils.getHexDigest(mMetadata.checksumAlgo, file));
+        if (manifestThread != null) {
+            try {
+                manifestThread.join();
+            } catch (InterruptedException e) {
+                throw new BackupException("Interrupted while generating manifests.", e);
+            }
+        }
+        for (int i = 0; i < dataDirCount; ++i) {
+            if (manifests[i] == null) {
+                throw new BackupException("Failed to generate manifest for " + mMetadata.dataDirs[i]);
+            }
+            backupManifest(i, manifests[i]);
+            // Store file hash
+            FileHash fileHash = new FileHash();
+            fileHash.path = mMetadata.dataDirs[i];
+            fileHash.hash = manifests[i].getHexDigest();
+            AppsDb.getInstance().fileHashDao().insert(fileHash);
         }
     }
 
-    private void backupData() throws BackupException {
-        String sourceBackupFilePrefix;
-        Path[] dataFiles;
-        // Store file hash in a separate thread
-        new Thread(() -> {
-            for (String dir : mMetadata.dataDirs) {
-                FileHash fileHash = new FileHash();
-                fileHash.path = dir;
-                fileHash.hash = DigestUtils.getHexDigest(DigestUtils.SHA_256, Paths.get(dir));
-                AppsDb.getInstance().fileHashDao().insert(fileHash);
-            }
-        }).start();
-        for (int i = 0; i < mMetadata.dataDirs.length; ++i) {
-            sourceBackupFilePrefix = DATA_PREFIX + i + getExt(mMetadata.tarType);
-            try {
-                dataFiles = TarUtils.create(mMetadata.tarType, Paths.get(mMetadata.dataDirs[i]), mTempBackupPath,
-                                sourceBackupFilePrefix, null, null,
-                                BackupUtils.getExcludeDirs(!mBackupFlags.backupCache()), false)
-                        .toArray(new Path[0]);
-            } catch (Throwable th) {
-                throw new BackupException("Failed to backup data directory at " + mMetadata.dataDirs[i], th);
+    private void backupManifest(int index, @NonNull BackupManifest manifest) throws BackupException {
+        try {
+            Path manifestFile = mBackupFile.getManifestFile(index, CryptoUtils.MODE_NO_ENCRYPTION);
+            try (OutputStream outputStream = manifestFile.openOutputStream()) {
+                manifest.write(outputStream);
             }
+            encrypt(new Path[]{manifestFile});
+            // Overwrite with the new file
+            manifestFile = mBackupFile.getManifestFile(index, mMetadata.crypto);
+            // Store checksum
+            mChecksum.add(manifestFile.getName(), DigestUtils.getHexDigest(mMetadata.checksumAlgo, manifestFile));
+        } catch (IOException e) {
+            throw new BackupException("Could not write manifest for data directory at " + mMetadata.dataDirs[index], e);
+        }
+    }
+
+    /**
+     * Find the latest backup of this package that can be used as the base of an incremental backup. A backup is
+     * eligible if it contains manifests for the same set of data directories, backed up with the same cache settings,
+     * and its crypto is currently available.
+     */
+    @Nullable
+    private MetadataManager.Metadata findBaseBackup() {
+        MetadataManager.Metadata baseMetadata = null;
+        for (Path backupPath : mBackupFile.getSiblingBackupPaths()) {
+            MetadataManager.Metadata metadata;
             try {
-                dataFiles = encrypt(dataFiles);
+                metadata = MetadataManager.getMetadata(backupPath);
             } catch (IOException e) {
-                throw new BackupException("Failed to encrypt " + Arrays.toString(dataFiles));
+                continue;
+            }
+            if (metadata.version < 5 || metadata.userHandle != mMetadata.userHandle
+                    || metadata.flags.backupCache() != mBackupFlags.backupCache()
+                    || !Arrays.equals(metadata.dataDirs, mMetadata.dataDirs)
+                    || !CryptoUtils.isAvailable(metadata.crypto)) {
+                continue;
             }
-            for (Path file : dataFiles) {
-                mChecksum.add(file.getName(), DigestUtils.getHexDigest(mMetadata.checksumAlgo, file));
+            boolean hasManifests = true;
+            for (int i = 0; i < metadata.dataDirs.length; ++i) {
+                if (!metadata.backupFile.hasManifestFile(i, metadata.crypto)) {
+                    hasManifests = false;
+                    break;
+                }
+            }
+            if (hasManifests && (baseMetadata == null || metadata.backupTime > baseMetadata.backupTime)) {
+                baseMetadata = metadata;
+            }
+        }
+        return baseMetadata;
+    }
+
+    @Nullable
+    private static BackupManifest[] readBaseManifests(@NonNull MetadataManager.Metadata baseMetadata) {
+        BackupManifest[] manifests = new BackupManifest[baseMetadata.dataDirs.length];
+        try (Crypto crypto = CryptoUtils.getCrypto(baseMetadata)) {
+            for (int i = 0; i < manifests.length; ++i) {
+                Path manifestFile = baseMetadata.backupFile.getManifestFile(i, baseMetadata.crypto);
+                try (InputStream is = manifestFile.openInputStream()) {
+                    if (CryptoUtils.MODE_NO_ENCRYPTION.equals(baseMetadata.crypto)) {
+                        manifests[i] = BackupManifest.read(is);
+                        continue;
+                    }
+                    ByteArrayOutputStream os = new ByteArrayOutputStream();
+                    synchronized (Crypto.class) {
+                        crypto.decrypt(is, os);
+                    }
+                    manifests[i] = BackupManifest.read(new ByteArrayInputStream(os.toByteArray()));
+                }
             }
+            return manifests;
+        } catch (IOException | CryptoException e) {
+            Log.w(TAG, "Could not read manifests of %s. Performing a full backup.", e, baseMetadata.backupName);
+            return null;
         }
     }
 
@@ -343,30 +495,19 @@ class BackupOp implements Closeable {
         if (cachedKeyStoreFileNames.isEmpty()) {
             throw new BackupException("There were some KeyStore items but they couldn't be cached before taking a backup.");
         }
-        String keyStorePrefix = KEYSTORE_PREFIX + getExt(mMetadata.tarType);
-        Path[] backedUpKeyStoreFiles;
         try {
-            backedUpKeyStoreFiles = TarUtils.create(mMetadata.tarType, cachePath, mTempBackupPath, keyStorePrefix,
-                            keyStoreFilters.toArray(new String[0]), null, null, false)
-                    .toArray(new Path[0]);
+            createArchive(cachePath, KEYSTORE_PREFIX, keyStoreFilters.toArray(new String[0]), null);
         } catch (Throwable th) {
             throw new BackupException("Could not backup KeyStore item.", th);
-        }
-        // Remove cache
-        for (String name : cachedKeyStoreFileNames) {
-            try {
-                cachePath.findFile(name).delete();
-            } catch (FileNotFoundException ignore) {
+        } finally {
+            // Remove cache
+            for (String name : cachedKeyStoreFileNames) {
+                try {
+                    cachePath.findFile(name).delete();
+                } catch (FileNotFoundException ignore) {
+                }
             }
         }
-        try {
-            backedUpKeyStoreFiles = encrypt(backedUpKeyStoreFiles);
-        } catch (IOException e) {
-            throw new BackupException("Failed to encrypt " + Arrays.toString(backedUpKeyStoreFiles), e);
-        }
-        for (Path file : backedUpKeyStoreFiles) {
-            mChecksum.add(file.getName(), DigestUtils.getHexDigest(mMetadata.checksumAlgo, file));
-        }
     }
 
     private void backupExtras() throws BackupException {
@@ -508,6 +649,50 @@ class BackupOp implements Closeable {
         }
     }
 
+    /**
+     * Archive, compress, encrypt and generate checksums for the given source in a single pass. Checksums are stored as
+     * soon as each split is written. For deduplicated backups, the archive is stored in the {@link ChunkStore} instead
+     * and only its index is stored in the backup.
+     *
+     * @param name Name of the archive without any extension, e.g. {@link BackupManager#SOURCE_PREFIX}
+     */
+    @NonNull
+    private Path[] createArchive(@NonNull Path source, @NonNull String name, @Nullable String[] filters,
+                                 @Nullable String[] exclude) throws IOException {
+        return createArchive(source, name, filters, exclude, null);
+    }
+
+    @NonNull
+    private Path[] createArchive(@NonNull Path source, @NonNull String name, @Nullable String[] filters,
+                                 @Nullable String[] exclude, @Nullable Path.FileFilter fileFilter)
+            throws IOException {
+        int threadCount = Prefs.BackupRestore.compressInParallel() ? MultithreadedExecutor.getThreadCount() : 1;
+        return createArchive(source, name, filters, exclude, fileFilter, threadCount);
+    }
+
+    @NonNull
+    private Path[] createArchive(@NonNull Path source, @NonNull String name, @Nullable String[] filters,
+                                 @Nullable String[] exclude, @Nullable Path.FileFilter fileFilter, int threadCount)
+            throws IOException {
+        if (mMetadata.deduplicated) {
+            Path indexFile = mTempBackupPath.createNewFile(name + ChunkStore.INDEX_EXT, null);
+            ChunkingOutputStream cos = new ChunkingOutputStream(ChunkStore.getInstance(), indexFile);
+            try {
+                TarUtils.archive(source, cos, filters, exclude, false, fileFilter);
+                cos.close();
+            } finally {
+                mPendingChunks.addAll(cos.getChunks());
+            }
+            mChecksum.add(indexFile.getName(), DigestUtils.getHexDigest(mMetadata.checksumAlgo, indexFile));
+            return new Path[]{indexFile};
+        }
+        String filePrefix = name + getExt(mMetadata.tarType);
+        BackupSplitOutputStream sos = new BackupSplitOutputStream(mTempBackupPath, filePrefix,
+                TarUtils.DEFAULT_SPLIT_SIZE, mCrypto, mMetadata.crypto, mMetadata.checksumAlgo, mChecksum);
+        return TarUtils.create(mMetadata.tarType, source, sos, filters, exclude, false, threadCount, fileFilter)
+                .toArray(new Path[0]);
+    }
+
     @NonNull
     private Path[] encrypt(@NonNull Path[] files) throws IOException {
         synchronized (Crypto.class) {
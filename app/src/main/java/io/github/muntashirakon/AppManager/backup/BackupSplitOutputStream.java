@@ -0,0 +1,73 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.backup;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import io.github.muntashirakon.AppManager.crypto.Crypto;
+import io.github.muntashirakon.AppManager.crypto.CryptoOutputStream;
+import io.github.muntashirakon.AppManager.utils.ChecksumOutputStream;
+import io.github.muntashirakon.AppManager.utils.DigestUtils;
+import io.github.muntashirakon.io.Path;
+import io.github.muntashirakon.io.SplitOutputStream;
+
+/**
+ * A {@link SplitOutputStream} which encrypts each part on the fly and stores the checksum of the encrypted part as soon
+ * as it is closed. The resulting parts are identical to the ones produced by splitting first, then encrypting each
+ * part via {@link Crypto#encrypt(Path[])} and generating checksums for them, but without reading or writing any part
+ * more than once.
+ */
+class BackupSplitOutputStream extends SplitOutputStream {
+    @NonNull
+    private final Crypto mCrypto;
+    @NonNull
+    @CryptoUtils.Mode
+    private final String mCryptoMode;
+    @NonNull
+    @DigestUtils.Algorithm
+    private final String mChecksumAlgo;
+    @NonNull
+    private final BackupFiles.Checksum mChecksum;
+    private ChecksumOutputStream mCurrentChecksumStream;
+
+    public BackupSplitOutputStream(@NonNull Path basePath, @NonNull String baseName, long maxBytesPerFile,
+                                   @NonNull Crypto crypto, @NonNull @CryptoUtils.Mode String cryptoMode,
+                                   @NonNull @DigestUtils.Algorithm String checksumAlgo,
+                                   @NonNull BackupFiles.Checksum checksum) {
+        super(basePath, baseName, maxBytesPerFile);
+        mCrypto = crypto;
+        mCryptoMode = cryptoMode;
+        mChecksumAlgo = checksumAlgo;
+        mChecksum = checksum;
+    }
+
+    @NonNull
+    @Override
+    protected String getPartName(@NonNull String baseName, int index) {
+        return CryptoUtils.getAppropriateFilename(super.getPartName(baseName, index), mCryptoMode);
+    }
+
+    @WorkerThread
+    @NonNull
+    @Override
+    protected OutputStream openPart(@NonNull Path file) throws IOException {
+        mCurrentChecksumStream = new ChecksumOutputStream(new BufferedOutputStream(file.openOutputStream()),
+                mChecksumAlgo);
+        if (CryptoUtils.MODE_NO_ENCRYPTION.equals(mCryptoMode)) {
+            return mCurrentChecksumStream;
+        }
+        return new CryptoOutputStream(mCrypto, mCurrentChecksumStream);
+    }
+
+    @WorkerThread
+    @Override
+    protected void onPartClosed(@NonNull Path file) {
+        mChecksum.add(file.getName(), mCurrentChecksumStream.getHexDigest());
+        mCurrentChecksumStream = null;
+    }
+}
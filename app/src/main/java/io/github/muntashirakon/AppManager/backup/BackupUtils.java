@@ -63,6 +63,9 @@ public final class BackupUtils {
             if (BackupFiles.TEMPORARY_DIRECTORY.equals(path.getName())) {
                 continue;
             }
+            if (BackupFiles.CHUNK_STORE_DIRECTORY.equals(path.getName())) {
+                continue;
+            }
             // Other backups can store multiple backups per folder
             backupPaths.addAll(Arrays.asList(path.listFiles(Path::isDirectory)));
         }
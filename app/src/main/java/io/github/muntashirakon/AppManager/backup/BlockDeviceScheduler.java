@@ -0,0 +1,368 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.backup;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.io.ExtendedFile;
+import io.github.muntashirakon.io.FileStat;
+import io.github.muntashirakon.io.Path;
+import io.github.muntashirakon.io.Paths;
+
+/**
+ * Runs I/O bound tasks concurrently while limiting the number of tasks that read from the same block device at a
+ * time, so that directories on different devices are processed in parallel without thrashing any single device.
+ * <p>
+ * Tasks on the same device are started in the order they were added, and the devices are taken in turns so that one
+ * device with many tasks does not hold back the rest.
+ */
+class BlockDeviceScheduler {
+    public static final String TAG = BlockDeviceScheduler.class.getSimpleName();
+
+    public interface Task {
+        @WorkerThread
+        void run() throws Throwable;
+    }
+
+    /**
+     * Device ID used for the paths whose device could not be determined. They are treated as if they belonged to the
+     * same device.
+     */
+    public static final long UNKNOWN_DEVICE = -1;
+
+    /**
+     * Find the ID of the block device backing the filesystem that contains the given path.
+     * <p>
+     * {@code st_dev} only identifies the filesystem, therefore, it is resolved to the whole disk below it: partitions
+     * are resolved to their disks, device mapper devices to the devices below them, and filesystems without a block
+     * device such as sdcardfs or bind mounts to the device of their mount source. If the disk cannot be determined,
+     * the filesystem ID is returned.
+     *
+     * @return The device ID or {@link #UNKNOWN_DEVICE}
+     */
+    @WorkerThread
+    public static long getDeviceId(@NonNull Path path) {
+        ExtendedFile file = path.getFile();
+        if (file == null) {
+            return UNKNOWN_DEVICE;
+        }
+        FileStat stat = file.stat(FileStat.STAT_BASIC);
+        return stat.exists() ? getBackingDeviceId(stat.dev, 0) : UNKNOWN_DEVICE;
+    }
+
+    private static final int MAX_RESOLUTION_DEPTH = 8;
+    // Filesystem ID -> Backing device ID
+    private static final Map<Long, Long> sBackingDevices = new ConcurrentHashMap<>();
+
+    private static long getBackingDeviceId(long fsDeviceId, int depth) {
+        Long cachedDeviceId = sBackingDevices.get(fsDeviceId);
+        if (cachedDeviceId != null) {
+            return cachedDeviceId;
+        }
+        long deviceId = fsDeviceId;
+        try {
+            String majorMinor = getMajor(fsDeviceId) + ":" + getMinor(fsDeviceId);
+            Path blockDevice = Paths.get("/sys/dev/block/" + majorMinor);
+            if (blockDevice.exists()) {
+                // Filesystem on a block device
+                Long diskId = getDiskId(blockDevice.getRealPath());
+                if (diskId != null) {
+                    deviceId = diskId;
+                }
+            } else if (depth < MAX_RESOLUTION_DEPTH) {
+                // Filesystem without a block device, e.g. sdcardfs, which is backed by the filesystem of its source
+                String source = getMountSource(Paths.get("/proc/self/mountinfo").getContentAsString(), majorMinor);
+                if (source != null && source.startsWith(File.separator) && !source.startsWith("/dev/")) {
+                    ExtendedFile sourceFile = Paths.get(source).getFile();
+                    FileStat stat = sourceFile != null ? sourceFile.stat(FileStat.STAT_BASIC) : null;
+                    if (stat != null && stat.exists() && stat.dev != fsDeviceId) {
+                        deviceId = getBackingDeviceId(stat.dev, depth + 1);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not find the backing device of %d", e, fsDeviceId);
+        }
+        sBackingDevices.put(fsDeviceId, deviceId);
+        return deviceId;
+    }
+
+    /**
+     * Find the whole disk below a block device in sysfs, e.g. {@code /sys/devices/virtual/block/dm-5}.
+     */
+    @Nullable
+    private static Long getDiskId(@NonNull Path blockDevice) throws IOException {
+        for (int i = 0; i < MAX_RESOLUTION_DEPTH; ++i) {
+            // Device mapper devices (e.g. for encryption) are backed by their slaves
+            Path slaves = Paths.build(blockDevice, "slaves");
+            String[] slaveNames = slaves != null ? slaves.listFileNames() : new String[0];
+            if (slaveNames.length == 0) {
+                break;
+            }
+            Arrays.sort(slaveNames);
+            blockDevice = Paths.get("/sys/class/block/" + slaveNames[0]).getRealPath();
+        }
+        if (blockDevice.hasFile("partition")) {
+            // Partitions are listed under their disks
+            blockDevice = blockDevice.requireParent();
+        }
+        Path dev = Paths.build(blockDevice, "dev");
+        return dev != null ? parseMajorMinor(dev.getContentAsString().trim()) : null;
+    }
+
+    /**
+     * Find the source of the first mount of a filesystem in the contents of {@code /proc/self/mountinfo}.
+     *
+     * @param majorMinor ID of the filesystem in {@code major:minor} format
+     */
+    @VisibleForTesting
+    @Nullable
+    static String getMountSource(@NonNull String mountInfo, @NonNull String majorMinor) {
+        // Format: <mount ID> <parent ID> <major:minor> <root> <mount point> <options> [<optional fields>...] - <fs type>
+        // <source> <super options>
+        for (String line : mountInfo.split("\n")) {
+            String[] fields = line.split(" ");
+            if (fields.length < 3 || !majorMinor.equals(fields[2])) {
+                continue;
+            }
+            for (int i = 3; i < fields.length - 2; ++i) {
+                if ("-".equals(fields[i])) {
+                    return unescapeMountField(fields[i + 2]);
+                }
+            }
+        }
+        return null;
+    }
+
+    @NonNull
+    private static String unescapeMountField(@NonNull String field) {
+        // Spaces, tabs, new lines and backslashes are escaped as octal numbers, e.g. \040
+        StringBuilder sb = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); ++i) {
+            char c = field.charAt(i);
+            if (c == '\\' && i + 3 < field.length() && isOctal(field, i + 1, 3)) {
+                sb.append((char) Integer.parseInt(field.substring(i + 1, i + 4), 8));
+                i += 3;
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isOctal(@NonNull String s, int start, int count) {
+        for (int i = start; i < start + count; ++i) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '7') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @VisibleForTesting
+    @Nullable
+    static Long parseMajorMinor(@NonNull String majorMinor) {
+        int separator = majorMinor.indexOf(':');
+        if (separator <= 0) {
+            return null;
+        }
+        try {
+            return makeDeviceId(Long.parseLong(majorMinor.substring(0, separator)),
+                    Long.parseLong(majorMinor.substring(separator + 1)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Same encoding as major(), minor() and makedev() in bionic and glibc
+    @VisibleForTesting
+    static long getMajor(long deviceId) {
+        return ((deviceId >>> 32) & 0xfffff000L) | ((deviceId >>> 8) & 0xfffL);
+    }
+
+    @VisibleForTesting
+    static long getMinor(long deviceId) {
+        return ((deviceId >>> 12) & 0xffffff00L) | (deviceId & 0xffL);
+    }
+
+    @VisibleForTesting
+    static long makeDeviceId(long major, long minor) {
+        return ((major & 0xfffff000L) << 32) | ((major & 0xfffL) << 8)
+                | ((minor & 0xffffff00L) << 12) | (minor & 0xffL);
+    }
+
+    private final int mMaxThreads;
+    private final int mMaxTasksPerDevice;
+    // Pending tasks by device, in the order the devices were first seen
+    private final LinkedHashMap<Long, LinkedList<Task>> mPendingTasks = new LinkedHashMap<>();
+    private final Map<Long, Integer> mRunningTasks = new HashMap<>();
+    private int mTaskCount;
+    @Nullable
+    private Throwable mError;
+
+    /**
+     * @param maxThreads        Maximum number of tasks to run at a time
+     * @param maxTasksPerDevice Maximum number of tasks to run at a time on a single device
+     */
+    public BlockDeviceScheduler(int maxThreads, int maxTasksPerDevice) {
+        if (maxThreads < 1 || maxTasksPerDevice < 1) {
+            throw new IllegalArgumentException("Thread counts must be positive.");
+        }
+        mMaxThreads = maxThreads;
+        mMaxTasksPerDevice = maxTasksPerDevice;
+    }
+
+    public void add(long deviceId, @NonNull Task task) {
+        synchronized (mPendingTasks) {
+            LinkedList<Task> tasks = mPendingTasks.get(deviceId);
+            if (tasks == null) {
+                tasks = new LinkedList<>();
+                mPendingTasks.put(deviceId, tasks);
+            }
+            tasks.add(task);
+            ++mTaskCount;
+        }
+    }
+
+    /**
+     * Run all the added tasks and wait for them to finish. No more tasks are started once a task fails. If the calling
+     * thread is interrupted, the tasks are interrupted, and this returns once the running tasks have finished.
+     *
+     * @throws ExecutionException If any of the tasks failed. The cause is the failure of the first task that failed.
+     */
+    @WorkerThread
+    public void runAll() throws ExecutionException, InterruptedException {
+        int threadCount;
+        synchronized (mPendingTasks) {
+            threadCount = Math.min(mMaxThreads, mTaskCount);
+        }
+        if (threadCount <= 1) {
+            // Nothing to run in parallel
+            DeviceTask task;
+            while ((task = nextTask()) != null) {
+                runTask(task);
+            }
+        } else {
+            List<Thread> threads = new ArrayList<>(threadCount);
+            for (int i = 0; i < threadCount; ++i) {
+                Thread thread = new Thread(() -> {
+                    try {
+                        DeviceTask task;
+                        while ((task = nextTask()) != null) {
+                            runTask(task);
+                        }
+                    } catch (InterruptedException ignore) {
+                    }
+                }, "BlockDeviceScheduler-" + i);
+                threads.add(thread);
+                thread.start();
+            }
+            try {
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+            } catch (InterruptedException e) {
+                for (Thread thread : threads) {
+                    thread.interrupt();
+                }
+                // The running tasks may still be using the devices, do not return before they finish
+                for (Thread thread : threads) {
+                    while (thread.isAlive()) {
+                        try {
+                            thread.join();
+                        } catch (InterruptedException ignore) {
+                        }
+                    }
+                }
+                throw e;
+            }
+        }
+        synchronized (mPendingTasks) {
+            if (mError != null) {
+                throw new ExecutionException(mError);
+            }
+        }
+    }
+
+    private void runTask(@NonNull DeviceTask task) {
+        try {
+            task.task.run();
+        } catch (Throwable th) {
+            synchronized (mPendingTasks) {
+                if (mError == null) {
+                    mError = th;
+                }
+            }
+        } finally {
+            synchronized (mPendingTasks) {
+                Integer running = mRunningTasks.get(task.deviceId);
+                mRunningTasks.put(task.deviceId, running == null ? 0 : running - 1);
+                mPendingTasks.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Wait for a task whose device is not busy.
+     *
+     * @return {@code null} if there are no more tasks to run
+     */
+    @Nullable
+    private DeviceTask nextTask() throws InterruptedException {
+        synchronized (mPendingTasks) {
+            while (true) {
+                if (mError != null || mTaskCount == 0) {
+                    return null;
+                }
+                Long selectedDevice = null;
+                for (Map.Entry<Long, LinkedList<Task>> entry : mPendingTasks.entrySet()) {
+                    Integer running = mRunningTasks.get(entry.getKey());
+                    if (!entry.getValue().isEmpty() && (running == null || running < mMaxTasksPerDevice)) {
+                        selectedDevice = entry.getKey();
+                        break;
+                    }
+                }
+                if (selectedDevice != null) {
+                    LinkedList<Task> tasks = mPendingTasks.remove(selectedDevice);
+                    // Move the device to the end so that the devices are taken in turns
+                    mPendingTasks.put(selectedDevice, tasks);
+                    Task task = tasks.removeFirst();
+                    --mTaskCount;
+                    Integer running = mRunningTasks.get(selectedDevice);
+                    mRunningTasks.put(selectedDevice, running == null ? 1 : running + 1);
+                    return new DeviceTask(selectedDevice, task);
+                }
+                // All devices with pending tasks are busy
+                mPendingTasks.wait();
+            }
+        }
+    }
+
+    private static class DeviceTask {
+        public final long deviceId;
+        @NonNull
+        public final Task task;
+
+        DeviceTask(long deviceId, @NonNull Task task) {
+            this.deviceId = deviceId;
+            this.task = task;
+        }
+    }
+}
@@ -0,0 +1,432 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.backup;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import aosp.libcore.util.HexEncoding;
+import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.AppManager.utils.DigestUtils;
+import io.github.muntashirakon.io.Path;
+import io.github.muntashirakon.io.PathReader;
+import io.github.muntashirakon.io.PathWriter;
+
+/**
+ * A content-addressed store of backup chunks shared by all the backups in the backup directory. Each chunk is stored
+ * once, compressed using Zstandard, and named after the SHA-256 of its uncompressed content:
+ * <pre>
+ * .chunks/
+ *   ├── 3f/
+ *   │   └── 3fa9…e1
+ *   └── refs
+ * </pre>
+ * A backup refers to the chunks via index files ({@link #INDEX_EXT}). {@code refs} keeps the number of index files
+ * referring to each chunk, and a chunk is deleted as soon as its reference count drops to zero. The references of a
+ * backup are added at once when it is committed, and until then its chunks are pending so that they are not deleted.
+ * Chunks stored by a backup that is never completed, e.g. because the process was killed, are deleted by
+ * {@link #sweep()}.
+ *
+ * @see ChunkingOutputStream
+ * @see ChunkedInputStream
+ */
+@WorkerThread
+final class ChunkStore {
+    public static final String TAG = ChunkStore.class.getSimpleName();
+
+    /**
+     * Extension of an index file. An index file contains one chunk per line in the format {@code hash\tsize}.
+     */
+    static final String INDEX_EXT = ".tar.idx";
+    static final String REFS_FILE = "refs";
+    private static final String REFS_TMP_FILE = "refs.tmp";
+
+    private static final Object sRefsLock = new Object();
+    /**
+     * Chunks stored by backups in progress that are yet to be referenced. These are never deleted by
+     * {@link #removeReferences(Collection)}.
+     */
+    private static final Map<String, Integer> sPendingChunks = new HashMap<>();
+    /**
+     * Incremented whenever references are added so that {@link #sweep()} knows when to reload them.
+     */
+    private static int sRefsModCount = 0;
+
+    @NonNull
+    static ChunkStore getInstance() throws IOException {
+        return new ChunkStore(BackupFiles.getBaseDirectory().findOrCreateDirectory(BackupFiles.CHUNK_STORE_DIRECTORY));
+    }
+
+    /**
+     * Add references to the chunks referred to by the index files inside the given backup. Must be called before the
+     * backup is committed.
+     */
+    static void referenceChunks(@NonNull List<String> chunks) throws IOException {
+        if (chunks.isEmpty()) {
+            return;
+        }
+        getInstance().addReferences(chunks);
+    }
+
+    /**
+     * Release the chunks stored by a backup once it is either committed or discarded. The chunks of a discarded backup
+     * are deleted unless they are referred to by other backups.
+     *
+     * @param chunks Chunks returned by {@link #put(byte[], int, int)}, once for each call
+     */
+    static void releasePendingChunks(@NonNull List<String> chunks, boolean discarded) {
+        if (chunks.isEmpty()) {
+            return;
+        }
+        try {
+            ChunkStore chunkStore = getInstance();
+            chunkStore.releasePendingChunks(chunks);
+            if (discarded) {
+                chunkStore.deleteUnreferencedChunks(chunks);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not release %d chunks.", e, chunks.size());
+        }
+    }
+
+    /**
+     * Delete the chunks left behind by the backups that were interrupted.
+     *
+     * @see #sweep()
+     */
+    static void sweepUnreferencedChunks() {
+        try {
+            int deleteCount = getInstance().sweep();
+            Log.i(TAG, "Deleted %d unreferenced chunks.", deleteCount);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not delete unreferenced chunks.", e);
+        }
+    }
+
+    /**
+     * Release the chunks referred to by the index files inside the given backup. Must be called only after the backup
+     * is deleted.
+     */
+    static void releaseChunks(@NonNull List<String> chunks) {
+        if (chunks.isEmpty()) {
+            return;
+        }
+        try {
+            getInstance().removeReferences(chunks);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not release %d chunks.", e, chunks.size());
+        }
+    }
+
+    /**
+     * Get the chunks referred to by the index files inside the given backup. Each chunk is listed once per index file.
+     */
+    @NonNull
+    static List<String> getReferencedChunks(@NonNull Path backupPath) {
+        List<String> chunks = new ArrayList<>();
+        for (Path indexFile : backupPath.listFiles((dir, name) -> name.endsWith(INDEX_EXT))) {
+            try {
+                chunks.addAll(new LinkedHashSet<>(readIndex(indexFile).hashes));
+            } catch (IOException e) {
+                Log.w(TAG, "Could not read index %s", e, indexFile);
+            }
+        }
+        return chunks;
+    }
+
+    @NonNull
+    static Index readIndex(@NonNull Path indexFile) throws IOException {
+        Index index = new Index();
+        try (BufferedReader reader = new BufferedReader(new PathReader(indexFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                int tab = line.indexOf('\t');
+                if (tab == -1) {
+                    throw new IOException("Illegal line found in the index " + indexFile + ": " + line);
+                }
+                try {
+                    index.add(line.substring(0, tab), Integer.parseInt(line.substring(tab + 1)));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Illegal line found in the index " + indexFile + ": " + line, e);
+                }
+            }
+        }
+        return index;
+    }
+
+    static final class Index {
+        final List<String> hashes = new ArrayList<>();
+        final List<Integer> sizes = new ArrayList<>();
+
+        void add(@NonNull String hash, int size) {
+            hashes.add(hash);
+            sizes.add(size);
+        }
+
+        int size() {
+            return hashes.size();
+        }
+    }
+
+    @NonNull
+    private final Path mStorePath;
+
+    @VisibleForTesting
+    ChunkStore(@NonNull Path storePath) {
+        mStorePath = storePath;
+    }
+
+    /**
+     * Store the given chunk if it doesn't already exist. The chunk remains pending until it is released via
+     * {@link #releasePendingChunks(Collection)}, which must be done only after it is referenced via
+     * {@link #addReferences(Collection)} or if it is no longer needed.
+     *
+     * @return SHA-256 of the chunk
+     */
+    @NonNull
+    String put(@NonNull byte[] buffer, int offset, int length) throws IOException {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance(DigestUtils.SHA_256);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        messageDigest.update(buffer, offset, length);
+        String hash = HexEncoding.encodeToString(messageDigest.digest(), false /* lowercase */);
+        synchronized (sRefsLock) {
+            Integer count = sPendingChunks.get(hash);
+            sPendingChunks.put(hash, count == null ? 1 : count + 1);
+        }
+        Path shard = mStorePath.findOrCreateDirectory(hash.substring(0, 2));
+        if (shard.hasFile(hash)) {
+            // Deduplicated
+            return hash;
+        }
+        // Write to a temporary file first so that a partially written chunk is never referenced
+        Path tmpFile = shard.findOrCreateFile(hash + "." + Thread.currentThread().getId() + ".tmp", null);
+        try (OutputStream os = new ZstdOutputStream(new BufferedOutputStream(tmpFile.openOutputStream()))) {
+            os.write(buffer, offset, length);
+        } catch (IOException e) {
+            tmpFile.delete();
+            throw e;
+        }
+        if (!tmpFile.renameTo(hash)) {
+            // Another thread may have stored the same chunk in the meantime
+            tmpFile.delete();
+            if (!shard.hasFile(hash)) {
+                throw new IOException("Could not store chunk " + hash);
+            }
+        }
+        return hash;
+    }
+
+    boolean contains(@NonNull String hash) {
+        try {
+            return mStorePath.findFile(hash.substring(0, 2)).hasFile(hash);
+        } catch (FileNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Open the uncompressed content of the given chunk.
+     */
+    @NonNull
+    InputStream open(@NonNull String hash) throws IOException {
+        Path chunk = mStorePath.findFile(hash.substring(0, 2)).findFile(hash);
+        return new ZstdInputStream(new BufferedInputStream(chunk.openInputStream()));
+    }
+
+    /**
+     * Release the chunks returned by {@link #put(byte[], int, int)}, once for each call.
+     */
+    void releasePendingChunks(@NonNull Collection<String> hashes) {
+        synchronized (sRefsLock) {
+            for (String hash : hashes) {
+                Integer count = sPendingChunks.get(hash);
+                if (count == null) continue;
+                if (count > 1) {
+                    sPendingChunks.put(hash, count - 1);
+                } else sPendingChunks.remove(hash);
+            }
+        }
+    }
+
+    /**
+     * Increment the reference counts of the given chunks. All the references of a backup should be added at once as
+     * the whole {@code refs} file is rewritten each time.
+     */
+    void addReferences(@NonNull Collection<String> hashes) throws IOException {
+        synchronized (sRefsLock) {
+            Map<String, Integer> refs = readRefs();
+            for (String hash : hashes) {
+                Integer count = refs.get(hash);
+                refs.put(hash, count == null ? 1 : count + 1);
+            }
+            writeRefs(refs);
+            ++sRefsModCount;
+        }
+    }
+
+    /**
+     * Decrement the reference counts of the given chunks and delete the chunks that are no longer referenced. Chunks
+     * without any reference count are left untouched as their references are unknown.
+     */
+    void removeReferences(@NonNull Collection<String> hashes) throws IOException {
+        synchronized (sRefsLock) {
+            Map<String, Integer> refs = readRefs();
+            for (String hash : hashes) {
+                Integer count = refs.get(hash);
+                if (count == null) {
+                    continue;
+                }
+                if (count > 1) {
+                    refs.put(hash, count - 1);
+                    continue;
+                }
+                refs.remove(hash);
+                if (sPendingChunks.containsKey(hash)) {
+                    // Just stored by another backup
+                    continue;
+                }
+                try {
+                    mStorePath.findFile(hash.substring(0, 2)).findFile(hash).delete();
+                } catch (FileNotFoundException ignore) {
+                }
+            }
+            writeRefs(refs);
+        }
+    }
+
+    /**
+     * Delete the given chunks if they are neither referenced nor pending.
+     */
+    void deleteUnreferencedChunks(@NonNull Collection<String> hashes) throws IOException {
+        synchronized (sRefsLock) {
+            Map<String, Integer> refs = readRefs();
+            for (String hash : hashes) {
+                if (refs.containsKey(hash) || sPendingChunks.containsKey(hash)) {
+                    continue;
+                }
+                try {
+                    mStorePath.findFile(hash.substring(0, 2)).findFile(hash).delete();
+                } catch (FileNotFoundException ignore) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Delete the chunks that are neither referenced nor pending, along with any partially written chunks. Such chunks
+     * are left behind by the backups that were interrupted before they could be committed or discarded.
+     *
+     * @return The number of deleted files
+     */
+    int sweep() throws IOException {
+        int deleteCount = 0;
+        Map<String, Integer> refs = null;
+        int refsModCount = 0;
+        for (Path shard : mStorePath.listFiles()) {
+            if (!shard.isDirectory()) {
+                continue;
+            }
+            Path[] files = shard.listFiles();
+            // The lock is only held for a shard at a time so that the backups in progress are not blocked for long
+            synchronized (sRefsLock) {
+                if (refs == null || refsModCount != sRefsModCount) {
+                    // A chunk stored after the refs were read may have been referenced since
+                    refs = readRefs();
+                    refsModCount = sRefsModCount;
+                }
+                for (Path file : files) {
+                    String name = file.getName();
+                    // Partially written chunks are named <hash>.<thread ID>.tmp
+                    int dot = name.indexOf('.');
+                    String hash = dot == -1 ? name : name.substring(0, dot);
+                    if (sPendingChunks.containsKey(hash) || (dot == -1 && refs.containsKey(hash))) {
+                        continue;
+                    }
+                    if (file.delete()) {
+                        ++deleteCount;
+                    }
+                }
+            }
+        }
+        return deleteCount;
+    }
+
+    @VisibleForTesting
+    int getReferenceCount(@NonNull String hash) throws IOException {
+        synchronized (sRefsLock) {
+            Integer count = readRefs().get(hash);
+            return count == null ? 0 : count;
+        }
+    }
+
+    @NonNull
+    private Map<String, Integer> readRefs() throws IOException {
+        Map<String, Integer> refs = new HashMap<>();
+        Path refsFile;
+        if (mStorePath.hasFile(REFS_FILE)) {
+            refsFile = mStorePath.findFile(REFS_FILE);
+        } else if (mStorePath.hasFile(REFS_TMP_FILE)) {
+            // Interrupted while replacing the refs file
+            refsFile = mStorePath.findFile(REFS_TMP_FILE);
+        } else return refs;
+        try (BufferedReader reader = new BufferedReader(new PathReader(refsFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab == -1) continue;
+                try {
+                    refs.put(line.substring(0, tab), Integer.parseInt(line.substring(tab + 1)));
+                } catch (NumberFormatException ignore) {
+                }
+            }
+        }
+        return refs;
+    }
+
+    private void writeRefs(@NonNull Map<String, Integer> refs) throws IOException {
+        Path tmpFile = mStorePath.findOrCreateFile(REFS_TMP_FILE, null);
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new PathWriter(tmpFile)))) {
+            for (Map.Entry<String, Integer> ref : refs.entrySet()) {
+                writer.print(ref.getKey());
+                writer.print('\t');
+                writer.println(ref.getValue());
+            }
+            if (writer.checkError()) {
+                throw new IOException("Could not write " + REFS_TMP_FILE);
+            }
+        }
+        if (mStorePath.hasFile(REFS_FILE)) {
+            mStorePath.findFile(REFS_FILE).delete();
+        }
+        if (!tmpFile.renameTo(REFS_FILE)) {
+            throw new IOException("Could not replace " + REFS_FILE);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.backup;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import aosp.libcore.util.HexEncoding;
+import io.github.muntashirakon.AppManager.utils.DigestUtils;
+import io.github.muntashirakon.io.Path;
+
+/**
+ * Read the stream described by an index file from a {@link ChunkStore}. Each chunk is verified against its hash and
+ * size as it is read.
+ *
+ * @see ChunkingOutputStream
+ */
+@WorkerThread
+class ChunkedInputStream extends InputStream {
+    @NonNull
+    private final ChunkStore mChunkStore;
+    @NonNull
+    private final ChunkStore.Index mIndex;
+    @NonNull
+    private final MessageDigest mMessageDigest;
+    private int mChunkIndex = -1;
+    @Nullable
+    private InputStream mCurrentStream;
+    private long mCurrentSize;
+    private boolean mClosed;
+
+    ChunkedInputStream(@NonNull ChunkStore chunkStore, @NonNull Path indexFile) throws IOException {
+        mChunkStore = chunkStore;
+        mIndex = ChunkStore.readIndex(indexFile);
+        try {
+            mMessageDigest = MessageDigest.getInstance(DigestUtils.SHA_256);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int count = read(b, 0, 1);
+        return count == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+        if (mClosed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        while (true) {
+            if (mCurrentStream == null && !openNextChunk()) {
+                return -1;
+            }
+            int count = mCurrentStream.read(b, off, len);
+            if (count > 0) {
+                mMessageDigest.update(b, off, count);
+                mCurrentSize += count;
+                return count;
+            }
+            closeCurrentChunk();
+        }
+    }
+
+    private boolean openNextChunk() throws IOException {
+        if (mChunkIndex + 1 >= mIndex.size()) {
+            return false;
+        }
+        ++mChunkIndex;
+        mCurrentStream = mChunkStore.open(mIndex.hashes.get(mChunkIndex));
+        mCurrentSize = 0;
+        mMessageDigest.reset();
+        return true;
+    }
+
+    private void closeCurrentChunk() throws IOException {
+        if (mCurrentStream == null) {
+            return;
+        }
+        mCurrentStream.close();
+        mCurrentStream = null;
+        String hash = mIndex.hashes.get(mChunkIndex);
+        String actualHash = HexEncoding.encodeToString(mMessageDigest.digest(), false /* lowercase */);
+        if (!hash.equals(actualHash) || mCurrentSize != mIndex.sizes.get(mChunkIndex)) {
+            throw new IOException("Chunk verification failed." +
+                    "\nChunk: " + hash +
+                    "\nFound: " + actualHash + " (" + mCurrentSize + " bytes)");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        if (mCurrentStream != null) {
+            mCurrentStream.close();
+            mCurrentStream = null;
+        }
+    }
+}
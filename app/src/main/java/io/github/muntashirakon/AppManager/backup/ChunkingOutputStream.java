@@ -0,0 +1,147 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.backup;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import io.github.muntashirakon.io.Path;
+import io.github.muntashirakon.io.PathWriter;
+
+/**
+ * Split a stream into content-defined chunks and store them in a {@link ChunkStore}. The list of chunks is written to
+ * the index file when the stream is closed. The stored chunks remain pending (see {@link #getChunks()}) until the
+ * backup is either committed or discarded.
+ * <p>
+ * Chunk boundaries are found using a Gear rolling hash (as in FastCDC), which means that an insertion or a deletion
+ * only affects the chunks around it and the rest of the stream is still deduplicated. Chunks are between
+ * {@link #MIN_CHUNK_SIZE} and {@link #MAX_CHUNK_SIZE} bytes, about 1 MiB on average.
+ */
+@WorkerThread
+class ChunkingOutputStream extends OutputStream {
+    static final int MIN_CHUNK_SIZE = 256 * 1024;
+    static final int MAX_CHUNK_SIZE = 4 * 1024 * 1024;
+    // 20 bits in the upper half so that a boundary depends on the last 64 bytes only
+    private static final long BOUNDARY_MASK = ((1L << 20) - 1) << 44;
+    // The table (and therefore the seed) must never change, or else existing chunks can no longer be deduplicated
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x616d5f6364634cL);
+        for (int i = 0; i < GEAR.length; ++i) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    @NonNull
+    private final ChunkStore mChunkStore;
+    @NonNull
+    private final Path mIndexFile;
+    private final byte[] mBuffer;
+    private final List<String> mHashes = new ArrayList<>();
+    private final List<Integer> mSizes = new ArrayList<>();
+    private int mLength;
+    private long mFingerprint;
+    private boolean mClosed;
+
+    ChunkingOutputStream(@NonNull ChunkStore chunkStore, @NonNull Path indexFile) {
+        this(chunkStore, indexFile, MAX_CHUNK_SIZE);
+    }
+
+    @VisibleForTesting
+    ChunkingOutputStream(@NonNull ChunkStore chunkStore, @NonNull Path indexFile, int maxChunkSize) {
+        mChunkStore = chunkStore;
+        mIndexFile = indexFile;
+        mBuffer = new byte[maxChunkSize];
+    }
+
+    /**
+     * Chunks stored so far, which are to be released via {@link ChunkStore#releasePendingChunks(Collection)}.
+     */
+    @NonNull
+    List<String> getChunks() {
+        return mHashes;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+        if (mClosed) {
+            throw new IOException("Stream closed");
+        }
+        int end = off + len;
+        while (off < end) {
+            int boundary = findBoundary(b, off, end);
+            int count = (boundary == -1 ? end : boundary) - off;
+            System.arraycopy(b, off, mBuffer, mLength, count);
+            mLength += count;
+            off += count;
+            if (boundary != -1) {
+                storeChunk();
+            }
+        }
+    }
+
+    /**
+     * Update the fingerprint until a chunk boundary is found.
+     *
+     * @return Index after the last byte of the current chunk, or {@code -1} if no boundary is found
+     */
+    private int findBoundary(@NonNull byte[] b, int off, int end) {
+        long fingerprint = mFingerprint;
+        int length = mLength;
+        int maxChunkSize = mBuffer.length;
+        for (int i = off; i < end; ++i) {
+            fingerprint = (fingerprint << 1) + GEAR[b[i] & 0xFF];
+            ++length;
+            if ((length >= MIN_CHUNK_SIZE && (fingerprint & BOUNDARY_MASK) == 0) || length >= maxChunkSize) {
+                mFingerprint = 0;
+                return i + 1;
+            }
+        }
+        mFingerprint = fingerprint;
+        return -1;
+    }
+
+    private void storeChunk() throws IOException {
+        if (mLength == 0) {
+            return;
+        }
+        mHashes.add(mChunkStore.put(mBuffer, 0, mLength));
+        mSizes.add(mLength);
+        mLength = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        storeChunk();
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new PathWriter(mIndexFile)))) {
+            for (int i = 0; i < mHashes.size(); ++i) {
+                writer.print(mHashes.get(i));
+                writer.print('\t');
+                writer.println(mSizes.get(i));
+            }
+            if (writer.checkError()) {
+                throw new IOException("Could not write index " + mIndexFile);
+            }
+        }
+    }
+}
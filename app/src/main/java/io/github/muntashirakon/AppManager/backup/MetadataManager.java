@@ -18,6 +18,7 @@ import android.text.TextUtils;
 import android.text.format.Formatter;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 import androidx.core.content.pm.PackageInfoCompat;
 
@@ -89,9 +90,12 @@ public final class MetadataManager {
          *     <li>{@code 2} - Beta version (v2.5.2x), permissions aren't preserved (special action needed)</li>
          *     <li>{@code 3} - From v2.6.x to v3.0.2 and v3.1.0-alpha01, permissions are preserved, AES GCM MAC size is 32 bits</li>
          *     <li>{@code 4} - Since v3.0.3 and v3.1.0-alpha02, AES GCM MAC size is 128 bits</li>
+         *     <li>{@code 5} - Data backups contain per-file manifests, incremental backups are supported</li>
+         *     <li>{@code 6} - Archives are stored in the deduplicated chunk store. Only used by deduplicated backups so
+         *     that older versions can still restore the others.</li>
          * </ul>
          */
-        public int version = 4;  // version
+        public int version = 5;  // version
         public String apkName;  // apk_name
         public String instructionSet = VMRuntime.getInstructionSet(Build.SUPPORTED_ABIS[0]);  // instruction_set
         public BackupFlags flags;  // flags
@@ -100,6 +104,19 @@ public final class MetadataManager {
         public String tarType;  // tar_type
         public boolean keyStore;  // key_store
         public String installer;  // installer
+        /**
+         * Name of the backup this incremental backup is based on, {@code null} for a full backup.
+         */
+        @Nullable
+        public String baseBackupName;  // base_backup
+        /**
+         * Backup time of the base backup, used to detect a base backup that has been replaced.
+         */
+        public long baseBackupTime;  // base_backup_time
+        /**
+         * Whether the archives are stored in the {@link ChunkStore} instead of the backup directory.
+         */
+        public boolean deduplicated;  // deduplicated
 
         public Metadata() {
         }
@@ -139,6 +156,9 @@ public final class MetadataManager {
             tarType = metadata.tarType;
             keyStore = metadata.keyStore;
             installer = metadata.installer;
+            baseBackupName = metadata.baseBackupName;
+            baseBackupTime = metadata.baseBackupTime;
+            deduplicated = metadata.deduplicated;
         }
 
         public long getBackupSize() {
@@ -154,6 +174,10 @@ public final class MetadataManager {
             return backupFile != null && backupFile.isFrozen();
         }
 
+        public boolean isIncremental() {
+            return baseBackupName != null;
+        }
+
         @Override
         @NonNull
         @WorkerThread
@@ -179,6 +203,12 @@ public final class MetadataManager {
             if (keyStore) {
                 subtitleText.append(", ").append(context.getString(R.string.keystore));
             }
+            if (isIncremental()) {
+                subtitleText.append(", ").append(context.getString(R.string.backup_incremental));
+            }
+            if (deduplicated) {
+                subtitleText.append(", ").append(context.getString(R.string.backup_deduplicated));
+            }
             subtitleText.append(", ")
                     .append(context.getString(R.string.size)).append(LangUtils.getSeparatorString()).append(Formatter
                             .formatFileSize(context, getBackupSize()));
@@ -260,6 +290,9 @@ public final class MetadataManager {
             mMetadata.tarType = rootObject.getString("tar_type");
             mMetadata.keyStore = rootObject.getBoolean("key_store");
             mMetadata.installer = JSONUtils.getString(rootObject, "installer", BuildConfig.APPLICATION_ID);
+            mMetadata.baseBackupName = JSONUtils.getString(rootObject, "base_backup", null);
+            mMetadata.baseBackupTime = JSONUtils.getLong(rootObject, "base_backup_time", 0);
+            mMetadata.deduplicated = JSONUtils.getBoolean(rootObject, "deduplicated", false);
         } catch (JSONException e) {
             throw new IOException(e.getMessage() + " for path " + backupFile.getBackupPath());
         }
@@ -313,6 +346,9 @@ public final class MetadataManager {
             rootObject.put("tar_type", mMetadata.tarType);
             rootObject.put("key_store", mMetadata.keyStore);
             rootObject.put("installer", mMetadata.installer);
+            rootObject.put("base_backup", mMetadata.baseBackupName);
+            rootObject.put("base_backup_time", mMetadata.baseBackupTime);
+            rootObject.put("deduplicated", mMetadata.deduplicated);
             outputStream.write(rootObject.toString(4).getBytes());
         } catch (JSONException e) {
             throw new IOException(e.getMessage() + " for path " + backupFile.getBackupPath());
@@ -325,12 +361,19 @@ public final class MetadataManager {
         PackageManager pm = mContext.getPackageManager();
         ApplicationInfo applicationInfo = packageInfo.applicationInfo;
         mMetadata = new Metadata();
-        // We don't need to backup custom users or multiple backup flags
-        requestedFlags.removeFlag(BackupFlags.BACKUP_CUSTOM_USERS | BackupFlags.BACKUP_MULTIPLE);
+        // We don't need to backup custom users, multiple or incremental backup flags
+        requestedFlags.removeFlag(BackupFlags.BACKUP_CUSTOM_USERS | BackupFlags.BACKUP_MULTIPLE
+                | BackupFlags.BACKUP_INCREMENTAL);
         mMetadata.flags = requestedFlags;
         mMetadata.userHandle = userHandle;
         mMetadata.tarType = Prefs.BackupRestore.getCompressionMethod();
         mMetadata.crypto = CryptoUtils.getMode();
+        // Chunks are shared between backups and therefore cannot be encrypted with a per-backup key
+        mMetadata.deduplicated = Prefs.BackupRestore.deduplicate()
+                && CryptoUtils.MODE_NO_ENCRYPTION.equals(mMetadata.crypto);
+        if (mMetadata.deduplicated) {
+            mMetadata.version = 6;
+        }
         // Verify tar type
         if (ArrayUtils.indexOf(TAR_TYPES, mMetadata.tarType) == -1) {
             // Unknown tar type, set default
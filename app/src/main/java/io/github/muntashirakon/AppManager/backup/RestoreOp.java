@@ -26,12 +26,15 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 
 import io.github.muntashirakon.AppManager.apk.ApkFile;
@@ -338,7 +341,7 @@ class RestoreOp implements Closeable {
             }
             // Extract apk files to the package staging directory
             try {
-                TarUtils.extract(mMetadata.tarType, backupSourceFiles, packageStagingDirectory, allApkNames, null, null);
+                extractArchive(backupSourceFiles, packageStagingDirectory, allApkNames, null, null);
             } catch (Throwable th) {
                 throw new BackupException("Failed to extract the apk file(s).", th);
             }
@@ -434,7 +437,7 @@ class RestoreOp implements Closeable {
             throw new BackupException("Failed to access properties of the KeyStore folder.", e);
         }
         try {
-            TarUtils.extract(mMetadata.tarType, keyStoreFiles, keyStorePath, null, null, null);
+            extractArchive(keyStoreFiles, keyStorePath, null, null, null);
             // Restore folder permission
             Paths.chown(keyStorePath, uidGidPair.uid, uidGidPair.gid);
             //noinspection OctalInteger
@@ -467,25 +470,33 @@ class RestoreOp implements Closeable {
         if (mPackageInfo == null) {
             throw new BackupException("Data restore is requested but the app isn't installed.");
         }
-        if (!mRequestedFlags.skipSignatureCheck()) {
-            // Verify integrity of the data backups
-            String checksum;
-            for (int i = 0; i < mMetadata.dataDirs.length; ++i) {
-                Path[] dataFiles = getDataFiles(mBackupPath, i);
-                if (dataFiles.length == 0) {
-                    throw new BackupException("Data restore is requested but there are no data files for index " + i + ".");
+        // An incremental backup has to be restored along with all the backups it is based on, starting from the full
+        // backup. The chain consists of only this backup otherwise.
+        List<RestoreOp> backupChain = new ArrayList<>();
+        try {
+            if (mMetadata.isIncremental()) {
+                openBaseBackups(backupChain);
+            }
+            backupChain.add(this);
+            if (!mRequestedFlags.skipSignatureCheck()) {
+                // Verify integrity of the data backups
+                for (RestoreOp restoreOp : backupChain) {
+                    restoreOp.verifyDataFiles();
                 }
-                for (Path file : dataFiles) {
-                    checksum = DigestUtils.getHexDigest(mMetadata.checksumAlgo, file);
-                    if (!checksum.equals(mChecksum.get(file.getName()))) {
-                        throw new BackupException("Data file verification failed for index " + i + "." +
-                                "\nFile: " + file +
-                                "\nFound: " + checksum +
-                                "\nRequired: " + mChecksum.get(file.getName()));
-                    }
+            }
+            restoreData(backupChain, mPackageInfo);
+        } finally {
+            for (RestoreOp restoreOp : backupChain) {
+                if (restoreOp != this) {
+                    restoreOp.close();
                 }
             }
         }
+    }
+
+    private void restoreData(@NonNull List<RestoreOp> backupChain, @NonNull PackageInfo packageInfo)
+            throws BackupException {
+        String publicSourceDir = new File(packageInfo.applicationInfo.publicSourceDir).getParent();
         // Force-stop and clear app data
         PackageManagerCompat.clearApplicationUserData(mPackageName, mUserId);
         // Restore backups
@@ -494,14 +505,10 @@ class RestoreOp implements Closeable {
             BackupDataDirectoryInfo dataDirectoryInfo = BackupDataDirectoryInfo.getInfo(dataSource, mUserId);
             Path dataSourceFile = Paths.get(dataSource);
 
-            Path[] dataFiles = getDataFiles(mBackupPath, i);
-            if (dataFiles.length == 0) {
-                throw new BackupException("Data restore is requested but there are no data files for index " + i + ".");
-            }
             UidGidPair uidGidPair = dataSourceFile.getUidGid();
             if (uidGidPair == null) {
                 // Fallback to app UID
-                uidGidPair = new UidGidPair(mPackageInfo.applicationInfo.uid, mPackageInfo.applicationInfo.uid);
+                uidGidPair = new UidGidPair(packageInfo.applicationInfo.uid, packageInfo.applicationInfo.uid);
             }
             if (dataDirectoryInfo.isExternal()) {
                 // Skip if external data restore is not requested
@@ -540,19 +547,13 @@ class RestoreOp implements Closeable {
                     dataSourceFile.setUidGid(uidGidPair);
                 }
             }
-            // Decrypt data
-            try {
-                dataFiles = decrypt(dataFiles);
-            } catch (IOException e) {
-                throw new BackupException("Failed to decrypt " + Arrays.toString(dataFiles), e);
+            // Extract data to the data directory, starting from the full backup
+            for (RestoreOp restoreOp : backupChain) {
+                restoreOp.extractDataFiles(i, dataSourceFile, publicSourceDir);
             }
-            // Extract data to the data directory
-            try {
-                String publicSourceDir = new File(mPackageInfo.applicationInfo.publicSourceDir).getParent();
-                TarUtils.extract(mMetadata.tarType, dataFiles, dataSourceFile, null, BackupUtils
-                        .getExcludeDirs(!mRequestedFlags.backupCache(), null), publicSourceDir);
-            } catch (Throwable th) {
-                throw new BackupException("Failed to restore data files for index " + i + ".", th);
+            if (backupChain.size() > 1) {
+                // Delete the files that no longer existed when this backup was taken
+                deleteRemovedDataFiles(backupChain, i, dataSourceFile);
             }
             // Restore UID and GID
             if (!Runner.runCommand(String.format(Locale.ROOT, "chown -R %d:%d \"%s\"", uidGidPair.uid, uidGidPair.gid, dataSource)).isSuccessful()) {
@@ -565,6 +566,138 @@ class RestoreOp implements Closeable {
         }
     }
 
+    /**
+     * Open the backups this incremental backup depends on and add them to {@code backupChain}, the full backup first.
+     * Opened backups are added to the list immediately so that the caller can close them on failure.
+     */
+    private void openBaseBackups(@NonNull List<RestoreOp> backupChain) throws BackupException {
+        Path packagePath = mBackupPath.requireParent();
+        List<String> visitedBackups = new ArrayList<>();
+        visitedBackups.add(mBackupFile.backupName);
+        String baseBackupName = mMetadata.baseBackupName;
+        long baseBackupTime = mMetadata.baseBackupTime;
+        String dependentBackupName = mBackupFile.backupName;
+        while (baseBackupName != null) {
+            if (visitedBackups.contains(baseBackupName)) {
+                throw new BackupException("Circular dependency detected for the base backup " + baseBackupName);
+            }
+            visitedBackups.add(baseBackupName);
+            BackupFiles.BackupFile baseBackupFile;
+            try {
+                baseBackupFile = new BackupFiles.BackupFile(packagePath.findFile(baseBackupName), false);
+            } catch (IOException e) {
+                throw new BackupException("Base backup " + baseBackupName + " is missing.", e);
+            }
+            RestoreOp baseRestoreOp = new RestoreOp(mPackageName, MetadataManager.getNewInstance(), mRequestedFlags,
+                    baseBackupFile, mUserId);
+            backupChain.add(0, baseRestoreOp);
+            if (!Arrays.equals(baseRestoreOp.mMetadata.dataDirs, mMetadata.dataDirs)) {
+                throw new BackupException("Base backup " + baseBackupName + " has different data directories.");
+            }
+            // Older backups do not record the time of the base backup
+            if (baseBackupTime != 0 && baseBackupTime != baseRestoreOp.mMetadata.backupTime) {
+                throw new BackupException("Base backup " + baseBackupName + " has been replaced after the backup "
+                        + dependentBackupName + " was taken.");
+            }
+            dependentBackupName = baseBackupName;
+            baseBackupName = baseRestoreOp.mMetadata.baseBackupName;
+            baseBackupTime = baseRestoreOp.mMetadata.baseBackupTime;
+        }
+    }
+
+    private void verifyDataFiles() throws BackupException {
+        String checksum;
+        for (int i = 0; i < mMetadata.dataDirs.length; ++i) {
+            Path[] dataFiles = getDataFiles(mBackupPath, i);
+            if (dataFiles.length == 0) {
+                throw new BackupException("Data restore is requested but there are no data files for index " + i + ".");
+            }
+            for (Path file : dataFiles) {
+                checksum = DigestUtils.getHexDigest(mMetadata.checksumAlgo, file);
+                if (!checksum.equals(mChecksum.get(file.getName()))) {
+                    throw new BackupException("Data file verification failed for index " + i + "." +
+                            "\nFile: " + file +
+                            "\nFound: " + checksum +
+                            "\nRequired: " + mChecksum.get(file.getName()));
+                }
+            }
+        }
+    }
+
+    private void extractDataFiles(int index, @NonNull Path dataSourceFile, @Nullable String publicSourceDir)
+            throws BackupException {
+        Path[] dataFiles = getDataFiles(mBackupPath, index);
+        if (dataFiles.length == 0) {
+            throw new BackupException("Data restore is requested but there are no data files for index " + index + ".");
+        }
+        // Decrypt data
+        try {
+            dataFiles = decrypt(dataFiles);
+        } catch (IOException e) {
+            throw new BackupException("Failed to decrypt " + Arrays.toString(dataFiles), e);
+        }
+        // Extract data to the data directory
+        try {
+            extractArchive(dataFiles, dataSourceFile, null, BackupUtils
+                    .getExcludeDirs(!mRequestedFlags.backupCache(), null), publicSourceDir);
+        } catch (Throwable th) {
+            throw new BackupException("Failed to restore data files for index " + index + ".", th);
+        }
+    }
+
+    private void deleteRemovedDataFiles(@NonNull List<RestoreOp> backupChain, int index, @NonNull Path dataSourceFile)
+            throws BackupException {
+        BackupManifest manifest = readManifest(index);
+        Set<String> removedPaths = new HashSet<>();
+        for (RestoreOp restoreOp : backupChain) {
+            if (restoreOp == this) continue;
+            for (BackupManifest.Entry entry : restoreOp.readManifest(index).getEntries()) {
+                if (!manifest.contains(entry.path)) {
+                    removedPaths.add(entry.path);
+                }
+            }
+        }
+        for (String removedPath : removedPaths) {
+            String path = Paths.normalize(removedPath);
+            if (path == null || path.startsWith("../")) {
+                Log.w(TAG, "Skipped deleting suspicious path %s", removedPath);
+                continue;
+            }
+            Path file = Paths.build(dataSourceFile, path);
+            if (file != null && file.exists()) {
+                Log.d(TAG, "Deleting removed path %s", file);
+                file.delete();
+            }
+        }
+    }
+
+    @NonNull
+    private BackupManifest readManifest(int index) throws BackupException {
+        Path manifestFile;
+        try {
+            manifestFile = mBackupFile.getManifestFile(index, mMetadata.crypto);
+        } catch (IOException e) {
+            throw new BackupException("Could not get manifest for index " + index + " in " + mBackupFile.backupName, e);
+        }
+        if (!mRequestedFlags.skipSignatureCheck()) {
+            String checksum = DigestUtils.getHexDigest(mMetadata.checksumAlgo, manifestFile);
+            if (!checksum.equals(mChecksum.get(manifestFile.getName()))) {
+                throw new BackupException("Couldn't verify manifest file." +
+                        "\nFile: " + manifestFile +
+                        "\nFound: " + checksum +
+                        "\nRequired: " + mChecksum.get(manifestFile.getName()));
+            }
+        }
+        try {
+            Path[] newFiles = decrypt(new Path[]{manifestFile});
+            try (InputStream is = newFiles[0].openInputStream()) {
+                return BackupManifest.read(is);
+            }
+        } catch (IOException e) {
+            throw new BackupException("Could not read manifest for index " + index + " in " + mBackupFile.backupName, e);
+        }
+    }
+
     private synchronized void restoreExtras() throws BackupException {
         if (!mIsInstalled) {
             throw new BackupException("Misc restore is requested but the app isn't installed.");
@@ -768,6 +901,24 @@ class RestoreOp implements Closeable {
         return backupPath.listFiles((dir, name) -> name.startsWith(dataPrefix) && name.endsWith(mode));
     }
 
+    /**
+     * Extract the given archive, or in case of a deduplicated backup, the archive described by the given index file.
+     */
+    private void extractArchive(@NonNull Path[] files, @NonNull Path dest, @Nullable String[] filters,
+                                @Nullable String[] exclusions, @Nullable String realDataAppPath)
+            throws IOException {
+        if (!mMetadata.deduplicated) {
+            TarUtils.extract(mMetadata.tarType, files, dest, filters, exclusions, realDataAppPath);
+            return;
+        }
+        if (files.length != 1) {
+            throw new IOException("Expected a single index file but found " + Arrays.toString(files));
+        }
+        try (InputStream is = new ChunkedInputStream(ChunkStore.getInstance(), files[0])) {
+            TarUtils.extract(is, dest, filters, exclusions, realDataAppPath);
+        }
+    }
+
     @NonNull
     private Path[] decrypt(@NonNull Path[] files) throws IOException {
         Path[] newFiles;
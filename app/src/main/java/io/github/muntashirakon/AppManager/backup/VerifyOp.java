@@ -149,6 +149,7 @@ class VerifyOp implements Closeable {
                         "\nRequired: " + mChecksum.get(file.getName()));
             }
         }
+        verifyChunks(backupSourceFiles);
     }
 
     private void verifyKeyStore() throws BackupException {
@@ -166,6 +167,7 @@ class VerifyOp implements Closeable {
                         "\nRequired: " + mChecksum.get(file.getName()));
             }
         }
+        verifyChunks(keyStoreFiles);
     }
 
     private void verifyData() throws BackupException {
@@ -185,6 +187,29 @@ class VerifyOp implements Closeable {
                             "\nRequired: " + mChecksum.get(file.getName()));
                 }
             }
+            verifyChunks(dataFiles);
+        }
+    }
+
+    /**
+     * For deduplicated backups, check that every chunk referred to by the given index files exists in the chunk store.
+     * The contents of the chunks are verified during restoration.
+     */
+    private void verifyChunks(@NonNull Path[] indexFiles) throws BackupException {
+        if (!mMetadata.deduplicated) {
+            return;
+        }
+        try {
+            ChunkStore chunkStore = ChunkStore.getInstance();
+            for (Path indexFile : indexFiles) {
+                for (String hash : ChunkStore.readIndex(indexFile).hashes) {
+                    if (!chunkStore.contains(hash)) {
+                        throw new BackupException("Missing chunk " + hash + " in " + indexFile.getName());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new BackupException("Could not read chunk index.", e);
         }
     }
 
@@ -87,7 +87,7 @@ public class BackupFragment extends Fragment {
         operationInfo.mode = BackupRestoreDialogFragment.MODE_BACKUP;
         operationInfo.flags = flags.getFlags();
         operationInfo.op = BatchOpsManager.OP_BACKUP;
-        if (flags.backupMultiple()) {
+        if (flags.backupMultiple() || flags.backupIncremental()) {
             // Multiple backup is requested, no need to warn users about backups since the
             // user has a choice between overwriting the existing backup or create a new one
             // TODO(18/9/20): Add overwrite option
@@ -0,0 +1,207 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.batchops;
+
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import io.github.muntashirakon.AppManager.db.AppsDb;
+import io.github.muntashirakon.AppManager.db.dao.BatchOpsJournalDao;
+import io.github.muntashirakon.AppManager.db.entity.BatchOpsJournalEntry;
+import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.AppManager.types.UserPackagePair;
+import io.github.muntashirakon.AppManager.utils.DigestUtils;
+
+/**
+ * Persistent record of the state of each package in a batch operation. If the batch operation is interrupted, e.g.
+ * because the process was killed, resuming it skips the packages that were completed and retries the rest.
+ * <p>
+ * A batch operation is identified by its operation, packages and arguments, since that is all a redelivered intent
+ * carries. Therefore, a batch operation is resumed only when it is asked to, and any other run of the same batch
+ * operation discards the previous journal and starts from the beginning. The journal is removed once the batch
+ * operation finishes.
+ */
+public class BatchOpsJournal {
+    public static final String TAG = BatchOpsJournal.class.getSimpleName();
+
+    /**
+     * Journals that have not been updated in this time belong to the batch operations that are not going to be
+     * resumed, and are removed.
+     */
+    private static final long MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    /**
+     * Whether the operation records the state of each package. The rest of the operations are neither idempotent nor
+     * done per package, and are always run from the beginning.
+     */
+    public static boolean isResumable(@BatchOpsManager.OpType int op) {
+        switch (op) {
+            case BatchOpsManager.OP_BACKUP:
+            case BatchOpsManager.OP_BACKUP_APK:
+            case BatchOpsManager.OP_RESTORE_BACKUP:
+            case BatchOpsManager.OP_BLOCK_COMPONENTS:
+            case BatchOpsManager.OP_BLOCK_TRACKERS:
+            case BatchOpsManager.OP_UNBLOCK_COMPONENTS:
+            case BatchOpsManager.OP_UNBLOCK_TRACKERS:
+            case BatchOpsManager.OP_DISABLE_BACKGROUND:
+            case BatchOpsManager.OP_FORCE_STOP:
+            case BatchOpsManager.OP_FREEZE:
+            case BatchOpsManager.OP_UNFREEZE:
+            case BatchOpsManager.OP_GRANT_PERMISSIONS:
+            case BatchOpsManager.OP_REVOKE_PERMISSIONS:
+            case BatchOpsManager.OP_NET_POLICY:
+            case BatchOpsManager.OP_SET_APP_OPS:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Open the journal of the given batch operation.
+     *
+     * @param resume Whether to resume the batch operation from its existing journal, if any. Otherwise, the existing
+     *               journal is discarded.
+     * @return {@code null} if the journal could not be opened
+     */
+    @WorkerThread
+    @Nullable
+    public static BatchOpsJournal open(@BatchOpsManager.OpType int op, @NonNull UserPackagePair[] userPackagePairs,
+                                       @Nullable Bundle args, boolean resume) {
+        try {
+            return new BatchOpsJournal(AppsDb.getInstance().batchOpsJournalDao(),
+                    getBatchId(op, userPackagePairs, args), userPackagePairs, resume);
+        } catch (Exception e) {
+            Log.w(TAG, "Could not open the journal.", e);
+            return null;
+        }
+    }
+
+    @VisibleForTesting
+    @NonNull
+    static String getBatchId(@BatchOpsManager.OpType int op, @NonNull UserPackagePair[] userPackagePairs,
+                             @Nullable Bundle args) {
+        StringBuilder sb = new StringBuilder().append(op);
+        for (UserPackagePair pair : userPackagePairs) {
+            sb.append('\n').append(pair.getPackageName()).append('\t').append(pair.getUserId());
+        }
+        if (args != null) {
+            for (String key : new TreeSet<>(args.keySet())) {
+                sb.append('\n').append(key).append('=').append(argToString(args.get(key)));
+            }
+        }
+        return DigestUtils.getHexDigest(DigestUtils.SHA_256, sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @NonNull
+    private static String argToString(@Nullable Object value) {
+        if (value == null || value instanceof String || value instanceof Number || value instanceof Boolean) {
+            return String.valueOf(value);
+        }
+        if (value instanceof String[]) return Arrays.toString((String[]) value);
+        if (value instanceof int[]) return Arrays.toString((int[]) value);
+        if (value instanceof long[]) return Arrays.toString((long[]) value);
+        if (value instanceof boolean[]) return Arrays.toString((boolean[]) value);
+        // The string representation of the other objects may not be the same in another process
+        return value.getClass().getName();
+    }
+
+    @NonNull
+    private final BatchOpsJournalDao mDao;
+    @NonNull
+    private final String mBatchId;
+    // States of the packages when the journal was opened
+    @NonNull
+    private final Map<UserPackagePair, Integer> mPreviousStates = new HashMap<>();
+
+    @VisibleForTesting
+    @WorkerThread
+    BatchOpsJournal(@NonNull BatchOpsJournalDao dao, @NonNull String batchId,
+                    @NonNull UserPackagePair[] userPackagePairs, boolean resume) {
+        mDao = dao;
+        mBatchId = batchId;
+        long currentTime = System.currentTimeMillis();
+        mDao.deleteOlderThan(currentTime - MAX_AGE_MILLIS);
+        if (resume) {
+            for (BatchOpsJournalEntry entry : mDao.get(batchId)) {
+                mPreviousStates.put(new UserPackagePair(entry.packageName, entry.userId), entry.state);
+            }
+        } else {
+            // A new run of a batch operation that was run before
+            mDao.delete(batchId);
+        }
+        List<BatchOpsJournalEntry> newEntries = new ArrayList<>();
+        for (UserPackagePair pair : userPackagePairs) {
+            if (mPreviousStates.containsKey(pair)) {
+                continue;
+            }
+            BatchOpsJournalEntry entry = new BatchOpsJournalEntry();
+            entry.batchId = batchId;
+            entry.packageName = pair.getPackageName();
+            entry.userId = pair.getUserId();
+            entry.state = BatchOpsJournalEntry.STATE_PENDING;
+            entry.lastUpdateTime = currentTime;
+            newEntries.add(entry);
+        }
+        if (!newEntries.isEmpty()) {
+            mDao.insert(newEntries);
+        }
+    }
+
+    /**
+     * Whether the batch operation was interrupted before, i.e. the journal already existed when it was opened.
+     */
+    public boolean isResumed() {
+        return !mPreviousStates.isEmpty();
+    }
+
+    /**
+     * State of the package when the journal was opened.
+     *
+     * @return One of the {@code BatchOpsJournalEntry#STATE_*} constants
+     */
+    public int getPreviousState(@NonNull UserPackagePair pair) {
+        Integer state = mPreviousStates.get(pair);
+        return state != null ? state : BatchOpsJournalEntry.STATE_PENDING;
+    }
+
+    /**
+     * Record the state of a package. Failures are only logged, since the journal is not required for the operation
+     * itself.
+     *
+     * @param state One of the {@code BatchOpsJournalEntry#STATE_*} constants
+     */
+    @WorkerThread
+    public void setState(@NonNull UserPackagePair pair, int state) {
+        try {
+            mDao.updateState(mBatchId, pair.getPackageName(), pair.getUserId(), state, System.currentTimeMillis());
+        } catch (Exception e) {
+            Log.w(TAG, "Could not update the state of " + pair, e);
+        }
+    }
+
+    /**
+     * Remove the journal once the batch operation is finished.
+     */
+    @WorkerThread
+    public void finish() {
+        try {
+            mDao.delete(mBatchId);
+        } catch (Exception e) {
+            Log.w(TAG, "Could not remove the journal.", e);
+        }
+    }
+}
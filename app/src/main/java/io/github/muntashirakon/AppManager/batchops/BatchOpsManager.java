@@ -24,6 +24,7 @@ import androidx.annotation.RequiresApi;
 import androidx.annotation.WorkerThread;
 import androidx.core.os.BundleCompat;
 
+import java.io.IOException;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
@@ -31,7 +32,10 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -45,6 +49,7 @@ import io.github.muntashirakon.AppManager.apk.dexopt.DexOptOptions;
 import io.github.muntashirakon.AppManager.apk.dexopt.DexOptimizer;
 import io.github.muntashirakon.AppManager.apk.installer.PackageInstallerCompat;
 import io.github.muntashirakon.AppManager.backup.BackupException;
+import io.github.muntashirakon.AppManager.backup.BackupFiles;
 import io.github.muntashirakon.AppManager.backup.BackupManager;
 import io.github.muntashirakon.AppManager.backup.convert.ConvertUtils;
 import io.github.muntashirakon.AppManager.backup.convert.Converter;
@@ -56,6 +61,7 @@ import io.github.muntashirakon.AppManager.compat.NetworkPolicyManagerCompat.NetP
 import io.github.muntashirakon.AppManager.compat.PackageManagerCompat;
 import io.github.muntashirakon.AppManager.compat.PermissionCompat;
 import io.github.muntashirakon.AppManager.compat.StorageManagerCompat;
+import io.github.muntashirakon.AppManager.db.entity.BatchOpsJournalEntry;
 import io.github.muntashirakon.AppManager.logs.Logger;
 import io.github.muntashirakon.AppManager.progress.NotificationProgressHandler;
 import io.github.muntashirakon.AppManager.progress.NotificationProgressHandler.NotificationInfo;
@@ -69,7 +75,6 @@ import io.github.muntashirakon.AppManager.utils.ArrayUtils;
 import io.github.muntashirakon.AppManager.utils.ContextUtils;
 import io.github.muntashirakon.AppManager.utils.ExUtils;
 import io.github.muntashirakon.AppManager.utils.FreezeUtils;
-import io.github.muntashirakon.AppManager.utils.MultithreadedExecutor;
 import io.github.muntashirakon.AppManager.utils.PackageUtils;
 import io.github.muntashirakon.AppManager.utils.ThreadUtils;
 import io.github.muntashirakon.io.Path;
@@ -201,13 +206,24 @@ public class BatchOpsManager {
 
     private UserPackagePair[] mUserPackagePairs;
     @Nullable
+    private BatchOpsJournal mJournal;
+    @Nullable
     private ProgressHandler mProgressHandler;
     private Bundle mArgs;
+    private boolean mResume;
 
     public void setArgs(Bundle args) {
         mArgs = args;
     }
 
+    /**
+     * Resume the batch operation if it was interrupted before, skipping the packages that were already completed.
+     * Otherwise, the batch operation is always run from the beginning.
+     */
+    public void setResume(boolean resume) {
+        mResume = resume;
+    }
+
     @CheckResult
     @NonNull
     public Result performOp(@OpType int op, @NonNull List<String> packageNames,
@@ -236,6 +252,48 @@ public class BatchOpsManager {
     @CheckResult
     @NonNull
     private Result performOp(@OpType int op) {
+        mJournal = BatchOpsJournal.isResumable(op) ? BatchOpsJournal.open(op, mUserPackagePairs, mArgs, mResume)
+                : null;
+        if (mJournal != null && mJournal.isResumed()) {
+            skipCompletedPackages();
+        }
+        try {
+            return runOp(op);
+        } finally {
+            if (mJournal != null) {
+                mJournal.finish();
+                mJournal = null;
+            }
+        }
+    }
+
+    /**
+     * Remove the packages completed before the batch operation was interrupted.
+     */
+    private void skipCompletedPackages() {
+        List<UserPackagePair> remainingPairs = new ArrayList<>(mUserPackagePairs.length);
+        for (UserPackagePair pair : mUserPackagePairs) {
+            if (mJournal.getPreviousState(pair) != BatchOpsJournalEntry.STATE_COMPLETED) {
+                remainingPairs.add(pair);
+            }
+        }
+        int skipped = mUserPackagePairs.length - remainingPairs.size();
+        log("====> Resuming interrupted batch operation, skipped=" + skipped);
+        mUserPackagePairs = remainingPairs.toArray(new UserPackagePair[0]);
+        if (mProgressHandler != null) {
+            updateProgress(mProgressHandler.getLastProgress(), skipped);
+        }
+    }
+
+    private void checkpoint(@NonNull UserPackagePair pair, int state) {
+        if (mJournal != null) {
+            mJournal.setState(pair, state);
+        }
+    }
+
+    @CheckResult
+    @NonNull
+    private Result runOp(@OpType int op) {
         switch (op) {
             case OP_BACKUP_APK:
                 return opBackupApk();
@@ -306,10 +364,13 @@ public class BatchOpsManager {
         for (int i = 0; i < max; ++i) {
             pair = mUserPackagePairs[i];
             updateProgress(lastProgress, i + 1);
+            checkpoint(pair, BatchOpsJournalEntry.STATE_RUNNING);
             // Do operation
             try {
                 ApkUtils.backupApk(context, pair.getPackageName(), pair.getUserId());
+                checkpoint(pair, BatchOpsJournalEntry.STATE_COMPLETED);
             } catch (Exception e) {
+                checkpoint(pair, BatchOpsJournalEntry.STATE_FAILED);
                 failedPackages.add(pair);
                 log("====> op=BACKUP_APK, pkg=" + pair, e);
             }
@@ -334,24 +395,31 @@ public class BatchOpsManager {
         Context context = ContextUtils.getContext();
         PackageManager pm = context.getPackageManager();
         CharSequence operationName = context.getString(R.string.backup_restore);
-        MultithreadedExecutor executor = MultithreadedExecutor.getNewInstance();
+        BatchOpsScheduler scheduler = new BatchOpsScheduler(BatchOpsScheduler.getResourceType(OP_BACKUP));
         AtomicInteger i = new AtomicInteger(0);
         float lastProgress = mProgressHandler != null ? mProgressHandler.getLastProgress() : 0;
         try {
             String[] backupNames = mArgs.getStringArray(ARG_BACKUP_NAMES);
             for (UserPackagePair pair : mUserPackagePairs) {
                 CharSequence appLabel = PackageUtils.getPackageLabel(pm, pair.getPackageName(), pair.getUserId());
-                executor.submit(() -> {
+                scheduler.submit(pair.toString(), BatchOpsScheduler.PRIORITY_DEFAULT, () -> {
                     synchronized (i) {
                         i.set(i.get() + 1);
                         updateProgress(lastProgress, i.get());
                     }
                     CharSequence title = context.getString(R.string.backing_up_app, appLabel);
                     ProgressHandler subProgressHandler = newSubProgress(operationName, title);
+                    if (mJournal != null && mJournal.getPreviousState(pair) == BatchOpsJournalEntry.STATE_RUNNING) {
+                        // The last backup of this package was interrupted, the backups committed before are intact
+                        discardTemporaryBackups(pair);
+                    }
+                    checkpoint(pair, BatchOpsJournalEntry.STATE_RUNNING);
                     BackupManager backupManager = BackupManager.getNewInstance(pair, mArgs.getInt(ARG_FLAGS));
                     try {
                         backupManager.backup(backupNames, subProgressHandler);
+                        checkpoint(pair, BatchOpsJournalEntry.STATE_COMPLETED);
                     } catch (BackupException e) {
+                        checkpoint(pair, BatchOpsJournalEntry.STATE_FAILED);
                         log("====> op=BACKUP_RESTORE, mode=BACKUP pkg=" + pair, e);
                         failedPackages.add(pair);
                     }
@@ -363,7 +431,7 @@ public class BatchOpsManager {
         } catch (Throwable th) {
             log("====> op=BACKUP_RESTORE, mode=BACKUP", th);
         }
-        executor.awaitCompletion();
+        logLatencies("BACKUP_RESTORE, mode=BACKUP", scheduler.awaitCompletion());
         return new Result(failedPackages);
     }
 
@@ -372,13 +440,14 @@ public class BatchOpsManager {
         Context context = ContextUtils.getContext();
         PackageManager pm = context.getPackageManager();
         CharSequence operationName = context.getString(R.string.backup_restore);
-        MultithreadedExecutor executor = MultithreadedExecutor.getNewInstance();
+        BatchOpsScheduler scheduler = new BatchOpsScheduler(BatchOpsScheduler.getResourceType(OP_RESTORE_BACKUP));
         AtomicBoolean requiresRestart = new AtomicBoolean();
         AtomicInteger i = new AtomicInteger(0);
         float lastProgress = mProgressHandler != null ? mProgressHandler.getLastProgress() : 0;
         String[] backupNames = mArgs.getStringArray(ARG_BACKUP_NAMES);
+        List<Runnable> selfRestoreTasks = new ArrayList<>();
         for (UserPackagePair pair : mUserPackagePairs) {
-            executor.submit(() -> {
+            Runnable task = () -> {
                 synchronized (i) {
                     i.set(i.get() + 1);
                     updateProgress(lastProgress, i.get());
@@ -386,25 +455,48 @@ public class BatchOpsManager {
                 CharSequence appLabel = PackageUtils.getPackageLabel(pm, pair.getPackageName(), pair.getUserId());
                 CharSequence title = context.getString(R.string.restoring_app, appLabel);
                 ProgressHandler subProgressHandler = newSubProgress(operationName, title);
+                checkpoint(pair, BatchOpsJournalEntry.STATE_RUNNING);
                 BackupManager backupManager = BackupManager.getNewInstance(pair, mArgs.getInt(ARG_FLAGS));
                 try {
                     backupManager.restore(backupNames, subProgressHandler);
                     requiresRestart.set(requiresRestart.get() | backupManager.requiresRestart());
+                    checkpoint(pair, BatchOpsJournalEntry.STATE_COMPLETED);
                 } catch (Throwable e) {
+                    checkpoint(pair, BatchOpsJournalEntry.STATE_FAILED);
                     log("====> op=BACKUP_RESTORE, mode=RESTORE pkg=" + pair, e);
                     failedPackages.add(pair);
                 }
                 if (subProgressHandler != null) {
                     ThreadUtils.postOnMainThread(() -> subProgressHandler.onResult(null));
                 }
-            });
+            };
+            if (BuildConfig.APPLICATION_ID.equals(pair.getPackageName())) {
+                // Restoring this app may kill it, restore it after the rest have finished
+                selfRestoreTasks.add(task);
+            } else {
+                scheduler.submit(pair.toString(), BatchOpsScheduler.PRIORITY_DEFAULT, task);
+            }
+        }
+        logLatencies("BACKUP_RESTORE, mode=RESTORE", scheduler.awaitCompletion());
+        for (Runnable task : selfRestoreTasks) {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            task.run();
         }
-        executor.awaitCompletion();
         Result result = new Result(failedPackages);
         result.setRequiresRestart(requiresRestart.get());
         return result;
     }
 
+    private void discardTemporaryBackups(@NonNull UserPackagePair pair) {
+        try {
+            new BackupFiles(pair.getPackageName(), pair.getUserId(), null).discardTemporaryBackups();
+        } catch (IOException e) {
+            log("====> op=BACKUP_RESTORE, mode=BACKUP pkg=" + pair + ", failed to discard temporary backups", e);
+        }
+    }
+
     private Result deleteBackups() {
         List<UserPackagePair> failedPackages = new ArrayList<>();
         float lastProgress = mProgressHandler != null ? mProgressHandler.getLastProgress() : 0;
@@ -438,13 +530,13 @@ public class BatchOpsManager {
             return new Result(Collections.emptyList(), false);
         }
         files = ConvertUtils.getRelevantImportFiles(backupPath, backupType);
-        MultithreadedExecutor executor = MultithreadedExecutor.getNewInstance();
+        BatchOpsScheduler scheduler = new BatchOpsScheduler(BatchOpsScheduler.getResourceType(OP_IMPORT_BACKUPS));
         fixProgress(files.length);
         float lastProgress = mProgressHandler != null ? mProgressHandler.getLastProgress() : 0;
         AtomicInteger i = new AtomicInteger(0);
         try {
             for (Path file : files) {
-                executor.submit(() -> {
+                scheduler.submit(file.getName(), BatchOpsScheduler.PRIORITY_DEFAULT, () -> {
                     synchronized (i) {
                         i.set(i.get() + 1);
                         updateProgress(lastProgress, i.get());
@@ -465,41 +557,18 @@ public class BatchOpsManager {
         } catch (Throwable th) {
             log("====> op=IMPORT_BACKUP", th);
         }
-        executor.awaitCompletion();
+        logLatencies("IMPORT_BACKUP", scheduler.awaitCompletion());
         return new Result(failedPkgList);
     }
 
     private Result opBlockComponents() {
         String[] signatures = Objects.requireNonNull(mArgs.getStringArray(ARG_SIGNATURES));
-        List<UserPackagePair> failedPackages = new ArrayList<>();
-        float lastProgress = mProgressHandler != null ? mProgressHandler.getLastProgress() : 0;
-        int i = 0;
-        for (UserPackagePair pair : mUserPackagePairs) {
-            updateProgress(lastProgress, ++i);
-            try {
-                ComponentUtils.blockFilteredComponents(pair, signatures);
-            } catch (Exception e) {
-                log("====> op=BLOCK_COMPONENTS, pkg=" + pair, e);
-                failedPackages.add(pair);
-            }
-        }
-        return new Result(failedPackages);
+        return runForEachPackage(OP_BLOCK_COMPONENTS, "BLOCK_COMPONENTS",
+                pair -> ComponentUtils.blockFilteredComponents(pair, signatures));
     }
 
     private Result opBlockTrackers() {
-        List<UserPackagePair> failedPackages = new ArrayList<>();
-        float lastProgress = mProgressHandler != null ? mProgressHandler.getLastProgress() : 0;
-        int i = 0;
-        for (UserPackagePair pair : mUserPackagePairs) {
-            updateProgress(lastProgress, ++i);
-            try {
-                ComponentUtils.blockTrackingComponents(pair);
-            } catch (Exception e) {
-                log("====> op=BLOCK_TRACKERS, pkg=" + pair, e);
-                failedPackages.add(pair);
-            }
-        }
-        return new Result(failedPackages);
+        return runForEachPackage(OP_BLOCK_TRACKERS, "BLOCK_TRACKERS", ComponentUtils::blockTrackingComponents);
     }
 
     @NonNull
@@ -558,214 +627,122 @@ public class BatchOpsManager {
 
     @NonNull
     private Result opFreeze(boolean freeze) {
-        List<UserPackagePair> failedPackages = new ArrayList<>();
-        float lastProgress = mProgressHandler != null ? mProgressHandler.getLastProgress() : 0;
-        int i = 0;
-        for (UserPackagePair pair : mUserPackagePairs) {
-            updateProgress(lastProgress, ++i);
-            try {
-                if (freeze) {
-                    FreezeUtils.freeze(pair.getPackageName(), pair.getUserId());
-                } else {
-                    FreezeUtils.unfreeze(pair.getPackageName(), pair.getUserId());
-                }
-            } catch (Throwable e) {
-                log("====> op=APP_FREEZE, pkg=" + pair + ", freeze = " + freeze, e);
-                failedPackages.add(pair);
+        return runForEachPackage(freeze ? OP_FREEZE : OP_UNFREEZE, freeze ? "APP_FREEZE" : "APP_UNFREEZE", pair -> {
+            if (freeze) {
+                FreezeUtils.freeze(pair.getPackageName(), pair.getUserId());
+            } else {
+                FreezeUtils.unfreeze(pair.getPackageName(), pair.getUserId());
             }
-        }
-        return new Result(failedPackages);
+        });
     }
 
     @NonNull
     private Result opDisableBackground() {
-        List<UserPackagePair> failedPackages = new ArrayList<>();
-        float lastProgress = mProgressHandler != null ? mProgressHandler.getLastProgress() : 0;
         AppOpsManagerCompat appOpsManager = new AppOpsManagerCompat();
-        int i = 0;
-        for (UserPackagePair pair : mUserPackagePairs) {
-            updateProgress(lastProgress, ++i);
+        return runForEachPackage(OP_DISABLE_BACKGROUND, "DISABLE_BACKGROUND", pair -> {
             int uid = PackageUtils.getAppUid(pair);
             if (uid == -1) {
-                failedPackages.add(pair);
-                continue;
+                throw new PackageManager.NameNotFoundException(pair.toString());
             }
-            try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                appOpsManager.setMode(AppOpsManagerCompat.OP_RUN_IN_BACKGROUND, uid,
+                        pair.getPackageName(), AppOpsManager.MODE_IGNORED);
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+                appOpsManager.setMode(AppOpsManagerCompat.OP_RUN_ANY_IN_BACKGROUND, uid,
+                        pair.getPackageName(), AppOpsManager.MODE_IGNORED);
+            }
+            try (ComponentsBlocker cb = ComponentsBlocker.getMutableInstance(pair.getPackageName(), pair.getUserId())) {
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-                    appOpsManager.setMode(AppOpsManagerCompat.OP_RUN_IN_BACKGROUND, uid,
-                            pair.getPackageName(), AppOpsManager.MODE_IGNORED);
+                    cb.setAppOp(AppOpsManagerCompat.OP_RUN_IN_BACKGROUND, AppOpsManager.MODE_IGNORED);
                 }
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
-                    appOpsManager.setMode(AppOpsManagerCompat.OP_RUN_ANY_IN_BACKGROUND, uid,
-                            pair.getPackageName(), AppOpsManager.MODE_IGNORED);
+                    cb.setAppOp(AppOpsManagerCompat.OP_RUN_ANY_IN_BACKGROUND, AppOpsManager.MODE_IGNORED);
                 }
-                try (ComponentsBlocker cb = ComponentsBlocker.getMutableInstance(pair.getPackageName(), pair.getUserId())) {
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-                        cb.setAppOp(AppOpsManagerCompat.OP_RUN_IN_BACKGROUND, AppOpsManager.MODE_IGNORED);
-                    }
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
-                        cb.setAppOp(AppOpsManagerCompat.OP_RUN_ANY_IN_BACKGROUND, AppOpsManager.MODE_IGNORED);
-                    }
-                }
-            } catch (Throwable e) {
-                log("====> op=DISABLE_BACKGROUND, pkg=" + pair, e);
-                failedPackages.add(pair);
             }
-        }
-        return new Result(failedPackages);
+        });
     }
 
     private Result opGrantOrRevokePermissions(boolean isGrant) {
         String[] permissions = Objects.requireNonNull(mArgs.getStringArray(ARG_PERMISSIONS));
-        List<UserPackagePair> failedPackages = new ArrayList<>();
-        float lastProgress = mProgressHandler != null ? mProgressHandler.getLastProgress() : 0;
-        int i = 0;
-        if (permissions.length == 1 && permissions[0].equals("*")) {
-            // Wildcard detected
-            for (UserPackagePair pair : mUserPackagePairs) {
-                updateProgress(lastProgress, ++i);
-                try {
-                    permissions = PackageUtils.getPermissionsForPackage(pair.getPackageName(), pair.getUserId());
-                    if (permissions == null) continue;
-                    for (String permission : permissions) {
-                        if (isGrant) {
-                            PermissionCompat.grantPermission(pair.getPackageName(), permission, pair.getUserId());
-                        } else {
-                            PermissionCompat.revokePermission(pair.getPackageName(), permission, pair.getUserId());
+        // Wildcard means all the permissions of each package
+        boolean allPermissions = permissions.length == 1 && permissions[0].equals("*");
+        return runForEachPackage(isGrant ? OP_GRANT_PERMISSIONS : OP_REVOKE_PERMISSIONS, "GRANT_OR_REVOKE_PERMISSIONS",
+                pair -> {
+                    String[] packagePermissions = allPermissions ? PackageUtils.getPermissionsForPackage(
+                            pair.getPackageName(), pair.getUserId()) : permissions;
+                    if (packagePermissions == null) return;
+                    Throwable error = null;
+                    for (String permission : packagePermissions) {
+                        try {
+                            if (isGrant) {
+                                PermissionCompat.grantPermission(pair.getPackageName(), permission, pair.getUserId());
+                            } else {
+                                PermissionCompat.revokePermission(pair.getPackageName(), permission, pair.getUserId());
+                            }
+                        } catch (Throwable th) {
+                            if (allPermissions) {
+                                throw th;
+                            }
+                            // Try the rest of the permissions before reporting the failure
+                            if (error == null) {
+                                error = th;
+                            } else {
+                                error.addSuppressed(th);
+                            }
                         }
                     }
-                } catch (Throwable e) {
-                    log("====> op=GRANT_OR_REVOKE_PERMISSIONS, pkg=" + pair, e);
-                    failedPackages.add(pair);
-                }
-            }
-        } else {
-            for (UserPackagePair pair : mUserPackagePairs) {
-                updateProgress(lastProgress, ++i);
-                for (String permission : permissions) {
-                    try {
-                        if (isGrant) {
-                            PermissionCompat.grantPermission(pair.getPackageName(), permission, pair.getUserId());
-                        } else {
-                            PermissionCompat.revokePermission(pair.getPackageName(), permission, pair.getUserId());
-                        }
-                    } catch (Throwable e) {
-                        log("====> op=GRANT_OR_REVOKE_PERMISSIONS, pkg=" + pair, e);
-                        failedPackages.add(pair);
+                    if (error != null) {
+                        throw error;
                     }
-                }
-            }
-        }
-        return new Result(failedPackages);
+                });
     }
 
     @NonNull
     private Result opForceStop() {
-        List<UserPackagePair> failedPackages = new ArrayList<>();
-        float lastProgress = mProgressHandler != null ? mProgressHandler.getLastProgress() : 0;
-        int i = 0;
-        for (UserPackagePair pair : mUserPackagePairs) {
-            updateProgress(lastProgress, ++i);
-            try {
-                PackageManagerCompat.forceStopPackage(pair.getPackageName(), pair.getUserId());
-            } catch (Throwable e) {
-                log("====> op=FORCE_STOP, pkg=" + pair, e);
-                failedPackages.add(pair);
-            }
-        }
-        return new Result(failedPackages);
+        return runForEachPackage(OP_FORCE_STOP, "FORCE_STOP",
+                pair -> PackageManagerCompat.forceStopPackage(pair.getPackageName(), pair.getUserId()));
     }
 
     private Result opNetPolicy() {
-        List<UserPackagePair> failedPackages = new ArrayList<>();
-        float lastProgress = mProgressHandler != null ? mProgressHandler.getLastProgress() : 0;
         int netPolicies = mArgs.getInt(ARG_NET_POLICIES, NetworkPolicyManager.POLICY_NONE);
-        int i = 0;
-        for (UserPackagePair pair : mUserPackagePairs) {
-            updateProgress(lastProgress, ++i);
-            try {
-                int uid = PackageUtils.getAppUid(pair);
-                NetworkPolicyManagerCompat.setUidPolicy(uid, netPolicies);
-            } catch (Throwable e) {
-                log("====> op=NET_POLICY, pkg=" + pair, e);
-                failedPackages.add(pair);
-            }
-        }
-        return new Result(failedPackages);
+        return runForEachPackage(OP_NET_POLICY, "NET_POLICY", pair -> {
+            int uid = PackageUtils.getAppUid(pair);
+            NetworkPolicyManagerCompat.setUidPolicy(uid, netPolicies);
+        });
     }
 
     private Result opSetAppOps() {
         int[] appOps = Objects.requireNonNull(mArgs.getIntArray(ARG_APP_OPS));
         int mode = mArgs.getInt(ARG_APP_OP_MODE, AppOpsManager.MODE_IGNORED);
-        List<UserPackagePair> failedPkgList = new ArrayList<>();
-        float lastProgress = mProgressHandler != null ? mProgressHandler.getLastProgress() : 0;
         AppOpsManagerCompat appOpsManager = new AppOpsManagerCompat();
-        int i = 0;
         if (appOps.length == 1 && appOps[0] == AppOpsManagerCompat.OP_NONE) {
             // Wildcard detected
-            for (UserPackagePair pair : mUserPackagePairs) {
-                updateProgress(lastProgress, ++i);
-                try {
-                    List<Integer> appOpList = new ArrayList<>();
-                    ApplicationInfo info = PackageManagerCompat.getApplicationInfo(pair.getPackageName(),
-                            PackageManagerCompat.MATCH_STATIC_SHARED_AND_SDK_LIBRARIES, pair.getUserId());
-                    List<AppOpsManagerCompat.OpEntry> entries = AppOpsManagerCompat.getConfiguredOpsForPackage(
-                            appOpsManager, info.packageName, info.uid);
-                    for (AppOpsManagerCompat.OpEntry entry : entries) {
-                        appOpList.add(entry.getOp());
-                    }
-                    ExternalComponentsImporter.setModeToFilteredAppOps(appOpsManager, pair,
-                            ArrayUtils.convertToIntArray(appOpList), mode);
-                } catch (Exception e) {
-                    log("====> op=SET_APP_OPS, pkg=" + pair, e);
-                    failedPkgList.add(pair);
-                }
-            }
-        } else {
-            for (UserPackagePair pair : mUserPackagePairs) {
-                updateProgress(lastProgress, ++i);
-                try {
-                    ExternalComponentsImporter.setModeToFilteredAppOps(appOpsManager, pair, appOps, mode);
-                } catch (RemoteException e) {
-                    log("====> op=SET_APP_OPS, pkg=" + pair, e);
-                    failedPkgList.add(pair);
+            return runForEachPackage(OP_SET_APP_OPS, "SET_APP_OPS", pair -> {
+                List<Integer> appOpList = new ArrayList<>();
+                ApplicationInfo info = PackageManagerCompat.getApplicationInfo(pair.getPackageName(),
+                        PackageManagerCompat.MATCH_STATIC_SHARED_AND_SDK_LIBRARIES, pair.getUserId());
+                List<AppOpsManagerCompat.OpEntry> entries = AppOpsManagerCompat.getConfiguredOpsForPackage(
+                        appOpsManager, info.packageName, info.uid);
+                for (AppOpsManagerCompat.OpEntry entry : entries) {
+                    appOpList.add(entry.getOp());
                 }
-            }
+                ExternalComponentsImporter.setModeToFilteredAppOps(appOpsManager, pair,
+                        ArrayUtils.convertToIntArray(appOpList), mode);
+            });
         }
-        return new Result(failedPkgList);
+        return runForEachPackage(OP_SET_APP_OPS, "SET_APP_OPS",
+                pair -> ExternalComponentsImporter.setModeToFilteredAppOps(appOpsManager, pair, appOps, mode));
     }
 
     private Result opUnblockComponents() {
         String[] signatures = Objects.requireNonNull(mArgs.getStringArray(ARG_SIGNATURES));
-        List<UserPackagePair> failedPackages = new ArrayList<>();
-        float lastProgress = mProgressHandler != null ? mProgressHandler.getLastProgress() : 0;
-        int i = 0;
-        for (UserPackagePair pair : mUserPackagePairs) {
-            updateProgress(lastProgress, ++i);
-            try {
-                ComponentUtils.unblockFilteredComponents(pair, signatures);
-            } catch (Throwable th) {
-                log("====> op=UNBLOCK_COMPONENTS, pkg=" + pair, th);
-                failedPackages.add(pair);
-            }
-        }
-        return new Result(failedPackages);
+        return runForEachPackage(OP_UNBLOCK_COMPONENTS, "UNBLOCK_COMPONENTS",
+                pair -> ComponentUtils.unblockFilteredComponents(pair, signatures));
     }
 
     private Result opUnblockTrackers() {
-        List<UserPackagePair> failedPackages = new ArrayList<>();
-        float lastProgress = mProgressHandler != null ? mProgressHandler.getLastProgress() : 0;
-        int i = 0;
-        for (UserPackagePair pair : mUserPackagePairs) {
-            updateProgress(lastProgress, ++i);
-            try {
-                ComponentUtils.unblockTrackingComponents(pair);
-            } catch (Throwable th) {
-                log("====> op=UNBLOCK_TRACKERS, pkg=" + pair, th);
-                failedPackages.add(pair);
-            }
-        }
-        return new Result(failedPackages);
+        return runForEachPackage(OP_UNBLOCK_TRACKERS, "UNBLOCK_TRACKERS", ComponentUtils::unblockTrackingComponents);
     }
 
     @NonNull
@@ -852,6 +829,61 @@ public class BatchOpsManager {
         return new Result(failedPackages);
     }
 
+    /**
+     * Run an operation on every package concurrently, limited by the resource the operation is bound by. The users of
+     * the same package are handled one after another in the same task, since the operation may write files specific
+     * to the package, e.g. its rules. Failures are logged in the order of the packages rather than the order they
+     * occurred so that the log is the same regardless of scheduling.
+     */
+    @NonNull
+    private Result runForEachPackage(@OpType int op, @NonNull String opName, @NonNull PackageOp packageOp) {
+        UserPackagePair[] pairs = mUserPackagePairs;
+        Throwable[] errors = new Throwable[pairs.length];
+        BatchOpsScheduler scheduler = new BatchOpsScheduler(BatchOpsScheduler.getResourceType(op));
+        AtomicInteger i = new AtomicInteger(0);
+        float lastProgress = mProgressHandler != null ? mProgressHandler.getLastProgress() : 0;
+        Map<String, List<Integer>> packageIndices = new LinkedHashMap<>();
+        for (int index = 0; index < pairs.length; ++index) {
+            List<Integer> indices = packageIndices.get(pairs[index].getPackageName());
+            if (indices == null) {
+                indices = new ArrayList<>(1);
+                packageIndices.put(pairs[index].getPackageName(), indices);
+            }
+            indices.add(index);
+        }
+        for (Map.Entry<String, List<Integer>> entry : packageIndices.entrySet()) {
+            List<Integer> indices = entry.getValue();
+            scheduler.submit(entry.getKey(), BatchOpsScheduler.PRIORITY_DEFAULT, () -> {
+                for (int pairIndex : indices) {
+                    UserPackagePair pair = pairs[pairIndex];
+                    synchronized (i) {
+                        i.set(i.get() + 1);
+                        updateProgress(lastProgress, i.get());
+                    }
+                    checkpoint(pair, BatchOpsJournalEntry.STATE_RUNNING);
+                    try {
+                        packageOp.run(pair);
+                        checkpoint(pair, BatchOpsJournalEntry.STATE_COMPLETED);
+                    } catch (Throwable th) {
+                        checkpoint(pair, BatchOpsJournalEntry.STATE_FAILED);
+                        errors[pairIndex] = th;
+                    }
+                }
+            });
+        }
+        // Waits for the running tasks even if interrupted, so that errors are not read while they are being written
+        List<BatchOpsScheduler.OpLatency> latencies = scheduler.awaitCompletion();
+        List<UserPackagePair> failedPackages = new ArrayList<>();
+        for (int index = 0; index < pairs.length; ++index) {
+            if (errors[index] != null) {
+                log("====> op=" + opName + ", pkg=" + pairs[index], errors[index]);
+                failedPackages.add(pairs[index]);
+            }
+        }
+        logLatencies(opName, latencies);
+        return new Result(failedPackages);
+    }
+
     private void log(@Nullable String message, @Nullable Throwable th) {
         if (mLogger != null) {
             mLogger.println(message, th);
@@ -864,6 +896,15 @@ public class BatchOpsManager {
         }
     }
 
+    private void logLatencies(@NonNull String opName, @NonNull List<BatchOpsScheduler.OpLatency> latencies) {
+        // Log in the order the tasks were submitted
+        Collections.sort(latencies, (o1, o2) -> Integer.compare(o1.sequence, o2.sequence));
+        for (BatchOpsScheduler.OpLatency latency : latencies) {
+            log(String.format(Locale.ROOT, "====> op=%s, item=%s, queued=%dms, ran=%dms", opName, latency.label,
+                    latency.queuedMillis, latency.runMillis));
+        }
+    }
+
     private void updateProgress(float last, int current) {
         if (mProgressHandler == null) {
             return;
@@ -904,6 +945,11 @@ public class BatchOpsManager {
         return p;
     }
 
+    private interface PackageOp {
+        @WorkerThread
+        void run(@NonNull UserPackagePair pair) throws Throwable;
+    }
+
     public static class Result {
         @NonNull
         private final ArrayList<String> mFailedPackages;
@@ -0,0 +1,248 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.batchops;
+
+import android.os.SystemClock;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.AppManager.utils.MultithreadedExecutor;
+
+/**
+ * Runs the tasks of a batch operation with a concurrency limit based on the resource the operation is bound by, rather
+ * than the number of CPU cores alone. Tasks with a higher priority are started first, and tasks with the same
+ * priority are started in the order they were submitted. The time each task spent in the queue and running is
+ * recorded.
+ */
+public class BatchOpsScheduler {
+    public static final String TAG = BatchOpsScheduler.class.getSimpleName();
+
+    @IntDef({RESOURCE_IO, RESOURCE_CPU, RESOURCE_BINDER})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface ResourceType {
+    }
+
+    /**
+     * The operation reads or writes a lot of data, e.g. backup and restore.
+     */
+    public static final int RESOURCE_IO = 0;
+    /**
+     * The operation mostly uses the CPU of this process.
+     */
+    public static final int RESOURCE_CPU = 1;
+    /**
+     * The operation consists of short calls to the system services, e.g. force-stop.
+     */
+    public static final int RESOURCE_BINDER = 2;
+
+    public static final int PRIORITY_LOW = -1;
+    public static final int PRIORITY_DEFAULT = 0;
+    public static final int PRIORITY_HIGH = 1;
+
+    /**
+     * Maximum number of I/O bound tasks. More than a few of them only compete for the same storage device.
+     */
+    private static final int MAX_IO_TASKS = 2;
+    /**
+     * Maximum number of binder bound tasks. The system server has a limited number of binder threads shared with
+     * every other app.
+     */
+    private static final int MAX_BINDER_TASKS = 4;
+
+    @ResourceType
+    public static int getResourceType(@BatchOpsManager.OpType int op) {
+        switch (op) {
+            case BatchOpsManager.OP_BACKUP_APK:
+            case BatchOpsManager.OP_BACKUP:
+            case BatchOpsManager.OP_DELETE_BACKUP:
+            case BatchOpsManager.OP_RESTORE_BACKUP:
+            case BatchOpsManager.OP_IMPORT_BACKUPS:
+            case BatchOpsManager.OP_CLEAR_CACHE:
+            case BatchOpsManager.OP_CLEAR_DATA:
+            case BatchOpsManager.OP_EXPORT_RULES:
+                return RESOURCE_IO;
+            case BatchOpsManager.OP_BLOCK_COMPONENTS:
+            case BatchOpsManager.OP_BLOCK_TRACKERS:
+            case BatchOpsManager.OP_UNBLOCK_COMPONENTS:
+            case BatchOpsManager.OP_UNBLOCK_TRACKERS:
+                // Scanning the components of the apps
+                return RESOURCE_CPU;
+            case BatchOpsManager.OP_DEXOPT:
+                // Compilation is done by the system, not by this process
+            case BatchOpsManager.OP_DISABLE_BACKGROUND:
+            case BatchOpsManager.OP_FORCE_STOP:
+            case BatchOpsManager.OP_FREEZE:
+            case BatchOpsManager.OP_UNFREEZE:
+            case BatchOpsManager.OP_GRANT_PERMISSIONS:
+            case BatchOpsManager.OP_REVOKE_PERMISSIONS:
+            case BatchOpsManager.OP_NET_POLICY:
+            case BatchOpsManager.OP_SET_APP_OPS:
+            case BatchOpsManager.OP_UNINSTALL:
+            case BatchOpsManager.OP_NONE:
+            default:
+                return RESOURCE_BINDER;
+        }
+    }
+
+    public static int getConcurrencyLimit(@ResourceType int resourceType) {
+        switch (resourceType) {
+            case RESOURCE_IO:
+                return Math.min(MAX_IO_TASKS, MultithreadedExecutor.getThreadCount());
+            case RESOURCE_CPU:
+                return MultithreadedExecutor.getThreadCount();
+            case RESOURCE_BINDER:
+            default:
+                return MAX_BINDER_TASKS;
+        }
+    }
+
+    public static class OpLatency {
+        @NonNull
+        public final String label;
+        /**
+         * Order in which the task was submitted
+         */
+        public final int sequence;
+        /**
+         * Time spent waiting in the queue in milliseconds
+         */
+        public final long queuedMillis;
+        /**
+         * Time spent running in milliseconds
+         */
+        public final long runMillis;
+
+        OpLatency(@NonNull String label, int sequence, long queuedMillis, long runMillis) {
+            this.label = label;
+            this.sequence = sequence;
+            this.queuedMillis = queuedMillis;
+            this.runMillis = runMillis;
+        }
+    }
+
+    private final AtomicInteger mSequence = new AtomicInteger();
+    private final List<OpLatency> mLatencies = Collections.synchronizedList(new ArrayList<>());
+    @NonNull
+    private final ThreadPoolExecutor mExecutor;
+
+    public BatchOpsScheduler(@ResourceType int resourceType) {
+        this(newExecutor(getConcurrencyLimit(resourceType)));
+    }
+
+    private BatchOpsScheduler(@NonNull ThreadPoolExecutor executor) {
+        mExecutor = executor;
+    }
+
+    @VisibleForTesting
+    @NonNull
+    static BatchOpsScheduler withConcurrencyLimit(int concurrencyLimit) {
+        return new BatchOpsScheduler(newExecutor(concurrencyLimit));
+    }
+
+    @NonNull
+    private static ThreadPoolExecutor newExecutor(int concurrencyLimit) {
+        AtomicInteger threadCount = new AtomicInteger();
+        // The queue is unbounded, therefore, the pool never grows beyond the core pool size
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(concurrencyLimit, concurrencyLimit, 0L,
+                TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(),
+                r -> new Thread(r, TAG + "-" + threadCount.incrementAndGet()));
+        // Start the threads beforehand so that every task goes through the queue and is ordered by priority
+        executor.prestartAllCoreThreads();
+        return executor;
+    }
+
+    /**
+     * Submit a task for execution.
+     *
+     * @param label    Name of the task used when reporting its latency, e.g. the package name
+     * @param priority One of {@link #PRIORITY_LOW}, {@link #PRIORITY_DEFAULT} and {@link #PRIORITY_HIGH}
+     */
+    public void submit(@NonNull String label, int priority, @NonNull Runnable task) {
+        mExecutor.execute(new PrioritizedTask(label, priority, mSequence.getAndIncrement(), task));
+    }
+
+    /**
+     * Wait for all the submitted tasks to finish. No more tasks can be submitted after this.
+     * <p>
+     * If the current thread is interrupted while waiting, the queued tasks are discarded and the running tasks are
+     * interrupted. This still waits for the running tasks to finish so that nothing is running when it returns. The
+     * interrupt status is preserved.
+     *
+     * @return Latencies of the tasks finished so far in the order they finished
+     */
+    @WorkerThread
+    @NonNull
+    public List<OpLatency> awaitCompletion() {
+        mExecutor.shutdown();
+        boolean interrupted = false;
+        while (!mExecutor.isTerminated()) {
+            try {
+                mExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                if (!interrupted) {
+                    Log.w(TAG, "Interrupted while waiting for the tasks to finish", e);
+                    mExecutor.shutdownNow();
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (mLatencies) {
+            return new ArrayList<>(mLatencies);
+        }
+    }
+
+    private class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+        @NonNull
+        private final String mLabel;
+        private final int mPriority;
+        private final int mSequence;
+        @NonNull
+        private final Runnable mTask;
+        private final long mSubmitTime;
+
+        PrioritizedTask(@NonNull String label, int priority, int sequence, @NonNull Runnable task) {
+            mLabel = label;
+            mPriority = priority;
+            mSequence = sequence;
+            mTask = task;
+            mSubmitTime = SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void run() {
+            long startTime = SystemClock.elapsedRealtime();
+            try {
+                mTask.run();
+            } finally {
+                long endTime = SystemClock.elapsedRealtime();
+                mLatencies.add(new OpLatency(mLabel, mSequence, startTime - mSubmitTime, endTime - startTime));
+            }
+        }
+
+        @Override
+        public int compareTo(@NonNull PrioritizedTask o) {
+            if (mPriority != o.mPriority) {
+                // Higher priority first
+                return Integer.compare(o.mPriority, mPriority);
+            }
+            return Integer.compare(mSequence, o.mSequence);
+        }
+    }
+}
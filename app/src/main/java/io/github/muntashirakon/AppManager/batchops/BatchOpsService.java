@@ -57,6 +57,11 @@ public class BatchOpsService extends ForegroundService {
      * operation is complete.
      */
     public static final String EXTRA_FAILED_PKG = "EXTRA_FAILED_PKG_ARR";
+    /**
+     * Boolean value to describe whether to resume the batch operation if it was interrupted before, rather than running
+     * it from the beginning. It is always set when the intent is redelivered.
+     */
+    public static final String EXTRA_RESUME = "EXTRA_RESUME";
     /**
      * The failure message.
      */
@@ -112,7 +117,15 @@ public class BatchOpsService extends ForegroundService {
 
     @Override
     public int onStartCommand(@Nullable Intent intent, int flags, int startId) {
-        if (isWorking()) return super.onStartCommand(intent, flags, startId);
+        if (intent != null && (flags & START_FLAG_REDELIVERY) != 0) {
+            // The process was killed while the operation was running or queued
+            intent.putExtra(EXTRA_RESUME, true);
+        }
+        if (isWorking()) {
+            super.onStartCommand(intent, flags, startId);
+            // The operation is resumed using BatchOpsJournal if the process is killed
+            return START_REDELIVER_INTENT;
+        }
         if (intent != null) {
             mOp = intent.getIntExtra(EXTRA_OP, BatchOpsManager.OP_NONE);
         }
@@ -131,7 +144,8 @@ public class BatchOpsService extends ForegroundService {
                 .setBody(getString(R.string.operation_running))
                 .setDefaultAction(pendingIntent);
         mProgressHandler.onAttach(this, mNotificationInfo);
-        return super.onStartCommand(intent, flags, startId);
+        super.onStartCommand(intent, flags, startId);
+        return START_REDELIVER_INTENT;
     }
 
     @Override
@@ -164,6 +178,7 @@ public class BatchOpsService extends ForegroundService {
         }
         BatchOpsManager batchOpsManager = new BatchOpsManager();
         batchOpsManager.setArgs(mArgs);
+        batchOpsManager.setResume(intent.getBooleanExtra(EXTRA_RESUME, false));
         BatchOpsManager.Result result = batchOpsManager.performOp(mOp, mPackages, userHandles, mProgressHandler);
         batchOpsManager.conclude();
         if (result.isSuccessful()) {
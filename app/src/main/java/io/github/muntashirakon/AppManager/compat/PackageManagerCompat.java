@@ -18,6 +18,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.content.pm.ApplicationInfo;
+import android.content.pm.ChangedPackages;
 import android.content.pm.IPackageInstaller;
 import android.content.pm.IPackageManager;
 import android.content.pm.IPackageManagerN;
@@ -290,6 +291,18 @@ public final class PackageManagerCompat {
         return applicationInfo;
     }
 
+    /**
+     * Same as {@link PackageManager#getChangedPackages(int)} but for the given user.
+     *
+     * @return {@code null} if no packages have been changed since the given sequence number
+     */
+    @RequiresApi(Build.VERSION_CODES.O)
+    @Nullable
+    public static ChangedPackages getChangedPackages(int sequenceNumber, @UserIdInt int userId)
+            throws RemoteException {
+        return getPackageManager().getChangedPackages(sequenceNumber, userId);
+    }
+
     @Nullable
     public static String getInstallerPackageName(@NonNull String packageName, @UserIdInt int userId) {
         try {
@@ -409,6 +422,32 @@ public final class PackageManagerCompat {
         }
     }
 
+    /**
+     * Set the states of multiple components at once. Unlike calling
+     * {@link #setComponentEnabledSetting(ComponentName, int, int, int)} for each component, this takes a single call to
+     * the system server and persists the package settings only once. The changes are applied atomically, i.e. if any of
+     * the components does not exist, none of the changes are applied.
+     */
+    @SuppressWarnings("deprecation")
+    @RequiresApi(Build.VERSION_CODES.TIRAMISU)
+    @RequiresPermission(value = Manifest.permission.CHANGE_COMPONENT_ENABLED_STATE)
+    public static void setComponentEnabledSettings(@NonNull List<PackageManager.ComponentEnabledSetting> settings,
+                                                   @UserIdInt int userId)
+            throws RemoteException {
+        IPackageManager pm = getPackageManager();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+            String callingPackage = SelfPermissions.getCallingPackage(Users.getSelfOrRemoteUid());
+            pm.setComponentEnabledSettings(settings, userId, callingPackage);
+        } else pm.setComponentEnabledSettings(settings, userId);
+        if (userId != UserHandleHidden.myUserId()) {
+            Set<String> packageNames = new HashSet<>();
+            for (PackageManager.ComponentEnabledSetting setting : settings) {
+                packageNames.add(setting.getPackageName());
+            }
+            BroadcastUtils.sendPackageAltered(ContextUtils.getContext(), packageNames.toArray(new String[0]));
+        }
+    }
+
     @RequiresPermission(value = Manifest.permission.CHANGE_COMPONENT_ENABLED_STATE)
     public static void setApplicationEnabledSetting(String packageName, @EnabledState int newState,
                                                     @EnabledFlags int flags, @UserIdInt int userId)
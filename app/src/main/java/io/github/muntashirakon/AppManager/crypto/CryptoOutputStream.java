@@ -0,0 +1,99 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.crypto;
+
+import android.os.ParcelFileDescriptor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An {@link OutputStream} that encrypts everything written to it into the given stream. Since
+ * {@link Crypto#encrypt(InputStream, OutputStream)} pulls the unencrypted bytes, the bytes are passed through a pipe
+ * to a worker thread that runs the encryption. The encrypted stream is closed when this stream is closed.
+ */
+public class CryptoOutputStream extends OutputStream {
+    @NonNull
+    private final OutputStream mPipeOut;
+    @NonNull
+    private final Thread mWorker;
+    @Nullable
+    private volatile Throwable mError;
+    private boolean mClosed;
+
+    @WorkerThread
+    public CryptoOutputStream(@NonNull Crypto crypto, @NonNull OutputStream encryptedStream) throws IOException {
+        if (crypto instanceof DummyCrypto) {
+            throw new IllegalArgumentException("DummyCrypto cannot encrypt a stream.");
+        }
+        ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
+        InputStream pipeIn = new ParcelFileDescriptor.AutoCloseInputStream(pipe[0]);
+        mPipeOut = new ParcelFileDescriptor.AutoCloseOutputStream(pipe[1]);
+        mWorker = new Thread(() -> {
+            try (InputStream is = pipeIn; OutputStream os = encryptedStream) {
+                if (crypto instanceof OpenPGPCrypto) {
+                    // OpenPGP may require user interaction which must not be interleaved
+                    synchronized (Crypto.class) {
+                        crypto.encrypt(is, os);
+                    }
+                } else crypto.encrypt(is, os);
+            } catch (Throwable th) {
+                mError = th;
+            }
+        }, "CryptoOutputStream");
+        mWorker.start();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        try {
+            mPipeOut.write(b);
+        } catch (IOException e) {
+            throw getError(e);
+        }
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+        try {
+            mPipeOut.write(b, off, len);
+        } catch (IOException e) {
+            throw getError(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        mPipeOut.close();
+        try {
+            mWorker.join();
+        } catch (InterruptedException e) {
+            mWorker.interrupt();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the encryption to finish.", e);
+        }
+        Throwable error = mError;
+        if (error != null) {
+            throw new IOException("Could not encrypt stream.", error);
+        }
+    }
+
+    @NonNull
+    private IOException getError(@NonNull IOException e) {
+        Throwable error = mError;
+        if (error != null) {
+            // The worker has failed, which is the actual reason behind the broken pipe
+            return new IOException("Could not encrypt stream.", error);
+        }
+        return e;
+    }
+}
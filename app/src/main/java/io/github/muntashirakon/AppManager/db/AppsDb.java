@@ -2,27 +2,45 @@
 
 package io.github.muntashirakon.AppManager.db;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 
 import io.github.muntashirakon.AppManager.db.dao.AppDao;
 import io.github.muntashirakon.AppManager.db.dao.BackupDao;
+import io.github.muntashirakon.AppManager.db.dao.BatchOpsJournalDao;
 import io.github.muntashirakon.AppManager.db.dao.FileHashDao;
 import io.github.muntashirakon.AppManager.db.dao.LogFilterDao;
 import io.github.muntashirakon.AppManager.db.entity.App;
 import io.github.muntashirakon.AppManager.db.entity.Backup;
+import io.github.muntashirakon.AppManager.db.entity.BatchOpsJournalEntry;
 import io.github.muntashirakon.AppManager.db.entity.FileHash;
 import io.github.muntashirakon.AppManager.db.entity.LogFilter;
 import io.github.muntashirakon.AppManager.utils.ContextUtils;
 
-@Database(entities = {App.class, LogFilter.class, FileHash.class, Backup.class}, version = 2)
+@Database(entities = {App.class, LogFilter.class, FileHash.class, Backup.class, BatchOpsJournalEntry.class},
+        version = 3)
 public abstract class AppsDb extends RoomDatabase {
+    @VisibleForTesting
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `batch_ops_journal` (`batch_id` TEXT NOT NULL, "
+                    + "`package_name` TEXT NOT NULL, `user_id` INTEGER NOT NULL, `state` INTEGER NOT NULL DEFAULT 0, "
+                    + "`last_update_time` INTEGER NOT NULL DEFAULT 0, PRIMARY KEY(`batch_id`, `package_name`, `user_id`))");
+        }
+    };
+
     private static AppsDb sAppsDb;
 
     public static AppsDb getInstance() {
         if (sAppsDb == null) {
             sAppsDb = Room.databaseBuilder(ContextUtils.getContext(), AppsDb.class, "apps.db")
+                    .addMigrations(MIGRATION_2_3)
                     .fallbackToDestructiveMigration()
                     .build();
         }
@@ -36,4 +54,6 @@ public abstract class AppsDb extends RoomDatabase {
     public abstract LogFilterDao logFilterDao();
 
     public abstract FileHashDao fileHashDao();
+
+    public abstract BatchOpsJournalDao batchOpsJournalDao();
 }
@@ -0,0 +1,31 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.db.dao;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import java.util.List;
+
+import io.github.muntashirakon.AppManager.db.entity.BatchOpsJournalEntry;
+
+@Dao
+public interface BatchOpsJournalDao {
+    @Query("SELECT * FROM batch_ops_journal WHERE batch_id = :batchId")
+    List<BatchOpsJournalEntry> get(String batchId);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insert(List<BatchOpsJournalEntry> entries);
+
+    @Query("UPDATE batch_ops_journal SET state = :state, last_update_time = :time WHERE batch_id = :batchId " +
+            "AND package_name = :packageName AND user_id = :userId")
+    void updateState(String batchId, String packageName, int userId, int state, long time);
+
+    @Query("DELETE FROM batch_ops_journal WHERE batch_id = :batchId")
+    void delete(String batchId);
+
+    @Query("DELETE FROM batch_ops_journal WHERE last_update_time < :time")
+    void deleteOlderThan(long time);
+}
@@ -0,0 +1,36 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.db.entity;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+
+/**
+ * State of a package in a batch operation that has not finished yet.
+ */
+@SuppressWarnings("NotNullFieldNotInitialized")
+@Entity(tableName = "batch_ops_journal", primaryKeys = {"batch_id", "package_name", "user_id"})
+public class BatchOpsJournalEntry {
+    public static final int STATE_PENDING = 0;
+    public static final int STATE_RUNNING = 1;
+    public static final int STATE_COMPLETED = 2;
+    public static final int STATE_FAILED = 3;
+
+    @ColumnInfo(name = "batch_id")
+    @NonNull
+    public String batchId;
+
+    @ColumnInfo(name = "package_name")
+    @NonNull
+    public String packageName;
+
+    @ColumnInfo(name = "user_id")
+    public int userId;
+
+    @ColumnInfo(name = "state", defaultValue = "0")
+    public int state;
+
+    @ColumnInfo(name = "last_update_time", defaultValue = "0")
+    public long lastUpdateTime;
+}
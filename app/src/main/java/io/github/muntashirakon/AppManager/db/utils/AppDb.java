@@ -19,15 +19,23 @@ import android.util.ArrayMap;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import io.github.muntashirakon.AppManager.backup.BackupUtils;
 import io.github.muntashirakon.AppManager.compat.PackageManagerCompat;
@@ -50,13 +58,32 @@ import io.github.muntashirakon.AppManager.users.Users;
 import io.github.muntashirakon.AppManager.utils.BroadcastUtils;
 import io.github.muntashirakon.AppManager.utils.ExUtils;
 import io.github.muntashirakon.AppManager.utils.KeyStoreUtils;
+import io.github.muntashirakon.AppManager.utils.MultithreadedExecutor;
 import io.github.muntashirakon.AppManager.utils.PackageUtils;
 import io.github.muntashirakon.AppManager.utils.ThreadUtils;
 
 public class AppDb {
     public static final String TAG = AppDb.class.getSimpleName();
 
+    /**
+     * Serialises writes to the database. A refresh loads the apps without it and holds it only to commit them, so that
+     * the other writes are not blocked by a refresh. Reads do not require this lock as Room allows concurrent reads, and
+     * the results of a refresh are written in a single transaction.
+     */
     private static final Object sLock = new Object();
+    /**
+     * Number of writes made to the apps so far. A refresh does not commit the packages written after it has read the
+     * old apps as what it has loaded may be older than those writes. Guarded by {@link #sLock}.
+     */
+    private static long sWriteCount;
+    /**
+     * The write count at the last write of each package. Guarded by {@link #sLock}.
+     */
+    private static final Map<String, Long> sPackageWrites = new HashMap<>();
+    /**
+     * The write count when all the apps were last deleted. Guarded by {@link #sLock}.
+     */
+    private static long sLastDeleteAll;
 
     private final AppDao mAppDao;
     private final BackupDao mBackupDao;
@@ -67,39 +94,27 @@ public class AppDb {
     }
 
     public List<App> getAllApplications() {
-        synchronized (sLock) {
-            return mAppDao.getAll();
-        }
+        return mAppDao.getAll();
     }
 
     public List<App> getAllInstalledApplications() {
-        synchronized (sLock) {
-            return mAppDao.getAllInstalled();
-        }
+        return mAppDao.getAllInstalled();
     }
 
     public List<App> getAllApplications(String packageName) {
-        synchronized (sLock) {
-            return mAppDao.getAll(packageName);
-        }
+        return mAppDao.getAll(packageName);
     }
 
     public List<App> getAllApplications(String packageName, @UserIdInt int userId) {
-        synchronized (sLock) {
-            return mAppDao.getAll(packageName, userId);
-        }
+        return mAppDao.getAll(packageName, userId);
     }
 
     public List<Backup> getAllBackups() {
-        synchronized (sLock) {
-            return mBackupDao.getAll();
-        }
+        return mBackupDao.getAll();
     }
 
     public List<Backup> getAllBackups(String packageName) {
-        synchronized (sLock) {
-            return mBackupDao.get(packageName);
-        }
+        return mBackupDao.get(packageName);
     }
 
     /**
@@ -112,6 +127,7 @@ public class AppDb {
     public void insert(App app) {
         synchronized (sLock) {
             mAppDao.insert(app);
+            recordWrite(app.packageName);
         }
     }
 
@@ -130,12 +146,15 @@ public class AppDb {
     public void deleteApplication(String packageName, int userId) {
         synchronized (sLock) {
             mAppDao.delete(packageName, userId);
+            recordWrite(packageName);
         }
     }
 
     public void deleteAllApplications() {
         synchronized (sLock) {
             mAppDao.deleteAll();
+            sLastDeleteAll = ++sWriteCount;
+            sPackageWrites.clear();
         }
     }
 
@@ -154,37 +173,98 @@ public class AppDb {
     @WorkerThread
     public void loadInstalledOrBackedUpApplications(@NonNull Context context) {
         getBackups(true);
-        updateApplications(context);
+        updateAllApplications(context);
     }
 
     @WorkerThread
     public List<App> updateApplications(@NonNull Context context, @NonNull String[] packageNames) {
-        synchronized (sLock) {
-            List<App> appList = new ArrayList<>();
-            for (String packageName : packageNames) {
-                appList.addAll(updateApplicationInternal(context, packageName));
-            }
-            // Update usage and others
-            updateVariableData(context, appList);
-            mAppDao.insert(appList);
-            return appList;
+        long since = getWriteCount();
+        List<App> appList = new ArrayList<>();
+        List<App> deletedApps = new ArrayList<>();
+        for (String packageName : packageNames) {
+            appList.addAll(updateApplicationInternal(context, packageName, deletedApps));
         }
+        // Update usage and others
+        updateVariableData(context, appList);
+        replaceApps(since, deletedApps, appList);
+        return appList;
     }
 
     @WorkerThread
     public List<App> updateApplication(@NonNull Context context, @NonNull String packageName) {
+        long since = getWriteCount();
+        List<App> deletedApps = new ArrayList<>();
+        List<App> appList = updateApplicationInternal(context, packageName, deletedApps);
+        // Update usage and others
+        updateVariableData(context, appList);
+        replaceApps(since, deletedApps, appList);
+        return appList;
+    }
+
+    /**
+     * Delete and insert the given apps in a single transaction so that readers never see a partially updated list. The
+     * apps of the packages written after {@code since} are skipped, and nothing is written if all the apps have been
+     * deleted since.
+     *
+     * @param since The write count taken before reading the old apps
+     * @return {@code false} if nothing was written as all the apps have been deleted since
+     */
+    private boolean replaceApps(long since, @NonNull List<App> deletedApps, @NonNull List<App> insertedApps) {
         synchronized (sLock) {
-            List<App> appList = updateApplicationInternal(context, packageName);
-            // Update usage and others
-            updateVariableData(context, appList);
-            mAppDao.insert(appList);
-            return appList;
+            if (sLastDeleteAll > since) {
+                Log.d(TAG, "Apps were deleted during the refresh, skipping.");
+                return false;
+            }
+            List<App> deleted = getAppsNotWrittenSince(deletedApps, since);
+            List<App> inserted = getAppsNotWrittenSince(insertedApps, since);
+            AppsDb.getInstance().runInTransaction(() -> {
+                mAppDao.delete(deleted);
+                mAppDao.insert(inserted);
+            });
+            for (App app : deleted) {
+                recordWrite(app.packageName);
+            }
+            for (App app : inserted) {
+                recordWrite(app.packageName);
+            }
+            return true;
         }
     }
 
+    private static long getWriteCount() {
+        synchronized (sLock) {
+            return sWriteCount;
+        }
+    }
+
+    /**
+     * Must be called while holding {@link #sLock}.
+     */
+    private static void recordWrite(@NonNull String packageName) {
+        sPackageWrites.put(packageName, ++sWriteCount);
+    }
+
+    /**
+     * Must be called while holding {@link #sLock}.
+     */
+    @NonNull
+    private static List<App> getAppsNotWrittenSince(@NonNull List<App> apps, long since) {
+        List<App> appList = new ArrayList<>(apps.size());
+        for (App app : apps) {
+            Long lastWrite = sPackageWrites.get(app.packageName);
+            if (lastWrite == null || lastWrite <= since) {
+                appList.add(app);
+            } else {
+                Log.d(TAG, "Skipping %s as it was written during the refresh.", app.packageName);
+            }
+        }
+        return appList;
+    }
+
     @WorkerThread
     @NonNull
-    private List<App> updateApplicationInternal(@NonNull Context context, @NonNull String packageName) {
+    private List<App> updateApplicationInternal(@NonNull Context context, @NonNull String packageName,
+                                                @NonNull List<App> deletedApps) {
         int[] userIds = Users.getUsersIds();
         List<App> oldApps = new ArrayList<>(mAppDao.getAll(packageName));
         List<App> appList = new ArrayList<>(userIds.length);
@@ -215,14 +295,14 @@ public class AppDb {
                 // Neither backup nor package exist
                 if (oldAppIndex >= 0) {
                     // Delete existing backup
-                    mAppDao.delete(oldApps.get(oldAppIndex));
+                    deletedApps.add(oldApps.get(oldAppIndex));
                 }
                 continue;
             }
             if (oldAppIndex >= 0) {
                 // There's already existing app
                 App oldApp = oldApps.get(oldAppIndex);
-                mAppDao.delete(oldApp);
+                deletedApps.add(oldApp);
                 if ((packageInfo != null && isUpToDate(oldApp, packageInfo))
                         || (backup != null && isUpToDate(oldApp, backup))) {
                     // Up-to-date app
@@ -245,95 +325,211 @@ public class AppDb {
         return appList;
     }
 
+    /**
+     * Update the apps that have changed since the last refresh. The package info is loaded again only for the packages
+     * that were added, updated or removed, or whose backups were added or removed while they are not installed. The
+     * rest of the apps keep their package info, but their variable data (usage, sizes, rules, etc.) is still updated.
+     * <p>
+     * All the apps are loaded again if the changes cannot be determined, i.e. before Android 8, on the first refresh,
+     * after a reboot, or when the users have changed.
+     */
     @WorkerThread
     public void updateApplications(@NonNull Context context) {
-        synchronized (sLock) {
-            Map<String, Backup> backups = getBackups(false);
-            List<App> oldApps = new ArrayList<>(mAppDao.getAll());
-            List<App> modifiedApps = new ArrayList<>();
-            Set<String> newApps = new HashSet<>();
-            Set<String> updatedApps = new HashSet<>();
-
-            // Interrupt thread on request
-            if (ThreadUtils.isInterrupted()) return;
-
-            for (int userId : Users.getUsersIds()) {
-                // Interrupt thread on request
-                if (ThreadUtils.isInterrupted()) return;
-
-                List<PackageInfo> packageInfoList = PackageManagerCompat.getInstalledPackages(
-                        GET_SIGNING_CERTIFICATES | PackageManager.GET_ACTIVITIES
-                                | PackageManager.GET_RECEIVERS | PackageManager.GET_PROVIDERS
-                                | PackageManager.GET_SERVICES | MATCH_DISABLED_COMPONENTS
-                                | MATCH_UNINSTALLED_PACKAGES | MATCH_STATIC_SHARED_AND_SDK_LIBRARIES, userId);
-
-                for (PackageInfo packageInfo : packageInfoList) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            PackageChangeJournal journal = PackageChangeJournal.restore(context, Users.getUsersIds());
+            Set<String> changedPackages = journal != null ? journal.getChangedPackages() : null;
+            if (changedPackages != null) {
+                long since = getWriteCount();
+                List<App> oldApps = mAppDao.getAll();
+                changedPackages.addAll(getPackagesWithChangedBackups(oldApps, getBackups(false).values()));
+                Log.d(TAG, "Updating %d changed packages.", changedPackages.size());
+                if (!changedPackages.isEmpty()) {
+                    updateApplications(context, changedPackages.toArray(new String[0]));
                     // Interrupt thread on request
                     if (ThreadUtils.isInterrupted()) return;
-
-                    int oldAppIndex = findIndexOfApp(oldApps, packageInfo.packageName, UserHandleHidden.getUserId(packageInfo.applicationInfo.uid));
-                    if (oldAppIndex >= 0) {
-                        // There's already existing app
-                        App oldApp = oldApps.remove(oldAppIndex);
-                        if (isUpToDate(oldApp, packageInfo)) {
-                            // Up-to-date app
-                            updatedApps.add(oldApp.packageName);
-                            modifiedApps.add(oldApp);
-                            backups.remove(packageInfo.packageName);
-                            oldApp.lastActionTime = System.currentTimeMillis();
-                            continue;
-                        }
+                }
+                // The usage, sizes, etc. of the unchanged apps may have changed as well
+                List<App> unchangedApps = new ArrayList<>(oldApps.size());
+                Set<String> alteredPackages = new HashSet<>(changedPackages);
+                for (App app : oldApps) {
+                    if (!changedPackages.contains(app.packageName)) {
+                        unchangedApps.add(app);
+                        alteredPackages.add(app.packageName);
                     }
-                    // New app
-                    App app = App.fromPackageInfo(context, packageInfo);
-                    backups.remove(packageInfo.packageName);
-                    newApps.add(app.packageName);
-                    modifiedApps.add(app);
                 }
-            }
-
-            // Update usage and others
-            updateVariableData(context, modifiedApps);
-
-            // Add rest of the backup items, i.e., items that aren't installed
-            for (Backup backup : backups.values()) {
-                if (backup == null) continue;
+                updateVariableData(context, unchangedApps);
                 // Interrupt thread on request
                 if (ThreadUtils.isInterrupted()) return;
-
-                int oldAppIndex = findIndexOfApp(oldApps, backup.packageName, backup.userId);
-                if (oldAppIndex >= 0) {
-                    // There's already existing app
-                    App oldApp = oldApps.remove(oldAppIndex);
-                    if (isUpToDate(oldApp, backup)) {
-                        // Up-to-date app
-                        updatedApps.add(oldApp.packageName);
-                        modifiedApps.add(oldApp);
-                        continue;
-                    }
+                if (!replaceApps(since, Collections.emptyList(), unchangedApps)) return;
+                if (!alteredPackages.isEmpty()) {
+                    BroadcastUtils.sendDbPackageAltered(context, alteredPackages.toArray(new String[0]));
                 }
-                // New app
-                App app = App.fromBackup(backup);
-                newApps.add(app.packageName);
-                modifiedApps.add(app);
+                journal.save();
+                return;
+            }
+        }
+        updateAllApplications(context);
+    }
+
+    /**
+     * Get the packages that are backed up but not in the database yet, or are in the database only because of a
+     * backup that has been replaced or deleted since. The package manager does not report these as changed.
+     */
+    @VisibleForTesting
+    @NonNull
+    static Set<String> getPackagesWithChangedBackups(@NonNull List<App> apps, @NonNull Collection<Backup> backups) {
+        Set<String> packageNames = new HashSet<>();
+        PackageUserMap<App> appMap = mapApps(apps);
+        Set<String> backedUpPackages = new HashSet<>(backups.size());
+        for (Backup backup : backups) {
+            if (backup == null) continue;
+            backedUpPackages.add(backup.packageName);
+            App app = appMap.get(backup.packageName, backup.userId);
+            if (app == null || (!app.isInstalled && !isUpToDate(app, backup))) {
+                packageNames.add(backup.packageName);
             }
-            // Add new data
-            mAppDao.delete(oldApps);
-            mAppDao.insert(modifiedApps);
-            if (!oldApps.isEmpty()) {
-                // Delete broadcast
-                BroadcastUtils.sendDbPackageRemoved(context, getPackageNamesFromApps(oldApps));
+        }
+        for (App app : apps) {
+            // Uninstalled system apps are not loaded from backups
+            if (!app.isInstalled && app.sdk == 0 && !backedUpPackages.contains(app.packageName)) {
+                packageNames.add(app.packageName);
             }
-            if (!newApps.isEmpty()) {
-                // New apps
-                BroadcastUtils.sendDbPackageAdded(context, newApps.toArray(new String[0]));
+        }
+        return packageNames;
+    }
+
+    /**
+     * Load all the apps again, regardless of whether they have changed.
+     */
+    @WorkerThread
+    public void updateAllApplications(@NonNull Context context) {
+        // Must be taken before loading the packages in order not to miss any changes made in the meantime
+        PackageChangeJournal journal = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                ? PackageChangeJournal.getCurrent(context, Users.getUsersIds()) : null;
+        Map<String, Backup> backups = getBackups(false);
+        long since = getWriteCount();
+        PackageUserMap<App> oldApps = mapApps(mAppDao.getAll());
+        List<App> modifiedApps = new ArrayList<>();
+        Set<String> newApps = new HashSet<>();
+        Set<String> updatedApps = new HashSet<>();
+
+        // Interrupt thread on request
+        if (ThreadUtils.isInterrupted()) return;
+
+        // Load installed apps for each user in parallel. Shards only read from oldApps.
+        int[] userIds = Users.getUsersIds();
+        List<Callable<UserShard>> shardTasks = new ArrayList<>(userIds.length);
+        Thread callerThread = Thread.currentThread();
+        for (int userId : userIds) {
+            shardTasks.add(() -> loadUserShard(context, userId, oldApps, callerThread));
+        }
+        List<UserShard> shards = invokeAll(shardTasks);
+        if (shards == null || ThreadUtils.isInterrupted()) return;
+
+        for (UserShard shard : shards) {
+            for (App oldApp : shard.matchedApps) {
+                oldApps.remove(oldApp.packageName, oldApp.userId);
             }
-            if (!updatedApps.isEmpty()) {
-                // Altered apps
-                BroadcastUtils.sendDbPackageAltered(context, updatedApps.toArray(new String[0]));
+            for (String packageName : shard.installedPackages) {
+                backups.remove(packageName);
             }
+            modifiedApps.addAll(shard.modifiedApps);
+            newApps.addAll(shard.newApps);
+            updatedApps.addAll(shard.updatedApps);
         }
 
+        // Update usage and others
+        updateVariableData(context, modifiedApps);
+
+        // Add rest of the backup items, i.e., items that aren't installed
+        for (Backup backup : backups.values()) {
+            if (backup == null) continue;
+            // Interrupt thread on request
+            if (ThreadUtils.isInterrupted()) return;
+
+            App oldApp = oldApps.remove(backup.packageName, backup.userId);
+            if (oldApp != null) {
+                // There's already existing app
+                if (isUpToDate(oldApp, backup)) {
+                    // Up-to-date app
+                    updatedApps.add(oldApp.packageName);
+                    modifiedApps.add(oldApp);
+                    continue;
+                }
+            }
+            // New app
+            App app = App.fromBackup(backup);
+            newApps.add(app.packageName);
+            modifiedApps.add(app);
+        }
+        // Add new data
+        List<App> removedApps = oldApps.values();
+        if (!replaceApps(since, removedApps, modifiedApps)) return;
+        if (!removedApps.isEmpty()) {
+            // Delete broadcast
+            BroadcastUtils.sendDbPackageRemoved(context, getPackageNamesFromApps(removedApps));
+        }
+        if (!newApps.isEmpty()) {
+            // New apps
+            BroadcastUtils.sendDbPackageAdded(context, newApps.toArray(new String[0]));
+        }
+        if (!updatedApps.isEmpty()) {
+            // Altered apps
+            BroadcastUtils.sendDbPackageAltered(context, updatedApps.toArray(new String[0]));
+        }
+        if (journal != null) {
+            journal.save();
+        }
+    }
+
+    /**
+     * Apps of a single user loaded during a refresh.
+     */
+    private static final class UserShard {
+        final List<App> modifiedApps = new ArrayList<>();
+        /**
+         * Apps from the database that are still installed
+         */
+        final List<App> matchedApps = new ArrayList<>();
+        final Set<String> installedPackages = new HashSet<>();
+        final Set<String> newApps = new HashSet<>();
+        final Set<String> updatedApps = new HashSet<>();
+    }
+
+    @WorkerThread
+    @NonNull
+    private static UserShard loadUserShard(@NonNull Context context, @UserIdInt int userId,
+                                           @NonNull PackageUserMap<App> oldApps, @NonNull Thread callerThread) {
+        UserShard shard = new UserShard();
+        List<PackageInfo> packageInfoList = PackageManagerCompat.getInstalledPackages(
+                GET_SIGNING_CERTIFICATES | PackageManager.GET_ACTIVITIES
+                        | PackageManager.GET_RECEIVERS | PackageManager.GET_PROVIDERS
+                        | PackageManager.GET_SERVICES | MATCH_DISABLED_COMPONENTS
+                        | MATCH_UNINSTALLED_PACKAGES | MATCH_STATIC_SHARED_AND_SDK_LIBRARIES, userId);
+
+        for (PackageInfo packageInfo : packageInfoList) {
+            // Interrupt thread on request
+            if (callerThread.isInterrupted()) break;
+
+            shard.installedPackages.add(packageInfo.packageName);
+            App oldApp = oldApps.get(packageInfo.packageName, UserHandleHidden.getUserId(packageInfo.applicationInfo.uid));
+            if (oldApp != null) {
+                // There's already existing app
+                shard.matchedApps.add(oldApp);
+                if (isUpToDate(oldApp, packageInfo)) {
+                    // Up-to-date app
+                    shard.updatedApps.add(oldApp.packageName);
+                    shard.modifiedApps.add(oldApp);
+                    oldApp.lastActionTime = System.currentTimeMillis();
+                    continue;
+                }
+            }
+            // New app
+            App app = App.fromPackageInfo(context, packageInfo);
+            shard.newApps.add(app.packageName);
+            shard.modifiedApps.add(app);
+        }
+        return shard;
     }
 
     @WorkerThread
@@ -350,7 +546,7 @@ public class AppDb {
     private static void updateVariableData(@NonNull Context context, @NonNull List<App> modifiedApps) {
         UriManager uriManager = new UriManager();
         ArrayMap<Integer, SsaidSettings> userIdSsaidSettingsMap = new ArrayMap<>();
-        List<PackageUsageInfo> packageUsageInfoList = new ArrayList<>();
+        PackageUserMap<PackageUsageInfo> packageUsageInfoMap = new PackageUserMap<>();
         boolean hasUsageAccess = FeatureController.isUsageAccessEnabled() && SelfPermissions.checkUsageStatsPermission();
         for (int userId : Users.getUsersIds()) {
             // Interrupt thread on request
@@ -359,7 +555,9 @@ public class AppDb {
                 List<PackageUsageInfo> usageInfoList = ExUtils.exceptionAsNull(() -> AppUsageStatsManager.getInstance()
                         .getUsageStats(UsageUtils.USAGE_WEEKLY, userId));
                 if (usageInfoList != null) {
-                    packageUsageInfoList.addAll(usageInfoList);
+                    for (PackageUsageInfo usageInfo : usageInfoList) {
+                        packageUsageInfoMap.put(usageInfo.packageName, usageInfo.userId, usageInfo);
+                    }
                 }
             }
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
@@ -370,50 +568,96 @@ public class AppDb {
                 }
             }
         }
+        // Load the rest in parallel. The maps above are no longer modified and are safe to be read concurrently.
+        Thread callerThread = Thread.currentThread();
+        List<Callable<Void>> tasks = new ArrayList<>(modifiedApps.size());
         for (App app : modifiedApps) {
             if (!app.isInstalled && !app.isSystemApp()) {
                 continue;
             }
-            int userId = app.userId;
-            try (ComponentsBlocker cb = ComponentsBlocker.getInstance(app.packageName, userId, false)) {
-                app.rulesCount = cb.entryCount();
-            }
-            app.codeSize = app.dataSize = 0;
-            if (hasUsageAccess) {
-                PackageSizeInfo sizeInfo = PackageUtils.getPackageSizeInfo(context, app.packageName, userId, null);
-                if (sizeInfo != null) {
-                    app.codeSize = sizeInfo.codeSize + sizeInfo.obbSize;
-                    app.dataSize = sizeInfo.dataSize + sizeInfo.mediaSize + sizeInfo.cacheSize;
+            tasks.add(() -> {
+                // Interrupt thread on request
+                if (!callerThread.isInterrupted()) {
+                    updateVariableData(context, app, hasUsageAccess, uriManager,
+                            userIdSsaidSettingsMap.get(app.userId), packageUsageInfoMap);
                 }
+                return null;
+            });
+        }
+        invokeAll(tasks);
+    }
+
+    @WorkerThread
+    private static void updateVariableData(@NonNull Context context, @NonNull App app, boolean hasUsageAccess,
+                                           @NonNull UriManager uriManager, @Nullable SsaidSettings ssaidSettings,
+                                           @NonNull PackageUserMap<PackageUsageInfo> packageUsageInfoMap) {
+        int userId = app.userId;
+        try (ComponentsBlocker cb = ComponentsBlocker.getInstance(app.packageName, userId, false)) {
+            app.rulesCount = cb.entryCount();
+        }
+        app.codeSize = app.dataSize = 0;
+        if (hasUsageAccess) {
+            PackageSizeInfo sizeInfo = PackageUtils.getPackageSizeInfo(context, app.packageName, userId, null);
+            if (sizeInfo != null) {
+                app.codeSize = sizeInfo.codeSize + sizeInfo.obbSize;
+                app.dataSize = sizeInfo.dataSize + sizeInfo.mediaSize + sizeInfo.cacheSize;
             }
-            // Interrupt thread on request
-            if (ThreadUtils.isInterrupted()) return;
-            if (!app.isInstalled) {
-                continue;
-            }
-            app.hasKeystore = KeyStoreUtils.hasKeyStore(app.uid);
-            app.usesSaf = uriManager.getGrantedUris(app.packageName) != null;
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                SsaidSettings ssaidSettings = userIdSsaidSettingsMap.get(userId);
-                if (ssaidSettings != null) {
-                    String ssaid = ssaidSettings.getSsaid(app.packageName, app.uid);
-                    app.ssaid = TextUtils.isEmpty(ssaid) ? null : ssaid;
-                } else {
-                    app.ssaid = null;
+        }
+        if (!app.isInstalled) {
+            return;
+        }
+        app.hasKeystore = KeyStoreUtils.hasKeyStore(app.uid);
+        app.usesSaf = uriManager.getGrantedUris(app.packageName) != null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            if (ssaidSettings != null) {
+                String ssaid;
+                // Settings state is not thread-safe
+                synchronized (ssaidSettings) {
+                    ssaid = ssaidSettings.getSsaid(app.packageName, app.uid);
                 }
-            }
-            PackageUsageInfo usageInfo = findUsage(packageUsageInfoList, app.packageName, userId);
-            if (usageInfo != null) {
-                app.mobileDataUsage = usageInfo.mobileData != null ? usageInfo.mobileData.getTotal() : 0;
-                app.wifiDataUsage = usageInfo.wifiData != null ? usageInfo.wifiData.getTotal() : 0;
-                app.openCount = usageInfo.timesOpened;
-                app.screenTime = usageInfo.screenTime;
-                app.lastUsageTime = usageInfo.lastUsageTime;
+                app.ssaid = TextUtils.isEmpty(ssaid) ? null : ssaid;
             } else {
-                app.mobileDataUsage = app.wifiDataUsage = app.screenTime = app.lastUsageTime = 0;
-                app.openCount = 0;
+                app.ssaid = null;
             }
         }
+        PackageUsageInfo usageInfo = packageUsageInfoMap.get(app.packageName, userId);
+        if (usageInfo != null) {
+            app.mobileDataUsage = usageInfo.mobileData != null ? usageInfo.mobileData.getTotal() : 0;
+            app.wifiDataUsage = usageInfo.wifiData != null ? usageInfo.wifiData.getTotal() : 0;
+            app.openCount = usageInfo.timesOpened;
+            app.screenTime = usageInfo.screenTime;
+            app.lastUsageTime = usageInfo.lastUsageTime;
+        } else {
+            app.mobileDataUsage = app.wifiDataUsage = app.screenTime = app.lastUsageTime = 0;
+            app.openCount = 0;
+        }
+    }
+
+    /**
+     * Run the given tasks using a {@link MultithreadedExecutor} and wait for them to finish.
+     *
+     * @return Results in the order of the tasks, or {@code null} if the current thread is interrupted while waiting. In
+     * the latter case, the remaining tasks are cancelled and the interrupt status is preserved.
+     */
+    @WorkerThread
+    @Nullable
+    private static <T> List<T> invokeAll(@NonNull List<Callable<T>> tasks) {
+        MultithreadedExecutor executor = MultithreadedExecutor.getNewInstance();
+        try {
+            List<Future<T>> futures = executor.invokeAll(tasks);
+            List<T> results = new ArrayList<>(futures.size());
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return ExUtils.rethrowAsRuntimeException(Objects.requireNonNull(e.getCause()));
+        } finally {
+            executor.shutdown();
+        }
     }
 
     private static int findIndexOfApp(@NonNull List<App> appList, @NonNull String packageName, @UserIdInt int userId) {
@@ -426,14 +670,13 @@ public class AppDb {
         return -1;
     }
 
-    @Nullable
-    private static PackageUsageInfo findUsage(@NonNull List<PackageUsageInfo> usageInfoList, @NonNull String packageName, @UserIdInt int userId) {
-        for (PackageUsageInfo usageInfo : usageInfoList) {
-            if (usageInfo.userId == userId && usageInfo.packageName.equals(packageName)) {
-                return usageInfo;
-            }
+    @NonNull
+    private static PackageUserMap<App> mapApps(@NonNull List<App> appList) {
+        PackageUserMap<App> appMap = new PackageUserMap<>();
+        for (App app : appList) {
+            appMap.put(app.packageName, app.userId, app);
         }
-        return null;
+        return appMap;
     }
 
     private static boolean isUpToDate(@NonNull App currentApp, @NonNull PackageInfo installedPackageInfo) {
@@ -0,0 +1,166 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.db.utils;
+
+import android.annotation.UserIdInt;
+import android.content.Context;
+import android.content.pm.ChangedPackages;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.provider.Settings;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import io.github.muntashirakon.AppManager.compat.PackageManagerCompat;
+import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.AppManager.utils.AppPref;
+
+/**
+ * Keeps track of the sequence number of the package manager (see {@link PackageManager#getChangedPackages(int)}) so
+ * that only the packages changed since the last refresh have to be loaded again. The sequence number is reset on every
+ * boot, and the packages of a new user are never reported as changed. Therefore, the journal is stored along with the
+ * boot count and the users, and is considered lost if any of these differ.
+ */
+@RequiresApi(Build.VERSION_CODES.O)
+final class PackageChangeJournal {
+    public static final String TAG = PackageChangeJournal.class.getSimpleName();
+
+    /**
+     * Get the current state of the package manager. This should be called <em>before</em> loading all the packages so
+     * that the packages changed in the meantime are loaded again during the next refresh.
+     *
+     * @return {@code null} if the state cannot be determined
+     */
+    @WorkerThread
+    @Nullable
+    public static PackageChangeJournal getCurrent(@NonNull Context context, @NonNull int[] userIds) {
+        int bootCount = getBootCount(context);
+        if (bootCount == -1 || userIds.length == 0) {
+            return null;
+        }
+        try {
+            // The sequence number is shared by all users
+            ChangedPackages changedPackages = PackageManagerCompat.getChangedPackages(0, userIds[0]);
+            int sequenceNumber = changedPackages != null ? changedPackages.getSequenceNumber() : 0;
+            return new PackageChangeJournal(bootCount, sequenceNumber, userIds);
+        } catch (Exception e) {
+            Log.w(TAG, "Could not get sequence number.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Restore the journal saved during the last refresh.
+     *
+     * @return {@code null} if there is no journal or the journal is lost
+     */
+    @Nullable
+    public static PackageChangeJournal restore(@NonNull Context context, @NonNull int[] userIds) {
+        PackageChangeJournal journal = parse(AppPref.getString(AppPref.PrefKey.PREF_APP_DB_CHANGE_JOURNAL_STR));
+        if (journal == null) {
+            return null;
+        }
+        if (journal.mBootCount != getBootCount(context) || !Arrays.equals(journal.mUserIds, userIds)) {
+            // Rebooted or users changed
+            return null;
+        }
+        return journal;
+    }
+
+    @VisibleForTesting
+    @Nullable
+    static PackageChangeJournal parse(@Nullable String journalStr) {
+        if (journalStr == null || journalStr.isEmpty()) {
+            return null;
+        }
+        // Format: bootCount:sequenceNumber:userId1,userId2,...
+        String[] parts = journalStr.split(":", 3);
+        if (parts.length != 3 || parts[2].isEmpty()) {
+            return null;
+        }
+        try {
+            String[] userIdStrs = parts[2].split(",");
+            int[] userIds = new int[userIdStrs.length];
+            for (int i = 0; i < userIds.length; ++i) {
+                userIds[i] = Integer.parseInt(userIdStrs[i]);
+            }
+            return new PackageChangeJournal(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), userIds);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static int getBootCount(@NonNull Context context) {
+        return Settings.Global.getInt(context.getContentResolver(), Settings.Global.BOOT_COUNT, -1);
+    }
+
+    private final int mBootCount;
+    @NonNull
+    private final int[] mUserIds;
+    private int mSequenceNumber;
+
+    @VisibleForTesting
+    PackageChangeJournal(int bootCount, int sequenceNumber, @NonNull int[] userIds) {
+        mBootCount = bootCount;
+        mSequenceNumber = sequenceNumber;
+        mUserIds = userIds;
+    }
+
+    @VisibleForTesting
+    int getSequenceNumber() {
+        return mSequenceNumber;
+    }
+
+    /**
+     * Get the packages that have been added, updated or removed for any user since this journal was saved, and advance
+     * the journal to the current sequence number. The journal has to be {@link #save() saved} once the packages are
+     * loaded.
+     *
+     * @return {@code null} if the changes cannot be determined, in which case all the packages have to be loaded
+     */
+    @WorkerThread
+    @Nullable
+    public Set<String> getChangedPackages() {
+        Set<String> packageNames = new HashSet<>();
+        int sequenceNumber = mSequenceNumber;
+        try {
+            for (@UserIdInt int userId : mUserIds) {
+                ChangedPackages changedPackages = PackageManagerCompat.getChangedPackages(mSequenceNumber, userId);
+                if (changedPackages == null) {
+                    // No changes for this user
+                    continue;
+                }
+                packageNames.addAll(changedPackages.getPackageNames());
+                sequenceNumber = Math.max(sequenceNumber, changedPackages.getSequenceNumber());
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Could not get changed packages.", e);
+            return null;
+        }
+        mSequenceNumber = sequenceNumber;
+        return packageNames;
+    }
+
+    public void save() {
+        AppPref.set(AppPref.PrefKey.PREF_APP_DB_CHANGE_JOURNAL_STR, toString());
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder().append(mBootCount).append(':').append(mSequenceNumber).append(':');
+        for (int i = 0; i < mUserIds.length; ++i) {
+            if (i > 0) sb.append(',');
+            sb.append(mUserIds[i]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,72 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.db.utils;
+
+import android.annotation.UserIdInt;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.collection.SparseArrayCompat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A map keyed by package name and user ID. Values are grouped by user so that a lookup neither scans a list nor
+ * allocates a composite key.
+ */
+final class PackageUserMap<V> {
+    private final SparseArrayCompat<HashMap<String, V>> mUserMaps = new SparseArrayCompat<>(2);
+    private int mSize;
+
+    @Nullable
+    public V get(@NonNull String packageName, @UserIdInt int userId) {
+        HashMap<String, V> map = mUserMaps.get(userId);
+        return map != null ? map.get(packageName) : null;
+    }
+
+    @Nullable
+    public V put(@NonNull String packageName, @UserIdInt int userId, @NonNull V value) {
+        HashMap<String, V> map = mUserMaps.get(userId);
+        if (map == null) {
+            map = new HashMap<>();
+            mUserMaps.put(userId, map);
+        }
+        V oldValue = map.put(packageName, value);
+        if (oldValue == null) {
+            ++mSize;
+        }
+        return oldValue;
+    }
+
+    @Nullable
+    public V remove(@NonNull String packageName, @UserIdInt int userId) {
+        HashMap<String, V> map = mUserMaps.get(userId);
+        if (map == null) {
+            return null;
+        }
+        V value = map.remove(packageName);
+        if (value != null) {
+            --mSize;
+        }
+        return value;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    @NonNull
+    public List<V> values() {
+        List<V> values = new ArrayList<>(mSize);
+        for (int i = 0; i < mUserMaps.size(); ++i) {
+            values.addAll(mUserMaps.valueAt(i).values());
+        }
+        return values;
+    }
+}
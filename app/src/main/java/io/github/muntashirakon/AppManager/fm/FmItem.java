@@ -101,7 +101,9 @@ public class FmItem implements Comparable<FmItem> {
     public void cache() {
         try {
             getTag();
-            fetchAttributes();
+            if (mAttributes == null) {
+                fetchAttributes();
+            }
             if (ThreadUtils.isInterrupted()) {
                 return;
             }
@@ -31,6 +31,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.Future;
@@ -364,12 +365,15 @@ public class FmViewModel extends AndroidViewModel implements ListOptions.ListOpt
                     }
                 } else {
                     s = System.currentTimeMillis();
-                    Path[] children = path.listFiles();
+                    // Attributes are fetched along with the files when possible to avoid fetching them one by one
+                    Map<Path, PathAttributes> children = path.listFilesWithAttributes();
                     e = System.currentTimeMillis();
                     Log.d(TAG, "Time to list files: %d ms", e - s);
                     s = System.currentTimeMillis();
-                    for (Path child : children) {
-                        FmItem fmItem = new FmItem(child);
+                    for (Map.Entry<Path, PathAttributes> child : children.entrySet()) {
+                        PathAttributes attributes = child.getValue();
+                        FmItem fmItem = attributes != null ? new FmItem(child.getKey(), attributes)
+                                : new FmItem(child.getKey());
                         mFmItems.add(fmItem);
                         if (fmItem.isDirectory) {
                             ++folderCount;
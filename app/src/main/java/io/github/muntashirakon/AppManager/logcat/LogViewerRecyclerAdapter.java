@@ -19,10 +19,10 @@ import androidx.annotation.Nullable;
 import androidx.appcompat.widget.PopupMenu;
 import androidx.collection.SparseArrayCompat;
 import androidx.core.content.ContextCompat;
+import androidx.core.util.Pair;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Objects;
@@ -31,6 +31,7 @@ import java.util.Set;
 import io.github.muntashirakon.AppManager.BuildConfig;
 import io.github.muntashirakon.AppManager.R;
 import io.github.muntashirakon.AppManager.logcat.struct.LogLine;
+import io.github.muntashirakon.AppManager.logcat.struct.LogLineBuffer;
 import io.github.muntashirakon.AppManager.logcat.struct.SearchCriteria;
 import io.github.muntashirakon.AppManager.logs.Log;
 import io.github.muntashirakon.AppManager.settings.Prefs;
@@ -99,29 +100,41 @@ public class LogViewerRecyclerAdapter extends MultiSelectionView.Adapter<LogView
     }
 
     /**
-     * Lock used to modify the content of {@link #mObjects}. Any write operation
-     * performed on the array should be synchronized on this lock. This lock is also
-     * used by the filter (see {@link #getFilter()} to make a synchronized copy of
-     * the original array of data.
+     * Lock used to modify the content of {@link #mLines} and {@link #mFilteredIds}. Any write operation performed on
+     * them should be synchronized on this lock. This lock is also used by the filter (see {@link #getFilter()}) to
+     * read the lines in batches.
      */
     private final Object mLock = new Object();
     /**
-     * Contains the list of objects that represent the data of this ArrayAdapter.
-     * The content of this list is referred to as "the array" in the documentation.
+     * All the lines added to this adapter, up to the display limit.
      */
     @GuardedBy("mLock")
-    private List<LogLine> mObjects;
+    private final LogLineBuffer mLines;
+    /**
+     * IDs of the lines in {@link #mLines} that are displayed, or {@code null} if no filter was ever applied, in which
+     * case all the lines are displayed.
+     */
+    @GuardedBy("mLock")
+    @Nullable
+    private IdList mFilteredIds;
 
     private ViewHolder.OnSearchByClickListener mSearchByClickListener;
 
-    private ArrayList<LogLine> mOriginalValues;
     private ArrayFilter mFilter;
+    @Nullable
+    private String mLastQuery;
+    @Nullable
+    private SearchCriteria mLastSearchCriteria;
 
     private int mLogLevelLimit = Prefs.LogViewer.getLogLevel();
-    private final Set<LogLine> mSelectedLogLines = new LinkedHashSet<>();
+    private final Set<Long> mSelectedIds = new LinkedHashSet<>();
 
     public LogViewerRecyclerAdapter() {
-        mObjects = new ArrayList<>();
+        this(Prefs.LogViewer.getDisplayLimit());
+    }
+
+    public LogViewerRecyclerAdapter(int displayLimit) {
+        mLines = new LogLineBuffer(displayLimit);
         setHasStableIds(true);
     }
 
@@ -133,194 +146,195 @@ public class LogViewerRecyclerAdapter extends MultiSelectionView.Adapter<LogView
     @GuardedBy("mLock")
     public void add(LogLine object, boolean notify) {
         synchronized (mLock) {
-            if (mOriginalValues != null) {
-                mOriginalValues.add(object);
+            long id = append(object, notify);
+            if (mFilteredIds != null) {
+                mFilteredIds.add(id);
             }
-            mObjects.add(object);
             if (notify) {
-                notifyItemInserted(mObjects.size() - 1);
-            }
-        }
-    }
-
-    @GuardedBy("mLock")
-    public void readAll(LogLine object, boolean notify) {
-        synchronized (mLock) {
-            if (mOriginalValues != null) {
-                mOriginalValues.add(object);
-            }
-            mObjects.add(object);
-            if (notify) {
-                notifyItemInserted(mObjects.size() - 1);
+                notifyItemInserted(getItemCount() - 1);
             }
         }
     }
 
     public void addWithFilter(@NonNull LogLine object, @Nullable CharSequence text, boolean notify) {
-        if (mOriginalValues != null) {
-            List<LogLine> inputList = Collections.singletonList(object);
-            if (mFilter == null) {
-                mFilter = new ArrayFilter();
-            }
-            List<LogLine> filteredObjects = mFilter.performFilteringOnList(inputList, text);
-            synchronized (mLock) {
-                mOriginalValues.add(object);
-                mObjects.addAll(filteredObjects);
-                if (!filteredObjects.isEmpty() && notify) {
-                    notifyItemRangeInserted(mObjects.size() - filteredObjects.size(), filteredObjects.size());
+        synchronized (mLock) {
+            long id = append(object, notify);
+            if (mFilteredIds == null) {
+                if (notify) {
+                    notifyItemInserted(mLines.size() - 1);
                 }
-            }
-        } else {
-            synchronized (mLock) {
-                mObjects.add(object);
+            } else if (matches(object, getSearchCriteria(text))) {
+                mFilteredIds.add(id);
                 if (notify) {
-                    notifyItemInserted(mObjects.size() - 1);
+                    notifyItemInserted(mFilteredIds.size() - 1);
                 }
             }
         }
     }
 
+    public void removeFirst(int n) {
+        StopWatch stopWatch = new StopWatch("removeFirst()");
+        synchronized (mLock) {
+            long firstId = mLines.getFirstId();
+            mLines.removeFirst(n);
+            onLinesEvicted((int) (mLines.getFirstId() - firstId), true);
+        }
+        stopWatch.log();
+    }
+
     /**
-     * Inserts the specified object at the specified index in the array.
-     *
-     * @param object The object to insert into the array.
-     * @param index  The index at which the object must be inserted.
+     * Remove all elements from the list.
      */
     @GuardedBy("mLock")
-    public void insert(LogLine object, int index) {
+    public void clear() {
         synchronized (mLock) {
-            if (mOriginalValues != null) {
-                mOriginalValues.add(index, object);
-            } else {
-                mObjects.add(index, object);
-                notifyItemChanged(index);
+            int size = getItemCount();
+            mLines.clear();
+            if (mFilteredIds != null) {
+                mFilteredIds.clear();
             }
+            notifyItemRangeRemoved(0, size);
         }
     }
 
-    /**
-     * Removes the specified object from the array.
-     *
-     * @param object The object to remove.
-     */
     @GuardedBy("mLock")
-    public void remove(LogLine object) {
+    public LogLine getItem(int position) {
         synchronized (mLock) {
-            if (mOriginalValues != null) {
-                mOriginalValues.remove(object);
-            } else {
-                int pos = mObjects.indexOf(object);
-                if (pos >= 0) {
-                    mObjects.remove(pos);
-                    notifyItemRemoved(pos);
-                }
-            }
+            return mLines.get(getIdAt(position));
         }
     }
 
-    public void removeFirst(int n) {
-        StopWatch stopWatch = new StopWatch("removeFirst()");
-        if (mOriginalValues != null) {
+    @GuardedBy("mLock")
+    public int getRealSize() {
+        synchronized (mLock) {
+            return mLines.size();
+        }
+    }
+
+    /**
+     * Get the selected lines in the order they were selected. The lines no longer in the adapter are skipped.
+     */
+    @NonNull
+    public List<LogLine> getSelectedLogLines() {
+        List<LogLine> logLines = new ArrayList<>();
+        synchronized (mSelectedIds) {
             synchronized (mLock) {
-                List<LogLine> subList = mOriginalValues.subList(n, mOriginalValues.size());
-                for (int i = 0; i < n; i++) {
-                    int pos = mObjects.indexOf(mOriginalValues.get(i));
-                    if (pos >= 0) {
-                        mObjects.remove(pos);
-                        notifyItemRemoved(pos);
+                for (long id : mSelectedIds) {
+                    if (mLines.contains(id)) {
+                        logLines.add(mLines.get(id));
                     }
                 }
-                mOriginalValues = new ArrayList<>(subList);
-            }
-        } else {
-            synchronized (mLock) {
-                mObjects = new ArrayList<>(mObjects.subList(n, mObjects.size()));
-                notifyItemRangeRemoved(0, n);
             }
         }
-        stopWatch.log();
+        return logLines;
     }
 
-    /**
-     * Remove all elements from the list.
-     */
     @GuardedBy("mLock")
-    public void clear() {
+    public void setCollapseMode(boolean isCollapsed) {
         synchronized (mLock) {
-            if (mOriginalValues != null) {
-                mOriginalValues.clear();
-            }
-            int size = mObjects.size();
-            mObjects.clear();
-            notifyItemRangeRemoved(0, size);
+            mLines.setAllExpanded(!isCollapsed);
         }
     }
 
     @GuardedBy("mLock")
-    public LogLine getItem(int position) {
-        synchronized (mLock) {
-            return mObjects.get(position);
-        }
+    private long append(@NonNull LogLine logLine, boolean notify) {
+        long firstId = mLines.getFirstId();
+        long id = mLines.append(logLine);
+        // The oldest lines are evicted once the display limit is reached
+        onLinesEvicted((int) (mLines.getFirstId() - firstId), notify);
+        return id;
     }
 
-    @Nullable
     @GuardedBy("mLock")
-    private LogLine getItemSafe(int position) {
-        synchronized (mLock) {
-            if (mObjects.size() > position) {
-                return mObjects.get(position);
-            }
-            return null;
+    private void onLinesEvicted(int count, boolean notify) {
+        if (count <= 0) {
+            return;
+        }
+        int removedItems;
+        if (mFilteredIds != null) {
+            removedItems = mFilteredIds.removeLessThan(mLines.getFirstId());
+        } else removedItems = count;
+        if (notify && removedItems > 0) {
+            notifyItemRangeRemoved(0, removedItems);
         }
     }
 
     @GuardedBy("mLock")
-    public int getRealSize() {
-        synchronized (mLock) {
-            return (mOriginalValues != null ? mOriginalValues : mObjects).size();
+    private long getIdAt(int position) {
+        if (mFilteredIds != null) {
+            return mFilteredIds.get(position);
         }
+        return mLines.getFirstId() + position;
     }
 
-    public Set<LogLine> getSelectedLogLines() {
-        return mSelectedLogLines;
+    @GuardedBy("mLock")
+    private int getPositionOf(long id) {
+        if (!mLines.contains(id)) {
+            return -1;
+        }
+        if (mFilteredIds != null) {
+            return mFilteredIds.indexOf(id);
+        }
+        return (int) (id - mLines.getFirstId());
     }
 
     @GuardedBy("mLock")
-    public void setCollapseMode(boolean isCollapsed) {
-        synchronized (mLock) {
-            List<LogLine> list = mOriginalValues != null ? mOriginalValues : mObjects;
-            for (LogLine logLine : list) {
-                logLine.setExpanded(!isCollapsed);
-            }
+    private long getIdAtSafe(int position) {
+        if (position >= 0 && position < getItemCount()) {
+            return getIdAt(position);
+        }
+        return LogLineBuffer.NO_ID;
+    }
+
+    @NonNull
+    private SearchCriteria getSearchCriteria(@Nullable CharSequence query) {
+        String queryString = query == null ? null : query.toString();
+        if (mLastSearchCriteria == null || !Objects.equals(mLastQuery, queryString)) {
+            mLastQuery = queryString;
+            mLastSearchCriteria = new SearchCriteria(query);
         }
+        return mLastSearchCriteria;
+    }
+
+    private boolean matches(@NonNull LogLine logLine, @NonNull SearchCriteria searchCriteria) {
+        return logLine.getLogLevel() >= mLogLevelLimit && (searchCriteria.isEmpty() || searchCriteria.matches(logLine));
     }
 
     @Override
     protected void select(int position) {
-        synchronized (mSelectedLogLines) {
-            LogLine logLine = getItemSafe(position);
-            if (logLine != null) {
-                mSelectedLogLines.add(logLine);
+        synchronized (mSelectedIds) {
+            long id;
+            synchronized (mLock) {
+                id = getIdAtSafe(position);
+            }
+            if (id != LogLineBuffer.NO_ID) {
+                mSelectedIds.add(id);
             }
         }
     }
 
     @Override
     protected void deselect(int position) {
-        synchronized (mSelectedLogLines) {
-            LogLine logLine = getItemSafe(position);
-            if (logLine != null) {
-                mSelectedLogLines.remove(logLine);
+        synchronized (mSelectedIds) {
+            long id;
+            synchronized (mLock) {
+                id = getIdAtSafe(position);
+            }
+            if (id != LogLineBuffer.NO_ID) {
+                mSelectedIds.remove(id);
             }
         }
     }
 
     @Override
     protected boolean isSelected(int position) {
-        synchronized (mSelectedLogLines) {
-            LogLine logLine = getItemSafe(position);
-            if (logLine != null) {
-                return mSelectedLogLines.contains(logLine);
+        synchronized (mSelectedIds) {
+            long id;
+            synchronized (mLock) {
+                id = getIdAtSafe(position);
+            }
+            if (id != LogLineBuffer.NO_ID) {
+                return mSelectedIds.contains(id);
             }
             return false;
         }
@@ -329,15 +343,15 @@ public class LogViewerRecyclerAdapter extends MultiSelectionView.Adapter<LogView
     @Override
     protected void cancelSelection() {
         super.cancelSelection();
-        synchronized (mSelectedLogLines) {
-            mSelectedLogLines.clear();
+        synchronized (mSelectedIds) {
+            mSelectedIds.clear();
         }
     }
 
     @Override
     protected int getSelectedItemCount() {
-        synchronized (mSelectedLogLines) {
-            return mSelectedLogLines.size();
+        synchronized (mSelectedIds) {
+            return mSelectedIds.size();
         }
     }
 
@@ -356,7 +370,12 @@ public class LogViewerRecyclerAdapter extends MultiSelectionView.Adapter<LogView
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
         Context context = holder.itemView.getContext();
-        LogLine logLine = getItem(position);
+        long id;
+        LogLine logLine;
+        synchronized (mLock) {
+            id = getIdAt(position);
+            logLine = mLines.get(id);
+        }
         holder.logLine = logLine;
 
         int levelColor = getBackgroundColorForLogLevel(context, logLine.getLogLevel());
@@ -403,7 +422,11 @@ public class LogViewerRecyclerAdapter extends MultiSelectionView.Adapter<LogView
             if (isInSelectionMode()) {
                 toggleSelection(position);
             } else {
-                logLine.setExpanded(!logLine.isExpanded());
+                synchronized (mLock) {
+                    if (mLines.contains(id)) {
+                        mLines.setExpanded(id, !logLine.isExpanded());
+                    }
+                }
                 notifyItemChanged(position);
             }
         });
@@ -452,7 +475,7 @@ public class LogViewerRecyclerAdapter extends MultiSelectionView.Adapter<LogView
     @Override
     public long getItemId(int position) {
         synchronized (mLock) {
-            return mObjects.get(position).getOriginalLine().hashCode();
+            return getIdAt(position);
         }
     }
 
@@ -460,7 +483,7 @@ public class LogViewerRecyclerAdapter extends MultiSelectionView.Adapter<LogView
     @Override
     public int getItemCount() {
         synchronized (mLock) {
-            return mObjects.size();
+            return mFilteredIds != null ? mFilteredIds.size() : mLines.size();
         }
     }
 
@@ -489,18 +512,15 @@ public class LogViewerRecyclerAdapter extends MultiSelectionView.Adapter<LogView
 
     private int getLastSelectedItemPosition() {
         // Last selected item is the same as the last added item.
-        Iterator<LogLine> it = mSelectedLogLines.iterator();
-        LogLine lastItem = null;
-        while (it.hasNext()) {
-            lastItem = it.next();
-        }
-        if (lastItem != null) {
-            int i = 0;
-            for (LogLine fmItem : mObjects) {
-                if (fmItem.equals(lastItem)) {
-                    return i;
-                }
-                ++i;
+        Long lastId = null;
+        synchronized (mSelectedIds) {
+            for (Long id : mSelectedIds) {
+                lastId = id;
+            }
+        }
+        if (lastId != null) {
+            synchronized (mLock) {
+                return getPositionOf(lastId);
             }
         }
         return -1;
@@ -512,66 +532,122 @@ public class LogViewerRecyclerAdapter extends MultiSelectionView.Adapter<LogView
      * is removed from the list.</p>
      */
     private class ArrayFilter extends Filter {
+        /**
+         * Number of lines read at a time while holding the lock, so that new lines can be added during filtering.
+         */
+        private static final int BATCH_SIZE = 4096;
+
         @NonNull
         @Override
         protected FilterResults performFiltering(CharSequence prefix) {
             FilterResults results = new FilterResults();
-
-            if (mOriginalValues == null) {
+            SearchCriteria searchCriteria = new SearchCriteria(prefix);
+            IdList filteredIds = new IdList();
+            long id;
+            synchronized (mLock) {
+                id = mLines.getFirstId();
+            }
+            while (true) {
                 synchronized (mLock) {
-                    mOriginalValues = new ArrayList<>(mObjects);
+                    // Lines evicted in the meantime are skipped
+                    id = Math.max(id, mLines.getFirstId());
+                    long end = Math.min(mLines.getNextId(), id + BATCH_SIZE);
+                    if (id >= end) {
+                        break;
+                    }
+                    for (; id < end; ++id) {
+                        if (mLines.getLogLevel(id) < mLogLevelLimit) {
+                            continue;
+                        }
+                        if (searchCriteria.isEmpty() || searchCriteria.matches(mLines.get(id))) {
+                            filteredIds.add(id);
+                        }
+                    }
                 }
             }
-
-            ArrayList<LogLine> allValues = performFilteringOnList(mOriginalValues, prefix);
-
-            results.values = allValues;
-            results.count = allValues.size();
-
+            results.values = new Pair<>(filteredIds, id);
+            results.count = filteredIds.size();
             return results;
         }
 
-        public ArrayList<LogLine> performFilteringOnList(List<LogLine> inputList, CharSequence query) {
-            SearchCriteria searchCriteria = new SearchCriteria(query);
-
-            // search by log level
-            ArrayList<LogLine> allValues = new ArrayList<>();
-
-            ArrayList<LogLine> logLines;
+        @SuppressWarnings("unchecked")
+        @Override
+        protected void publishResults(CharSequence constraint, FilterResults results) {
+            Pair<IdList, Long> result = (Pair<IdList, Long>) results.values;
+            IdList filteredIds = result.first;
+            SearchCriteria searchCriteria = new SearchCriteria(constraint);
             synchronized (mLock) {
-                logLines = new ArrayList<>(inputList);
+                int previousCount = getItemCount();
+                filteredIds.removeLessThan(mLines.getFirstId());
+                // Lines added after filtering was finished
+                for (long id = Math.max(result.second, mLines.getFirstId()); id < mLines.getNextId(); ++id) {
+                    if (mLines.getLogLevel(id) >= mLogLevelLimit
+                            && (searchCriteria.isEmpty() || searchCriteria.matches(mLines.get(id)))) {
+                        filteredIds.add(id);
+                    }
+                }
+                mFilteredIds = filteredIds;
+                AdapterUtils.notifyDataSetChanged(LogViewerRecyclerAdapter.this, previousCount, getItemCount());
             }
+        }
+    }
 
-            for (LogLine logLine : logLines) {
-                if (logLine != null && logLine.getLogLevel() >= mLogLevelLimit) {
-                    allValues.add(logLine);
-                }
+    /**
+     * A list of increasing line IDs that supports removing from the front in O(1).
+     */
+    private static class IdList {
+        private long[] mIds = new long[1024];
+        private int mHead;
+        private int mSize;
+
+        public int size() {
+            return mSize;
+        }
+
+        public long get(int index) {
+            if (index < 0 || index >= mSize) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + mSize);
             }
-            ArrayList<LogLine> finalValues = allValues;
-
-            // search by criteria
-            if (!searchCriteria.isEmpty()) {
-                final int count = allValues.size();
-                final ArrayList<LogLine> newValues = new ArrayList<>(count);
-                for (final LogLine value : allValues) {
-                    // search the logline based on the criteria
-                    if (searchCriteria.matches(value)) {
-                        newValues.add(value);
-                    }
+            return mIds[mHead + index];
+        }
+
+        public void add(long id) {
+            if (mHead + mSize == mIds.length) {
+                if (mHead > mIds.length / 2) {
+                    // Reclaim the space of the removed IDs
+                    System.arraycopy(mIds, mHead, mIds, 0, mSize);
+                } else {
+                    long[] ids = new long[mIds.length * 2];
+                    System.arraycopy(mIds, mHead, ids, 0, mSize);
+                    mIds = ids;
                 }
-                finalValues = newValues;
+                mHead = 0;
             }
-            return finalValues;
+            mIds[mHead + mSize] = id;
+            ++mSize;
         }
 
-        @SuppressWarnings("unchecked")
-        @Override
-        protected void publishResults(CharSequence constraint, FilterResults results) {
-            synchronized (mLock) {
-                int previousCount = mObjects != null ? mObjects.size() : 0;
-                mObjects = (List<LogLine>) results.values;
-                AdapterUtils.notifyDataSetChanged(LogViewerRecyclerAdapter.this, previousCount, mObjects.size());
+        /**
+         * @return Number of IDs removed
+         */
+        public int removeLessThan(long id) {
+            int count = 0;
+            while (count < mSize && mIds[mHead + count] < id) {
+                ++count;
             }
+            mHead += count;
+            mSize -= count;
+            return count;
+        }
+
+        public int indexOf(long id) {
+            int index = Arrays.binarySearch(mIds, mHead, mHead + mSize, id);
+            return index >= 0 ? index - mHead : -1;
+        }
+
+        public void clear() {
+            mHead = 0;
+            mSize = 0;
         }
     }
 
@@ -25,6 +25,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -36,8 +37,12 @@ import io.github.muntashirakon.AppManager.logcat.helper.BuildHelper;
 import io.github.muntashirakon.AppManager.logcat.helper.SaveLogHelper;
 import io.github.muntashirakon.AppManager.logcat.reader.LogcatReader;
 import io.github.muntashirakon.AppManager.logcat.reader.LogcatReaderLoader;
+import io.github.muntashirakon.AppManager.logcat.reader.ScrubberUtils;
+import io.github.muntashirakon.AppManager.logcat.struct.LogIndex;
 import io.github.muntashirakon.AppManager.logcat.struct.LogLine;
+import io.github.muntashirakon.AppManager.logcat.struct.LogLineParser;
 import io.github.muntashirakon.AppManager.logcat.struct.SavedLog;
+import io.github.muntashirakon.AppManager.logcat.struct.SearchCriteria;
 import io.github.muntashirakon.AppManager.logcat.struct.SendLogDetails;
 import io.github.muntashirakon.AppManager.logs.Log;
 import io.github.muntashirakon.AppManager.runner.Runner;
@@ -58,6 +63,27 @@ public class LogViewerViewModel extends AndroidViewModel {
         void onNewLogsAvailable(@NonNull List<LogLine> logLines);
     }
 
+    public interface LogSearchResultsInterface {
+        /**
+         * @param logLines The newest matched lines, or {@code null} if the log could not be searched using its index
+         * @param hasMore  Whether there are older matched lines, see {@link #loadOlderSearchResults(WeakReference)}
+         */
+        @UiThread
+        void onSearchResults(@Nullable String query, @Nullable List<LogLine> logLines, boolean hasMore);
+
+        /**
+         * @param logLines The matched lines that come right before the lines returned so far
+         * @param hasMore  Whether there are even older matched lines
+         */
+        @UiThread
+        void onOlderSearchResults(@Nullable String query, @NonNull List<LogLine> logLines, boolean hasMore);
+    }
+
+    /**
+     * Maximum number of matched lines loaded at a time when searching a saved log
+     */
+    public static final int SEARCH_PAGE_SIZE = 1000;
+
     private final Object mLock = new Object();
 
     private volatile boolean mPaused;
@@ -76,6 +102,12 @@ public class LogViewerViewModel extends AndroidViewModel {
     private final MutableLiveData<Path> mLogSavedLiveData = new MutableLiveData<>();
     private final MutableLiveData<SendLogDetails> mLogToBeSentLiveData = new MutableLiveData<>();
     private final MultithreadedExecutor mExecutor = MultithreadedExecutor.getNewInstance();
+    @Nullable
+    private Future<?> mSearchResult;
+    @Nullable
+    private volatile LogIndex.Search mSearch;
+    @Nullable
+    private volatile String mSearchQuery;
 
     public LogViewerViewModel(@NonNull Application application) {
         super(application);
@@ -130,9 +162,11 @@ public class LogViewerViewModel extends AndroidViewModel {
 
                 int maxLines = Prefs.LogViewer.getDisplayLimit();
 
-                String line;
+                LogLine logLine;
+                LogLineParser parser = new LogLineParser(mFilterPattern);
                 LinkedList<LogLine> initialLines = new LinkedList<>();
-                while ((line = mReader.readLine()) != null && !ThreadUtils.isInterrupted()) {
+                // Lines filtered out by the parser are skipped by the reader
+                while ((logLine = mReader.readLogLine(parser, !mCollapsedMode)) != null && !ThreadUtils.isInterrupted()) {
                     if (mPaused) {
                         synchronized (mLock) {
                             if (mPaused) {
@@ -140,12 +174,7 @@ public class LogViewerViewModel extends AndroidViewModel {
                             }
                         }
                     }
-                    LogLine logLine = LogLine.newLogLine(line, !mCollapsedMode, mFilterPattern);
-                    if (logLine == null) {
-                        if (mReader.readyToRecord()) {
-                            // Logcat is ready
-                        }
-                    } else if (!mReader.readyToRecord()) {
+                    if (!mReader.readyToRecord()) {
                         // "ready to record" in this case means all the initial lines have been flushed from the reader
                         initialLines.add(logLine);
                         if (initialLines.size() > maxLines) {
@@ -273,9 +302,10 @@ public class LogViewerViewModel extends AndroidViewModel {
             savedLog = SaveLogHelper.openLog(filename, maxLines);
             List<String> lines = savedLog.getLogLines();
             List<LogLine> logLines = new ArrayList<>();
+            LogLineParser parser = new LogLineParser(mFilterPattern);
             for (int lineNumber = 0, linesSize = lines.size(); lineNumber < linesSize; lineNumber++) {
                 String line = lines.get(lineNumber);
-                LogLine logLine = LogLine.newLogLine(line, !mCollapsedMode, mFilterPattern);
+                LogLine logLine = parser.parseLogLine(line, !mCollapsedMode);
                 if (logLine != null) {
                     logLines.add(logLine);
                 }
@@ -288,6 +318,102 @@ public class LogViewerViewModel extends AndroidViewModel {
         });
     }
 
+    /**
+     * Search a saved log using its index. Only the newest page of the lines that match is loaded, the older pages are
+     * loaded by {@link #loadOlderSearchResults(WeakReference)}.
+     */
+    @AnyThread
+    public void searchLogsInFile(@NonNull Uri uri, @Nullable String query, int logLevel,
+                                 @NonNull WeakReference<LogSearchResultsInterface> logSearchResultsInterface) {
+        if (mSearchResult != null) {
+            mSearchResult.cancel(true);
+        }
+        mSearch = null;
+        mSearchQuery = query;
+        mSearchResult = mExecutor.submit(() -> {
+            LogIndex.Search search = null;
+            List<LogLine> logLines;
+            boolean hasMore;
+            try {
+                Path logFile = Paths.get(uri);
+                LogIndex logIndex = SaveLogHelper.openLogIndex(logFile);
+                search = logIndex.search(logFile, new SearchCriteria(query), logLevel, mFilterPattern);
+                synchronized (search) {
+                    logLines = parseLogLines(search.nextPage(getSearchPageSize()));
+                    hasMore = search.hasMore();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Could not search %s", e, uri);
+                logLines = null;
+                hasMore = false;
+            }
+            if (ThreadUtils.isInterrupted()) {
+                return;
+            }
+            mSearch = search;
+            LogSearchResultsInterface i = logSearchResultsInterface.get();
+            if (i != null) {
+                List<LogLine> finalLogLines = logLines;
+                boolean finalHasMore = hasMore;
+                ThreadUtils.postOnMainThread(() -> i.onSearchResults(query, finalLogLines, finalHasMore));
+            }
+        });
+    }
+
+    /**
+     * Load the next (older) page of the lines matched by the last {@link #searchLogsInFile(Uri, String, int,
+     * WeakReference)}.
+     */
+    @AnyThread
+    public void loadOlderSearchResults(@NonNull WeakReference<LogSearchResultsInterface> logSearchResultsInterface) {
+        LogIndex.Search search = mSearch;
+        String query = mSearchQuery;
+        if (search == null) {
+            return;
+        }
+        mSearchResult = mExecutor.submit(() -> {
+            List<LogLine> logLines;
+            boolean hasMore;
+            synchronized (search) {
+                try {
+                    logLines = parseLogLines(search.nextPage(getSearchPageSize()));
+                    hasMore = search.hasMore();
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not load more search results", e);
+                    logLines = Collections.emptyList();
+                    hasMore = false;
+                }
+            }
+            if (ThreadUtils.isInterrupted() || search != mSearch) {
+                // Another search has started
+                return;
+            }
+            LogSearchResultsInterface i = logSearchResultsInterface.get();
+            if (i != null) {
+                List<LogLine> finalLogLines = logLines;
+                boolean finalHasMore = hasMore;
+                ThreadUtils.postOnMainThread(() -> i.onOlderSearchResults(query, finalLogLines, finalHasMore));
+            }
+        });
+    }
+
+    private static int getSearchPageSize() {
+        return Math.min(SEARCH_PAGE_SIZE, Prefs.LogViewer.getDisplayLimit());
+    }
+
+    @NonNull
+    private List<LogLine> parseLogLines(@NonNull List<String> lines) {
+        List<LogLine> logLines = new ArrayList<>(lines.size());
+        LogLineParser parser = new LogLineParser(mFilterPattern);
+        for (String line : lines) {
+            LogLine logLine = parser.parseLogLine(line, !mCollapsedMode);
+            if (logLine != null) {
+                logLines.add(logLine);
+            }
+        }
+        return logLines;
+    }
+
     @AnyThread
     public void loadFilters() {
         mExecutor.submit(() -> {
@@ -327,6 +453,16 @@ public class LogViewerViewModel extends AndroidViewModel {
     @AnyThread
     public void prepareLogsToBeSent(boolean includeDeviceInfo, boolean includeDmesg, @NonNull Collection<String> logLines) {
         mExecutor.submit(() -> {
+            Collection<String> exportedLines = logLines;
+            if (LogLine.omitSensitiveInfo && !logLines.isEmpty()) {
+                // The original lines are not scrubbed
+                List<String> scrubbedLines = ScrubberUtils.scrubLogLines(new ArrayList<>(logLines));
+                if (scrubbedLines == null) {
+                    // Interrupted
+                    return;
+                }
+                exportedLines = scrubbedLines;
+            }
             SendLogDetails sendLogDetails = new SendLogDetails();
             sendLogDetails.setSubject(getApplication().getString(R.string.subject_log_report));
             // either zip up multiple files or just attach the one file
@@ -345,7 +481,7 @@ public class LogViewerViewModel extends AndroidViewModel {
                 }
             }
             int exportCount = 0;
-            if (!logLines.isEmpty()) {
+            if (!exportedLines.isEmpty()) {
                 ++exportCount;
             }
             if (deviceInfo != null) {
@@ -359,8 +495,8 @@ public class LogViewerViewModel extends AndroidViewModel {
                 sendLogDetails.setAttachmentType(null);
             } else if (exportCount == 1) {
                 Path tempFile;
-                if (!logLines.isEmpty()) {
-                    tempFile = SaveLogHelper.saveTemporaryFile("log", null, logLines);
+                if (!exportedLines.isEmpty()) {
+                    tempFile = SaveLogHelper.saveTemporaryFile("log", null, exportedLines);
                 } else if (dmesg != null) {
                     tempFile = SaveLogHelper.saveTemporaryFile("txt", dmesg, null);
                 } else { // Device info
@@ -372,9 +508,9 @@ public class LogViewerViewModel extends AndroidViewModel {
                 try {
                     Path zipFile = Paths.get(FileCache.getGlobalFileCache().createCachedFile("zip"));
                     try (ZipOutputStream output = new ZipOutputStream(new BufferedOutputStream(zipFile.openOutputStream(), 0x1000))) {
-                        if (!logLines.isEmpty()) {
+                        if (!exportedLines.isEmpty()) {
                             output.putNextEntry(new ZipEntry(SaveLogHelper.LOG_FILENAME));
-                            for (String logLine : logLines) {
+                            for (String logLine : exportedLines) {
                                 output.write(logLine.getBytes(StandardCharsets.UTF_8));
                                 output.write("\n".getBytes(StandardCharsets.UTF_8));
                             }
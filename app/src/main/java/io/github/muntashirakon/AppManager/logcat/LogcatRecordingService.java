@@ -24,12 +24,14 @@ import java.util.regex.Pattern;
 import io.github.muntashirakon.AppManager.BuildConfig;
 import io.github.muntashirakon.AppManager.R;
 import io.github.muntashirakon.AppManager.intercept.IntentCompat;
+import io.github.muntashirakon.AppManager.logcat.helper.CompressedLogWriter;
 import io.github.muntashirakon.AppManager.logcat.helper.SaveLogHelper;
 import io.github.muntashirakon.AppManager.logcat.helper.ServiceHelper;
 import io.github.muntashirakon.AppManager.logcat.helper.WidgetHelper;
 import io.github.muntashirakon.AppManager.logcat.reader.LogcatReader;
 import io.github.muntashirakon.AppManager.logcat.reader.LogcatReaderLoader;
 import io.github.muntashirakon.AppManager.logcat.struct.LogLine;
+import io.github.muntashirakon.AppManager.logcat.struct.LogLineParser;
 import io.github.muntashirakon.AppManager.logcat.struct.SearchCriteria;
 import io.github.muntashirakon.AppManager.logs.Log;
 import io.github.muntashirakon.AppManager.progress.NotificationProgressHandler;
@@ -87,11 +89,19 @@ public class LogcatRecordingService extends ForegroundService {
     }
 
 
-    private void initializeReader(@NonNull LogcatReaderLoader loader) {
+    /**
+     * @param parser Parser of the lines if they are filtered, {@code null} otherwise
+     */
+    private void initializeReader(@NonNull LogcatReaderLoader loader, @Nullable LogLineParser parser) {
         try {
             mReader = loader.loadReader();
             while (mReader != null && !mReader.readyToRecord() && !mKilled) {
-                mReader.readLine();
+                // Read the same way as the lines to be recorded
+                if (parser != null) {
+                    mReader.readLogLine(parser, false);
+                } else {
+                    mReader.readLine();
+                }
                 // Keep skipping lines until we find one that is past the last log line, i.e.
                 // it's ready to record
             }
@@ -158,18 +168,50 @@ public class LogcatRecordingService extends ForegroundService {
         }
 
         SaveLogHelper.deleteLogIfExists(filename);
-        initializeReader(loader);
+        boolean filter = !searchCriteriaWillAlwaysMatch || !logLevelAcceptsEverything;
+        LogLineParser parser = new LogLineParser(Pattern.compile(Prefs.LogViewer.getFilterPattern()));
+        // Filter by level and PID before creating any objects
+        parser.setMinLogLevel(logLevel);
+        parser.setProcessIdFilter(searchCriteria.getPid());
+        initializeReader(loader, filter ? parser : null);
+        boolean compress = Prefs.LogViewer.compressRecordings();
+        CompressedLogWriter compressedLogWriter = null;
         try {
+            if (compress) {
+                compressedLogWriter = SaveLogHelper.newCompressedLogWriter(filename);
+            }
             String line;
             int lineCount = 0;
             int logLinePeriod = Prefs.LogViewer.getLogWritingInterval();
-            Pattern filterPattern = Pattern.compile(Prefs.LogViewer.getFilterPattern());
-            while (mReader != null && (line = mReader.readLine()) != null && !mKilled) {
-                // filter
-                if (!searchCriteriaWillAlwaysMatch || !logLevelAcceptsEverything) {
-                    if (!checkLogLine(line, searchCriteria, logLevel, filterPattern)) {
+            if (mReader != null && filter) {
+                // Let the reader skip these lines before decoding them
+                mReader.setPreFilter(logLevel, searchCriteria.getPid());
+            }
+            while (mReader != null && !mKilled) {
+                if (filter) {
+                    // The lines are only formatted if they are accepted
+                    LogLine logLine = mReader.readLogLine(parser, false);
+                    if (logLine == null) {
+                        break;
+                    }
+                    if (!searchCriteriaWillAlwaysMatch && !searchCriteria.matches(logLine)) {
                         continue;
                     }
+                    line = logLine.getOriginalLine();
+                } else if ((line = mReader.readLine()) == null) {
+                    break;
+                }
+                if (mKilled) {
+                    break;
+                }
+                if (compressedLogWriter != null) {
+                    // Lines are compressed and written a frame at a time
+                    compressedLogWriter.writeLine(line);
+                    if (++lineCount % logLinePeriod == 0) {
+                        // The lines reach the disk without ending the frame
+                        compressedLogWriter.flush();
+                    }
+                    continue;
                 }
                 stringBuilder.append(line).append("\n");
                 if (++lineCount % logLinePeriod == 0) {
@@ -183,7 +225,19 @@ public class LogcatRecordingService extends ForegroundService {
         } finally {
             killProcess();
             Log.d(TAG, "Service ended");
-            boolean logSaved = SaveLogHelper.saveLog(stringBuilder, filename);
+            boolean logSaved;
+            String savedFilename = filename;
+            if (compress) {
+                logSaved = closeCompressedLog(compressedLogWriter);
+                if (compressedLogWriter != null) {
+                    savedFilename = compressedLogWriter.getCurrentPartName();
+                }
+            } else {
+                logSaved = SaveLogHelper.saveLog(stringBuilder, filename);
+                if (logSaved) {
+                    SaveLogHelper.updateLogIndex(filename);
+                }
+            }
             NotificationProgressHandler.NotificationInfo notificationInfo =
                     new NotificationProgressHandler.NotificationInfo()
                             .setTitle(getString(R.string.notification_title))
@@ -192,7 +246,7 @@ public class LogcatRecordingService extends ForegroundService {
                 notificationInfo.setTitle(getString(R.string.log_saved))
                         .setStatusBarText(getString(R.string.log_saved))
                         .setBody(getString(R.string.tap_to_see_details))
-                        .setDefaultAction(getLogcatActivityToViewSavedFile(filename));
+                        .setDefaultAction(getLogcatActivityToViewSavedFile(savedFilename));
             } else {
                 notificationInfo.setTitle(getString(R.string.unable_to_save_log));
             }
@@ -200,12 +254,19 @@ public class LogcatRecordingService extends ForegroundService {
         }
     }
 
-    private boolean checkLogLine(String line, SearchCriteria searchCriteria, int logLevel, Pattern filterPattern) {
-        LogLine logLine = LogLine.newLogLine(line, false, filterPattern);
-        return logLine != null && logLine.getLogLevel() >= logLevel && searchCriteria.matches(logLine);
+    private static boolean closeCompressedLog(@Nullable CompressedLogWriter compressedLogWriter) {
+        if (compressedLogWriter == null) {
+            return false;
+        }
+        try {
+            compressedLogWriter.close();
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, e);
+            return false;
+        }
     }
 
-
     private PendingIntent getLogcatActivityToViewSavedFile(String filename) {
         // Start up the logcat activity if necessary and show the saved file
         Intent targetIntent = new Intent(getApplicationContext(), LogViewerActivity.class);
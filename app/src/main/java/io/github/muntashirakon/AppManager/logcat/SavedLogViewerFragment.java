@@ -14,12 +14,17 @@ import android.widget.Filter;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.core.os.BundleCompat;
+import androidx.recyclerview.widget.RecyclerView;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 import io.github.muntashirakon.AppManager.R;
+import io.github.muntashirakon.AppManager.logcat.helper.SaveLogHelper;
 import io.github.muntashirakon.AppManager.logcat.struct.LogLine;
+import io.github.muntashirakon.AppManager.settings.Prefs;
 import io.github.muntashirakon.AppManager.utils.ContextUtils;
 import io.github.muntashirakon.AppManager.utils.ThreadUtils;
 import io.github.muntashirakon.AppManager.utils.Utils;
@@ -27,7 +32,7 @@ import io.github.muntashirakon.multiselection.MultiSelectionActionsView;
 
 // Copyright 2022 Muntashir Al-Islam
 public class SavedLogViewerFragment extends AbsLogViewerFragment implements LogViewerViewModel.LogLinesAvailableInterface,
-        MultiSelectionActionsView.OnItemSelectedListener, LogViewerActivity.SearchingInterface, Filter.FilterListener {
+        LogViewerViewModel.LogSearchResultsInterface, MultiSelectionActionsView.OnItemSelectedListener, LogViewerActivity.SearchingInterface, Filter.FilterListener {
     public static final String TAG = SavedLogViewerFragment.class.getSimpleName();
     public static final String ARG_FILE_URI = "file_uri";
 
@@ -41,6 +46,14 @@ public class SavedLogViewerFragment extends AbsLogViewerFragment implements LogV
     }
 
     private String mFilename = "";
+    @Nullable
+    private Uri mUri;
+    private boolean mIndexed;
+    // Lines matched by the last search of the index, oldest first
+    @NonNull
+    private List<LogLine> mSearchResults = new ArrayList<>();
+    private boolean mHasOlderSearchResults;
+    private boolean mLoadingSearchResults;
 
     @Override
     public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
@@ -50,7 +63,21 @@ public class SavedLogViewerFragment extends AbsLogViewerFragment implements LogV
             // TODO: 31/5/22 Handle invalid URI
             return;
         }
+        mUri = uri;
         mFilename = uri.getLastPathSegment();
+        // Compressed logs are not indexed, and are searched in the lines that are loaded
+        mIndexed = mFilename != null && !SaveLogHelper.isCompressedLog(mFilename);
+        if (mIndexed) {
+            mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+                @Override
+                public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                    // Older matches are loaded when the top is reached
+                    if (dy < 0 && !recyclerView.canScrollVertically(-1)) {
+                        loadOlderSearchResults();
+                    }
+                }
+            });
+        }
         mViewModel.openLogsFromFile(uri, new WeakReference<>(this));
     }
 
@@ -88,6 +115,76 @@ public class SavedLogViewerFragment extends AbsLogViewerFragment implements LogV
         mRecyclerView.scrollToPosition(mLogListAdapter.getItemCount() - 1);
     }
 
+    @Override
+    public void onQuery(@Nullable String searchTerm) {
+        if (mUri == null || !mIndexed) {
+            super.onQuery(searchTerm);
+            return;
+        }
+        mQueryString = searchTerm;
+        mHasOlderSearchResults = false;
+        mLoadingSearchResults = true;
+        // Only the matched lines are read from the log, not just the lines that are loaded
+        mViewModel.searchLogsInFile(mUri, searchTerm, mLogListAdapter.getLogLevelLimit(), new WeakReference<>(this));
+    }
+
+    @Override
+    public void onSearchResults(@Nullable String query, @Nullable List<LogLine> logLines, boolean hasMore) {
+        if (!Objects.equals(query, mQueryString)) {
+            // Outdated
+            return;
+        }
+        mLoadingSearchResults = false;
+        mHasOlderSearchResults = hasMore;
+        if (logLines != null) {
+            mSearchResults = new ArrayList<>(logLines);
+            mLogListAdapter.clear();
+            for (LogLine logLine : logLines) {
+                // The filter below notifies the changes
+                mLogListAdapter.addWithFilter(logLine, "", false);
+            }
+        }
+        // Filter the lines that are loaded, which are all matched unless the index is unavailable
+        super.onQuery(query);
+    }
+
+    @Override
+    public void onOlderSearchResults(@Nullable String query, @NonNull List<LogLine> logLines, boolean hasMore) {
+        if (!Objects.equals(query, mQueryString)) {
+            // Outdated
+            return;
+        }
+        mLoadingSearchResults = false;
+        mHasOlderSearchResults = hasMore;
+        if (logLines.isEmpty()) {
+            return;
+        }
+        List<LogLine> searchResults = new ArrayList<>(logLines.size() + mSearchResults.size());
+        searchResults.addAll(logLines);
+        searchResults.addAll(mSearchResults);
+        int displayLimit = Prefs.LogViewer.getDisplayLimit();
+        if (searchResults.size() > displayLimit) {
+            // The newest lines make room for the older ones
+            searchResults = new ArrayList<>(searchResults.subList(0, displayLimit));
+        }
+        mSearchResults = searchResults;
+        mLogListAdapter.clear();
+        for (LogLine logLine : searchResults) {
+            mLogListAdapter.addWithFilter(logLine, query, false);
+        }
+        mLogListAdapter.notifyDataSetChanged();
+        // Keep the lines that were displayed in place
+        mRecyclerView.scrollToPosition(logLines.size());
+    }
+
+    private void loadOlderSearchResults() {
+        if (mLoadingSearchResults || !mHasOlderSearchResults) {
+            return;
+        }
+        mLoadingSearchResults = true;
+        mViewModel.loadOlderSearchResults(new WeakReference<>(this));
+    }
+
     @Override
     public boolean onNavigationItemSelected(@NonNull MenuItem item) {
         int id = item.getItemId();
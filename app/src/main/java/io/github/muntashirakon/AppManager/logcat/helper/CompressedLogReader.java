@@ -0,0 +1,235 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logcat.helper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import io.github.muntashirakon.AppManager.logcat.struct.SavedLog;
+import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.io.FileSystemManager;
+import io.github.muntashirakon.io.Path;
+
+/**
+ * Read a log written by {@link CompressedLogWriter}. The parts are read from the newest to the oldest, and the frames
+ * of a part from the last to the first using its seek table, until enough lines are read. A part without a seek table,
+ * e.g. if it is still being recorded or the recording was interrupted, is read from the beginning.
+ */
+public final class CompressedLogReader {
+    public static final String TAG = CompressedLogReader.class.getSimpleName();
+
+    /**
+     * @return The parts of the log that the given part belongs to, oldest first
+     */
+    @NonNull
+    public static List<Path> getParts(@NonNull Path part) {
+        String logName = CompressedLogWriter.getLogName(part.getName());
+        Path directory = part.getParent();
+        if (logName == null || directory == null) {
+            return Collections.singletonList(part);
+        }
+        List<Path> parts = new ArrayList<>();
+        for (Path file : directory.listFiles()) {
+            if (logName.equals(CompressedLogWriter.getLogName(file.getName()))) {
+                parts.add(file);
+            }
+        }
+        Collections.sort(parts, (o1, o2) -> Integer.compare(CompressedLogWriter.getPartIndex(o1.getName()),
+                CompressedLogWriter.getPartIndex(o2.getName())));
+        return parts;
+    }
+
+    /**
+     * Read the last lines of a compressed log.
+     *
+     * @param part Any part of the log
+     */
+    @WorkerThread
+    @NonNull
+    public static SavedLog openLog(@NonNull Path part, int maxLines) {
+        List<Path> parts = getParts(part);
+        LinkedList<String> logLines = new LinkedList<>();
+        boolean truncated = false;
+        for (int i = parts.size() - 1; i >= 0; --i) {
+            int remainingLines = maxLines - logLines.size();
+            List<String> partLines = new ArrayList<>();
+            boolean partTruncated;
+            try {
+                partTruncated = readLastLines(parts.get(i), remainingLines, partLines);
+            } catch (IOException e) {
+                Log.e(TAG, e);
+                partTruncated = true;
+            }
+            logLines.addAll(0, partLines);
+            if (logLines.size() >= maxLines) {
+                truncated = partTruncated || i > 0;
+                break;
+            }
+        }
+        return new SavedLog(logLines, truncated);
+    }
+
+    /**
+     * Read at most the given number of lines from the end of a part.
+     *
+     * @return {@code true} if there are more lines before the ones that are read
+     */
+    @VisibleForTesting
+    static boolean readLastLines(@NonNull Path part, int maxLines, @NonNull List<String> lines) throws IOException {
+        try (FileChannel channel = part.openFileChannel(FileSystemManager.MODE_READ_ONLY)) {
+            int[] seekTable = readSeekTable(channel);
+            if (seekTable == null) {
+                return readLastLinesSequentially(part, maxLines, lines);
+            }
+            int frameCount = seekTable.length / 2;
+            long[] offsets = new long[frameCount];
+            long offset = 0;
+            for (int i = 0; i < frameCount; ++i) {
+                offsets[i] = offset;
+                offset += seekTable[i * 2] & 0xffffffffL;
+            }
+            LinkedList<String> lastLines = new LinkedList<>();
+            for (int i = frameCount - 1; i >= 0; --i) {
+                ByteBuffer compressedFrame = ByteBuffer.allocate(seekTable[i * 2]);
+                readFully(channel, compressedFrame, offsets[i]);
+                byte[] frame = Zstd.decompress(compressedFrame.array(), seekTable[i * 2 + 1]);
+                // Frames end at the end of a line
+                List<String> frameLines = splitLines(frame);
+                for (int j = frameLines.size() - 1; j >= 0; --j) {
+                    if (lastLines.size() == maxLines) {
+                        lines.addAll(lastLines);
+                        return true;
+                    }
+                    lastLines.addFirst(frameLines.get(j));
+                }
+            }
+            lines.addAll(lastLines);
+            return false;
+        }
+    }
+
+    private static boolean readLastLinesSequentially(@NonNull Path part, int maxLines, @NonNull List<String> lines)
+            throws IOException {
+        LinkedList<String> lastLines = new LinkedList<>();
+        boolean truncated = false;
+        // Continuous, so that the flushed blocks of a frame that is not ended yet are read, e.g. while recording
+        try (InputStream is = new ZstdInputStream(new BufferedInputStream(part.openInputStream()))
+                .setContinuous(true)) {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            byte[] buffer = new byte[0x10000];
+            int count;
+            while ((count = is.read(buffer)) > 0) {
+                int start = 0;
+                for (int i = 0; i < count; ++i) {
+                    if (buffer[i] != '\n') {
+                        continue;
+                    }
+                    line.write(buffer, start, i - start);
+                    lastLines.add(new String(line.toByteArray(), StandardCharsets.UTF_8));
+                    line.reset();
+                    start = i + 1;
+                    if (lastLines.size() > maxLines) {
+                        lastLines.removeFirst();
+                        truncated = true;
+                    }
+                }
+                line.write(buffer, start, count - start);
+            }
+            // Lines always end with a newline, the rest of the last line is in a block that is not written yet
+        } catch (IOException e) {
+            // The last frame may be incomplete
+            Log.w(TAG, "Could not read %s to the end", e, part.getName());
+        }
+        lines.addAll(lastLines);
+        return truncated;
+    }
+
+    /**
+     * @return Compressed and decompressed sizes of the frames, or {@code null} if the part has no seek table
+     */
+    @Nullable
+    private static int[] readSeekTable(@NonNull FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size < 8 + CompressedLogWriter.SEEK_TABLE_FOOTER_SIZE) {
+            return null;
+        }
+        ByteBuffer footer = ByteBuffer.allocate(CompressedLogWriter.SEEK_TABLE_FOOTER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, footer, size - CompressedLogWriter.SEEK_TABLE_FOOTER_SIZE);
+        int frameCount = footer.getInt(0);
+        byte descriptor = footer.get(4);
+        if (footer.getInt(5) != CompressedLogWriter.SEEKABLE_MAGIC || frameCount < 0 || (descriptor & 0x80) != 0) {
+            // Not seekable or has checksums, which are not written by us
+            return null;
+        }
+        long tableSize = (long) frameCount * CompressedLogWriter.SEEK_TABLE_ENTRY_SIZE;
+        long frameStart = size - CompressedLogWriter.SEEK_TABLE_FOOTER_SIZE - tableSize - 8;
+        if (frameStart < 0) {
+            return null;
+        }
+        ByteBuffer table = ByteBuffer.allocate((int) tableSize + 8).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, table, frameStart);
+        if (table.getInt(0) != CompressedLogWriter.SKIPPABLE_MAGIC) {
+            return null;
+        }
+        int[] seekTable = new int[frameCount * 2];
+        long compressedSize = 0;
+        for (int i = 0; i < seekTable.length; ++i) {
+            seekTable[i] = table.getInt(8 + i * 4);
+            if (seekTable[i] < 0) {
+                return null;
+            }
+            if (i % 2 == 0) {
+                compressedSize += seekTable[i];
+            }
+        }
+        if (compressedSize != frameStart) {
+            return null;
+        }
+        return seekTable;
+    }
+
+    private static void readFully(@NonNull FileChannel channel, @NonNull ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position + buffer.position());
+            if (count < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+
+    @NonNull
+    private static List<String> splitLines(@NonNull byte[] bytes) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < bytes.length; ++i) {
+            if (bytes[i] == '\n') {
+                lines.add(new String(bytes, start, i - start, StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+        }
+        if (start < bytes.length) {
+            lines.add(new String(bytes, start, bytes.length - start, StandardCharsets.UTF_8));
+        }
+        return lines;
+    }
+}
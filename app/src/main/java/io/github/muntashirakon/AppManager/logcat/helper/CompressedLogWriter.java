@@ -0,0 +1,312 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logcat.helper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.io.Path;
+
+/**
+ * Write a log as a set of zstd compressed parts, named {@code <filename>.<index>.zst}. A part is closed and the next
+ * one is started when it reaches a size or an age, and only the newest parts are kept.
+ * <p>
+ * Each part consists of independent frames of about {@link #FRAME_SIZE} bytes that always end at the end of a line,
+ * followed by a seek table in the zstd seekable format. Call {@link #flush()} periodically to bound the number of lines
+ * that are not on the disk yet: the pending lines are flushed as a block of the current frame, which is not ended
+ * early. Any zstd decompressor reads a part as a single stream, while {@link CompressedLogReader} uses the seek table
+ * to read only the last frames.
+ */
+public class CompressedLogWriter implements Closeable {
+    public static final String TAG = CompressedLogWriter.class.getSimpleName();
+
+    public static final String EXTENSION = ".zst";
+    public static final int FRAME_SIZE = 256 * 1024; // 256 KiB
+
+    static final int SKIPPABLE_MAGIC = 0x184D2A5E;
+    static final int SEEKABLE_MAGIC = 0x8F92EAB1;
+    static final int SEEK_TABLE_FOOTER_SIZE = 9;
+    static final int SEEK_TABLE_ENTRY_SIZE = 8;
+
+    private static final int COMPRESSION_LEVEL = 3;
+    private static final Pattern PART_PATTERN = Pattern.compile("^(.+)\\.(\\d+)" + Pattern.quote(EXTENSION) + "$");
+
+    @NonNull
+    public static String getPartName(@NonNull String filename, int index) {
+        return filename + "." + index + EXTENSION;
+    }
+
+    /**
+     * @return The name of the log that the part belongs to, or {@code null} if it is not a part of a compressed log
+     */
+    @Nullable
+    public static String getLogName(@NonNull String partName) {
+        Matcher matcher = PART_PATTERN.matcher(partName);
+        return matcher.matches() ? matcher.group(1) : null;
+    }
+
+    /**
+     * @return The index of the part, or {@code -1} if it is not a part of a compressed log
+     */
+    public static int getPartIndex(@NonNull String partName) {
+        Matcher matcher = PART_PATTERN.matcher(partName);
+        if (matcher.matches()) {
+            try {
+                //noinspection ConstantConditions
+                return Integer.parseInt(matcher.group(2));
+            } catch (NumberFormatException ignore) {
+            }
+        }
+        return -1;
+    }
+
+    @NonNull
+    private final Path mDirectory;
+    @NonNull
+    private final String mFilename;
+    private final long mMaxPartSize;
+    private final long mMaxPartDuration;
+    private final int mMaxParts;
+    private final Deque<Path> mParts = new ArrayDeque<>();
+    // Compressed and decompressed sizes of the frames of the current part
+    private int[] mSeekTable = new int[64];
+    private int mFrameCount;
+    @Nullable
+    private OutputStream mPartOutputStream;
+    // Compressed output of the current frame, written to the part without closing it
+    @Nullable
+    private FrameOutputStream mFrameOutputStream;
+    // Lines of the current frame
+    @Nullable
+    private OutputStream mLineOutputStream;
+    private int mFrameSize;
+    private int mPartIndex;
+    private long mPartSize;
+    private long mPartStartTime;
+    private boolean mClosed;
+
+    /**
+     * @param maxPartSize     Size of the uncompressed lines after which a new part is started
+     * @param maxPartDuration Time in milliseconds after which a new part is started
+     * @param maxParts        Number of parts to keep. The oldest parts are deleted.
+     */
+    public CompressedLogWriter(@NonNull Path directory, @NonNull String filename, long maxPartSize,
+                               long maxPartDuration, int maxParts) {
+        if (maxParts <= 0) {
+            throw new IllegalArgumentException("Invalid number of parts: " + maxParts);
+        }
+        mDirectory = directory;
+        mFilename = filename;
+        mMaxPartSize = maxPartSize;
+        mMaxPartDuration = maxPartDuration;
+        mMaxParts = maxParts;
+    }
+
+    /**
+     * @return Name of the newest part, or {@code null} if nothing has been written
+     */
+    @Nullable
+    public String getCurrentPartName() {
+        return mParts.isEmpty() ? null : mParts.getLast().getName();
+    }
+
+    @WorkerThread
+    public void writeLine(@NonNull CharSequence line) throws IOException {
+        ensureOpen();
+        byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+        if (mLineOutputStream == null) {
+            startFrame();
+        }
+        mLineOutputStream.write(bytes, 0, bytes.length);
+        mLineOutputStream.write('\n');
+        mFrameSize += bytes.length + 1;
+        if (mFrameSize >= FRAME_SIZE) {
+            endFrame();
+        }
+    }
+
+    /**
+     * Compress and write the pending lines without ending the current frame, so that the frames stay close to
+     * {@link #FRAME_SIZE} regardless of how often this is called.
+     */
+    @WorkerThread
+    public void flush() throws IOException {
+        ensureOpen();
+        if (mLineOutputStream != null && System.currentTimeMillis() - mPartStartTime >= mMaxPartDuration) {
+            // The next line starts a new part
+            endFrame();
+        }
+        if (mLineOutputStream != null) {
+            // Flushes the zstd stream and the part
+            mLineOutputStream.flush();
+        } else if (mPartOutputStream != null) {
+            mPartOutputStream.flush();
+        }
+    }
+
+    @WorkerThread
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        try {
+            if (mLineOutputStream != null) {
+                endFrame();
+            } else if (mPartOutputStream == null) {
+                // An empty log still has a part with an empty frame
+                openPart(System.currentTimeMillis());
+                byte[] emptyFrame = Zstd.compress(new byte[0], COMPRESSION_LEVEL);
+                mPartOutputStream.write(emptyFrame);
+                addSeekTableEntry(emptyFrame.length, 0);
+            }
+            closePart();
+        } finally {
+            mClosed = true;
+            mLineOutputStream = null;
+            mFrameOutputStream = null;
+            if (mPartOutputStream != null) {
+                mPartOutputStream.close();
+                mPartOutputStream = null;
+            }
+        }
+    }
+
+    private void startFrame() throws IOException {
+        long now = System.currentTimeMillis();
+        if (mPartOutputStream != null && (mPartSize >= mMaxPartSize || now - mPartStartTime >= mMaxPartDuration)) {
+            closePart();
+        }
+        if (mPartOutputStream == null) {
+            openPart(now);
+        }
+        mFrameOutputStream = new FrameOutputStream(mPartOutputStream);
+        // Avoid compressing the lines one at a time
+        mLineOutputStream = new BufferedOutputStream(new ZstdOutputStream(mFrameOutputStream, COMPRESSION_LEVEL),
+                0x10000);
+        mFrameSize = 0;
+    }
+
+    private void endFrame() throws IOException {
+        FrameOutputStream frameOutputStream = Objects.requireNonNull(mFrameOutputStream);
+        OutputStream lineOutputStream = Objects.requireNonNull(mLineOutputStream);
+        mLineOutputStream = null;
+        mFrameOutputStream = null;
+        // Ends the frame, but not the part
+        lineOutputStream.close();
+        addSeekTableEntry((int) frameOutputStream.getSize(), mFrameSize);
+    }
+
+    private void addSeekTableEntry(int compressedSize, int size) {
+        if ((mFrameCount + 1) * 2 > mSeekTable.length) {
+            int[] seekTable = new int[mSeekTable.length * 2];
+            System.arraycopy(mSeekTable, 0, seekTable, 0, mSeekTable.length);
+            mSeekTable = seekTable;
+        }
+        mSeekTable[mFrameCount * 2] = compressedSize;
+        mSeekTable[mFrameCount * 2 + 1] = size;
+        ++mFrameCount;
+        mPartSize += size;
+    }
+
+    private void openPart(long now) throws IOException {
+        ++mPartIndex;
+        Path part = mDirectory.findOrCreateFile(getPartName(mFilename, mPartIndex), null);
+        mPartOutputStream = new BufferedOutputStream(part.openOutputStream(), 0x10000);
+        mParts.addLast(part);
+        mPartSize = 0;
+        mPartStartTime = now;
+        mFrameCount = 0;
+        // Retention
+        while (mParts.size() > mMaxParts) {
+            Path oldPart = mParts.removeFirst();
+            if (!oldPart.delete()) {
+                Log.w(TAG, "Could not delete %s", oldPart.getName());
+            }
+        }
+    }
+
+    /**
+     * Write the seek table as a skippable frame and close the part.
+     */
+    private void closePart() throws IOException {
+        OutputStream os = mPartOutputStream;
+        if (os == null) {
+            return;
+        }
+        int frameSize = mFrameCount * SEEK_TABLE_ENTRY_SIZE + SEEK_TABLE_FOOTER_SIZE;
+        ByteBuffer seekTable = ByteBuffer.allocate(8 + frameSize).order(ByteOrder.LITTLE_ENDIAN);
+        seekTable.putInt(SKIPPABLE_MAGIC);
+        seekTable.putInt(frameSize);
+        for (int i = 0; i < mFrameCount; ++i) {
+            seekTable.putInt(mSeekTable[i * 2]);
+            seekTable.putInt(mSeekTable[i * 2 + 1]);
+        }
+        seekTable.putInt(mFrameCount);
+        seekTable.put((byte) 0); // No checksums
+        seekTable.putInt(SEEKABLE_MAGIC);
+        mPartOutputStream = null;
+        try {
+            os.write(seekTable.array());
+        } finally {
+            os.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (mClosed) {
+            throw new IOException("Writer closed.");
+        }
+    }
+
+    /**
+     * Write a frame to a part, counting its compressed size. Closing it does not close the part.
+     */
+    private static class FrameOutputStream extends FilterOutputStream {
+        private long mSize;
+
+        public FrameOutputStream(@NonNull OutputStream out) {
+            super(out);
+        }
+
+        public long getSize() {
+            return mSize;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            ++mSize;
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            mSize += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
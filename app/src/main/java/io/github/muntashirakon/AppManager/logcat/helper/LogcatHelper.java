@@ -47,7 +47,24 @@ public class LogcatHelper {
     public static final int DEFAULT_LOG_WRITE_INTERVAL = 200;
 
     public static Process getLogcatProcess(@LogBufferId int buffers) throws IOException {
-        return ProcessCompat.exec(getLogcatArgs(buffers, false));
+        return ProcessCompat.exec(getLogcatArgs(buffers, false, false));
+    }
+
+    /**
+     * Same as {@link #getLogcatProcess(int)} except that the logs are printed in the binary format.
+     *
+     * @see #supportsBinaryFormat(int)
+     */
+    public static Process getBinaryLogcatProcess(@LogBufferId int buffers) throws IOException {
+        return ProcessCompat.exec(getLogcatArgs(buffers, false, true));
+    }
+
+    /**
+     * Whether the logs of the given buffers can be read in the binary format. The payloads of the events buffer are
+     * binary, and cannot be formatted without the event tags of the system.
+     */
+    public static boolean supportsBinaryFormat(@LogBufferId int buffers) {
+        return (buffers & LOG_ID_EVENTS) == 0;
     }
 
     @Nullable
@@ -56,7 +73,7 @@ public class LogcatHelper {
         BufferedReader reader;
         String result = null;
         try {
-            dumpLogcatProcess = ProcessCompat.exec(getLogcatArgs(buffers, true));
+            dumpLogcatProcess = ProcessCompat.exec(getLogcatArgs(buffers, true, false));
             reader = new BufferedReader(new InputStreamReader(dumpLogcatProcess
                     .getInputStream()), 8192);
 
@@ -76,8 +93,9 @@ public class LogcatHelper {
     }
 
     @NonNull
-    private static String[] getLogcatArgs(@LogBufferId int buffers, boolean dumpAndExit) {
-        List<String> args = new ArrayList<>(Arrays.asList("logcat", "-v", "time"));
+    private static String[] getLogcatArgs(@LogBufferId int buffers, boolean dumpAndExit, boolean binary) {
+        List<String> args = binary ? new ArrayList<>(Arrays.asList("logcat", "-B"))
+                : new ArrayList<>(Arrays.asList("logcat", "-v", "time"));
 
         if (buffers == LOG_ID_ALL) {
             args.add("-b");
@@ -9,6 +9,7 @@ import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 
 import org.jetbrains.annotations.Contract;
 
@@ -20,15 +21,17 @@ import java.io.PrintStream;
 import java.text.DateFormat;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
+import io.github.muntashirakon.AppManager.logcat.struct.LogIndex;
 import io.github.muntashirakon.AppManager.logcat.struct.SavedLog;
 import io.github.muntashirakon.AppManager.logs.Log;
 import io.github.muntashirakon.AppManager.self.filecache.FileCache;
@@ -45,6 +48,14 @@ public class SaveLogHelper {
     public static final String LOG_FILENAME = "logcat.am.log";
     public static final String DMESG_FILENAME = "dmesg.txt";
     public static final String SAVED_LOGS_DIR = "saved_logs";
+    public static final String LOG_INDEX_DIR = ".index";
+    public static final String LOG_INDEX_EXTENSION = ".idx";
+    /**
+     * Size of the uncompressed lines in a part of a compressed recording
+     */
+    public static final long RECORDING_PART_SIZE = 32 * 1024 * 1024; // 32 MiB
+    public static final long RECORDING_PART_DURATION = 60 * 60 * 1000; // 1 hour
+    public static final int MAX_RECORDING_PARTS = 24;
     private static final int BUFFER = 0x1000; // 4K
 
     @Nullable
@@ -75,10 +86,27 @@ public class SaveLogHelper {
 
     public static void deleteLogIfExists(@Nullable String filename) {
         if (filename == null) return;
+        // Delete all parts of a compressed log
+        String logName = CompressedLogWriter.getLogName(filename);
+        if (logName == null) {
+            logName = filename;
+        }
+        try {
+            for (Path file : getSavedLogsDirectory().listFiles()) {
+                if (logName.equals(CompressedLogWriter.getLogName(file.getName()))) {
+                    file.delete();
+                }
+            }
+        } catch (IOException ignore) {
+        }
         try {
             getFile(filename).delete();
         } catch (IOException ignore) {
         }
+        try {
+            getSavedLogsDirectory().findFile(LOG_INDEX_DIR).findFile(filename + LOG_INDEX_EXTENSION).delete();
+        } catch (IOException ignore) {
+        }
     }
 
     @NonNull
@@ -97,7 +125,27 @@ public class SaveLogHelper {
     public static List<Path> getLogFiles() {
         try {
             Path[] filesArray = getSavedLogsDirectory().listFiles();
-            List<Path> files = new ArrayList<>(Arrays.asList(filesArray));
+            List<Path> files = new ArrayList<>(filesArray.length);
+            Map<String, Path> lastParts = new HashMap<>();
+            for (Path file : filesArray) {
+                // Skip the indices
+                if (file.isDirectory()) {
+                    continue;
+                }
+                // A compressed log is represented by its newest part
+                String filename = file.getName();
+                String logName = CompressedLogWriter.getLogName(filename);
+                if (logName == null) {
+                    files.add(file);
+                    continue;
+                }
+                Path lastPart = lastParts.get(logName);
+                if (lastPart == null || CompressedLogWriter.getPartIndex(lastPart.getName())
+                        < CompressedLogWriter.getPartIndex(filename)) {
+                    lastParts.put(logName, file);
+                }
+            }
+            files.addAll(lastParts.values());
             Collections.sort(files, (o1, o2) -> Long.compare(o2.lastModified(), o1.lastModified()));
             return files;
         } catch (IOException e) {
@@ -108,6 +156,9 @@ public class SaveLogHelper {
     @NonNull
     public static SavedLog openLog(@NonNull Uri fileUri, int maxLines) {
         Path logFile = Paths.get(fileUri);
+        if (isCompressedLog(logFile.getName())) {
+            return CompressedLogReader.openLog(logFile, maxLines);
+        }
         LinkedList<String> logLines = new LinkedList<>();
         boolean truncated = false;
         try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(logFile.openInputStream()), BUFFER)) {
@@ -124,6 +175,62 @@ public class SaveLogHelper {
         return new SavedLog(logLines, truncated);
     }
 
+    /**
+     * Whether the file is a part of a log recorded with compression, which is opened along with the rest of the parts.
+     */
+    public static boolean isCompressedLog(@NonNull String filename) {
+        return CompressedLogWriter.getLogName(filename) != null;
+    }
+
+    /**
+     * Create a writer that records a log as compressed parts in the saved logs directory.
+     */
+    @NonNull
+    public static CompressedLogWriter newCompressedLogWriter(@NonNull String filename) throws IOException {
+        return new CompressedLogWriter(getSavedLogsDirectory(), filename, RECORDING_PART_SIZE,
+                RECORDING_PART_DURATION, MAX_RECORDING_PARTS);
+    }
+
+    /**
+     * Open the index of a log, creating or updating it if necessary. The indices are stored in a hidden directory next
+     * to the log.
+     */
+    @WorkerThread
+    @NonNull
+    public static LogIndex openLogIndex(@NonNull Path logFile) throws IOException {
+        Path directory = logFile.getParent();
+        if (isCompressedLog(logFile.getName())) {
+            throw new IOException("Compressed logs are not indexed: " + logFile.getName());
+        }
+        if (directory == null) {
+            throw new IOException("Cannot store the index of " + logFile.getName());
+        }
+        Path indexFile = directory.findOrCreateDirectory(LOG_INDEX_DIR)
+                .findOrCreateFile(logFile.getName() + LOG_INDEX_EXTENSION, null);
+        return LogIndex.open(logFile, indexFile);
+    }
+
+    /**
+     * Create or update the index of a saved log so that it can be searched right away.
+     */
+    @WorkerThread
+    public static void updateLogIndex(@NonNull String filename) {
+        try {
+            updateLogIndex(getFile(filename));
+        } catch (IOException e) {
+            Log.w(TAG, "Could not index %s", e, filename);
+        }
+    }
+
+    @WorkerThread
+    private static void updateLogIndex(@NonNull Path logFile) {
+        try {
+            openLogIndex(logFile);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not index %s", e, logFile.getName());
+        }
+    }
+
     public static synchronized boolean saveLog(CharSequence logString, String filename) {
         try {
             saveLog(null, logString, filename);
@@ -137,7 +244,9 @@ public class SaveLogHelper {
     @Nullable
     public static synchronized Path saveLog(List<String> logLines, String filename) {
         try {
-            return saveLog(logLines, null, filename);
+            Path logFile = saveLog(logLines, null, filename);
+            updateLogIndex(logFile);
+            return logFile;
         } catch (IOException e) {
             e.printStackTrace();
             return null;
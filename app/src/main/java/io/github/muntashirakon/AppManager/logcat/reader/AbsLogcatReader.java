@@ -2,9 +2,27 @@
 
 package io.github.muntashirakon.AppManager.logcat.reader;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+
+import io.github.muntashirakon.AppManager.logcat.helper.LogcatHelper;
 
 // Copyright 2012 Nolan Lawson
 abstract class AbsLogcatReader implements LogcatReader {
+    /**
+     * Create a reader for the given buffers, preferring the binary output of logcat where it is supported.
+     */
+    @NonNull
+    static AbsLogcatReader newReader(boolean recordingMode, @LogcatHelper.LogBufferId int buffers,
+                                     @Nullable String lastLine) throws IOException {
+        if (LogcatHelper.supportsBinaryFormat(buffers)) {
+            return new BinaryLogcatReader(recordingMode, buffers, lastLine);
+        }
+        return new SingleLogcatReader(recordingMode, buffers, lastLine);
+    }
+
     protected boolean recordingMode;
 
     public AbsLogcatReader(boolean recordingMode) {
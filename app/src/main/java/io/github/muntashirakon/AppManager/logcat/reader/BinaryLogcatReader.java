@@ -0,0 +1,294 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logcat.reader;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import io.github.muntashirakon.AppManager.logcat.helper.LogcatHelper;
+import io.github.muntashirakon.AppManager.logcat.struct.LogLine;
+import io.github.muntashirakon.AppManager.logcat.struct.LogLineParser;
+import io.github.muntashirakon.AppManager.logs.Log;
+
+/**
+ * Reads the binary output of logcat ({@code logcat -B}) instead of the text output. Entries are decoded directly from
+ * their {@code logger_entry} records, and the entries filtered out by their priority or PID are skipped without
+ * decoding their tags and messages.
+ * <p>
+ * {@link #readLogLine(LogLineParser, boolean)} creates the log lines from the fields of the entries, one line per line
+ * of the message, without formatting them. {@link #readLine()} formats them the same way as {@code logcat -v time}.
+ * Like logcat, the beginning of each buffer is marked by a {@code --------- beginning of <buffer>} line.
+ * <p>
+ * The events buffers are not supported, since their payloads are binary and require the event tags of the system to
+ * be formatted.
+ */
+public class BinaryLogcatReader extends AbsLogcatReader {
+    public static final String TAG = BinaryLogcatReader.class.getSimpleName();
+
+    @Nullable
+    private final Process mLogcatProcess;
+    private final InputStream mInputStream;
+    private final LoggerEntry mEntry;
+    private final StringBuilder mLineBuilder = new StringBuilder(256);
+    private final Calendar mCalendar = Calendar.getInstance();
+    private final char[] mTimestamp = "00-00 00:00:00.000".toCharArray();
+    private long mTimestampSeconds = Long.MIN_VALUE;
+    private int mTimestampMillis = -1;
+    @Nullable
+    private String mTimestampString;
+    @Nullable
+    private String mLastLine;
+    private volatile int mMinLogLevel = Integer.MIN_VALUE;
+    private volatile int mPid = -1;
+    // Message of the current entry and the start of its next line, if it has multiple lines
+    @Nullable
+    private String mMessage;
+    private int mMessageOffset;
+    private int mLastLogId = LoggerEntry.LOG_ID_UNKNOWN;
+    // Bitmask of the log IDs whose beginning is already marked
+    private int mMarkedLogIds;
+
+    public BinaryLogcatReader(boolean recordingMode, @LogcatHelper.LogBufferId int buffers, @Nullable String lastLine)
+            throws IOException {
+        super(recordingMode);
+        mLastLine = lastLine;
+        mEntry = new LoggerEntry(LoggerEntry.isKernelLogger());
+        mLogcatProcess = LogcatHelper.getBinaryLogcatProcess(buffers);
+        mInputStream = new BufferedInputStream(mLogcatProcess.getInputStream(), 65536);
+    }
+
+    @VisibleForTesting
+    BinaryLogcatReader(@NonNull InputStream is, boolean kernelLogger) {
+        super(false);
+        mEntry = new LoggerEntry(kernelLogger);
+        mLogcatProcess = null;
+        mInputStream = is;
+    }
+
+    @Override
+    public void setPreFilter(int minLogLevel, int pid) {
+        mMinLogLevel = minLogLevel;
+        mPid = pid;
+    }
+
+    /**
+     * Read the next entry accepted by the pre-filter. The returned object is reused for the next entry.
+     *
+     * @return {@code null} if there are no more entries
+     */
+    @Nullable
+    public LoggerEntry readEntry() throws IOException {
+        while (mEntry.read(mInputStream)) {
+            if (mEntry.getLogLevel() < mMinLogLevel) {
+                continue;
+            }
+            if (mPid != -1 && mEntry.getPid() != mPid) {
+                continue;
+            }
+            return mEntry;
+        }
+        return null;
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        String line = readNextLine();
+        if (recordingMode && mLastLine != null) { // Still skipping past the 'last line'
+            if (mLastLine.equals(line)) {
+                mLastLine = null; // Indicates we've passed the last line
+            }
+        }
+        return line;
+    }
+
+    @Nullable
+    @Override
+    public LogLine readLogLine(@NonNull LogLineParser parser, boolean expanded) throws IOException {
+        while (recordingMode && mLastLine != null) {
+            // The last line is the text output of logcat, and is looked for in the formatted lines
+            String line = readLine();
+            if (line == null) {
+                return null;
+            }
+            LogLine logLine = parser.parseLogLine(line, expanded);
+            if (logLine != null) {
+                return logLine;
+            }
+        }
+        while (true) {
+            if (mMessage == null) {
+                if (readEntry() == null) {
+                    return null;
+                }
+                String marker = getBeginningMarker(mEntry.getLogId());
+                // The message is only decoded if the entry can be accepted
+                boolean mayAccept = parser.mayAccept(mEntry.getLogLevel(), mEntry.getPid())
+                        && !parser.isTagExcluded(mEntry.getPaddedTag());
+                if (mayAccept) {
+                    mMessage = mEntry.getMessage();
+                    mMessageOffset = 0;
+                }
+                if (marker != null) {
+                    LogLine logLine = parser.parseLogLine(marker, expanded);
+                    if (logLine != null) {
+                        return logLine;
+                    }
+                }
+                if (!mayAccept) {
+                    continue;
+                }
+            }
+            String message = mMessage;
+            int start = mMessageOffset;
+            int end = nextLineEnd();
+            LogLine logLine = parser.newLogLine(getTimestamp(), mEntry.getLogLevel(), mEntry.getPaddedTag(),
+                    mEntry.getPid(), message.substring(start, end), expanded);
+            if (logLine != null) {
+                return logLine;
+            }
+        }
+    }
+
+    @Nullable
+    private String readNextLine() throws IOException {
+        if (mMessage == null) {
+            if (readEntry() == null) {
+                return null;
+            }
+            mMessage = mEntry.getMessage();
+            mMessageOffset = 0;
+            String marker = getBeginningMarker(mEntry.getLogId());
+            if (marker != null) {
+                // The entry is formatted by the next call
+                return marker;
+            }
+        }
+        // Each line of the message is printed with the same prefix
+        String message = mMessage;
+        int start = mMessageOffset;
+        int end = nextLineEnd();
+        formatPrefix();
+        mLineBuilder.append(message, start, end);
+        return mLineBuilder.toString();
+    }
+
+    /**
+     * Find the end of the current line of the message, and move to the next line.
+     *
+     * @return The end of the current line
+     */
+    private int nextLineEnd() {
+        String message = Objects.requireNonNull(mMessage);
+        int end = message.indexOf('\n', mMessageOffset);
+        int nextOffset = end + 1;
+        if (end < 0) {
+            end = message.length();
+        }
+        if (nextOffset <= 0 || nextOffset >= message.length()) {
+            // A trailing newline does not start a new line
+            mMessage = null;
+        } else {
+            mMessageOffset = nextOffset;
+        }
+        return end;
+    }
+
+    /**
+     * Mark the beginning of a buffer the first time logcat switches to it, as logcat does unless it prints binary.
+     */
+    @Nullable
+    private String getBeginningMarker(int logId) {
+        if (logId == mLastLogId || logId == LoggerEntry.LOG_ID_UNKNOWN) {
+            return null;
+        }
+        mLastLogId = logId;
+        String bufferName = LoggerEntry.getBufferName(logId);
+        if (bufferName == null || (mMarkedLogIds & (1 << logId)) != 0) {
+            return null;
+        }
+        mMarkedLogIds |= 1 << logId;
+        return "--------- beginning of " + bufferName;
+    }
+
+    /**
+     * Format {@code MM-dd HH:mm:ss.SSS L/TAG     (  PID): }, as printed by {@code logcat -v time}.
+     */
+    private void formatPrefix() {
+        StringBuilder sb = mLineBuilder;
+        sb.setLength(0);
+        updateTimestamp();
+        sb.append(mTimestamp).append(' ');
+        LogLine.appendHeader(sb, mEntry.getPriorityChar(), mEntry.getTag(), mEntry.getPid());
+    }
+
+    /**
+     * @return The timestamp of the current entry as {@code MM-dd HH:mm:ss.SSS}
+     */
+    @NonNull
+    private String getTimestamp() {
+        if (updateTimestamp() || mTimestampString == null) {
+            mTimestampString = new String(mTimestamp);
+        }
+        return mTimestampString;
+    }
+
+    /**
+     * Update the timestamp to that of the current entry.
+     *
+     * @return Whether the timestamp changed
+     */
+    private boolean updateTimestamp() {
+        long seconds = mEntry.getSeconds() & 0xffffffffL;
+        int millis = mEntry.getNanoseconds() / 1_000_000;
+        if (seconds == mTimestampSeconds && millis == mTimestampMillis) {
+            return false;
+        }
+        if (seconds != mTimestampSeconds) {
+            // The date is only calculated once per second
+            mTimestampSeconds = seconds;
+            mCalendar.setTimeInMillis(seconds * 1000);
+            putTwoDigits(0, mCalendar.get(Calendar.MONTH) + 1);
+            putTwoDigits(3, mCalendar.get(Calendar.DAY_OF_MONTH));
+            putTwoDigits(6, mCalendar.get(Calendar.HOUR_OF_DAY));
+            putTwoDigits(9, mCalendar.get(Calendar.MINUTE));
+            putTwoDigits(12, mCalendar.get(Calendar.SECOND));
+        }
+        mTimestampMillis = millis;
+        mTimestamp[15] = (char) ('0' + millis / 100);
+        mTimestamp[16] = (char) ('0' + millis / 10 % 10);
+        mTimestamp[17] = (char) ('0' + millis % 10);
+        return true;
+    }
+
+    private void putTwoDigits(int index, int value) {
+        mTimestamp[index] = (char) ('0' + value / 10);
+        mTimestamp[index + 1] = (char) ('0' + value % 10);
+    }
+
+    @Override
+    public void killQuietly() {
+        if (mLogcatProcess != null) {
+            mLogcatProcess.destroy();
+            Log.d(TAG, "killed 1 logcat process");
+        }
+    }
+
+    @Override
+    public boolean readyToRecord() {
+        return recordingMode && mLastLine == null;
+    }
+
+    @Override
+    public List<Process> getProcesses() {
+        return mLogcatProcess != null ? Collections.singletonList(mLogcatProcess) : Collections.emptyList();
+    }
+}
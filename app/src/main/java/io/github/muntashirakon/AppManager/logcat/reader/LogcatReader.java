@@ -2,9 +2,15 @@
 
 package io.github.muntashirakon.AppManager.logcat.reader;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
 import java.io.IOException;
 import java.util.List;
 
+import io.github.muntashirakon.AppManager.logcat.struct.LogLine;
+import io.github.muntashirakon.AppManager.logcat.struct.LogLineParser;
+
 // Copyright 2012 Nolan Lawson
 public interface LogcatReader {
     /**
@@ -14,6 +20,25 @@ public interface LogcatReader {
      */
     String readLine() throws IOException;
 
+    /**
+     * Read the next log line accepted by the filters of the given parser. Readers that do not read text can create
+     * the line from its fields without formatting and parsing it. The filters of the parser should not change between
+     * calls, since some readers apply them ahead of time.
+     *
+     * @return The next log line, or {@code null} if there are no more lines
+     */
+    @Nullable
+    default LogLine readLogLine(@NonNull LogLineParser parser, boolean expanded) throws IOException {
+        String line;
+        while ((line = readLine()) != null) {
+            LogLine logLine = parser.parseLogLine(line, expanded);
+            if (logLine != null) {
+                return logLine;
+            }
+        }
+        return null;
+    }
+
     /**
      * Kill the reader and close all resources without throwing any exceptions.
      */
@@ -23,4 +48,14 @@ public interface LogcatReader {
     boolean readyToRecord();
 
     List<Process> getProcesses();
+
+    /**
+     * Skip the lines below the given level or from other processes, if the reader can do so before decoding them. The
+     * lines that are not skipped still need to be filtered by the caller.
+     *
+     * @param minLogLevel Minimum log level as defined in {@link io.github.muntashirakon.AppManager.logcat.struct.LogLine}
+     * @param pid         The process ID, or {@code -1} to accept every process
+     */
+    default void setPreFilter(int minLogLevel, int pid) {
+    }
 }
@@ -46,7 +46,7 @@ public class LogcatReaderLoader implements Parcelable {
             // single reader
             Integer buffers = mLastLines.keySet().iterator().next();
             String lastLine = mLastLines.values().iterator().next();
-            reader = new SingleLogcatReader(mRecordingMode, buffers, lastLine);
+            reader = AbsLogcatReader.newReader(mRecordingMode, buffers, lastLine);
         } else {
             // multiple reader
             reader = new MultipleLogcatReader(mRecordingMode, mLastLines);
@@ -0,0 +1,327 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logcat.reader;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import io.github.muntashirakon.AppManager.logcat.struct.LogLine;
+
+/**
+ * A log entry in the binary format of logcat ({@code logcat -B}), i.e. a {@code struct logger_entry} followed by the
+ * payload. The payload of the text buffers consists of the priority, the NUL-terminated tag and the NUL-terminated
+ * message.
+ * <p>
+ * Only the header and the priority are decoded when an entry is read. The tag and the message are decoded when they
+ * are requested, so that entries filtered out by their priority or PID cost next to nothing. The same object is reused
+ * for every entry read.
+ */
+public class LoggerEntry {
+    /**
+     * Log ID of the entries whose buffer is unknown, i.e. the entries of the kernel logger
+     */
+    public static final int LOG_ID_UNKNOWN = -1;
+
+    /**
+     * Size of the header of the first version, which does not contain the size of the header.
+     */
+    private static final int HEADER_SIZE_V1 = 20;
+    /**
+     * Size of the header of v2 (kernel logger) and v3 (logd). The former has the effective UID, the latter the log ID
+     * after the timestamp.
+     */
+    private static final int HEADER_SIZE_V2_V3 = 24;
+    /**
+     * Device of the main buffer of the kernel logger, which was replaced by logd
+     */
+    private static final String KERNEL_LOGGER_MAIN = "/dev/log/main";
+    /**
+     * Maximum size of an entry including the header ({@code LOGGER_ENTRY_MAX_LEN})
+     */
+    private static final int MAX_ENTRY_SIZE = 5 * 1024;
+    private static final int TAG_CACHE_SIZE = 64;
+
+    private static final int ANDROID_LOG_VERBOSE = 2;
+    private static final int ANDROID_LOG_DEBUG = 3;
+    private static final int ANDROID_LOG_INFO = 4;
+    private static final int ANDROID_LOG_WARN = 5;
+    private static final int ANDROID_LOG_ERROR = 6;
+    private static final int ANDROID_LOG_FATAL = 7;
+    private static final int ANDROID_LOG_SILENT = 8;
+
+    // Indexed by the log ID
+    private static final String[] BUFFER_NAMES = new String[]{"main", "radio", "events", "system", "crash", "stats",
+            "security", "kernel"};
+
+    /**
+     * @return Whether the entries come from the kernel logger rather than logd
+     */
+    public static boolean isKernelLogger() {
+        return new File(KERNEL_LOGGER_MAIN).exists();
+    }
+
+    /**
+     * @return The name of the buffer as printed by logcat, or {@code null} if the log ID is unknown
+     */
+    @Nullable
+    public static String getBufferName(int logId) {
+        return logId >= 0 && logId < BUFFER_NAMES.length ? BUFFER_NAMES[logId] : null;
+    }
+
+    private final byte[] mData = new byte[MAX_ENTRY_SIZE];
+    private final ByteBuffer mBuffer = ByteBuffer.wrap(mData).order(ByteOrder.LITTLE_ENDIAN);
+    private final byte[][] mTagCacheBytes = new byte[TAG_CACHE_SIZE][];
+    private final String[] mTagCacheStrings = new String[TAG_CACHE_SIZE];
+    // Padded versions of the cached tags, created on demand
+    private final String[] mPaddedTagCacheStrings = new String[TAG_CACHE_SIZE];
+    private final boolean mKernelLogger;
+
+    private int mPid;
+    private int mTid;
+    private int mSeconds;
+    private int mNanoseconds;
+    private int mLogId;
+    private int mPriority;
+    private int mPayloadStart;
+    private int mPayloadEnd;
+    // Decoded on demand
+    private int mTagEnd = -1;
+    private String mTag;
+    // Slot of the tag in the cache, or -1 if it is not cached
+    private int mTagSlot = -1;
+    private String mMessage;
+
+    public LoggerEntry() {
+        this(false);
+    }
+
+    /**
+     * @param kernelLogger Whether the entries come from the kernel logger, whose headers do not contain the log ID
+     */
+    public LoggerEntry(boolean kernelLogger) {
+        mKernelLogger = kernelLogger;
+    }
+
+    /**
+     * Read the next entry from the stream.
+     *
+     * @return {@code false} if the end of the stream is reached
+     * @throws IOException If the entry is malformed or truncated
+     */
+    public boolean read(@NonNull InputStream is) throws IOException {
+        if (!readFully(is, 0, 4, true)) {
+            return false;
+        }
+        int payloadLength = mBuffer.getShort(0) & 0xffff;
+        int headerSize = mBuffer.getShort(2) & 0xffff;
+        if (headerSize == 0) {
+            // The field is padding in v1
+            headerSize = HEADER_SIZE_V1;
+        }
+        if (headerSize < HEADER_SIZE_V1 || headerSize + payloadLength > MAX_ENTRY_SIZE) {
+            throw new IOException("Malformed entry: header size " + headerSize + ", payload length " + payloadLength);
+        }
+        readFully(is, 4, headerSize + payloadLength - 4, false);
+        mPid = mBuffer.getInt(4);
+        mTid = mBuffer.getInt(8);
+        mSeconds = mBuffer.getInt(12);
+        mNanoseconds = mBuffer.getInt(16);
+        // v2 has the effective UID, v3 and later the log ID at this offset. Both v2 and v3 headers have the same size.
+        if (headerSize > HEADER_SIZE_V2_V3 || (headerSize == HEADER_SIZE_V2_V3 && !mKernelLogger)) {
+            mLogId = mBuffer.getInt(20);
+        } else {
+            mLogId = LOG_ID_UNKNOWN;
+        }
+        mPayloadStart = headerSize;
+        mPayloadEnd = headerSize + payloadLength;
+        mPriority = payloadLength > 0 ? mData[mPayloadStart] : 0;
+        mTagEnd = -1;
+        mTag = null;
+        mTagSlot = -1;
+        mMessage = null;
+        return true;
+    }
+
+    public int getPid() {
+        return mPid;
+    }
+
+    public int getTid() {
+        return mTid;
+    }
+
+    public int getSeconds() {
+        return mSeconds;
+    }
+
+    public int getNanoseconds() {
+        return mNanoseconds;
+    }
+
+    /**
+     * @return The log ID, e.g. {@code LOG_ID_MAIN} of liblog, or {@link #LOG_ID_UNKNOWN} for v1 and v2 entries
+     */
+    public int getLogId() {
+        return mLogId;
+    }
+
+    /**
+     * @return Android log priority, e.g. {@code ANDROID_LOG_INFO}
+     */
+    public int getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * @return The priority as a log level of {@link LogLine}
+     */
+    public int getLogLevel() {
+        return LogLine.convertCharToLogLevel(getPriorityChar());
+    }
+
+    /**
+     * @return The priority as printed by logcat
+     */
+    public char getPriorityChar() {
+        switch (mPriority) {
+            case ANDROID_LOG_VERBOSE:
+                return 'V';
+            case ANDROID_LOG_DEBUG:
+                return 'D';
+            case ANDROID_LOG_INFO:
+                return 'I';
+            case ANDROID_LOG_WARN:
+                return 'W';
+            case ANDROID_LOG_ERROR:
+                return 'E';
+            case ANDROID_LOG_FATAL:
+                return 'F';
+            case ANDROID_LOG_SILENT:
+                return 'S';
+            default:
+                return '?';
+        }
+    }
+
+    @NonNull
+    public String getTag() {
+        if (mTag == null) {
+            int tagStart = mPayloadStart + 1;
+            int tagEnd = getTagEnd();
+            mTag = tagStart < tagEnd ? getCachedTag(tagStart, tagEnd) : "";
+        }
+        return mTag;
+    }
+
+    /**
+     * @return The tag padded with spaces to the width printed by logcat, which is the tag of a parsed line
+     */
+    @NonNull
+    public String getPaddedTag() {
+        String tag = getTag();
+        if (tag.length() >= LogLine.TAG_WIDTH) {
+            return tag;
+        }
+        if (mTagSlot == -1) {
+            return padTag(tag);
+        }
+        String paddedTag = mPaddedTagCacheStrings[mTagSlot];
+        if (paddedTag == null) {
+            paddedTag = padTag(tag);
+            mPaddedTagCacheStrings[mTagSlot] = paddedTag;
+        }
+        return paddedTag;
+    }
+
+    @NonNull
+    public String getMessage() {
+        if (mMessage == null) {
+            int messageStart = Math.min(getTagEnd() + 1, mPayloadEnd);
+            int messageEnd = indexOfNul(messageStart, mPayloadEnd);
+            mMessage = new String(mData, messageStart, messageEnd - messageStart, StandardCharsets.UTF_8);
+        }
+        return mMessage;
+    }
+
+    private int getTagEnd() {
+        if (mTagEnd == -1) {
+            mTagEnd = indexOfNul(Math.min(mPayloadStart + 1, mPayloadEnd), mPayloadEnd);
+        }
+        return mTagEnd;
+    }
+
+    private int indexOfNul(int start, int end) {
+        for (int i = start; i < end; ++i) {
+            if (mData[i] == 0) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * A few tags make up most of the log, so the recently decoded tags are reused instead of being decoded again.
+     */
+    @NonNull
+    private String getCachedTag(int start, int end) {
+        int hash = 1;
+        for (int i = start; i < end; ++i) {
+            hash = 31 * hash + mData[i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & (TAG_CACHE_SIZE - 1);
+        byte[] cachedBytes = mTagCacheBytes[slot];
+        if (cachedBytes != null && cachedBytes.length == end - start) {
+            boolean equal = true;
+            for (int i = 0; i < cachedBytes.length; ++i) {
+                if (cachedBytes[i] != mData[start + i]) {
+                    equal = false;
+                    break;
+                }
+            }
+            if (equal) {
+                mTagSlot = slot;
+                return mTagCacheStrings[slot];
+            }
+        }
+        byte[] bytes = new byte[end - start];
+        System.arraycopy(mData, start, bytes, 0, bytes.length);
+        String tag = new String(bytes, StandardCharsets.UTF_8);
+        mTagCacheBytes[slot] = bytes;
+        mTagCacheStrings[slot] = tag;
+        mPaddedTagCacheStrings[slot] = null;
+        mTagSlot = slot;
+        return tag;
+    }
+
+    @NonNull
+    private static String padTag(@NonNull String tag) {
+        StringBuilder sb = new StringBuilder(LogLine.TAG_WIDTH).append(tag);
+        while (sb.length() < LogLine.TAG_WIDTH) {
+            sb.append(' ');
+        }
+        return sb.toString();
+    }
+
+    private boolean readFully(@NonNull InputStream is, int offset, int length, boolean allowEof) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int count = is.read(mData, offset + read, length - read);
+            if (count < 0) {
+                if (allowEof && read == 0) {
+                    return false;
+                }
+                throw new EOFException("Truncated entry");
+            }
+            read += count;
+        }
+        return true;
+    }
+}
@@ -2,6 +2,9 @@
 
 package io.github.muntashirakon.AppManager.logcat.reader;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.LinkedList;
@@ -12,19 +15,24 @@ import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 
 import io.github.muntashirakon.AppManager.logcat.helper.LogcatHelper;
+import io.github.muntashirakon.AppManager.logcat.struct.LogLine;
+import io.github.muntashirakon.AppManager.logcat.struct.LogLineParser;
 import io.github.muntashirakon.AppManager.logs.Log;
 import io.github.muntashirakon.AppManager.utils.ThreadUtils;
 
 /**
- * Combines multiple buffered readers into a single reader that merges all input synchronously.
+ * Combines multiple buffered readers into a single reader that merges all input synchronously. The readers start
+ * reading when this is first read, either as lines or as log lines.
  */
 // Copyright 2012 Nolan Lawson
 public class MultipleLogcatReader extends AbsLogcatReader {
     public static final String TAG = MultipleLogcatReader.class.getSimpleName();
 
-    private static final String DUMMY_NULL = "";  // Stop marker
+    private static final Object DUMMY_NULL = new Object();  // Stop marker
     private final List<ReaderThread> mReaderThreads = new LinkedList<>();
-    private final BlockingQueue<String> mQueue = new ArrayBlockingQueue<>(1);
+    // Lines or log lines
+    private final BlockingQueue<Object> mQueue = new ArrayBlockingQueue<>(1);
+    private boolean mStarted;
 
     public MultipleLogcatReader(boolean recordingMode, Map<Integer, String> lastLines) throws IOException {
         super(recordingMode);
@@ -32,16 +40,60 @@ public class MultipleLogcatReader extends AbsLogcatReader {
         for (Entry<Integer, String> entry : lastLines.entrySet()) {
             Integer buffers = entry.getKey();
             String lastLine = entry.getValue();
-            ReaderThread readerThread = new ReaderThread(buffers, lastLine);
-            readerThread.start();
-            mReaderThreads.add(readerThread);
+            mReaderThreads.add(new ReaderThread(buffers, lastLine));
         }
     }
 
     public String readLine() throws IOException {
+        startReading(null);
+        Object value = take();
+        if (value instanceof LogLine) {
+            // Started reading log lines
+            return ((LogLine) value).getOriginalLine();
+        }
+        return (String) value;
+    }
+
+    @Nullable
+    @Override
+    public LogLine readLogLine(@NonNull LogLineParser parser, boolean expanded) throws IOException {
+        startReading(parser);
+        Object value;
+        while ((value = take()) != null) {
+            if (value instanceof LogLine) {
+                LogLine logLine = (LogLine) value;
+                logLine.setExpanded(expanded);
+                return logLine;
+            }
+            // Started reading lines
+            LogLine logLine = parser.parseLogLine((String) value, expanded);
+            if (logLine != null) {
+                return logLine;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param parser Parser of the log lines, or {@code null} to read lines
+     */
+    private synchronized void startReading(@Nullable LogLineParser parser) {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        for (ReaderThread thread : mReaderThreads) {
+            // Parsers are not thread-safe
+            thread.mParser = parser != null ? parser.copy() : null;
+            thread.start();
+        }
+    }
+
+    @Nullable
+    private Object take() {
         try {
-            String value = mQueue.take();
-            if (!value.equals(DUMMY_NULL)) {
+            Object value = mQueue.take();
+            if (value != DUMMY_NULL) {
                 return value;
             }
         } catch (InterruptedException e) {
@@ -75,6 +127,13 @@ public class MultipleLogcatReader extends AbsLogcatReader {
         });
     }
 
+    @Override
+    public void setPreFilter(int minLogLevel, int pid) {
+        for (ReaderThread thread : mReaderThreads) {
+            thread.mReader.setPreFilter(minLogLevel, pid);
+        }
+    }
+
     @Override
     public List<Process> getProcesses() {
         List<Process> result = new ArrayList<>();
@@ -85,18 +144,20 @@ public class MultipleLogcatReader extends AbsLogcatReader {
     }
 
     private class ReaderThread extends Thread {
-        private final SingleLogcatReader mReader;
+        private final AbsLogcatReader mReader;
+        @Nullable
+        private LogLineParser mParser;
         private boolean mKilled;
 
         public ReaderThread(@LogcatHelper.LogBufferId int logBuffer, String lastLine) throws IOException {
-            mReader = new SingleLogcatReader(recordingMode, logBuffer, lastLine);
+            mReader = AbsLogcatReader.newReader(recordingMode, logBuffer, lastLine);
         }
 
         @Override
         public void run() {
-            String line;
+            Object line;
             try {
-                while (!mKilled && (line = mReader.readLine()) != null && !mKilled) {
+                while (!mKilled && (line = readNext()) != null && !mKilled) {
                     mQueue.put(line);
                 }
             } catch (IOException | InterruptedException e) {
@@ -104,5 +165,14 @@ public class MultipleLogcatReader extends AbsLogcatReader {
             }
             Log.w(TAG, "Thread died");
         }
+
+        @Nullable
+        private Object readNext() throws IOException {
+            if (mParser != null) {
+                // The lines are expanded by the consumer
+                return mReader.readLogLine(mParser, false);
+            }
+            return mReader.readLine();
+        }
     }
 }
@@ -2,8 +2,23 @@
 
 package io.github.muntashirakon.AppManager.logcat.reader;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
+import io.github.muntashirakon.AppManager.logcat.struct.LogLineParser;
+import io.github.muntashirakon.AppManager.utils.ExUtils;
+import io.github.muntashirakon.AppManager.utils.MultithreadedExecutor;
+
 // Copyright 2014 CyanogenMod Project
 public class ScrubberUtils {
     private static final Pattern EMAIL_PATTERN = Pattern.compile("[a-zA-Z0-9_]+(?:\\.[A-Za-z0-9!#$%&'*+/=?^_`{|}~-]+)*(@|%40)(?!([a-zA-Z0-9]*\\.[a-zA-Z0-9]*\\.[a-zA-Z0-9]*\\.))(?:[A-Za-z0-9](?:[a-zA-Z0-9-]*[A-Za-z0-9])?\\.)+[a-zA-Z](?:[a-zA-Z0-9-]*[a-zA-Z0-9])?");
@@ -18,21 +33,211 @@ public class ScrubberUtils {
     private static final String IGNORE_DATA_DALVIK_CACHE = "/data/dalvik-cache";
     private static final String IGNORE_CACHE_DALVIK_CACHE = "/cache/dalvik-cache";
 
+    // Literals without which the patterns cannot match. None of them can appear in the replacements.
+    private static final int MAY_HAVE_EMAIL = 1;
+    private static final int MAY_HAVE_WEB_URL = 1 << 1;
+    private static final int MAY_HAVE_PHONE_INFO = 1 << 2;
+    private static final int MAY_HAVE_USER_INFO = 1 << 3;
+    private static final int MAY_HAVE_ACCOUNT_INFO = 1 << 4;
+    private static final int IGNORED = 1 << 5;
+
+    /**
+     * Maximum length of an IP address including a line terminator
+     */
+    private static final int MAX_IP_ADDRESS_LENGTH = 17;
+    private static final int CHUNK_SIZE = 2048;
+
     public static String scrubLine(String line) {
-        if (line.contains(IGNORE_DATA_RESOURCE_CACHE)
-                || line.contains(IGNORE_DATA_DALVIK_CACHE)
-                || line.contains(IGNORE_CACHE_DALVIK_CACHE)) {
+        int literals = findLiterals(line);
+        if ((literals & IGNORED) != 0) {
             // Ugly work around :/
             return line;
         }
-        line = IP_ADDRESS_PATTERN.matcher(line).replaceAll("<IP address omitted>");
-        line = EMAIL_PATTERN.matcher(line).replaceAll("<email omitted>");
-        line = PHONE_NUMBER_PATTERN.matcher(line).replaceAll("<phone number omitted>");
-        line = WEB_URL_PATTERN.matcher(line).replaceAll("<web url omitted>");
-        line = PHONE_INFO_PATTERN.matcher(line).replaceAll("<omitted>");
-        line = USER_INFO_PATTERN.matcher(line).replaceAll("<omitted>");
-        line = ACCOUNT_INFO_PATTERN.matcher(line).replaceAll("<omitted>");
-
+        // The patterns only run if the line has the literals they require, in which case they are applied in the same
+        // order as before
+        if (mayMatchWholeLine(line, MAX_IP_ADDRESS_LENGTH)) {
+            line = IP_ADDRESS_PATTERN.matcher(line).replaceAll("<IP address omitted>");
+        }
+        if ((literals & MAY_HAVE_EMAIL) != 0) {
+            line = EMAIL_PATTERN.matcher(line).replaceAll("<email omitted>");
+        }
+        if (mayMatchWholeLine(line, Integer.MAX_VALUE)) {
+            line = PHONE_NUMBER_PATTERN.matcher(line).replaceAll("<phone number omitted>");
+        }
+        if ((literals & MAY_HAVE_WEB_URL) != 0) {
+            line = WEB_URL_PATTERN.matcher(line).replaceAll("<web url omitted>");
+        }
+        if ((literals & MAY_HAVE_PHONE_INFO) != 0) {
+            line = PHONE_INFO_PATTERN.matcher(line).replaceAll("<omitted>");
+        }
+        if ((literals & MAY_HAVE_USER_INFO) != 0) {
+            line = USER_INFO_PATTERN.matcher(line).replaceAll("<omitted>");
+        }
+        if ((literals & MAY_HAVE_ACCOUNT_INFO) != 0) {
+            line = ACCOUNT_INFO_PATTERN.matcher(line).replaceAll("<omitted>");
+        }
         return line;
     }
-}
\ No newline at end of file
+
+    /**
+     * Scrub the messages of the given log lines the same way as they are scrubbed when they are displayed. Large logs
+     * are split into chunks that are scrubbed in parallel.
+     *
+     * @return The scrubbed lines in the same order, or {@code null} if the current thread is interrupted while
+     * waiting. In the latter case, the interrupt status is preserved.
+     */
+    @WorkerThread
+    @Nullable
+    public static List<String> scrubLogLines(@NonNull List<String> lines) {
+        if (lines.size() <= CHUNK_SIZE) {
+            return scrubLogLines(lines, new LogLineParser(null));
+        }
+        List<Callable<List<String>>> tasks = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i += CHUNK_SIZE) {
+            List<String> chunk = lines.subList(i, Math.min(i + CHUNK_SIZE, lines.size()));
+            tasks.add(() -> scrubLogLines(chunk, new LogLineParser(null)));
+        }
+        MultithreadedExecutor executor = MultithreadedExecutor.getNewInstance();
+        try {
+            List<Future<List<String>>> futures = executor.invokeAll(tasks);
+            List<String> scrubbedLines = new ArrayList<>(lines.size());
+            for (Future<List<String>> future : futures) {
+                scrubbedLines.addAll(future.get());
+            }
+            return scrubbedLines;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return ExUtils.rethrowAsRuntimeException(Objects.requireNonNull(e.getCause()));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @NonNull
+    private static List<String> scrubLogLines(@NonNull List<String> lines, @NonNull LogLineParser parser) {
+        List<String> scrubbedLines = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            scrubbedLines.add(scrubLogLine(line, parser));
+        }
+        return scrubbedLines;
+    }
+
+    /**
+     * Scrub the message of a log line, or the whole line if it is not a log line.
+     */
+    @VisibleForTesting
+    @NonNull
+    static String scrubLogLine(@NonNull String line, @NonNull LogLineParser parser) {
+        switch (parser.parse(line)) {
+            case LogLineParser.RESULT_LOG_LINE: {
+                int messageStart = parser.getMessageStart();
+                String message = line.substring(messageStart);
+                String scrubbedMessage = scrubLine(message);
+                //noinspection StringEquality The same string is returned if nothing is scrubbed
+                if (scrubbedMessage == message) {
+                    return line;
+                }
+                return line.substring(0, messageStart) + scrubbedMessage;
+            }
+            case LogLineParser.RESULT_UNKNOWN:
+                return scrubLine(line);
+            default:
+                return line;
+        }
+    }
+
+    /**
+     * Find the literals required by the patterns in a single pass.
+     */
+    private static int findLiterals(@NonNull String line) {
+        int literals = 0;
+        int length = line.length();
+        for (int i = 0; i < length; ++i) {
+            switch (line.charAt(i)) {
+                case '@':
+                    literals |= MAY_HAVE_EMAIL;
+                    break;
+                case '%':
+                    if (line.startsWith("%40", i)) {
+                        literals |= MAY_HAVE_EMAIL;
+                    }
+                    break;
+                case ':':
+                    if (line.startsWith("://", i)) {
+                        literals |= MAY_HAVE_WEB_URL;
+                    }
+                    break;
+                case '/':
+                    if (line.startsWith(IGNORE_DATA_RESOURCE_CACHE, i)
+                            || line.startsWith(IGNORE_DATA_DALVIK_CACHE, i)
+                            || line.startsWith(IGNORE_CACHE_DALVIK_CACHE, i)) {
+                        return IGNORED;
+                    }
+                    break;
+                case 'm':
+                case 'M':
+                    // mMsisdn= contains msisdn=
+                    if (regionMatchesIgnoreCase(line, i, "msisdn=") || regionMatchesIgnoreCase(line, i, "mimsi=")) {
+                        literals |= MAY_HAVE_PHONE_INFO;
+                    }
+                    break;
+                case 'i':
+                case 'I':
+                    if (regionMatchesIgnoreCase(line, i, "iccid=") || regionMatchesIgnoreCase(line, i, "iccid: ")) {
+                        literals |= MAY_HAVE_PHONE_INFO;
+                    }
+                    break;
+                case 'u':
+                case 'U':
+                    if (regionMatchesIgnoreCase(line, i, "userinfo{")) {
+                        literals |= MAY_HAVE_USER_INFO;
+                    }
+                    break;
+                case 'a':
+                case 'A':
+                    if (regionMatchesIgnoreCase(line, i, "account {name=")) {
+                        literals |= MAY_HAVE_ACCOUNT_INFO;
+                    }
+                    break;
+            }
+        }
+        return literals;
+    }
+
+    private static boolean regionMatchesIgnoreCase(@NonNull String line, int offset, @NonNull String literal) {
+        return line.regionMatches(true, offset, literal, 0, literal.length());
+    }
+
+    /**
+     * Whether a pattern that spans the whole line, starts with a digit or {@code +} or {@code (} and ends with a digit,
+     * may match the line.
+     */
+    private static boolean mayMatchWholeLine(@NonNull String line, int maxLength) {
+        int length = line.length();
+        if (length == 0 || length > maxLength) {
+            return false;
+        }
+        char first = line.charAt(0);
+        if (!isDigit(first) && first != '+' && first != '(') {
+            return false;
+        }
+        // $ also matches before a line terminator at the end
+        int end = length;
+        if (line.endsWith("\r\n")) {
+            end -= 2;
+        } else if (isLineTerminator(line.charAt(length - 1))) {
+            end -= 1;
+        }
+        return end > 0 && isDigit(line.charAt(end - 1));
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+}
@@ -0,0 +1,612 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logcat.struct;
+
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.io.FileSystemManager;
+import io.github.muntashirakon.io.Path;
+
+/**
+ * An index of a saved log, stored in a separate file. The log is split into blocks of {@link #LINES_PER_BLOCK} lines,
+ * and the index records for each block:
+ * <ul>
+ *     <li>its offset in the log,
+ *     <li>a bitmap of the levels of its lines,
+ *     <li>Bloom filters of the PIDs, of the trigrams of the tags and of the trigrams of the tags and messages.
+ * </ul>
+ * The trigram filters are sized for each block from the number of distinct trigrams in it, so that the rate of false
+ * positives stays low regardless of how long or varied the lines are.
+ * A search only reads the blocks that may contain a match according to the index, and the lines of these blocks are
+ * then matched one by one. Logs are only ever appended to, so when a log grows, only the new lines are indexed.
+ */
+public class LogIndex {
+    public static final String TAG = LogIndex.class.getSimpleName();
+
+    public static final int LINES_PER_BLOCK = 128;
+
+    private static final int MAGIC = 0x414d4c49; // AMLI
+    private static final int VERSION = 3;
+    /**
+     * Number of bytes at the beginning of the log used to check that the index belongs to the log.
+     */
+    private static final int PREFIX_LENGTH = 4096;
+    private static final int PID_WORDS = 4; // 256 bits
+    private static final int NGRAM_LENGTH = 3;
+    /**
+     * Size of the n-gram Bloom filters in bits per distinct n-gram. Along with {@link #NGRAM_HASH_COUNT}, the rate of
+     * false positives is about 1% per n-gram.
+     */
+    private static final int BITS_PER_NGRAM = 10;
+    private static final int NGRAM_HASH_COUNT = 4;
+    private static final int MAX_BITMAP_WORDS = 1 << 20;
+    private static final int BUFFER_SIZE = 0x10000; // 64K
+
+    private static class Block {
+        final long offset;
+        int lineCount;
+        int levels;
+        final long[] pids = new long[PID_WORDS];
+        long[] tags;
+        long[] text;
+        // Hashes of the n-grams while the block is being indexed, turned into the Bloom filters by finish()
+        final NgramHashes tagNgrams = new NgramHashes();
+        final NgramHashes textNgrams = new NgramHashes();
+
+        Block(long offset) {
+            this.offset = offset;
+        }
+
+        void finish() {
+            tags = tagNgrams.toBloomFilter();
+            text = textNgrams.toBloomFilter();
+        }
+    }
+
+    private static class NgramHashes {
+        private int[] mHashes = new int[0];
+        private int mSize;
+
+        void add(int hash) {
+            if (mSize == mHashes.length) {
+                int[] hashes = new int[Math.max(256, mSize * 2)];
+                System.arraycopy(mHashes, 0, hashes, 0, mSize);
+                mHashes = hashes;
+            }
+            mHashes[mSize++] = hash;
+        }
+
+        @NonNull
+        long[] toBloomFilter() {
+            Arrays.sort(mHashes, 0, mSize);
+            int distinctCount = 0;
+            for (int i = 0; i < mSize; ++i) {
+                if (distinctCount == 0 || mHashes[i] != mHashes[distinctCount - 1]) {
+                    mHashes[distinctCount++] = mHashes[i];
+                }
+            }
+            long[] bloomFilter = new long[(int) (((long) distinctCount * BITS_PER_NGRAM + 63) / 64)];
+            for (int i = 0; i < distinctCount; ++i) {
+                addToBloomFilter(bloomFilter, mHashes[i]);
+            }
+            // Not needed anymore
+            mHashes = new int[0];
+            mSize = 0;
+            return bloomFilter;
+        }
+    }
+
+    /**
+     * Open the index of a log, creating or updating the index file if it is missing or out of date.
+     */
+    @WorkerThread
+    @NonNull
+    public static LogIndex open(@NonNull Path logFile, @NonNull Path indexFile) throws IOException {
+        LogIndex index = null;
+        if (indexFile.length() > 0) {
+            try (DataInputStream is = new DataInputStream(new BufferedInputStream(indexFile.openInputStream()))) {
+                index = read(is);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not read the index of %s", e, logFile.getName());
+            }
+        }
+        long length = logFile.length();
+        if (index != null && (length < index.mIndexedLength || index.mPrefixCrc != getPrefixCrc(logFile,
+                index.mPrefixLength))) {
+            // A different log
+            index = null;
+        }
+        if (index != null && length == index.mIndexedLength) {
+            return index;
+        }
+        if (index == null) {
+            index = new LogIndex();
+        }
+        index.update(logFile);
+        try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(indexFile.openOutputStream()))) {
+            index.write(os);
+        }
+        return index;
+    }
+
+    private final List<Block> mBlocks = new ArrayList<>();
+    private long mIndexedLength;
+    private int mPrefixLength;
+    private long mPrefixCrc;
+
+    @VisibleForTesting
+    LogIndex() {
+    }
+
+    public int getBlockCount() {
+        return mBlocks.size();
+    }
+
+    public int getLineCount() {
+        int count = 0;
+        for (Block block : mBlocks) {
+            count += block.lineCount;
+        }
+        return count;
+    }
+
+    /**
+     * Whether the block may contain a line that matches the criteria according to the index. If it returns
+     * {@code false}, no line in the block matches.
+     */
+    public boolean mayMatch(int blockIndex, @NonNull SearchCriteria searchCriteria, int minLogLevel) {
+        Block block = mBlocks.get(blockIndex);
+        if (!hasLevelAtLeast(block.levels, minLogLevel)) {
+            return false;
+        }
+        if (searchCriteria.getPid() != -1 && !testBit(block.pids, hashPid(searchCriteria.getPid()))) {
+            return false;
+        }
+        String tag = searchCriteria.getTag();
+        if (!TextUtils.isEmpty(tag) && !mayContain(block.tags, tag)) {
+            return false;
+        }
+        String searchText = searchCriteria.getSearchText();
+        if (!TextUtils.isEmpty(searchText) && !LogLine.omitSensitiveInfo) {
+            // The text is matched against the PID, the tag and the message.
+            // Messages are scrubbed when sensitive info is omitted, and cannot be checked against the index.
+            int pid = searchCriteria.getSearchTextAsInt();
+            boolean mayMatchPid = pid != -1 && testBit(block.pids, hashPid(pid));
+            return mayMatchPid || mayContain(block.text, searchText);
+        }
+        return true;
+    }
+
+    /**
+     * Read the lines of a block from the log.
+     */
+    @WorkerThread
+    @NonNull
+    public List<String> readBlock(@NonNull Path logFile, int blockIndex) throws IOException {
+        Block block = mBlocks.get(blockIndex);
+        long end = blockIndex + 1 < mBlocks.size() ? mBlocks.get(blockIndex + 1).offset : mIndexedLength;
+        List<String> lines = new ArrayList<>(block.lineCount);
+        try (FileChannel channel = logFile.openFileChannel(FileSystemManager.MODE_READ_ONLY)) {
+            channel.position(block.offset);
+            LineReader reader = new LineReader(new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE),
+                    block.offset);
+            String line;
+            while (reader.getPosition() < end && (line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Search the log from the newest line to the oldest.
+     *
+     * @param excludedTagPattern Lines with a tag matching this pattern are skipped
+     */
+    @NonNull
+    public Search search(@NonNull Path logFile, @NonNull SearchCriteria searchCriteria, int minLogLevel,
+                         @Nullable Pattern excludedTagPattern) {
+        return new Search(logFile, searchCriteria, minLogLevel, excludedTagPattern);
+    }
+
+    public class Search {
+        @NonNull
+        private final Path mLogFile;
+        @NonNull
+        private final SearchCriteria mSearchCriteria;
+        private final int mMinLogLevel;
+        @NonNull
+        private final LogLineParser mParser;
+        // Matched lines not yet returned, oldest first
+        private final Deque<String> mPendingLines = new ArrayDeque<>();
+        private int mNextBlock;
+
+        Search(@NonNull Path logFile, @NonNull SearchCriteria searchCriteria, int minLogLevel,
+               @Nullable Pattern excludedTagPattern) {
+            mLogFile = logFile;
+            mSearchCriteria = searchCriteria;
+            mMinLogLevel = minLogLevel;
+            mParser = new LogLineParser(excludedTagPattern);
+            mParser.setMinLogLevel(minLogLevel);
+            mParser.setProcessIdFilter(searchCriteria.getPid());
+            mNextBlock = mBlocks.size() - 1;
+        }
+
+        public boolean hasMore() {
+            return !mPendingLines.isEmpty() || mNextBlock >= 0;
+        }
+
+        /**
+         * Get the next (older) page of matched lines.
+         *
+         * @return The lines in chronological order
+         */
+        @WorkerThread
+        @NonNull
+        public List<String> nextPage(int maxLines) throws IOException {
+            while (mPendingLines.size() < maxLines && mNextBlock >= 0) {
+                int blockIndex = mNextBlock--;
+                if (!mayMatch(blockIndex, mSearchCriteria, mMinLogLevel)) {
+                    continue;
+                }
+                List<String> lines = readBlock(mLogFile, blockIndex);
+                for (int i = lines.size() - 1; i >= 0; --i) {
+                    String line = lines.get(i);
+                    if (matches(line)) {
+                        mPendingLines.addFirst(line);
+                    }
+                }
+            }
+            // The newest of the pending lines are returned first
+            List<String> page = new ArrayList<>(Math.min(maxLines, mPendingLines.size()));
+            while (page.size() < maxLines && !mPendingLines.isEmpty()) {
+                page.add(mPendingLines.removeLast());
+            }
+            Collections.reverse(page);
+            return page;
+        }
+
+        private boolean matches(@NonNull String line) {
+            if (mSearchCriteria.isEmpty()) {
+                return mParser.parse(line) != LogLineParser.RESULT_FILTERED;
+            }
+            LogLine logLine = mParser.parseLogLine(line, false);
+            return logLine != null && mSearchCriteria.matches(logLine);
+        }
+    }
+
+    /**
+     * Index the lines of the log after the indexed part. The last block is indexed again, since it may not be full.
+     */
+    @VisibleForTesting
+    void update(@NonNull Path logFile) throws IOException {
+        long offset = 0;
+        if (!mBlocks.isEmpty()) {
+            offset = mBlocks.remove(mBlocks.size() - 1).offset;
+        }
+        LogLineParser parser = new LogLineParser(null);
+        try (FileChannel channel = logFile.openFileChannel(FileSystemManager.MODE_READ_ONLY)) {
+            channel.position(offset);
+            LineReader reader = new LineReader(new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE),
+                    offset);
+            Block block = null;
+            String line;
+            while (true) {
+                long lineOffset = reader.getPosition();
+                if ((line = reader.readLine()) == null) {
+                    break;
+                }
+                if (block == null || block.lineCount == LINES_PER_BLOCK) {
+                    if (block != null) {
+                        block.finish();
+                    }
+                    block = new Block(lineOffset);
+                    mBlocks.add(block);
+                }
+                addLine(block, parser, line);
+            }
+            if (block != null) {
+                block.finish();
+            }
+            mIndexedLength = reader.getPosition();
+        }
+        mPrefixLength = (int) Math.min(PREFIX_LENGTH, mIndexedLength);
+        mPrefixCrc = getPrefixCrc(logFile, mPrefixLength);
+    }
+
+    private static void addLine(@NonNull Block block, @NonNull LogLineParser parser, @NonNull String line) {
+        ++block.lineCount;
+        int result = parser.parse(line);
+        block.levels |= getLevelBit(parser.getLogLevel());
+        setBit(block.pids, hashPid(parser.getProcessId()));
+        if (result == LogLineParser.RESULT_LOG_LINE) {
+            String tag = parser.getTagName();
+            addNgrams(block.tagNgrams, tag, 0, tag.length());
+            addNgrams(block.textNgrams, tag, 0, tag.length());
+            addNgrams(block.textNgrams, line, parser.getMessageStart(), line.length());
+        } else if (result == LogLineParser.RESULT_UNKNOWN) {
+            // The whole line is the message
+            addNgrams(block.textNgrams, line, 0, line.length());
+        }
+    }
+
+    private static int getLevelBit(int logLevel) {
+        // -1 denotes the lines without a level
+        return 1 << Math.max(0, Math.min(31, logLevel + 1));
+    }
+
+    private static boolean hasLevelAtLeast(int levels, int minLogLevel) {
+        int shift = minLogLevel + 1;
+        if (shift <= 0) {
+            return levels != 0;
+        }
+        return shift < 32 && (levels >>> shift) != 0;
+    }
+
+    private static int hashPid(int pid) {
+        return mix(pid) & (PID_WORDS * 64 - 1);
+    }
+
+    /**
+     * Add the n-grams of a part of a string to a block. Since the search is case-insensitive, the string is lower-cased
+     * the same way as {@link SearchCriteria} does.
+     */
+    private static void addNgrams(@NonNull NgramHashes ngrams, @NonNull String s, int start, int end) {
+        if (end - start < NGRAM_LENGTH) {
+            return;
+        }
+        for (int i = start; i < end; ++i) {
+            if (s.charAt(i) >= 128) {
+                // Lower-casing may change the length of the string
+                String lowerCase = s.substring(start, end).toLowerCase(Locale.ROOT);
+                addFoldedNgrams(ngrams, lowerCase, 0, lowerCase.length());
+                return;
+            }
+        }
+        addFoldedNgrams(ngrams, s, start, end);
+    }
+
+    private static void addFoldedNgrams(@NonNull NgramHashes ngrams, @NonNull CharSequence s, int start, int end) {
+        for (int i = start; i + NGRAM_LENGTH <= end; ++i) {
+            ngrams.add(hashNgram(s, i));
+        }
+    }
+
+    private static boolean mayContain(@NonNull long[] bloomFilter, @NonNull String query) {
+        String lowerCase = query.toLowerCase(Locale.ROOT);
+        for (int i = 0; i + NGRAM_LENGTH <= lowerCase.length(); ++i) {
+            if (!bloomFilterContains(bloomFilter, hashNgram(lowerCase, i))) {
+                return false;
+            }
+        }
+        // Queries shorter than an n-gram always may match
+        return true;
+    }
+
+    private static void addToBloomFilter(@NonNull long[] bloomFilter, int hash) {
+        int bits = bloomFilter.length * 64;
+        int step = getSecondHash(hash);
+        for (int i = 0; i < NGRAM_HASH_COUNT; ++i) {
+            setBit(bloomFilter, reduce(hash + i * step, bits));
+        }
+    }
+
+    private static boolean bloomFilterContains(@NonNull long[] bloomFilter, int hash) {
+        int bits = bloomFilter.length * 64;
+        if (bits == 0) {
+            // No n-grams at all
+            return false;
+        }
+        int step = getSecondHash(hash);
+        for (int i = 0; i < NGRAM_HASH_COUNT; ++i) {
+            if (!testBit(bloomFilter, reduce(hash + i * step, bits))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Derive the second hash for double hashing. It is odd so that the bits differ for every hash function.
+     */
+    private static int getSecondHash(int hash) {
+        int h = (hash ^ (hash >>> 16)) * 0x85EBCA6B;
+        return (h ^ (h >>> 13)) | 1;
+    }
+
+    /**
+     * Map a hash to {@code [0, bits)} using its high bits, which are well mixed by {@link #mix(int)}.
+     */
+    private static int reduce(int hash, int bits) {
+        return (int) (((hash & 0xFFFFFFFFL) * bits) >>> 32);
+    }
+
+    private static int hashNgram(@NonNull CharSequence s, int start) {
+        int hash = 0;
+        for (int i = start; i < start + NGRAM_LENGTH; ++i) {
+            hash = hash * 131 + fold(s.charAt(i));
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Map a character to its lower case if it is ASCII, or to a single value otherwise. The non-ASCII characters are
+     * lower-cased beforehand by {@link String#toLowerCase(Locale)}.
+     */
+    private static int fold(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return c + ('a' - 'A');
+        }
+        return c < 128 ? c : 128;
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9E3779B1;
+        return hash ^ (hash >>> 15);
+    }
+
+    private static void setBit(@NonNull long[] bitmap, int bit) {
+        bitmap[bit >>> 6] |= 1L << (bit & 63);
+    }
+
+    private static boolean testBit(@NonNull long[] bitmap, int bit) {
+        return (bitmap[bit >>> 6] & (1L << (bit & 63))) != 0;
+    }
+
+    private static long getPrefixCrc(@NonNull Path logFile, int length) throws IOException {
+        CRC32 crc32 = new CRC32();
+        byte[] buffer = new byte[length];
+        try (InputStream is = logFile.openInputStream()) {
+            int read = 0;
+            while (read < length) {
+                int count = is.read(buffer, read, length - read);
+                if (count < 0) {
+                    // Shorter than before
+                    return -1;
+                }
+                read += count;
+            }
+        }
+        crc32.update(buffer);
+        return crc32.getValue();
+    }
+
+    @VisibleForTesting
+    void write(@NonNull DataOutputStream os) throws IOException {
+        os.writeInt(MAGIC);
+        os.writeInt(VERSION);
+        os.writeLong(mIndexedLength);
+        os.writeInt(mPrefixLength);
+        os.writeLong(mPrefixCrc);
+        os.writeInt(mBlocks.size());
+        for (Block block : mBlocks) {
+            os.writeLong(block.offset);
+            os.writeInt(block.lineCount);
+            os.writeInt(block.levels);
+            writeBitmap(os, block.pids);
+            os.writeInt(block.tags.length);
+            writeBitmap(os, block.tags);
+            os.writeInt(block.text.length);
+            writeBitmap(os, block.text);
+        }
+    }
+
+    @VisibleForTesting
+    @NonNull
+    static LogIndex read(@NonNull DataInputStream is) throws IOException {
+        if (is.readInt() != MAGIC) {
+            throw new IOException("Not an index.");
+        }
+        int version = is.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version " + version);
+        }
+        LogIndex index = new LogIndex();
+        index.mIndexedLength = is.readLong();
+        index.mPrefixLength = is.readInt();
+        index.mPrefixCrc = is.readLong();
+        int blockCount = is.readInt();
+        for (int i = 0; i < blockCount; ++i) {
+            Block block = new Block(is.readLong());
+            block.lineCount = is.readInt();
+            block.levels = is.readInt();
+            readBitmap(is, block.pids);
+            block.tags = readVariableBitmap(is);
+            block.text = readVariableBitmap(is);
+            index.mBlocks.add(block);
+        }
+        return index;
+    }
+
+    private static void writeBitmap(@NonNull DataOutputStream os, @NonNull long[] bitmap) throws IOException {
+        for (long word : bitmap) {
+            os.writeLong(word);
+        }
+    }
+
+    private static void readBitmap(@NonNull DataInputStream is, @NonNull long[] bitmap) throws IOException {
+        for (int i = 0; i < bitmap.length; ++i) {
+            bitmap[i] = is.readLong();
+        }
+    }
+
+    @NonNull
+    private static long[] readVariableBitmap(@NonNull DataInputStream is) throws IOException {
+        int length = is.readInt();
+        if (length < 0 || length > MAX_BITMAP_WORDS) {
+            throw new IOException("Invalid bitmap size " + length);
+        }
+        long[] bitmap = new long[length];
+        readBitmap(is, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Reads UTF-8 lines while keeping track of the position in bytes, which {@link java.io.BufferedReader} cannot.
+     */
+    private static class LineReader {
+        @NonNull
+        private final InputStream mInputStream;
+        private byte[] mBuffer = new byte[256];
+        private long mPosition;
+
+        LineReader(@NonNull InputStream is, long position) {
+            mInputStream = is;
+            mPosition = position;
+        }
+
+        long getPosition() {
+            return mPosition;
+        }
+
+        @Nullable
+        String readLine() throws IOException {
+            int length = 0;
+            int b;
+            while ((b = mInputStream.read()) != -1) {
+                ++mPosition;
+                if (b == '\n') {
+                    break;
+                }
+                if (length == mBuffer.length) {
+                    byte[] buffer = new byte[mBuffer.length * 2];
+                    System.arraycopy(mBuffer, 0, buffer, 0, length);
+                    mBuffer = buffer;
+                }
+                mBuffer[length++] = (byte) b;
+            }
+            if (b == -1 && length == 0) {
+                return null;
+            }
+            if (length > 0 && mBuffer[length - 1] == '\r') {
+                --length;
+            }
+            return new String(mBuffer, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+}
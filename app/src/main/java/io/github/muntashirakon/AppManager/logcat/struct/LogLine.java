@@ -2,14 +2,12 @@
 
 package io.github.muntashirakon.AppManager.logcat.struct;
 
-import android.text.TextUtils;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.util.Objects;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import io.github.muntashirakon.AppManager.logcat.reader.ScrubberUtils;
@@ -20,69 +18,25 @@ import io.github.muntashirakon.AppManager.logcat.reader.ScrubberUtils;
 public class LogLine {
     public static final int LOG_FATAL = 15;
 
-    private static final int TIMESTAMP_LENGTH = 19;
-
-    private static final Pattern LOG_PATTERN = Pattern.compile(
-            // log level
-            "(\\w)" + "/" +
-                    // tag
-                    "([^(].+)" +
-                    "\\(\\s*" +
-                    // pid
-                    "(\\d+)" +
-                    // optional weird number that only occurs on ZTE blade
-                    "(?:\\*\\s*\\d+)?" +
-                    "\\): ");
-    private static final String BEGIN = "--------- beginning of ";
+    /**
+     * Minimum width of the tag, as padded by logcat
+     */
+    public static final int TAG_WIDTH = 8;
+    /**
+     * Minimum width of the PID, as padded by logcat
+     */
+    private static final int PID_WIDTH = 5;
 
     public static boolean omitSensitiveInfo = false;
 
+    /**
+     * Parse a line. Prefer reusing a {@link LogLineParser} when parsing many lines.
+     *
+     * @return {@code null} if the tag of the line matches the filter pattern
+     */
     @Nullable
     public static LogLine newLogLine(@NonNull String originalLine, boolean expanded, @Nullable Pattern filterPattern) {
-        LogLine logLine = new LogLine(originalLine);
-        logLine.setExpanded(expanded);
-
-        int startIdx = 0;
-
-        // if the first char is a digit, then this starts out with a timestamp
-        // otherwise, it's a legacy log or the beginning of the log output or something
-        if (!TextUtils.isEmpty(originalLine)
-                && Character.isDigit(originalLine.charAt(0))
-                && originalLine.length() >= TIMESTAMP_LENGTH) {
-            String timestamp = originalLine.substring(0, TIMESTAMP_LENGTH - 1);
-            logLine.setTimestamp(timestamp);
-            startIdx = TIMESTAMP_LENGTH; // cut off timestamp
-        }
-
-        Matcher matcher = LOG_PATTERN.matcher(originalLine);
-
-        if (matcher.find(startIdx)) {
-            char logLevelChar = matcher.group(1).charAt(0);
-
-            String logText = originalLine.substring(matcher.end());
-            if (logText.matches("^maxLineHeight.*|Failed to read.*")) {
-                logLine.setLogLevel(convertCharToLogLevel('V'));
-            } else {
-                logLine.setLogLevel(convertCharToLogLevel(logLevelChar));
-            }
-
-            String tagText = matcher.group(2);
-            if (filterPattern != null && filterPattern.matcher(tagText).matches()) {
-                return null;
-            }
-
-            logLine.setTag(tagText);
-            logLine.setProcessId(Integer.parseInt(matcher.group(3)));
-
-            logLine.setLogOutput(logText);
-        } else if (originalLine.startsWith(BEGIN)) {
-            Log.d("LogLine", "Started buffer: " + originalLine.substring(BEGIN.length()));
-        } else {
-            Log.d("LogLine", "Line doesn't match pattern: " + originalLine);
-            logLine.setLogOutput(originalLine);
-            logLine.setLogLevel(-1);
-        }
-        return logLine;
+        return new LogLineParser(filterPattern).parseLogLine(originalLine, expanded);
     }
 
     public static int convertCharToLogLevel(char logLevelChar) {
@@ -105,6 +59,23 @@ public class LogLine {
         return -1;
     }
 
+    /**
+     * Append {@code L/TAG     (  PID): }, i.e. the part between the timestamp and the message as printed by
+     * {@code logcat -v time}.
+     */
+    public static void appendHeader(@NonNull StringBuilder sb, char logLevelChar, @NonNull String tag, int pid) {
+        sb.append(logLevelChar).append('/').append(tag);
+        for (int i = tag.length(); i < TAG_WIDTH; ++i) {
+            sb.append(' ');
+        }
+        sb.append('(');
+        String pidString = Integer.toString(pid);
+        for (int i = pidString.length(); i < PID_WIDTH; ++i) {
+            sb.append(' ');
+        }
+        sb.append(pidString).append("): ");
+    }
+
     public static char convertLogLevelToChar(int logLevel) {
         switch (logLevel) {
             case Log.ASSERT:
@@ -125,8 +96,12 @@ public class LogLine {
         return ' ';
     }
 
-    @NonNull
-    private final String mOriginalLine;
+    // Formatted on demand for the lines created from their fields
+    @Nullable
+    private String mOriginalLine;
+    // Unscrubbed message of the lines created from their fields
+    @Nullable
+    private String mMessage;
 
     private int mLogLevel;
     private String mTagName;
@@ -139,10 +114,50 @@ public class LogLine {
         mOriginalLine = originalLine;
     }
 
+    /**
+     * Create a line from its fields, e.g. the fields of a binary log entry, without formatting it. The original line
+     * is formatted as printed by {@code logcat -v time} only when it is requested, e.g. when the line is saved. The log
+     * output is set separately, since it may be scrubbed.
+     *
+     * @param tag     The tag padded as printed by logcat, which is the tag of a parsed line
+     * @param message A single line of the message
+     */
+    public LogLine(@NonNull String timestamp, int logLevel, @NonNull String tag, int processId,
+                   @NonNull String message) {
+        mTimestamp = timestamp;
+        mLogLevel = logLevel;
+        mTagName = tag;
+        mPid = processId;
+        mMessage = message;
+    }
+
+    @NonNull
     public String getOriginalLine() {
+        if (mOriginalLine == null) {
+            String message = Objects.requireNonNull(mMessage);
+            StringBuilder sb = new StringBuilder(mTimestamp.length() + mTagName.length() + message.length() + 20);
+            sb.append(mTimestamp).append(' ');
+            appendHeader(sb, convertLogLevelToChar(mLogLevel), mTagName, mPid);
+            mOriginalLine = sb.append(message).toString();
+        }
         return mOriginalLine;
     }
 
+    /**
+     * @return Whether the line was created from its fields rather than parsed from the original line
+     */
+    public boolean isFormattedOnDemand() {
+        return mMessage != null;
+    }
+
+    /**
+     * @return The unscrubbed message if the line was created from its fields, {@code null} otherwise
+     */
+    @Nullable
+    public String getMessage() {
+        return mMessage;
+    }
+
     public String getProcessIdText() {
         return Character.toString(convertLogLevelToChar(mLogLevel));
     }
@@ -175,6 +190,14 @@ public class LogLine {
         }
     }
 
+    /**
+     * Same as {@link #setLogOutput(String)} except that the output is not scrubbed, e.g. because it is already
+     * scrubbed.
+     */
+    void setLogOutputUnmodified(String logOutput) {
+        mLogOutput = logOutput;
+    }
+
     public int getProcessId() {
         return mPid;
     }
@@ -204,17 +227,17 @@ public class LogLine {
         if (this == o) return true;
         if (!(o instanceof LogLine)) return false;
         LogLine logLine = (LogLine) o;
-        return mOriginalLine.equals(logLine.mOriginalLine);
+        return getOriginalLine().equals(logLine.getOriginalLine());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(mOriginalLine);
+        return Objects.hash(getOriginalLine());
     }
 
     @NonNull
     @Override
     public String toString() {
-        return mOriginalLine;
+        return getOriginalLine();
     }
 }
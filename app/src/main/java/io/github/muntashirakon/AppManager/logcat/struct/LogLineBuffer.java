@@ -0,0 +1,559 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logcat.struct;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * A ring buffer of log lines stored column by column instead of one {@link LogLine} object per line. Log levels,
+ * process IDs and timestamps are kept in primitive arrays, tags are interned, and the texts of all lines share a single
+ * byte arena. Lines that only contain Latin-1 characters, which are almost all of them, are stored one byte per
+ * character, and the rest are stored in UTF-16, two bytes per character. Appending a line and evicting the oldest one are both (amortised) O(1), and neither creates any
+ * per-line objects except for the tags not seen before. The lines created from their fields (see
+ * {@link LogLine#isFormattedOnDemand()}) are stored without their headers, which are formatted again when required.
+ * <p>
+ * Each line is given an ID in the order it was appended. IDs are never reused, so the IDs of the lines in the buffer
+ * are always the contiguous range {@link #getFirstId()} to {@link #getNextId()} (exclusive). The arrays grow as
+ * required until the maximum number of lines or bytes is reached, after which the oldest lines are evicted.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class LogLineBuffer {
+    /**
+     * An ID that is never given to a line.
+     */
+    public static final long NO_ID = -1;
+
+    /**
+     * Maximum number of lines the buffer can be sized for using {@link #LogLineBuffer(int)}.
+     */
+    public static final int MAX_LINES = 500_000;
+
+    private static final int INITIAL_LINES = 1024;
+    private static final int INITIAL_BYTES = 1 << 16;
+    /**
+     * Expected average number of bytes per line, used to size the arena for the given number of lines. Most lines are
+     * stored one byte per character, and the lines read from binary logs are stored without their headers.
+     */
+    private static final int BYTES_PER_LINE = 80;
+
+    private static final long NO_TIMESTAMP = -1;
+    /**
+     * The timestamp could not be packed into a long, and is stored in the arena instead.
+     */
+    private static final long TIMESTAMP_IN_ARENA = -2;
+    /**
+     * The timestamp is a prefix of the original line. The length of the prefix is subtracted from this value.
+     */
+    private static final long TIMESTAMP_PREFIX = -3;
+    private static final int NO_OUTPUT = -1;
+    /**
+     * Timestamp format of {@code logcat -v time}, i.e. {@code MM-dd HH:mm:ss.SSS}. Digits are marked with {@code 0}.
+     */
+    private static final String TIMESTAMP_FORMAT = "00-00 00:00:00.000";
+
+    private static final byte FLAG_EXPANDED = 1;
+    /**
+     * The record starts with the message instead of the original line, which is formatted on demand.
+     */
+    private static final byte FLAG_FORMATTED_ON_DEMAND = 1 << 1;
+    /**
+     * The record is stored in UTF-16 instead of Latin-1.
+     */
+    private static final byte FLAG_WIDE = 1 << 2;
+
+    private final int mMaxLines;
+    private final int mMaxBytes;
+    private final HashMap<String, String> mTagPool = new HashMap<>();
+
+    // Columns, indexed by slot
+    private byte[] mLevels;
+    private byte[] mFlags;
+    private int[] mPids;
+    private long[] mTimestamps;
+    private String[] mTags;
+    // Absolute position of the record of the line in the arena. The lengths and offsets below are in characters.
+    private long[] mStarts;
+    private int[] mRecordLengths;
+    private int[] mLineLengths;
+    // Offset of the log output in the record. The output is either the tail of the original line or stored after it.
+    private int[] mOutputOffsets;
+    private int[] mOutputLengths;
+
+    private byte[] mArena;
+    // Absolute positions in the arena, the physical index of which is the position modulo the arena size
+    private long mArenaHead;
+    private long mArenaTail;
+
+    private int mHead;
+    private int mSize;
+    private long mFirstId;
+
+    /**
+     * Create a buffer with enough space for the given number of lines of average length, i.e. up to 40 MB of text for
+     * {@link #MAX_LINES} lines.
+     *
+     * @param maxLines Maximum number of lines to keep, limited to {@link #MAX_LINES}
+     */
+    public LogLineBuffer(int maxLines) {
+        this(Math.min(maxLines, MAX_LINES), Math.max(INITIAL_BYTES, Math.min(maxLines, MAX_LINES) * BYTES_PER_LINE));
+    }
+
+    /**
+     * @param maxLines Maximum number of lines to keep
+     * @param maxBytes Maximum number of bytes to keep for the texts of the lines
+     */
+    public LogLineBuffer(int maxLines, int maxBytes) {
+        if (maxLines < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("Limits must be positive.");
+        }
+        mMaxLines = maxLines;
+        mMaxBytes = maxBytes;
+        allocateColumns(Math.min(INITIAL_LINES, maxLines));
+        mArena = new byte[Math.min(INITIAL_BYTES, maxBytes)];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * ID of the oldest line in the buffer, or the ID of the next line if the buffer is empty.
+     */
+    public long getFirstId() {
+        return mFirstId;
+    }
+
+    /**
+     * ID to be given to the next appended line.
+     */
+    public long getNextId() {
+        return mFirstId + mSize;
+    }
+
+    public boolean contains(long id) {
+        return id >= mFirstId && id < mFirstId + mSize;
+    }
+
+    /**
+     * Append a line, evicting the oldest lines if there is no space left.
+     *
+     * @return ID of the line
+     */
+    public long append(@NonNull LogLine logLine) {
+        boolean formattedOnDemand = logLine.isFormattedOnDemand();
+        // The message is stored in place of the original line if the latter can be formatted
+        String line = formattedOnDemand ? Objects.requireNonNull(logLine.getMessage()) : logLine.getOriginalLine();
+        String output = logLine.getLogOutput();
+        String timestamp = logLine.getTimestamp();
+        long packedTimestamp = timestamp == null ? NO_TIMESTAMP : packTimestamp(timestamp);
+        if (packedTimestamp == TIMESTAMP_IN_ARENA && !formattedOnDemand && line.startsWith(timestamp)) {
+            // Still stored in the arena, but only as a part of the original line
+            packedTimestamp = TIMESTAMP_PREFIX - timestamp.length();
+        }
+        // Lay out the record
+        int outputOffset;
+        int outputLength;
+        if (output == null) {
+            outputOffset = line.length();
+            outputLength = NO_OUTPUT;
+        } else if (line.endsWith(output)) {
+            outputOffset = line.length() - output.length();
+            outputLength = output.length();
+        } else {
+            // e.g. scrubbed output
+            outputOffset = line.length();
+            outputLength = output.length();
+        }
+        int recordLength = line.length();
+        if (outputOffset == line.length() && outputLength > 0) {
+            recordLength += outputLength;
+        }
+        if (packedTimestamp == TIMESTAMP_IN_ARENA) {
+            recordLength += timestamp.length();
+        }
+        boolean wide = !isLatin1(line) || (output != null && outputOffset == line.length() && !isLatin1(output))
+                || (packedTimestamp == TIMESTAMP_IN_ARENA && !isLatin1(timestamp));
+        int recordBytes = wide ? recordLength * 2 : recordLength;
+        if (recordBytes > mMaxBytes) {
+            // Only the logs that are not from logcat can be this long
+            return append(truncate(logLine, mMaxBytes / (wide ? 2 : 1)));
+        }
+        // Make space
+        if (mSize == mLevels.length) {
+            if (mLevels.length < mMaxLines) {
+                resizeColumns((int) Math.min(mMaxLines, mLevels.length * 2L));
+            } else {
+                removeFirst(1);
+            }
+        }
+        while (mArena.length - (mArenaTail - mArenaHead) < recordBytes) {
+            if (mArena.length < mMaxBytes) {
+                resizeArena((int) Math.min(mMaxBytes, Math.max(mArena.length * 2L,
+                        mArenaTail - mArenaHead + recordBytes)));
+            } else {
+                removeFirst(1);
+            }
+        }
+        // Write the record
+        int slot = (mHead + mSize) % mLevels.length;
+        long start = mArenaTail;
+        writeToArena(line, wide);
+        if (outputOffset == line.length() && outputLength > 0) {
+            writeToArena(output, wide);
+        }
+        if (packedTimestamp == TIMESTAMP_IN_ARENA) {
+            writeToArena(timestamp, wide);
+        }
+        mLevels[slot] = (byte) logLine.getLogLevel();
+        mFlags[slot] = (byte) ((logLine.isExpanded() ? FLAG_EXPANDED : 0)
+                | (formattedOnDemand ? FLAG_FORMATTED_ON_DEMAND : 0) | (wide ? FLAG_WIDE : 0));
+        mPids[slot] = logLine.getProcessId();
+        mTimestamps[slot] = packedTimestamp;
+        mTags[slot] = intern(logLine.getTagName());
+        mStarts[slot] = start;
+        mRecordLengths[slot] = recordLength;
+        mLineLengths[slot] = line.length();
+        mOutputOffsets[slot] = outputOffset;
+        mOutputLengths[slot] = outputLength;
+        ++mSize;
+        return mFirstId + mSize - 1;
+    }
+
+    /**
+     * Evict the oldest lines.
+     *
+     * @param n Number of lines to evict. If it is greater than the size, all lines are evicted.
+     */
+    public void removeFirst(int n) {
+        n = Math.min(n, mSize);
+        for (int i = 0; i < n; ++i) {
+            // Release the references to the tags
+            mTags[(mHead + i) % mTags.length] = null;
+        }
+        mHead = (mHead + n) % mLevels.length;
+        mSize -= n;
+        mFirstId += n;
+        mArenaHead = mSize == 0 ? mArenaTail : mStarts[mHead];
+    }
+
+    /**
+     * Evict all lines. The IDs of the lines appended after this continue from the IDs of the evicted ones.
+     */
+    public void clear() {
+        removeFirst(mSize);
+        mTagPool.clear();
+    }
+
+    /**
+     * Create a {@link LogLine} object for a line.
+     */
+    @NonNull
+    public LogLine get(long id) {
+        int slot = slotOf(id);
+        String line = readFromArena(slot, 0, mLineLengths[slot]);
+        LogLine logLine;
+        if ((mFlags[slot] & FLAG_FORMATTED_ON_DEMAND) != 0) {
+            logLine = new LogLine(Objects.requireNonNull(getTimestamp(slot)), mLevels[slot],
+                    Objects.requireNonNull(mTags[slot]), mPids[slot], line);
+        } else {
+            logLine = new LogLine(line);
+            logLine.setLogLevel(mLevels[slot]);
+            logLine.setTag(mTags[slot]);
+            logLine.setProcessId(mPids[slot]);
+            logLine.setTimestamp(getTimestamp(slot));
+        }
+        logLine.setLogOutputUnmodified(getLogOutput(slot));
+        logLine.setExpanded((mFlags[slot] & FLAG_EXPANDED) != 0);
+        return logLine;
+    }
+
+    @NonNull
+    public String getOriginalLine(long id) {
+        int slot = slotOf(id);
+        if ((mFlags[slot] & FLAG_FORMATTED_ON_DEMAND) != 0) {
+            return get(id).getOriginalLine();
+        }
+        return readFromArena(slot, 0, mLineLengths[slot]);
+    }
+
+    public int getLogLevel(long id) {
+        return mLevels[slotOf(id)];
+    }
+
+    public int getProcessId(long id) {
+        return mPids[slotOf(id)];
+    }
+
+    @Nullable
+    public String getTagName(long id) {
+        return mTags[slotOf(id)];
+    }
+
+    public boolean isExpanded(long id) {
+        return (mFlags[slotOf(id)] & FLAG_EXPANDED) != 0;
+    }
+
+    public void setExpanded(long id, boolean expanded) {
+        int slot = slotOf(id);
+        if (expanded) {
+            mFlags[slot] |= FLAG_EXPANDED;
+        } else {
+            mFlags[slot] &= ~FLAG_EXPANDED;
+        }
+    }
+
+    public void setAllExpanded(boolean expanded) {
+        for (int i = 0; i < mSize; ++i) {
+            int slot = (mHead + i) % mFlags.length;
+            if (expanded) {
+                mFlags[slot] |= FLAG_EXPANDED;
+            } else {
+                mFlags[slot] &= ~FLAG_EXPANDED;
+            }
+        }
+    }
+
+    /**
+     * Approximate number of bytes used by the buffer, excluding the interned tags.
+     */
+    @VisibleForTesting
+    public long getAllocatedBytes() {
+        // byte + byte + int + long + reference + long + 4 * int, assuming compressed references
+        long perLine = 1 + 1 + 4 + 8 + 4 + 8 + 4 * 4;
+        return perLine * mLevels.length + mArena.length;
+    }
+
+    @Nullable
+    private String getTimestamp(int slot) {
+        long timestamp = mTimestamps[slot];
+        if (timestamp >= 0) {
+            return unpackTimestamp(timestamp);
+        }
+        if (timestamp == NO_TIMESTAMP) {
+            return null;
+        }
+        if (timestamp == TIMESTAMP_IN_ARENA) {
+            // Stored after the original line and the output
+            int end = mLineLengths[slot] + (isOutputSeparate(slot) ? mOutputLengths[slot] : 0);
+            return readFromArena(slot, end, mRecordLengths[slot] - end);
+        }
+        // Prefix of the original line
+        return readFromArena(slot, 0, (int) (TIMESTAMP_PREFIX - timestamp));
+    }
+
+    @Nullable
+    private String getLogOutput(int slot) {
+        if (mOutputLengths[slot] == NO_OUTPUT) {
+            return null;
+        }
+        return readFromArena(slot, mOutputOffsets[slot], mOutputLengths[slot]);
+    }
+
+    private boolean isOutputSeparate(int slot) {
+        return mOutputOffsets[slot] == mLineLengths[slot] && mOutputLengths[slot] > 0;
+    }
+
+    private int slotOf(long id) {
+        if (!contains(id)) {
+            throw new NoSuchElementException("No line with ID " + id);
+        }
+        return (int) ((mHead + (id - mFirstId)) % mLevels.length);
+    }
+
+    @Nullable
+    private String intern(@Nullable String tag) {
+        if (tag == null) {
+            return null;
+        }
+        String pooledTag = mTagPool.get(tag);
+        if (pooledTag == null) {
+            mTagPool.put(tag, tag);
+            pooledTag = tag;
+        }
+        return pooledTag;
+    }
+
+    @SuppressWarnings("deprecation")
+    private void writeToArena(@NonNull String s, boolean wide) {
+        int length = s.length();
+        if (wide) {
+            for (int i = 0; i < length; ++i) {
+                char c = s.charAt(i);
+                mArena[(int) (mArenaTail++ % mArena.length)] = (byte) (c >> 8);
+                mArena[(int) (mArenaTail++ % mArena.length)] = (byte) c;
+            }
+            return;
+        }
+        int index = (int) (mArenaTail % mArena.length);
+        int firstPart = Math.min(length, mArena.length - index);
+        // Copies the low byte of each character, i.e. encodes Latin-1 without any intermediate arrays
+        s.getBytes(0, firstPart, mArena, index);
+        if (firstPart < length) {
+            // Wrap around
+            s.getBytes(firstPart, length, mArena, 0);
+        }
+        mArenaTail += length;
+    }
+
+    /**
+     * @param offset Offset in the record of the line in characters
+     * @param length Number of characters to read
+     */
+    @NonNull
+    private String readFromArena(int slot, int offset, int length) {
+        boolean wide = (mFlags[slot] & FLAG_WIDE) != 0;
+        int byteLength = wide ? length * 2 : length;
+        int index = (int) ((mStarts[slot] + (wide ? offset * 2L : offset)) % mArena.length);
+        byte[] bytes = mArena;
+        if (index + byteLength > mArena.length) {
+            // Wrapped around
+            bytes = new byte[byteLength];
+            int firstPart = mArena.length - index;
+            System.arraycopy(mArena, index, bytes, 0, firstPart);
+            System.arraycopy(mArena, 0, bytes, firstPart, byteLength - firstPart);
+            index = 0;
+        }
+        return new String(bytes, index, byteLength, wide ? StandardCharsets.UTF_16BE : StandardCharsets.ISO_8859_1);
+    }
+
+    private static boolean isLatin1(@NonNull String s) {
+        for (int i = 0; i < s.length(); ++i) {
+            if (s.charAt(i) > 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void allocateColumns(int lines) {
+        mLevels = new byte[lines];
+        mFlags = new byte[lines];
+        mPids = new int[lines];
+        mTimestamps = new long[lines];
+        mTags = new String[lines];
+        mStarts = new long[lines];
+        mRecordLengths = new int[lines];
+        mLineLengths = new int[lines];
+        mOutputOffsets = new int[lines];
+        mOutputLengths = new int[lines];
+    }
+
+    private void resizeColumns(int lines) {
+        byte[] levels = mLevels;
+        byte[] flags = mFlags;
+        int[] pids = mPids;
+        long[] timestamps = mTimestamps;
+        String[] tags = mTags;
+        long[] starts = mStarts;
+        int[] recordLengths = mRecordLengths;
+        int[] lineLengths = mLineLengths;
+        int[] outputOffsets = mOutputOffsets;
+        int[] outputLengths = mOutputLengths;
+        allocateColumns(lines);
+        // Unroll the ring so that the oldest line is at the first slot
+        int firstPart = Math.min(mSize, levels.length - mHead);
+        int secondPart = mSize - firstPart;
+        copyColumn(levels, mLevels, firstPart, secondPart);
+        copyColumn(flags, mFlags, firstPart, secondPart);
+        copyColumn(pids, mPids, firstPart, secondPart);
+        copyColumn(timestamps, mTimestamps, firstPart, secondPart);
+        copyColumn(tags, mTags, firstPart, secondPart);
+        copyColumn(starts, mStarts, firstPart, secondPart);
+        copyColumn(recordLengths, mRecordLengths, firstPart, secondPart);
+        copyColumn(lineLengths, mLineLengths, firstPart, secondPart);
+        copyColumn(outputOffsets, mOutputOffsets, firstPart, secondPart);
+        copyColumn(outputLengths, mOutputLengths, firstPart, secondPart);
+        mHead = 0;
+    }
+
+    private void copyColumn(Object src, Object dst, int firstPart, int secondPart) {
+        System.arraycopy(src, mHead, dst, 0, firstPart);
+        System.arraycopy(src, 0, dst, firstPart, secondPart);
+    }
+
+    private void resizeArena(int bytes) {
+        byte[] arena = mArena;
+        mArena = new byte[bytes];
+        // Absolute positions are kept, only their physical indices change
+        for (long position = mArenaHead; position < mArenaTail; ) {
+            int srcIndex = (int) (position % arena.length);
+            int dstIndex = (int) (position % bytes);
+            int length = (int) Math.min(mArenaTail - position, Math.min(arena.length - srcIndex, bytes - dstIndex));
+            System.arraycopy(arena, srcIndex, mArena, dstIndex, length);
+            position += length;
+        }
+    }
+
+    @NonNull
+    private static LogLine truncate(@NonNull LogLine logLine, int maxChars) {
+        int limit = maxChars / 3;
+        LogLine truncated;
+        String message = logLine.getMessage();
+        String timestamp = logLine.getTimestamp();
+        if (message != null && timestamp != null && timestamp.length() <= limit) {
+            truncated = new LogLine(timestamp, logLine.getLogLevel(), logLine.getTagName(), logLine.getProcessId(),
+                    message.length() > limit ? message.substring(0, limit) : message);
+        } else {
+            String line = logLine.getOriginalLine();
+            truncated = new LogLine(line.length() > limit ? line.substring(0, limit) : line);
+            truncated.setTimestamp(timestamp != null && timestamp.length() > limit ? null : timestamp);
+            truncated.setLogLevel(logLine.getLogLevel());
+            truncated.setTag(logLine.getTagName());
+            truncated.setProcessId(logLine.getProcessId());
+        }
+        String output = logLine.getLogOutput();
+        truncated.setLogOutputUnmodified(output != null && output.length() > limit ? output.substring(0, limit) : output);
+        truncated.setExpanded(logLine.isExpanded());
+        return truncated;
+    }
+
+    /**
+     * Pack a timestamp of the format {@code MM-dd HH:mm:ss.SSS} into a long by concatenating its digits.
+     *
+     * @return The packed timestamp or {@link #TIMESTAMP_IN_ARENA} if the timestamp is of a different format
+     */
+    static long packTimestamp(@NonNull String timestamp) {
+        if (timestamp.length() != TIMESTAMP_FORMAT.length()) {
+            return TIMESTAMP_IN_ARENA;
+        }
+        long packed = 0;
+        for (int i = 0; i < timestamp.length(); ++i) {
+            char c = timestamp.charAt(i);
+            char expected = TIMESTAMP_FORMAT.charAt(i);
+            if (expected == '0') {
+                if (c < '0' || c > '9') {
+                    return TIMESTAMP_IN_ARENA;
+                }
+                packed = packed * 10 + (c - '0');
+            } else if (c != expected) {
+                return TIMESTAMP_IN_ARENA;
+            }
+        }
+        return packed;
+    }
+
+    @VisibleForTesting
+    @NonNull
+    static String unpackTimestamp(long packed) {
+        char[] chars = TIMESTAMP_FORMAT.toCharArray();
+        for (int i = chars.length - 1; i >= 0; --i) {
+            if (chars[i] == '0') {
+                chars[i] = (char) ('0' + packed % 10);
+                packed /= 10;
+            }
+        }
+        return new String(chars);
+    }
+}
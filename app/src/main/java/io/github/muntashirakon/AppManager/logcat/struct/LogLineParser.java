@@ -0,0 +1,310 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logcat.struct;
+
+import android.util.Log;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parser of the lines printed by {@code logcat -v time}, i.e. {@code MM-dd HH:mm:ss.SSS L/TAG( PID): message}.
+ * Lines are scanned once, character by character. The level and the PID are stored as primitives, and the timestamp,
+ * tag and message as offsets into the line. The filters are applied to these fields, so that no object is created for
+ * a line that is filtered out.
+ * <p>
+ * A parser can be reused for any number of lines, but it is not thread-safe.
+ */
+public class LogLineParser {
+    @IntDef({RESULT_LOG_LINE, RESULT_FILTERED, RESULT_BEGINNING_OF_BUFFER, RESULT_UNKNOWN})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Result {
+    }
+
+    /**
+     * The line has a level, a tag, a PID and a message, and it is accepted by the filters.
+     */
+    public static final int RESULT_LOG_LINE = 0;
+    /**
+     * The line is rejected by the filters.
+     */
+    public static final int RESULT_FILTERED = 1;
+    /**
+     * The line marks the beginning of a log buffer, e.g. {@code --------- beginning of main}.
+     */
+    public static final int RESULT_BEGINNING_OF_BUFFER = 2;
+    /**
+     * The line does not match the format, e.g. a line of a stack trace printed without a header.
+     */
+    public static final int RESULT_UNKNOWN = 3;
+
+    private static final int TIMESTAMP_LENGTH = 18;
+    private static final String BEGIN = "--------- beginning of ";
+
+    @Nullable
+    private final Matcher mExcludedTagMatcher;
+    private int mMinLogLevel = Integer.MIN_VALUE;
+    private int mProcessIdFilter = -1;
+    // Result of the last tag checked by isTagExcluded(). Tags of binary log entries are reused, and are compared by
+    // reference.
+    @Nullable
+    private String mLastCheckedTag;
+    private boolean mLastCheckedTagExcluded;
+
+    // Fields of the last parsed line
+    private String mLine;
+    private int mLogLevel;
+    private int mProcessId;
+    private boolean mHasTimestamp;
+    private int mTagStart;
+    private int mTagEnd;
+    private int mMessageStart;
+
+    /**
+     * @param excludedTagPattern Lines with a tag matching this pattern are filtered out
+     */
+    public LogLineParser(@Nullable Pattern excludedTagPattern) {
+        mExcludedTagMatcher = excludedTagPattern != null ? excludedTagPattern.matcher("") : null;
+    }
+
+    /**
+     * Filter out the lines with a lower level. This includes the lines that do not match the format, since they have
+     * no level.
+     */
+    public void setMinLogLevel(int minLogLevel) {
+        mMinLogLevel = minLogLevel;
+    }
+
+    /**
+     * Filter out the lines of the other processes.
+     *
+     * @param processId The process ID, or {@code -1} to accept every process
+     */
+    public void setProcessIdFilter(int processId) {
+        mProcessIdFilter = processId;
+    }
+
+    /**
+     * Parse a line without creating any objects. The fields of the line can be read until the next line is parsed.
+     */
+    @Result
+    public int parse(@NonNull String line) {
+        mLine = line;
+        mLogLevel = -1;
+        mProcessId = -1;
+        mTagStart = mTagEnd = mMessageStart = 0;
+        int length = line.length();
+        int index = 0;
+        // If the first char is a digit, then this starts out with a timestamp.
+        // Otherwise, it's a legacy log or the beginning of the log output or something.
+        mHasTimestamp = length > TIMESTAMP_LENGTH && isDigit(line.charAt(0));
+        if (mHasTimestamp) {
+            index = TIMESTAMP_LENGTH + 1;
+        }
+        if (!parseHeader(line, index)) {
+            if (line.startsWith(BEGIN)) {
+                // Has no level
+                mLogLevel = 0;
+                return mLogLevel < mMinLogLevel ? RESULT_FILTERED : RESULT_BEGINNING_OF_BUFFER;
+            }
+            return mLogLevel < mMinLogLevel ? RESULT_FILTERED : RESULT_UNKNOWN;
+        }
+        if (line.startsWith("maxLineHeight", mMessageStart) || line.startsWith("Failed to read", mMessageStart)) {
+            mLogLevel = Log.VERBOSE;
+        }
+        if (mLogLevel < mMinLogLevel) {
+            return RESULT_FILTERED;
+        }
+        if (mProcessIdFilter != -1 && mProcessId != mProcessIdFilter) {
+            return RESULT_FILTERED;
+        }
+        if (mExcludedTagMatcher != null
+                && mExcludedTagMatcher.reset(line).region(mTagStart, mTagEnd).matches()) {
+            return RESULT_FILTERED;
+        }
+        return RESULT_LOG_LINE;
+    }
+
+    /**
+     * Parse a line and create a {@link LogLine} from it.
+     *
+     * @return {@code null} if the line is filtered out
+     */
+    @Nullable
+    public LogLine parseLogLine(@NonNull String line, boolean expanded) {
+        int result = parse(line);
+        if (result == RESULT_FILTERED) {
+            return null;
+        }
+        LogLine logLine = new LogLine(line);
+        logLine.setExpanded(expanded);
+        if (mHasTimestamp) {
+            logLine.setTimestamp(line.substring(0, TIMESTAMP_LENGTH));
+        }
+        if (result == RESULT_LOG_LINE) {
+            logLine.setLogLevel(mLogLevel);
+            logLine.setTag(getTagName());
+            logLine.setProcessId(mProcessId);
+            logLine.setLogOutput(line.substring(mMessageStart));
+        } else if (result == RESULT_BEGINNING_OF_BUFFER) {
+            Log.d("LogLine", "Started buffer: " + line.substring(BEGIN.length()));
+        } else {
+            Log.d("LogLine", "Line doesn't match pattern: " + line);
+            logLine.setLogOutput(line);
+            logLine.setLogLevel(-1);
+        }
+        return logLine;
+    }
+
+    /**
+     * @return A new parser with the same filters
+     */
+    @NonNull
+    public LogLineParser copy() {
+        LogLineParser parser = new LogLineParser(mExcludedTagMatcher != null ? mExcludedTagMatcher.pattern() : null);
+        parser.mMinLogLevel = mMinLogLevel;
+        parser.mProcessIdFilter = mProcessIdFilter;
+        return parser;
+    }
+
+    /**
+     * Whether a line with the given level and process ID can be accepted by the filters. This allows the lines to be
+     * skipped before their tags and messages are decoded.
+     */
+    public boolean mayAccept(int logLevel, int processId) {
+        return logLevel >= mMinLogLevel && (mProcessIdFilter == -1 || processId == mProcessIdFilter);
+    }
+
+    /**
+     * Create a {@link LogLine} from the fields of a line without formatting it, e.g. from a line of the message of a
+     * binary log entry. The same filters are applied as in {@link #parseLogLine(String, boolean)}.
+     *
+     * @param tag     The tag padded as printed by logcat, see {@link LogLine#LogLine(String, int, String, int, String)}
+     * @param message A single line of the message
+     * @return {@code null} if the line is filtered out
+     */
+    @Nullable
+    public LogLine newLogLine(@NonNull String timestamp, int logLevel, @NonNull String tag, int processId,
+                              @NonNull String message, boolean expanded) {
+        if (message.startsWith("maxLineHeight") || message.startsWith("Failed to read")) {
+            logLevel = Log.VERBOSE;
+        }
+        if (!mayAccept(logLevel, processId) || isTagExcluded(tag)) {
+            return null;
+        }
+        LogLine logLine = new LogLine(timestamp, logLevel, tag, processId, message);
+        logLine.setLogOutput(message);
+        logLine.setExpanded(expanded);
+        return logLine;
+    }
+
+    public boolean isTagExcluded(@NonNull String tag) {
+        if (mExcludedTagMatcher == null) {
+            return false;
+        }
+        //noinspection StringEquality
+        if (tag != mLastCheckedTag) {
+            mLastCheckedTag = tag;
+            mLastCheckedTagExcluded = mExcludedTagMatcher.reset(tag).matches();
+        }
+        return mLastCheckedTagExcluded;
+    }
+
+    public int getLogLevel() {
+        return mLogLevel;
+    }
+
+    public int getProcessId() {
+        return mProcessId;
+    }
+
+    public boolean hasTimestamp() {
+        return mHasTimestamp;
+    }
+
+    public int getTagStart() {
+        return mTagStart;
+    }
+
+    public int getTagEnd() {
+        return mTagEnd;
+    }
+
+    public int getMessageStart() {
+        return mMessageStart;
+    }
+
+    @NonNull
+    public String getTagName() {
+        return mLine.substring(mTagStart, mTagEnd);
+    }
+
+    /**
+     * Parse {@code L/TAG( PID): } starting at the given index. The tag ends at the first {@code (} that is followed by
+     * a PID, optionally followed by {@code *NUMBER} on a few devices (e.g. ZTE Blade).
+     */
+    private boolean parseHeader(@NonNull String line, int index) {
+        int length = line.length();
+        // Level
+        if (index + 3 >= length || !isWordChar(line.charAt(index)) || line.charAt(index + 1) != '/') {
+            return false;
+        }
+        char logLevelChar = line.charAt(index);
+        int tagStart = index + 2;
+        if (line.charAt(tagStart) == '(') {
+            return false;
+        }
+        // Tag and PID
+        for (int i = line.indexOf('(', tagStart + 1); i >= 0; i = line.indexOf('(', i + 1)) {
+            int j = i + 1;
+            while (j < length && Character.isWhitespace(line.charAt(j))) {
+                ++j;
+            }
+            int pidStart = j;
+            long pid = 0;
+            while (j < length && isDigit(line.charAt(j)) && pid <= Integer.MAX_VALUE) {
+                pid = pid * 10 + (line.charAt(j) - '0');
+                ++j;
+            }
+            if (j == pidStart || pid > Integer.MAX_VALUE) {
+                continue;
+            }
+            if (j < length && line.charAt(j) == '*') {
+                ++j;
+                while (j < length && Character.isWhitespace(line.charAt(j))) {
+                    ++j;
+                }
+                int numberStart = j;
+                while (j < length && isDigit(line.charAt(j))) {
+                    ++j;
+                }
+                if (j == numberStart) {
+                    continue;
+                }
+            }
+            if (j + 2 < length && line.charAt(j) == ')' && line.charAt(j + 1) == ':' && line.charAt(j + 2) == ' ') {
+                mLogLevel = LogLine.convertCharToLogLevel(logLevelChar);
+                mProcessId = (int) pid;
+                mTagStart = tagStart;
+                mTagEnd = i;
+                mMessageStart = j + 3;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || isDigit(c) || c == '_';
+    }
+}
@@ -4,6 +4,7 @@ package io.github.muntashirakon.AppManager.logcat.struct;
 
 import android.text.TextUtils;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.util.Locale;
@@ -50,14 +51,48 @@ public class SearchCriteria {
             // search
             // string
         }
-        // Everything else becomes a search term
-        mSearchText = query.toString().trim();
+        // Everything else becomes a search term, which may be quoted as a phrase
+        String searchText = query.toString().trim();
+        if (searchText.length() >= 2 && searchText.startsWith("\"") && searchText.endsWith("\"")) {
+            searchText = searchText.substring(1, searchText.length() - 1); // remove quotes
+        }
+        mSearchText = searchText;
         try {
             mSearchTextAsInt = Integer.parseInt(mSearchText);
         } catch (NumberFormatException ignore) {
         }
     }
 
+    /**
+     * @return The PID to search for, or {@code -1} if any
+     */
+    public int getPid() {
+        return mPid;
+    }
+
+    /**
+     * @return The (partial) tag to search for, or {@code null} if any
+     */
+    @Nullable
+    public String getTag() {
+        return mTag;
+    }
+
+    /**
+     * @return The text to search for in the PID, the tag or the message, empty if any
+     */
+    @NonNull
+    public String getSearchText() {
+        return mSearchText;
+    }
+
+    /**
+     * @return The search text as a PID, or {@code -1} if it is not a number
+     */
+    public int getSearchTextAsInt() {
+        return mSearchTextAsInt;
+    }
+
     public boolean isEmpty() {
         return mPid == -1 && TextUtils.isEmpty(mTag) && TextUtils.isEmpty(mSearchText);
     }
@@ -43,12 +43,7 @@ import io.github.muntashirakon.io.Paths;
 
 public final class ComponentUtils {
     public static boolean isTracker(String componentName) {
-        for (String signature : StaticDataset.getTrackerCodeSignatures()) {
-            if (componentName.startsWith(signature) || componentName.contains(signature)) {
-                return true;
-            }
-        }
-        return false;
+        return StaticDataset.getTrackerSignatureMatcher().matches(componentName);
     }
 
     @NonNull
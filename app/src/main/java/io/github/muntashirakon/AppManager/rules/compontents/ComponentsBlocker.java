@@ -27,11 +27,16 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import io.github.muntashirakon.AppManager.compat.AppOpsManagerCompat;
 import io.github.muntashirakon.AppManager.compat.ApplicationInfoCompat;
@@ -47,6 +52,7 @@ import io.github.muntashirakon.AppManager.rules.struct.PermissionRule;
 import io.github.muntashirakon.AppManager.rules.struct.RuleEntry;
 import io.github.muntashirakon.AppManager.self.SelfPermissions;
 import io.github.muntashirakon.AppManager.settings.Prefs;
+import io.github.muntashirakon.AppManager.utils.MultithreadedExecutor;
 import io.github.muntashirakon.AppManager.utils.PackageUtils;
 import io.github.muntashirakon.io.AtomicExtendedFile;
 import io.github.muntashirakon.io.Paths;
@@ -142,6 +148,20 @@ public final class ComponentsBlocker extends RulesStorageManager {
         return blocker;
     }
 
+    private static final int PACKAGE_INFO_FLAGS = PackageManager.GET_ACTIVITIES | PackageManager.GET_RECEIVERS
+            | PackageManager.GET_PROVIDERS | MATCH_DISABLED_COMPONENTS | MATCH_UNINSTALLED_PACKAGES
+            | PackageManager.GET_SERVICES | PackageManagerCompat.MATCH_STATIC_SHARED_AND_SDK_LIBRARIES;
+
+    @Nullable
+    private static PackageInfo getPackageInfo(@NonNull String packageName, int userHandle) {
+        try {
+            return PackageManagerCompat.getPackageInfo(packageName, PACKAGE_INFO_FLAGS, userHandle);
+        } catch (Throwable e) {
+            Log.e(TAG, e.getMessage(), e);
+            return null;
+        }
+    }
+
     @NonNull
     private final AtomicExtendedFile mRulesFile;
     @Nullable
@@ -150,17 +170,14 @@ public final class ComponentsBlocker extends RulesStorageManager {
     private PackageInfo mPackageInfo;
 
     private ComponentsBlocker(@NonNull String packageName, int userHandle) {
+        this(packageName, userHandle, getPackageInfo(packageName, userHandle));
+    }
+
+    private ComponentsBlocker(@NonNull String packageName, int userHandle, @Nullable PackageInfo packageInfo) {
         super(packageName, userHandle);
         mRulesFile = new AtomicExtendedFile(Objects.requireNonNull(Paths.get(SYSTEM_RULES_PATH).getFile())
                 .getChildFile(packageName + ".xml"));
-        try {
-            mPackageInfo = PackageManagerCompat.getPackageInfo(packageName, PackageManager.GET_ACTIVITIES
-                    | PackageManager.GET_RECEIVERS | PackageManager.GET_PROVIDERS | MATCH_DISABLED_COMPONENTS
-                    | MATCH_UNINSTALLED_PACKAGES | PackageManager.GET_SERVICES
-                    | PackageManagerCompat.MATCH_STATIC_SHARED_AND_SDK_LIBRARIES, userHandle);
-        } catch (Throwable e) {
-            Log.e(TAG, e.getMessage(), e);
-        }
+        mPackageInfo = packageInfo;
         mComponents = mPackageInfo != null ? PackageUtils.collectComponentClassNames(mPackageInfo).keySet() : null;
     }
 
@@ -183,14 +200,87 @@ public final class ComponentsBlocker extends RulesStorageManager {
         // Apply all rules from conf folder
         File confPath = new File(context.getFilesDir(), "conf");
         String[] packageNamesWithTSVExt = confPath.list((dir, name) -> name.endsWith(".tsv"));
+        if (packageNamesWithTSVExt == null || packageNamesWithTSVExt.length == 0) {
+            return true;
+        }
+        String[] packageNames = new String[packageNamesWithTSVExt.length];
+        for (int i = 0; i < packageNamesWithTSVExt.length; ++i) {
+            packageNames[i] = Paths.trimPathExtension(packageNamesWithTSVExt[i]);
+        }
+        // Packages without components are listed cheaply, and tell which packages with rules are installed
+        Set<String> installedPackages = null;
+        try {
+            List<PackageInfo> packageInfoList = PackageManagerCompat.getInstalledPackages(MATCH_UNINSTALLED_PACKAGES,
+                    userHandle);
+            installedPackages = new HashSet<>(packageInfoList.size());
+            for (PackageInfo packageInfo : packageInfoList) {
+                installedPackages.add(packageInfo.packageName);
+            }
+        } catch (Throwable e) {
+            Log.w(TAG, "Could not fetch installed packages for user %d, fetching them one by one", e, userHandle);
+        }
+        // The components of every installed package are fetched in bulk, which is only worth it if most of them have
+        // rules. Otherwise, the components of the packages with rules are fetched one package at a time.
+        Map<String, PackageInfo> packageInfoMap = null;
+        if (installedPackages != null) {
+            int installedPackagesWithRules = 0;
+            for (String packageName : packageNames) {
+                if (installedPackages.contains(packageName)) {
+                    ++installedPackagesWithRules;
+                }
+            }
+            if (installedPackagesWithRules * 2 > installedPackages.size()) {
+                try {
+                    List<PackageInfo> packageInfoList = PackageManagerCompat.getInstalledPackages(PACKAGE_INFO_FLAGS,
+                            userHandle);
+                    packageInfoMap = new HashMap<>(packageInfoList.size());
+                    for (PackageInfo packageInfo : packageInfoList) {
+                        packageInfoMap.put(packageInfo.packageName, packageInfo);
+                    }
+                } catch (Throwable e) {
+                    Log.w(TAG, "Could not fetch installed packages for user %d, fetching them one by one", e,
+                            userHandle);
+                }
+            }
+        }
+        // Apply rules. Each package has its own rules, therefore, they can be applied in parallel.
+        List<Callable<Boolean>> tasks = new ArrayList<>(packageNames.length);
+        for (String packageName : packageNames) {
+            Set<String> finalInstalledPackages = installedPackages;
+            Map<String, PackageInfo> finalPackageInfoMap = packageInfoMap;
+            tasks.add(() -> {
+                PackageInfo packageInfo;
+                if (finalPackageInfoMap != null) {
+                    packageInfo = finalPackageInfoMap.get(packageName);
+                } else if (finalInstalledPackages != null && !finalInstalledPackages.contains(packageName)) {
+                    // Uninstalled
+                    packageInfo = null;
+                } else {
+                    packageInfo = getPackageInfo(packageName, userHandle);
+                }
+                // Same as getMutableInstance()
+                try (ComponentsBlocker cb = new ComponentsBlocker(packageName, userHandle, packageInfo)) {
+                    cb.readOnly = false;
+                    return cb.applyRules(true);
+                }
+            });
+        }
         boolean isSuccessful = true;
-        if (packageNamesWithTSVExt != null) {
-            // Apply rules
-            for (String packageNameWithTSVExt : packageNamesWithTSVExt) {
-                try (ComponentsBlocker cb = getMutableInstance(Paths.trimPathExtension(packageNameWithTSVExt), userHandle)) {
-                    isSuccessful &= cb.applyRules(true);
+        MultithreadedExecutor executor = MultithreadedExecutor.getNewInstance();
+        try {
+            for (Future<Boolean> result : executor.invokeAll(tasks)) {
+                try {
+                    isSuccessful &= result.get();
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Could not apply rules", e.getCause());
+                    isSuccessful = false;
                 }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            executor.shutdownNow();
         }
         return isSuccessful;
     }
@@ -407,61 +497,37 @@ public final class ComponentsBlocker extends RulesStorageManager {
         // Enable/disable components
         List<ComponentRule> allEntries = getAllComponents();
         Log.d(TAG, "All: %s", allEntries);
-        boolean isSuccessful = true;
+        // Component states are set at once after deciding all of them
+        List<ComponentState> componentStates = new ArrayList<>();
         if (apply) {
             for (ComponentRule entry : allEntries) {
                 if (entry.applyDefaultState()) {
-                    // Need to set component state to default first and do nothing
-                    try {
-                        PackageManagerCompat.setComponentEnabledSetting(entry.getComponentName(),
-                                COMPONENT_ENABLED_STATE_DEFAULT, DONT_KILL_APP, userId);
-                        removeEntry(entry);
-                    } catch (Throwable e) {
-                        isSuccessful = false;
-                        Log.e(TAG, "Could not enable component: %s/%s", e, packageName, entry.name);
-                    }
+                    // Need to set component state to default first and do nothing. The entry is set to be blocked by
+                    // IFW below regardless of the result.
+                    componentStates.add(new ComponentState(entry, COMPONENT_ENABLED_STATE_DEFAULT, null));
                 }
                 switch (entry.getComponentStatus()) {
                     case ComponentRule.COMPONENT_TO_BE_DEFAULTED:
                         // Set component state to default and remove it
-                        try {
-                            PackageManagerCompat.setComponentEnabledSetting(
-                                    entry.getComponentName(), COMPONENT_ENABLED_STATE_DEFAULT,
-                                    DONT_KILL_APP, userId);
-                            removeEntry(entry);
-                        } catch (Throwable e) {
-                            isSuccessful = false;
-                            Log.e(TAG, "Could not enable component: %s/%s", e, packageName, entry.name);
-                        }
+                        componentStates.add(new ComponentState(entry, COMPONENT_ENABLED_STATE_DEFAULT,
+                                () -> removeEntry(entry)));
                         break;
                     case ComponentRule.COMPONENT_TO_BE_ENABLED:
                         // Enable components
-                        try {
-                            PackageManagerCompat.setComponentEnabledSetting(
-                                    entry.getComponentName(), COMPONENT_ENABLED_STATE_ENABLED,
-                                    DONT_KILL_APP, userId);
-                            setComponent(entry.name, entry.type, ComponentRule.COMPONENT_ENABLED);
-                        } catch (Throwable e) {
-                            isSuccessful = false;
-                            Log.e(TAG, "Could not disable component: %s/%s", e, packageName, entry.name);
-                        }
+                        componentStates.add(new ComponentState(entry, COMPONENT_ENABLED_STATE_ENABLED,
+                                () -> setComponent(entry.name, entry.type, ComponentRule.COMPONENT_ENABLED)));
                         break;
                     case ComponentRule.COMPONENT_TO_BE_BLOCKED_IFW:
                         setComponent(entry.name, entry.type, ComponentRule.COMPONENT_BLOCKED_IFW);
                         break;
                     case ComponentRule.COMPONENT_TO_BE_BLOCKED_IFW_DISABLE:
-                    case ComponentRule.COMPONENT_TO_BE_DISABLED:
+                    case ComponentRule.COMPONENT_TO_BE_DISABLED: {
                         // Disable components
-                        try {
-                            PackageManagerCompat.setComponentEnabledSetting(
-                                    entry.getComponentName(), COMPONENT_ENABLED_STATE_DISABLED,
-                                    DONT_KILL_APP, userId);
-                            setComponent(entry.name, entry.type, entry.getCounterpartOfToBe());
-                        } catch (Throwable e) {
-                            isSuccessful = false;
-                            Log.e(TAG, "Could not disable component: %s/%s", e, packageName, entry.name);
-                        }
+                        String componentStatus = entry.getCounterpartOfToBe();
+                        componentStates.add(new ComponentState(entry, COMPONENT_ENABLED_STATE_DISABLED,
+                                () -> setComponent(entry.name, entry.type, componentStatus)));
                         break;
+                    }
                     default:
                         setComponent(entry.name, entry.type, entry.getCounterpartOfToBe());
                 }
@@ -471,17 +537,50 @@ public final class ComponentsBlocker extends RulesStorageManager {
             for (ComponentRule entry : allEntries) {
                 // Enable components if they're disabled by other methods.
                 // IFW rules are already removed above.
-                try {
-                    PackageManagerCompat.setComponentEnabledSetting(entry.getComponentName(),
-                            COMPONENT_ENABLED_STATE_DEFAULT, DONT_KILL_APP,
-                            userId);
+                componentStates.add(new ComponentState(entry, COMPONENT_ENABLED_STATE_DEFAULT, () -> {
                     if (entry.toBeRemoved()) {
                         removeEntry(entry);
                     } else setComponent(entry.name, entry.type, entry.getToBe());
-                } catch (Throwable e) {
-                    isSuccessful = false;
-                    Log.e(TAG, "Could not enable component: %s/%s", e, packageName, entry.name);
+                }));
+            }
+        }
+        return setComponentStates(componentStates);
+    }
+
+    /**
+     * Set the states of the given components, and update the rules of the components whose states have been set.
+     *
+     * @return {@code true} iff the states of all the components are set.
+     */
+    @WorkerThread
+    private boolean setComponentStates(@NonNull List<ComponentState> componentStates) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU && componentStates.size() > 1) {
+            List<PackageManager.ComponentEnabledSetting> settings = new ArrayList<>(componentStates.size());
+            for (ComponentState componentState : componentStates) {
+                settings.add(new PackageManager.ComponentEnabledSetting(componentState.entry.getComponentName(),
+                        componentState.newState, DONT_KILL_APP));
+            }
+            try {
+                PackageManagerCompat.setComponentEnabledSettings(settings, userId);
+                for (ComponentState componentState : componentStates) {
+                    componentState.onStateSet();
                 }
+                return true;
+            } catch (Throwable e) {
+                // Nothing is applied if any of them fails, set them one by one to find out which ones fail
+                Log.w(TAG, "Could not set component states of package %s at once", e, packageName);
+            }
+        }
+        boolean isSuccessful = true;
+        for (ComponentState componentState : componentStates) {
+            try {
+                PackageManagerCompat.setComponentEnabledSetting(componentState.entry.getComponentName(),
+                        componentState.newState, DONT_KILL_APP, userId);
+                componentState.onStateSet();
+            } catch (Throwable e) {
+                isSuccessful = false;
+                Log.e(TAG, "Could not set state %d for component: %s/%s", e, componentState.newState, packageName,
+                        componentState.entry.name);
             }
         }
         return isSuccessful;
@@ -609,4 +708,26 @@ public final class ComponentsBlocker extends RulesStorageManager {
         } catch (IOException | RemoteException ignored) {
         }
     }
+
+    private static final class ComponentState {
+        @NonNull
+        public final ComponentRule entry;
+        @PackageManagerCompat.EnabledState
+        public final int newState;
+        @Nullable
+        private final Runnable mOnStateSet;
+
+        ComponentState(@NonNull ComponentRule entry, @PackageManagerCompat.EnabledState int newState,
+                       @Nullable Runnable onStateSet) {
+            this.entry = entry;
+            this.newState = newState;
+            mOnStateSet = onStateSet;
+        }
+
+        void onStateSet() {
+            if (mOnStateSet != null) {
+                mOnStateSet.run();
+            }
+        }
+    }
 }
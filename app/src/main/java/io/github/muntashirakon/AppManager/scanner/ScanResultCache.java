@@ -0,0 +1,192 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.scanner;
+
+import android.util.Pair;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.AppManager.utils.FileUtils;
+
+/**
+ * Stores the results of scanning an APK, keyed by the SHA-256 of the APK, so that scanning the same APK again (e.g.
+ * reopening the scanner or scanning the same APK installed for another user) does not require parsing the DEX files.
+ * <p>
+ * The signature matches are stored as indices to the signature arrays, and are therefore only valid as long as the
+ * signatures are unchanged. An entry is discarded if the signatures differ from the ones it was created with.
+ */
+class ScanResultCache {
+    public static final String TAG = ScanResultCache.class.getSimpleName();
+
+    private static final int MAGIC = 0x414d5343; // AMSC
+    private static final int VERSION = 1;
+
+    static final class Entry {
+        @NonNull
+        public final Pair<String, String>[] digests;
+        @NonNull
+        public final List<String> nativeLibraries;
+        /**
+         * Sorted list of all classes
+         */
+        @NonNull
+        public final List<String> classes;
+        /**
+         * Index of the tracker signature matched by each class, or {@code -1} if none
+         */
+        @NonNull
+        public final int[] trackerIndices;
+        /**
+         * Index of the library signature matched by each class, or {@code -1} if none
+         */
+        @NonNull
+        public final int[] libraryIndices;
+
+        Entry(@NonNull Pair<String, String>[] digests, @NonNull List<String> nativeLibraries,
+              @NonNull List<String> classes, @NonNull int[] trackerIndices, @NonNull int[] libraryIndices) {
+            if (classes.size() != trackerIndices.length || classes.size() != libraryIndices.length) {
+                throw new IllegalArgumentException("Signature indices do not match the classes.");
+            }
+            this.digests = digests;
+            this.nativeLibraries = nativeLibraries;
+            this.classes = classes;
+            this.trackerIndices = trackerIndices;
+            this.libraryIndices = libraryIndices;
+        }
+    }
+
+    /**
+     * Hash of the signatures used to create the matches.
+     */
+    public static int getSignaturesHash(@NonNull String[] trackerSignatures, @NonNull String[] librarySignatures) {
+        int hash = 1;
+        for (String signature : trackerSignatures) {
+            hash = 31 * hash + signature.hashCode();
+        }
+        hash = 31 * hash + trackerSignatures.length;
+        for (String signature : librarySignatures) {
+            hash = 31 * hash + signature.hashCode();
+        }
+        return 31 * hash + librarySignatures.length;
+    }
+
+    @NonNull
+    private final File mCacheDir;
+    private final int mSignaturesHash;
+
+    public ScanResultCache(int signaturesHash) {
+        this(new File(FileUtils.getCachePath(), "scanner"), signaturesHash);
+    }
+
+    @VisibleForTesting
+    ScanResultCache(@NonNull File cacheDir, int signaturesHash) {
+        mCacheDir = cacheDir;
+        mSignaturesHash = signaturesHash;
+    }
+
+    @WorkerThread
+    @Nullable
+    public Entry get(@NonNull String sha256) {
+        File file = getFile(sha256);
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(new GZIPInputStream(
+                new FileInputStream(file))))) {
+            if (is.readInt() != MAGIC || is.readInt() != VERSION || is.readInt() != mSignaturesHash) {
+                // Created by another version or using other signatures
+                file.delete();
+                return null;
+            }
+            int digestCount = is.readInt();
+            @SuppressWarnings("unchecked")
+            Pair<String, String>[] digests = new Pair[digestCount];
+            for (int i = 0; i < digestCount; ++i) {
+                digests[i] = new Pair<>(is.readUTF(), is.readUTF());
+            }
+            int nativeLibraryCount = is.readInt();
+            List<String> nativeLibraries = new ArrayList<>(nativeLibraryCount);
+            for (int i = 0; i < nativeLibraryCount; ++i) {
+                nativeLibraries.add(is.readUTF());
+            }
+            int classCount = is.readInt();
+            List<String> classes = new ArrayList<>(classCount);
+            int[] trackerIndices = new int[classCount];
+            int[] libraryIndices = new int[classCount];
+            for (int i = 0; i < classCount; ++i) {
+                classes.add(is.readUTF());
+                trackerIndices[i] = is.readInt();
+                libraryIndices[i] = is.readInt();
+            }
+            // Keep recently used entries from being cleaned up
+            file.setLastModified(System.currentTimeMillis());
+            return new Entry(digests, nativeLibraries, classes, trackerIndices, libraryIndices);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Could not read scan result of %s", e, sha256);
+            file.delete();
+            return null;
+        }
+    }
+
+    @WorkerThread
+    public void put(@NonNull String sha256, @NonNull Entry entry) {
+        if (!mCacheDir.exists() && !mCacheDir.mkdirs()) {
+            Log.w(TAG, "Could not create %s", mCacheDir);
+            return;
+        }
+        File file = getFile(sha256);
+        File tmpFile = new File(mCacheDir, sha256 + ".tmp");
+        try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(
+                new FileOutputStream(tmpFile))))) {
+            os.writeInt(MAGIC);
+            os.writeInt(VERSION);
+            os.writeInt(mSignaturesHash);
+            os.writeInt(entry.digests.length);
+            for (Pair<String, String> digest : entry.digests) {
+                os.writeUTF(digest.first);
+                os.writeUTF(digest.second);
+            }
+            os.writeInt(entry.nativeLibraries.size());
+            for (String nativeLibrary : entry.nativeLibraries) {
+                os.writeUTF(nativeLibrary);
+            }
+            os.writeInt(entry.classes.size());
+            for (int i = 0; i < entry.classes.size(); ++i) {
+                os.writeUTF(entry.classes.get(i));
+                os.writeInt(entry.trackerIndices[i]);
+                os.writeInt(entry.libraryIndices[i]);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not save scan result of %s", e, sha256);
+            tmpFile.delete();
+            return;
+        }
+        // Replace atomically so that a partially written entry is never read
+        if (!tmpFile.renameTo(file)) {
+            Log.w(TAG, "Could not save scan result of %s", sha256);
+            tmpFile.delete();
+        }
+    }
+
+    @NonNull
+    private File getFile(@NonNull String sha256) {
+        return new File(mCacheDir, sha256);
+    }
+}
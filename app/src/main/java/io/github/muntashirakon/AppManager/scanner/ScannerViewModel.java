@@ -7,6 +7,7 @@ import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Build;
+import android.text.TextUtils;
 import android.util.Pair;
 
 import androidx.annotation.AnyThread;
@@ -23,6 +24,7 @@ import com.android.apksig.apk.ApkFormatException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -36,6 +38,7 @@ import java.util.regex.Pattern;
 import io.github.muntashirakon.AppManager.R;
 import io.github.muntashirakon.AppManager.StaticDataset;
 import io.github.muntashirakon.AppManager.fm.ContentType2;
+import io.github.muntashirakon.AppManager.logs.Log;
 import io.github.muntashirakon.AppManager.scanner.vt.VirusTotal;
 import io.github.muntashirakon.AppManager.scanner.vt.VtFileReport;
 import io.github.muntashirakon.AppManager.scanner.vt.VtFileScanMeta;
@@ -45,6 +48,7 @@ import io.github.muntashirakon.AppManager.utils.DigestUtils;
 import io.github.muntashirakon.AppManager.utils.ExUtils;
 import io.github.muntashirakon.AppManager.utils.FileUtils;
 import io.github.muntashirakon.AppManager.utils.MultithreadedExecutor;
+import io.github.muntashirakon.AppManager.utils.SignatureMatcher;
 import io.github.muntashirakon.io.IoUtils;
 import io.github.muntashirakon.io.Path;
 import io.github.muntashirakon.io.Paths;
@@ -52,6 +56,8 @@ import io.github.muntashirakon.io.fs.DexFileSystem;
 import io.github.muntashirakon.io.fs.VirtualFileSystem;
 
 public class ScannerViewModel extends AndroidViewModel implements VirusTotal.FullScanResponseInterface {
+    public static final String TAG = ScannerViewModel.class.getSimpleName();
+
     private static final Pattern SIG_TO_IGNORE = Pattern.compile("^(android(|x)|com\\.android|com\\.google\\.android|java(|x)|j\\$\\.(util|time)|\\w\\d?(\\.\\w\\d?)+)\\..*$");
 
     private File mApkFile;
@@ -69,6 +75,14 @@ public class ScannerViewModel extends AndroidViewModel implements VirusTotal.Ful
     private Collection<String> mNativeLibraries;
 
     private CountDownLatch mWaitForFile;
+    private CountDownLatch mWaitForCacheLookup;
+    private CountDownLatch mWaitForDigests;
+    private CountDownLatch mWaitForPackageInfo;
+    @Nullable
+    private volatile Pair<String, String>[] mDigests;
+    @Nullable
+    private volatile ScanResultCache.Entry mCachedScanResult;
+    private volatile ScanResultCache mScanResultCache;
     private final FileCache mFileCache = new FileCache();
     private final MultithreadedExecutor mExecutor = MultithreadedExecutor.getNewInstance();
     private final MutableLiveData<Pair<String, String>[]> mApkChecksumsLiveData = new MutableLiveData<>();
@@ -106,6 +120,9 @@ public class ScannerViewModel extends AndroidViewModel implements VirusTotal.Ful
         if (mIsSummaryLoaded) return;
         mIsSummaryLoaded = true;
         mWaitForFile = new CountDownLatch(1);
+        mWaitForCacheLookup = new CountDownLatch(1);
+        mWaitForDigests = new CountDownLatch(1);
+        mWaitForPackageInfo = new CountDownLatch(1);
         // Cache files
         mExecutor.submit(() -> {
             Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
@@ -236,7 +253,14 @@ public class ScannerViewModel extends AndroidViewModel implements VirusTotal.Ful
         waitForFile();
         Path file = Paths.getUnprivileged(mApkFile);
         String pithusReportUrl = null;
-        Pair<String, String>[] digests = ExUtils.exceptionAsNull(() -> DigestUtils.getDigests(file));
+        Pair<String, String>[] digests;
+        try {
+            digests = loadDigests(file);
+            mDigests = digests;
+        } finally {
+            mWaitForCacheLookup.countDown();
+            mWaitForDigests.countDown();
+        }
         mApkChecksumsLiveData.postValue(digests);
         if (digests != null && FeatureController.isInternetEnabled()) {
             String sha256 = digests[2].second;
@@ -254,6 +278,33 @@ public class ScannerViewModel extends AndroidViewModel implements VirusTotal.Ful
         } else mVtFileReportLiveData.postValue(null);
     }
 
+    @WorkerThread
+    @Nullable
+    private Pair<String, String>[] loadDigests(@NonNull Path file) {
+        mScanResultCache = new ScanResultCache(ScanResultCache.getSignaturesHash(
+                StaticDataset.getTrackerCodeSignatures(), StaticDataset.getLibrarySignatures()));
+        // Only SHA-256 is required to find the cached scan result
+        String sha256 = ExUtils.exceptionAsNull(() -> {
+            try (InputStream is = file.openInputStream()) {
+                return DigestUtils.getHexDigest(DigestUtils.SHA_256, is);
+            }
+        });
+        ScanResultCache.Entry cachedScanResult = null;
+        try {
+            if (!TextUtils.isEmpty(sha256)) {
+                cachedScanResult = mScanResultCache.get(sha256);
+                mCachedScanResult = cachedScanResult;
+            }
+        } finally {
+            // The classes are loaded while the rest of the digests are calculated
+            mWaitForCacheLookup.countDown();
+        }
+        if (cachedScanResult != null) {
+            return cachedScanResult.digests;
+        }
+        return ExUtils.exceptionAsNull(() -> DigestUtils.getDigests(file, TextUtils.isEmpty(sha256) ? null : sha256));
+    }
+
     private void loadApkVerifierResult() {
         waitForFile();
         try {
@@ -271,59 +322,115 @@ public class ScannerViewModel extends AndroidViewModel implements VirusTotal.Ful
     private void loadPackageInfo() {
         waitForFile();
         PackageManager pm = getApplication().getPackageManager();
-        PackageInfo packageInfo = pm.getPackageArchiveInfo(mApkFile.getAbsolutePath(), 0);
-        if (packageInfo != null) {
-            mPackageName = packageInfo.packageName;
+        PackageInfo packageInfo;
+        try {
+            packageInfo = pm.getPackageArchiveInfo(mApkFile.getAbsolutePath(), 0);
+            if (packageInfo != null) {
+                mPackageName = packageInfo.packageName;
+            }
+        } finally {
+            mWaitForPackageInfo.countDown();
         }
         mPackageInfoLiveData.postValue(packageInfo);
     }
 
+    /**
+     * Load the classes, trackers and libraries. Everything is done in the calling task, since the other tasks of
+     * {@link #mExecutor} may occupy all of its threads while waiting for this one.
+     */
     @WorkerThread
     private void loadAllClasses() {
         waitForFile();
+        waitFor(mWaitForCacheLookup);
+        ScanResultCache.Entry cachedScanResult = mCachedScanResult;
+        if (cachedScanResult != null) {
+            mNativeLibraries = cachedScanResult.nativeLibraries;
+            mAllClasses = cachedScanResult.classes;
+            mAllClassesLiveData.postValue(mAllClasses);
+            loadTrackers(cachedScanResult.trackerIndices);
+            loadLibraries(cachedScanResult.libraryIndices);
+            // The classes are only required to be mounted for viewing their source
+            mountDexFileSystem();
+            return;
+        }
         try {
-            NativeLibraries nativeLibraries = new NativeLibraries(mApkFile);
-            mNativeLibraries = nativeLibraries.getUniqueLibs();
+            mNativeLibraries = new NativeLibraries(mApkFile).getUniqueLibs();
         } catch (Throwable e) {
             mNativeLibraries = Collections.emptyList();
         }
+        DexFileSystem dfs = mountDexFileSystem();
+        if (dfs != null) {
+            try {
+                mAllClasses = dfs.getDexClasses().getBaseClassNames();
+                Collections.sort(mAllClasses);
+            } catch (Throwable e) {
+                Log.e(TAG, e);
+                dfs = null;
+            }
+        }
+        if (dfs == null) {
+            mAllClasses = Collections.emptyList();
+        }
+        mAllClassesLiveData.postValue(mAllClasses);
+        int[] trackerIndices = findSignatures(StaticDataset.getTrackerSignatureMatcher());
+        loadTrackers(trackerIndices);
+        int[] libraryIndices = findSignatures(StaticDataset.getLibrarySignatureMatcher());
+        loadLibraries(libraryIndices);
+        waitFor(mWaitForDigests);
+        Pair<String, String>[] digests = mDigests;
+        if (dfs != null && digests != null) {
+            mScanResultCache.put(digests[2].second, new ScanResultCache.Entry(digests, new ArrayList<>(mNativeLibraries),
+                    mAllClasses, trackerIndices, libraryIndices));
+        }
+    }
+
+    @WorkerThread
+    @Nullable
+    private DexFileSystem mountDexFileSystem() {
         try {
             mDexVfsId = VirtualFileSystem.mount(Uri.fromFile(mApkFile), Paths.getUnprivileged(mApkFile), ContentType2.DEX.getMimeType());
-            DexFileSystem dfs = (DexFileSystem) Objects.requireNonNull(VirtualFileSystem.getFileSystem(mDexVfsId));
-            mAllClasses = dfs.getDexClasses().getBaseClassNames();
-            Collections.sort(mAllClasses);
+            return (DexFileSystem) Objects.requireNonNull(VirtualFileSystem.getFileSystem(mDexVfsId));
         } catch (Throwable e) {
             e.printStackTrace();
-            mAllClasses = Collections.emptyList();
+            return null;
         }
-        mAllClassesLiveData.postValue(mAllClasses);
-        // Load tracker and library info
-        mExecutor.submit(this::loadTrackers);
-        mExecutor.submit(this::loadLibraries);
+    }
+
+    /**
+     * Match all classes against the given signatures.
+     *
+     * @return Index of the signature matched by each class, or {@code -1} if none
+     */
+    @WorkerThread
+    @NonNull
+    private int[] findSignatures(@NonNull SignatureMatcher signatureMatcher) {
+        int[] signatureIndices = new int[mAllClasses.size()];
+        for (int i = 0; i < signatureIndices.length; ++i) {
+            String className = mAllClasses.get(i);
+            if (className.length() > 8 && className.contains(".")) {
+                // Match the class name against all signatures at once
+                // This is a greedy algorithm, only matches the first item
+                signatureIndices[i] = signatureMatcher.findFirst(className);
+            } else signatureIndices[i] = -1;
+        }
+        return signatureIndices;
     }
 
     @WorkerThread
-    private void loadTrackers() {
-        if (mAllClasses == null) return;
+    private void loadTrackers(@NonNull int[] signatureIndices) {
         List<SignatureInfo> trackerInfoList = new ArrayList<>();
         String[] trackerNames = StaticDataset.getTrackerNames();
         String[] trackerSignatures = StaticDataset.getTrackerCodeSignatures();
         int[] signatureCount = new int[trackerSignatures.length];
         // Iterate over all classes
-        mTrackerClasses = new ArrayList<>();
-        for (String className : mAllClasses) {
-            if (className.length() > 8 && className.contains(".")) {
-                // Iterate over all signatures to match the class name
-                // This is a greedy algorithm, only matches the first item
-                for (int i = 0; i < trackerSignatures.length; i++) {
-                    if (className.contains(trackerSignatures[i])) {
-                        mTrackerClasses.add(className);
-                        signatureCount[i]++;
-                        break;
-                    }
-                }
+        List<String> trackerClasses = new ArrayList<>();
+        for (int i = 0; i < signatureIndices.length; ++i) {
+            if (signatureIndices[i] != -1) {
+                trackerClasses.add(mAllClasses.get(i));
+                signatureCount[signatureIndices[i]]++;
             }
         }
+        mTrackerClasses = trackerClasses;
         // Iterate over signatures again but this time list only the found ones.
         for (int i = 0; i < trackerSignatures.length; i++) {
             if (signatureCount[i] == 0) continue;
@@ -334,40 +441,34 @@ public class ScannerViewModel extends AndroidViewModel implements VirusTotal.Ful
         mTrackerClassesLiveData.postValue(trackerInfoList);
     }
 
-    public void loadLibraries() {
-        if (mAllClasses == null) return;
+    @WorkerThread
+    private void loadLibraries(@NonNull int[] signatureIndices) {
         List<SignatureInfo> libraryInfoList = new ArrayList<>();
         ArrayList<String> missingLibs = new ArrayList<>();
         String[] libNames = getApplication().getResources().getStringArray(R.array.lib_names);
-        String[] libSignatures = getApplication().getResources().getStringArray(R.array.lib_signatures);
+        String[] libSignatures = StaticDataset.getLibrarySignatures();
         String[] libTypes = getApplication().getResources().getStringArray(R.array.lib_types);
         // The following array is directly mapped to the arrays above
         int[] signatureCount = new int[libSignatures.length];
+        // Package name is required to find the missing libraries
+        waitFor(mWaitForPackageInfo);
         // Iterate over all classes
-        mLibraryClasses = new ArrayList<>();
-        for (String className : mAllClasses) {
-            if (className.length() > 8 && className.contains(".")) {
-                boolean matched = false;
-                // Iterate over all signatures to match the class name
-                // This is a greedy algorithm, only matches the first item
-                for (int i = 0; i < libSignatures.length; i++) {
-                    if (className.contains(libSignatures[i])) {
-                        matched = true;
-                        // Add to found classes
-                        mLibraryClasses.add(className);
-                        // Increment this signature match count
-                        signatureCount[i]++;
-                        break;
-                    }
-                }
+        List<String> libraryClasses = new ArrayList<>();
+        for (int i = 0; i < signatureIndices.length; ++i) {
+            String className = mAllClasses.get(i);
+            if (signatureIndices[i] != -1) {
+                // Add to found classes
+                libraryClasses.add(className);
+                // Increment this signature match count
+                signatureCount[signatureIndices[i]]++;
+            } else if (className.length() > 8 && className.contains(".")
+                    && (mPackageName != null && !className.startsWith(mPackageName))
+                    && !SIG_TO_IGNORE.matcher(className).matches()) {
                 // Add the class to the missing libs list if it doesn't match the filters
-                if (!matched
-                        && (mPackageName != null && !className.startsWith(mPackageName))
-                        && !SIG_TO_IGNORE.matcher(className).matches()) {
-                    missingLibs.add(className);
-                }
+                missingLibs.add(className);
             }
         }
+        mLibraryClasses = libraryClasses;
         // Iterate over signatures again but this time list only the found ones.
         for (int i = 0; i < libSignatures.length; i++) {
             if (signatureCount[i] == 0) continue;
@@ -381,10 +482,15 @@ public class ScannerViewModel extends AndroidViewModel implements VirusTotal.Ful
 
     @WorkerThread
     private void waitForFile() {
+        waitFor(mWaitForFile);
+    }
+
+    @WorkerThread
+    private static void waitFor(@NonNull CountDownLatch latch) {
         try {
-            mWaitForFile.await();
+            latch.await();
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            Log.e(TAG, e);
         }
     }
 
@@ -57,6 +57,7 @@ public class InternalCacheCleanerService extends ForegroundService {
     protected void onHandleIntent(@Nullable Intent intent) {
         clearOldFiles();
         clearOldImages();
+        clearOldScanResults();
     }
 
     private void clearOldFiles() {
@@ -75,6 +76,14 @@ public class InternalCacheCleanerService extends ForegroundService {
         Log.i(TAG, "Deleted " + deleteCount + " images.");
     }
 
+    private void clearOldScanResults() {
+        // Delete any scan results not used in the last 30 days
+        long lastAccessDate = System.currentTimeMillis() - 2_592_000_000L;
+        Path fileCache = Paths.getUnprivileged(FileSystemManager.getLocal().getFile(FileUtils.getCachePath(), "scanner"));
+        int deleteCount = deleteFilesWithAccessDate(fileCache, lastAccessDate);
+        Log.i(TAG, "Deleted " + deleteCount + " scan results.");
+    }
+
     private static int deleteFilesWithAccessDate(@NonNull Path basePath, long accessDate) {
         int deleteCount = 0;
         Path[] files = basePath.listFiles();
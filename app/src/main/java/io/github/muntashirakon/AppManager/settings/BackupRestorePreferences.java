@@ -133,6 +133,12 @@ public class BackupRestorePreferences extends PreferenceFragment {
                     .show();
             return true;
         });
+        // Parallel compression
+        SwitchPreferenceCompat parallelCompression = Objects.requireNonNull(findPreference("backup_parallel_compression"));
+        parallelCompression.setChecked(Prefs.BackupRestore.compressInParallel());
+        // Deduplication
+        SwitchPreferenceCompat deduplication = Objects.requireNonNull(findPreference("backup_deduplication"));
+        deduplication.setChecked(Prefs.BackupRestore.deduplicate());
         // Backup flags
         BackupFlags flags = BackupFlags.fromPref();
         ((Preference) Objects.requireNonNull(findPreference("backup_flags"))).setOnPreferenceClickListener(preference -> {
@@ -26,6 +26,7 @@ import io.github.muntashirakon.AppManager.R;
 import io.github.muntashirakon.AppManager.logcat.helper.LogcatHelper;
 import io.github.muntashirakon.AppManager.logcat.helper.PreferenceHelper;
 import io.github.muntashirakon.AppManager.logcat.struct.LogLine;
+import io.github.muntashirakon.AppManager.logcat.struct.LogLineBuffer;
 import io.github.muntashirakon.AppManager.utils.UIUtils;
 import io.github.muntashirakon.dialog.SearchableMultiChoiceDialogBuilder;
 import io.github.muntashirakon.dialog.SearchableSingleChoiceDialogBuilder;
@@ -42,7 +43,7 @@ public class LogViewerPreferences extends PreferenceFragment {
 
     private static final int MAX_LOG_WRITE_PERIOD = 1000;
     private static final int MIN_LOG_WRITE_PERIOD = 1;
-    private static final int MAX_DISPLAY_LIMIT = 100000;
+    private static final int MAX_DISPLAY_LIMIT = LogLineBuffer.MAX_LINES;
     private static final int MIN_DISPLAY_LIMIT = 1000;
 
     @Override
@@ -78,6 +79,9 @@ public class LogViewerPreferences extends PreferenceFragment {
             return true;
         });
 
+        SwitchPreferenceCompat compressRecordings = requirePreference("log_viewer_compress_recordings");
+        compressRecordings.setChecked(Prefs.LogViewer.compressRecordings());
+
         Preference filterPattern = requirePreference("log_viewer_filter_pattern");
         filterPattern.setOnPreferenceClickListener(preference -> {
             new TextInputDialogBuilder(activity, null)
@@ -35,6 +35,7 @@ import io.github.muntashirakon.AppManager.details.AppDetailsFragment;
 import io.github.muntashirakon.AppManager.fm.FmActivity;
 import io.github.muntashirakon.AppManager.fm.FmListOptions;
 import io.github.muntashirakon.AppManager.logcat.helper.LogcatHelper;
+import io.github.muntashirakon.AppManager.logcat.struct.LogLineBuffer;
 import io.github.muntashirakon.AppManager.main.MainListOptions;
 import io.github.muntashirakon.AppManager.rules.struct.ComponentRule;
 import io.github.muntashirakon.AppManager.runningapps.RunningAppsActivity;
@@ -177,6 +178,14 @@ public final class Prefs {
             AppPref.set(AppPref.PrefKey.PREF_BACKUP_COMPRESSION_METHOD_STR, tarType);
         }
 
+        public static boolean compressInParallel() {
+            return AppPref.getBoolean(AppPref.PrefKey.PREF_BACKUP_PARALLEL_COMPRESSION_BOOL);
+        }
+
+        public static boolean deduplicate() {
+            return AppPref.getBoolean(AppPref.PrefKey.PREF_BACKUP_DEDUPLICATION_BOOL);
+        }
+
         @BackupFlags.BackupFlag
         public static int getBackupFlags() {
             return AppPref.getInt(AppPref.PrefKey.PREF_BACKUP_FLAGS_INT);
@@ -456,7 +465,8 @@ public final class Prefs {
         }
 
         public static int getDisplayLimit() {
-            return AppPref.getInt(AppPref.PrefKey.PREF_LOG_VIEWER_DISPLAY_LIMIT_INT);
+            // Limits larger than this could be set before
+            return Math.min(AppPref.getInt(AppPref.PrefKey.PREF_LOG_VIEWER_DISPLAY_LIMIT_INT), LogLineBuffer.MAX_LINES);
         }
 
         public static void setDisplayLimit(int displayLimit) {
@@ -491,6 +501,10 @@ public final class Prefs {
         public static boolean showPidTidTimestamp() {
             return AppPref.getBoolean(AppPref.PrefKey.PREF_LOG_VIEWER_SHOW_PID_TID_TIMESTAMP_BOOL);
         }
+
+        public static boolean compressRecordings() {
+            return AppPref.getBoolean(AppPref.PrefKey.PREF_LOG_VIEWER_COMPRESS_RECORDINGS_BOOL);
+        }
     }
 
     public static final class MainPage {
@@ -52,6 +52,7 @@ public class AppPref {
      */
     @Keep
     public enum PrefKey {
+        PREF_APP_DB_CHANGE_JOURNAL_STR,
         PREF_APP_OP_SHOW_DEFAULT_BOOL,
         PREF_APP_OP_SORT_ORDER_INT,
         PREF_APP_THEME_INT,
@@ -64,6 +65,8 @@ public class AppPref {
         PREF_BACKUP_ANDROID_KEYSTORE_BOOL,
         PREF_BACKUP_COMPRESSION_METHOD_STR,
         PREF_BACKUP_FLAGS_INT,
+        PREF_BACKUP_PARALLEL_COMPRESSION_BOOL,
+        PREF_BACKUP_DEDUPLICATION_BOOL,
         PREF_BACKUP_VOLUME_STR,
 
         PREF_COMPONENTS_SORT_ORDER_INT,
@@ -106,6 +109,7 @@ public class AppPref {
         PREF_LAYOUT_ORIENTATION_INT,
 
         PREF_LOG_VIEWER_BUFFER_INT,
+        PREF_LOG_VIEWER_COMPRESS_RECORDINGS_BOOL,
         PREF_LOG_VIEWER_DEFAULT_LOG_LEVEL_INT,
         PREF_LOG_VIEWER_DISPLAY_LIMIT_INT,
         PREF_LOG_VIEWER_EXPAND_BY_DEFAULT_BOOL,
@@ -378,10 +382,13 @@ public class AppPref {
             case PREF_INSTALLER_FORCE_DEX_OPT_BOOL:
             case PREF_INSTALLER_SIGN_APK_BOOL:
             case PREF_BACKUP_ANDROID_KEYSTORE_BOOL:
+            case PREF_BACKUP_PARALLEL_COMPRESSION_BOOL:
+            case PREF_BACKUP_DEDUPLICATION_BOOL:
             case PREF_ENABLE_SCREEN_LOCK_BOOL:
             case PREF_MAIN_WINDOW_SORT_REVERSE_BOOL:
             case PREF_LOG_VIEWER_EXPAND_BY_DEFAULT_BOOL:
             case PREF_LOG_VIEWER_OMIT_SENSITIVE_INFO_BOOL:
+            case PREF_LOG_VIEWER_COMPRESS_RECORDINGS_BOOL:
             case PREF_APP_THEME_PURE_BLACK_BOOL:
             case PREF_DISPLAY_CHANGELOG_BOOL:
             case PREF_FM_DISPLAY_IN_LAUNCHER_BOOL:
@@ -426,6 +433,7 @@ public class AppPref {
                 return RunningAppsActivity.FILTER_NONE;
             case PREF_ENCRYPTION_STR:
                 return CryptoUtils.MODE_NO_ENCRYPTION;
+            case PREF_APP_DB_CHANGE_JOURNAL_STR:
             case PREF_OPEN_PGP_PACKAGE_STR:
             case PREF_OPEN_PGP_USER_ID_STR:
             case PREF_MAIN_WINDOW_FILTER_PROFILE_STR:
@@ -0,0 +1,79 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.utils;
+
+import androidx.annotation.NonNull;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+import aosp.libcore.util.HexEncoding;
+
+/**
+ * An {@link OutputStream} that calculates the digest of the bytes passing through it. The resulting digest is identical
+ * to {@link DigestUtils#getHexDigest(String, java.io.InputStream)} for the same bytes.
+ */
+public class ChecksumOutputStream extends FilterOutputStream {
+    @DigestUtils.Algorithm
+    private final String mAlgorithm;
+    private final CRC32 mCrc32;
+    private final MessageDigest mMessageDigest;
+    private String mHexDigest;
+
+    public ChecksumOutputStream(@NonNull OutputStream out, @NonNull @DigestUtils.Algorithm String algorithm)
+            throws IOException {
+        super(out);
+        mAlgorithm = algorithm;
+        if (DigestUtils.CRC32.equals(algorithm)) {
+            mCrc32 = new CRC32();
+            mMessageDigest = null;
+        } else {
+            mCrc32 = null;
+            try {
+                mMessageDigest = MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        if (mCrc32 != null) {
+            mCrc32.update(b);
+        } else mMessageDigest.update((byte) b);
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        if (mCrc32 != null) {
+            mCrc32.update(b, off, len);
+        } else mMessageDigest.update(b, off, len);
+    }
+
+    @NonNull
+    public String getAlgorithm() {
+        return mAlgorithm;
+    }
+
+    /**
+     * Get the hex digest of all the bytes written so far. Once called, no more bytes should be written.
+     */
+    @NonNull
+    public String getHexDigest() {
+        if (mHexDigest == null) {
+            byte[] digest;
+            if (mCrc32 != null) {
+                digest = DigestUtils.longToBytes(mCrc32.getValue());
+            } else digest = mMessageDigest.digest();
+            mHexDigest = HexEncoding.encodeToString(digest, false /* lowercase */);
+        }
+        return mHexDigest;
+    }
+}
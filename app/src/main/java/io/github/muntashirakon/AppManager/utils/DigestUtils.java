@@ -8,6 +8,7 @@ import android.util.Pair;
 
 import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.StringDef;
 import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
@@ -22,10 +23,13 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.zip.CRC32;
 import java.util.zip.CheckedInputStream;
 
 import aosp.libcore.util.HexEncoding;
+import io.github.muntashirakon.io.ExtendedFile;
+import io.github.muntashirakon.io.FileStat;
 import io.github.muntashirakon.io.IoUtils;
 import io.github.muntashirakon.io.Path;
 import io.github.muntashirakon.io.Paths;
@@ -62,10 +66,23 @@ public class DigestUtils {
     @WorkerThread
     @NonNull
     public static String getHexDigest(@Algorithm String algo, @NonNull Path path) {
-        List<Path> allFiles = Paths.getAll(path);
+        // Attributes are available if the files were walked remotely
+        Map<Path, FileStat> allFiles = Paths.getAllWithAttributes(null, path, null, null, false);
         List<String> hashes = new ArrayList<>(allFiles.size());
-        for (Path file : allFiles) {
-            if (file.isDirectory()) continue;
+        for (Map.Entry<Path, FileStat> fileEntry : allFiles.entrySet()) {
+            Path file = fileEntry.getKey();
+            FileStat stat = fileEntry.getValue();
+            if (stat != null ? stat.isDirectory() : file.isDirectory()) continue;
+            ExtendedFile extendedFile = file.getFile();
+            if (extendedFile != null && !file.isMountPoint()) {
+                // A privileged file is hashed by the file system service itself
+                try {
+                    hashes.add(extendedFile.getHexDigests(new String[]{algo}, null)[0]);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
             try (InputStream fileInputStream = file.openInputStream()) {
                 hashes.add(getHexDigest(algo, fileInputStream));
             } catch (IOException e) {
@@ -154,6 +171,17 @@ public class DigestUtils {
     @WorkerThread
     @NonNull
     public static Pair<String, String>[] getDigests(@NonNull Path file) throws IOException {
+        return getDigests(file, null);
+    }
+
+    /**
+     * Same as {@link #getDigests(Path)}, except that the SHA-256 digest is not calculated again if it is known.
+     *
+     * @param sha256 SHA-256 digest of the file in hex
+     */
+    @WorkerThread
+    @NonNull
+    public static Pair<String, String>[] getDigests(@NonNull Path file, @Nullable String sha256) throws IOException {
         if (!file.isFile()) {
             throw new IOException(file + " is not a file.");
         }
@@ -162,6 +190,10 @@ public class DigestUtils {
         @SuppressWarnings("unchecked")
         Pair<String, String>[] digests = new Pair[algorithms.length];
         for (int i = 0; i < algorithms.length; ++i) {
+            if (sha256 != null && SHA_256.equals(algorithms[i])) {
+                digests[i] = new Pair<>(SHA_256, sha256);
+                continue;
+            }
             try {
                 messageDigests[i] = MessageDigest.getInstance(algorithms[i]);
             } catch (NoSuchAlgorithmException e) {
@@ -172,13 +204,17 @@ public class DigestUtils {
             byte[] buffer = new byte[IoUtils.DEFAULT_BUFFER_SIZE];
             int length;
             while ((length = is.read(buffer)) != -1) {
-                for (int i = 0; i < algorithms.length; ++i) {
-                    messageDigests[i].update(buffer, 0, length);
+                for (MessageDigest messageDigest : messageDigests) {
+                    if (messageDigest != null) {
+                        messageDigest.update(buffer, 0, length);
+                    }
                 }
             }
         }
         for (int i = 0; i < algorithms.length; ++i) {
-            digests[i] = new Pair<>(algorithms[i], HexEncoding.encodeToString(messageDigests[i].digest(), false));
+            if (messageDigests[i] != null) {
+                digests[i] = new Pair<>(algorithms[i], HexEncoding.encodeToString(messageDigests[i].digest(), false));
+            }
         }
         return digests;
     }
@@ -196,7 +232,7 @@ public class DigestUtils {
     }
 
     @NonNull
-    private static byte[] longToBytes(long l) {
+    static byte[] longToBytes(long l) {
         byte[] result = new byte[8];
         for (int i = 7; i >= 0; i--) {
             result[i] = (byte) (l & 0xFF);
@@ -0,0 +1,190 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.utils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.github.luben.zstd.ZstdOutputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compress a stream using multiple threads in the fashion of pigz/pzstd. The stream is cut into fixed-size blocks,
+ * each block is compressed independently into a complete gzip member, bzip2 stream or zstd frame on a worker pool, and
+ * the compressed blocks are written in order. Decompressors that support concatenated streams (as used by
+ * {@link TarUtils#extract(String, io.github.muntashirakon.io.Path[], io.github.muntashirakon.io.Path, String[], String[], String)})
+ * read the output as if it was compressed as a single stream.
+ */
+public class ParallelCompressorOutputStream extends OutputStream {
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;  // 1 MiB
+
+    @NonNull
+    private final OutputStream mOut;
+    @NonNull
+    @TarUtils.TarType
+    private final String mType;
+    private final int mBlockSize;
+    private final int mMaxPendingBlocks;
+    @NonNull
+    private final ExecutorService mExecutor;
+    private final ArrayDeque<Future<byte[]>> mPendingBlocks = new ArrayDeque<>();
+    @NonNull
+    private byte[] mBuffer;
+    private int mCount;
+    private boolean mHasWrittenBlock;
+    private boolean mClosed;
+
+    public ParallelCompressorOutputStream(@NonNull OutputStream out, @NonNull @TarUtils.TarType String type,
+                                          int threadCount) {
+        this(out, type, threadCount, DEFAULT_BLOCK_SIZE);
+    }
+
+    public ParallelCompressorOutputStream(@NonNull OutputStream out, @NonNull @TarUtils.TarType String type,
+                                          int threadCount, int blockSize) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("Invalid thread count: " + threadCount);
+        }
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Invalid block size: " + blockSize);
+        }
+        switch (type) {
+            case TarUtils.TAR_GZIP:
+            case TarUtils.TAR_BZIP2:
+            case TarUtils.TAR_ZSTD:
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid compression type: " + type);
+        }
+        mOut = out;
+        mType = type;
+        mBlockSize = blockSize;
+        // Allow the workers to run ahead of the writer by one block each, bounding the memory usage
+        mMaxPendingBlocks = threadCount * 2;
+        mExecutor = Executors.newFixedThreadPool(threadCount);
+        mBuffer = new byte[blockSize];
+    }
+
+    @WorkerThread
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        mBuffer[mCount++] = (byte) b;
+        if (mCount == mBlockSize) {
+            submitBlock();
+        }
+    }
+
+    @WorkerThread
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            int count = Math.min(len, mBlockSize - mCount);
+            System.arraycopy(b, off, mBuffer, mCount, count);
+            mCount += count;
+            off += count;
+            len -= count;
+            if (mCount == mBlockSize) {
+                submitBlock();
+            }
+        }
+    }
+
+    /**
+     * Write all the blocks that have already been compressed. Since each block must be compressed independently,
+     * the partially filled block is not flushed.
+     */
+    @WorkerThread
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        while (!mPendingBlocks.isEmpty() && mPendingBlocks.peekFirst().isDone()) {
+            writeFirstBlock();
+        }
+        mOut.flush();
+    }
+
+    @WorkerThread
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        try {
+            // An empty stream still needs one (empty) compressed block to be valid
+            if (mCount > 0 || !mHasWrittenBlock) {
+                submitBlock();
+            }
+            while (!mPendingBlocks.isEmpty()) {
+                writeFirstBlock();
+            }
+            mOut.flush();
+        } finally {
+            mClosed = true;
+            mExecutor.shutdownNow();
+            mOut.close();
+        }
+    }
+
+    @WorkerThread
+    private void submitBlock() throws IOException {
+        byte[] block = mBuffer;
+        int length = mCount;
+        mPendingBlocks.addLast(mExecutor.submit(() -> compress(mType, block, length)));
+        mHasWrittenBlock = true;
+        mBuffer = new byte[mBlockSize];
+        mCount = 0;
+        // Wait for the oldest block if too many blocks are in flight
+        while (mPendingBlocks.size() >= mMaxPendingBlocks) {
+            writeFirstBlock();
+        }
+    }
+
+    @WorkerThread
+    private void writeFirstBlock() throws IOException {
+        Future<byte[]> future = mPendingBlocks.pollFirst();
+        if (future == null) {
+            return;
+        }
+        try {
+            mOut.write(future.get());
+        } catch (InterruptedException e) {
+            throw (IOException) new InterruptedIOException().initCause(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (mClosed) {
+            throw new IOException("Stream closed.");
+        }
+    }
+
+    @NonNull
+    static byte[] compress(@NonNull @TarUtils.TarType String type, @NonNull byte[] block, int length)
+            throws IOException {
+        // Compressed data is usually smaller than the original data
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.max(length / 2, 64));
+        try (OutputStream os = TarUtils.getCompressorOutputStream(type, bos)) {
+            os.write(block, 0, length);
+        }
+        return bos.toByteArray();
+    }
+}
@@ -0,0 +1,164 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.utils;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * Find which of the given signatures (e.g. tracker or library class name prefixes) a string contains in a single pass
+ * over the string, regardless of the number of signatures. This is an Aho-Corasick automaton where each state also
+ * records the lowest index of the signatures ending at that state or any of its suffixes, so that the result is the
+ * same as testing {@link String#contains(CharSequence)} for each signature in order.
+ * <p>
+ * The automaton is immutable and can be shared between threads.
+ */
+public final class SignatureMatcher {
+    private static final int ROOT = 0;
+
+    // Children of each state sorted by character
+    @NonNull
+    private final char[][] mChildChars;
+    @NonNull
+    private final int[][] mChildStates;
+    @NonNull
+    private final int[] mFailureStates;
+    /**
+     * Lowest index of the signatures matched at each state, or {@link Integer#MAX_VALUE} if none.
+     */
+    @NonNull
+    private final int[] mMatches;
+    private final int mSignatureCount;
+
+    public SignatureMatcher(@NonNull String[] signatures) {
+        mSignatureCount = signatures.length;
+        // Build the trie
+        List<TreeMap<Character, Integer>> children = new ArrayList<>();
+        List<Integer> matches = new ArrayList<>();
+        children.add(new TreeMap<>());
+        matches.add(Integer.MAX_VALUE);
+        for (int i = 0; i < signatures.length; ++i) {
+            String signature = signatures[i];
+            if (signature.isEmpty()) {
+                // Matches everything, same as String#contains("")
+                matches.set(ROOT, Math.min(matches.get(ROOT), i));
+                continue;
+            }
+            int state = ROOT;
+            for (int j = 0; j < signature.length(); ++j) {
+                Integer next = children.get(state).get(signature.charAt(j));
+                if (next == null) {
+                    next = children.size();
+                    children.get(state).put(signature.charAt(j), next);
+                    children.add(new TreeMap<>());
+                    matches.add(Integer.MAX_VALUE);
+                }
+                state = next;
+            }
+            matches.set(state, Math.min(matches.get(state), i));
+        }
+        int stateCount = children.size();
+        mChildChars = new char[stateCount][];
+        mChildStates = new int[stateCount][];
+        mFailureStates = new int[stateCount];
+        mMatches = new int[stateCount];
+        for (int state = 0; state < stateCount; ++state) {
+            TreeMap<Character, Integer> childMap = children.get(state);
+            char[] chars = new char[childMap.size()];
+            int[] states = new int[childMap.size()];
+            int k = 0;
+            for (Map.Entry<Character, Integer> child : childMap.entrySet()) {
+                chars[k] = child.getKey();
+                states[k] = child.getValue();
+                ++k;
+            }
+            mChildChars[state] = chars;
+            mChildStates[state] = states;
+            mMatches[state] = matches.get(state);
+        }
+        // Build the failure links in breadth-first order so that the failure state of a state is always complete
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int child : mChildStates[ROOT]) {
+            mFailureStates[child] = ROOT;
+            mMatches[child] = Math.min(mMatches[child], mMatches[ROOT]);
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            char[] chars = mChildChars[state];
+            int[] states = mChildStates[state];
+            for (int k = 0; k < chars.length; ++k) {
+                int child = states[k];
+                int failure = mFailureStates[state];
+                int next;
+                while ((next = getChild(failure, chars[k])) == -1 && failure != ROOT) {
+                    failure = mFailureStates[failure];
+                }
+                mFailureStates[child] = next != -1 ? next : ROOT;
+                mMatches[child] = Math.min(mMatches[child], mMatches[mFailureStates[child]]);
+                queue.add(child);
+            }
+        }
+    }
+
+    public int getSignatureCount() {
+        return mSignatureCount;
+    }
+
+    /**
+     * Whether the text contains any of the signatures.
+     */
+    public boolean matches(@NonNull CharSequence text) {
+        if (mMatches[ROOT] != Integer.MAX_VALUE) {
+            return true;
+        }
+        int state = ROOT;
+        for (int i = 0, len = text.length(); i < len; ++i) {
+            state = nextState(state, text.charAt(i));
+            if (mMatches[state] != Integer.MAX_VALUE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the first signature, in the order they were given, that the text contains.
+     *
+     * @return Index of the signature, or {@code -1} if the text contains none of the signatures
+     */
+    public int findFirst(@NonNull CharSequence text) {
+        int match = mMatches[ROOT];
+        int state = ROOT;
+        for (int i = 0, len = text.length(); i < len && match != 0; ++i) {
+            state = nextState(state, text.charAt(i));
+            match = Math.min(match, mMatches[state]);
+        }
+        return match != Integer.MAX_VALUE ? match : -1;
+    }
+
+    private int nextState(int state, char c) {
+        while (true) {
+            int next = getChild(state, c);
+            if (next != -1) {
+                return next;
+            }
+            if (state == ROOT) {
+                return ROOT;
+            }
+            state = mFailureStates[state];
+        }
+    }
+
+    private int getChild(int state, char c) {
+        int index = Arrays.binarySearch(mChildChars[state], c);
+        return index >= 0 ? mChildStates[state][index] : -1;
+    }
+}
@@ -2,6 +2,8 @@
 
 package io.github.muntashirakon.AppManager.utils;
 
+import android.system.OsConstants;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.StringDef;
@@ -29,8 +31,10 @@ import java.io.OutputStream;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
+import io.github.muntashirakon.io.FileStat;
 import io.github.muntashirakon.io.IoUtils;
 import io.github.muntashirakon.io.Path;
 import io.github.muntashirakon.io.Paths;
@@ -73,56 +77,130 @@ public final class TarUtils {
                                     @NonNull String destFilePrefix, @Nullable String[] filters,
                                     @Nullable Long splitSize, @Nullable String[] exclude, boolean followLinks)
             throws IOException {
-        try (SplitOutputStream sos = new SplitOutputStream(dest, destFilePrefix, splitSize == null ? DEFAULT_SPLIT_SIZE : splitSize);
+        return create(type, source, new SplitOutputStream(dest, destFilePrefix,
+                splitSize == null ? DEFAULT_SPLIT_SIZE : splitSize), filters, exclude, followLinks, 1);
+    }
+
+    /**
+     * Create a tar file using the given compression method and write it to the given {@link SplitOutputStream}. This
+     * allows the caller to post-process each split (e.g. encryption, checksum generation) in the same pass.
+     *
+     * @param type        Compression type
+     * @param source      Source directory/file
+     * @param sos         Destination stream, closed when the tar file is written
+     * @param filters     A list of mutually exclusive regex filters
+     * @param exclude     A list of mutually exclusive regex patterns to be excluded
+     * @param followLinks Whether to follow the links
+     * @param threadCount Number of threads to use for compression. If more than one, the tar file is compressed in
+     *                    independent blocks using {@link ParallelCompressorOutputStream}.
+     * @return List of added files
+     */
+    @WorkerThread
+    @NonNull
+    public static List<Path> create(@NonNull @TarType String type, @NonNull Path source,
+                                    @NonNull SplitOutputStream sos, @Nullable String[] filters,
+                                    @Nullable String[] exclude, boolean followLinks, int threadCount)
+            throws IOException {
+        return create(type, source, sos, filters, exclude, followLinks, threadCount, null);
+    }
+
+    /**
+     * Same as {@link #create(String, Path, SplitOutputStream, String[], String[], boolean, int)} except that only the
+     * files accepted by {@code fileFilter} are archived. This is useful for creating incremental archives.
+     *
+     * @param fileFilter Applied to every file and directory after {@code filters} and {@code exclude}. All files are
+     *                   archived if it is {@code null}.
+     */
+    @WorkerThread
+    @NonNull
+    public static List<Path> create(@NonNull @TarType String type, @NonNull Path source,
+                                    @NonNull SplitOutputStream sos, @Nullable String[] filters,
+                                    @Nullable String[] exclude, boolean followLinks, int threadCount,
+                                    @Nullable Path.FileFilter fileFilter)
+            throws IOException {
+        try (SplitOutputStream ignore = sos;
              BufferedOutputStream bos = new BufferedOutputStream(sos)) {
             OutputStream os;
-            switch (type) {
-                case TAR_GZIP:
-                    os = new GzipCompressorOutputStream(bos);
-                    break;
-                case TAR_BZIP2:
-                    os = new BZip2CompressorOutputStream(bos);
-                    break;
-                case TAR_ZSTD:
-                    os = new ZstdOutputStream(bos);
-                    break;
-                default:
-                    throw new IllegalArgumentException("Invalid compression type: " + type);
+            if (threadCount > 1) {
+                os = new ParallelCompressorOutputStream(bos, type, threadCount);
+            } else os = getCompressorOutputStream(type, bos);
+            try {
+                archive(source, os, filters, exclude, followLinks, fileFilter);
+            } finally {
+                os.close();
             }
-            try (TarArchiveOutputStream tos = new TarArchiveOutputStream(os)) {
-                tos.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
-                tos.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
-                Path basePath = source.isDirectory() ? source : source.getParent();
-                if (basePath == null) {
-                    basePath = Paths.get("/");
-                }
-                List<Path> files = Paths.getAll(basePath, source, filters, exclude, followLinks);
-                for (Path file : files) {
-                    String relativePath = Paths.relativePath(file, basePath);
-                    if (relativePath.isEmpty() || relativePath.equals("/")) continue;
-                    // For links, check if followLinks is enabled
-                    if (!followLinks && file.isSymbolicLink()) {
-                        // A path can be symbolic link only if it's a file
-                        // Add the link as is
-                        TarArchiveEntry tarEntry = new TarArchiveEntry(relativePath, TarConstants.LF_SYMLINK);
-                        tarEntry.setLinkName(file.getRealFilePath());
-                        tos.putArchiveEntry(tarEntry);
-                    } else {
-                        TarArchiveEntry tarEntry = new TarArchiveEntry(file, relativePath);
-                        tos.putArchiveEntry(tarEntry);
-                        if (!file.isDirectory()) {
-                            try (InputStream is = file.openInputStream()) {
-                                IoUtils.copy(is, tos);
-                            }
+            return sos.getFiles();
+        }
+    }
+
+    /**
+     * Write an uncompressed tar file to the given stream. The stream is closed when the tar file is written.
+     *
+     * @param source      Source directory/file
+     * @param os          Destination stream
+     * @param filters     A list of mutually exclusive regex filters
+     * @param exclude     A list of mutually exclusive regex patterns to be excluded
+     * @param followLinks Whether to follow the links
+     * @param fileFilter  Applied to every file and directory after {@code filters} and {@code exclude}. All files are
+     *                    archived if it is {@code null}.
+     */
+    @WorkerThread
+    public static void archive(@NonNull Path source, @NonNull OutputStream os, @Nullable String[] filters,
+                               @Nullable String[] exclude, boolean followLinks, @Nullable Path.FileFilter fileFilter)
+            throws IOException {
+        try (TarArchiveOutputStream tos = new TarArchiveOutputStream(os)) {
+            tos.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            tos.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+            Path basePath = source.isDirectory() ? source : source.getParent();
+            if (basePath == null) {
+                basePath = Paths.get("/");
+            }
+            String baseDir = basePath.getUri().getPath() + (basePath.isDirectory() ? File.separator : "");
+            // Attributes are available if the files were walked remotely
+            Map<Path, FileStat> files = Paths.getAllWithAttributes(basePath, source, filters, exclude, followLinks);
+            for (Map.Entry<Path, FileStat> fileEntry : files.entrySet()) {
+                Path file = fileEntry.getKey();
+                FileStat stat = fileEntry.getValue();
+                boolean isDirectory = stat != null ? stat.isDirectory() : file.isDirectory();
+                String relativePath = Paths.relativePath(file.getUri().getPath()
+                        + (isDirectory ? File.separator : ""), baseDir);
+                if (relativePath.isEmpty() || relativePath.equals("/")) continue;
+                if (fileFilter != null && !fileFilter.accept(file)) continue;
+                // For links, check if followLinks is enabled
+                if (!followLinks && (stat != null ? OsConstants.S_ISLNK(stat.mode) : file.isSymbolicLink())) {
+                    // A path can be symbolic link only if it's a file
+                    // Add the link as is
+                    TarArchiveEntry tarEntry = new TarArchiveEntry(relativePath, TarConstants.LF_SYMLINK);
+                    tarEntry.setLinkName(file.getRealFilePath());
+                    tos.putArchiveEntry(tarEntry);
+                } else {
+                    TarArchiveEntry tarEntry = stat != null ? new TarArchiveEntry(file, relativePath, stat)
+                            : new TarArchiveEntry(file, relativePath);
+                    tos.putArchiveEntry(tarEntry);
+                    if (!isDirectory) {
+                        try (InputStream is = file.openInputStream()) {
+                            IoUtils.copy(is, tos);
                         }
                     }
-                    tos.closeArchiveEntry();
                 }
-                tos.finish();
-            } finally {
-                os.close();
+                tos.closeArchiveEntry();
             }
-            return sos.getFiles();
+            tos.finish();
+        }
+    }
+
+    @NonNull
+    static OutputStream getCompressorOutputStream(@NonNull @TarType String type, @NonNull OutputStream os)
+            throws IOException {
+        switch (type) {
+            case TAR_GZIP:
+                return new GzipCompressorOutputStream(os);
+            case TAR_BZIP2:
+                return new BZip2CompressorOutputStream(os);
+            case TAR_ZSTD:
+                return new ZstdOutputStream(os);
+            default:
+                throw new IllegalArgumentException("Invalid compression type: " + type);
         }
     }
 
@@ -141,22 +219,6 @@ public final class TarUtils {
                                @Nullable String[] filters, @Nullable String[] exclusions,
                                @Nullable String realDataAppPath)
             throws IOException {
-        // Convert filters into patterns to reduce overheads
-        Pattern[] filterPatterns;
-        if (filters != null) {
-            filterPatterns = new Pattern[filters.length];
-            for (int i = 0; i < filters.length; ++i) {
-                filterPatterns[i] = Pattern.compile(filters[i]);
-            }
-        } else filterPatterns = null;
-        Pattern[] exclusionPatterns;
-        if (exclusions != null) {
-            exclusionPatterns = new Pattern[exclusions.length];
-            for (int i = 0; i < exclusions.length; ++i) {
-                exclusionPatterns[i] = Pattern.compile(exclusions[i]);
-            }
-        } else exclusionPatterns = null;
-        // Run extraction
         try (SplitInputStream sis = new SplitInputStream(sources);
              BufferedInputStream bis = new BufferedInputStream(sis)) {
             InputStream is;
@@ -173,73 +235,104 @@ public final class TarUtils {
                 default:
                     throw new IllegalArgumentException("Invalid compression type: " + type);
             }
-            try (TarArchiveInputStream tis = new TarArchiveInputStream(is)) {
-                String realDestPath = dest.getRealFilePath();
-                TarArchiveEntry entry;
-                while ((entry = tis.getNextEntry()) != null) {
-                    String filename = Paths.normalize(entry.getName());
-                    // Early zip slip vulnerability check to avoid creating any files at all
-                    if (filename == null || filename.startsWith("../")) {
+            extract(is, dest, filters, exclusions, realDataAppPath);
+        }
+    }
+
+    /**
+     * Extract an uncompressed tar file from the given stream. The stream is closed when the tar file is extracted.
+     *
+     * @param is         Uncompressed tar stream
+     * @param dest       Destination directory
+     * @param filters    A list of mutually exclusive regex filters
+     * @param exclusions A list of mutually exclusive regex patterns to be excluded
+     */
+    @WorkerThread
+    public static void extract(@NonNull InputStream is, @NonNull Path dest, @Nullable String[] filters,
+                               @Nullable String[] exclusions, @Nullable String realDataAppPath)
+            throws IOException {
+        // Convert filters into patterns to reduce overheads
+        Pattern[] filterPatterns;
+        if (filters != null) {
+            filterPatterns = new Pattern[filters.length];
+            for (int i = 0; i < filters.length; ++i) {
+                filterPatterns[i] = Pattern.compile(filters[i]);
+            }
+        } else filterPatterns = null;
+        Pattern[] exclusionPatterns;
+        if (exclusions != null) {
+            exclusionPatterns = new Pattern[exclusions.length];
+            for (int i = 0; i < exclusions.length; ++i) {
+                exclusionPatterns[i] = Pattern.compile(exclusions[i]);
+            }
+        } else exclusionPatterns = null;
+        // Run extraction
+        try (TarArchiveInputStream tis = new TarArchiveInputStream(is)) {
+            String realDestPath = dest.getRealFilePath();
+            TarArchiveEntry entry;
+            while ((entry = tis.getNextEntry()) != null) {
+                String filename = Paths.normalize(entry.getName());
+                // Early zip slip vulnerability check to avoid creating any files at all
+                if (filename == null || filename.startsWith("../")) {
+                    throw new IOException("Zip slip vulnerability detected!" +
+                            "\nExpected dest: " + new File(realDestPath, entry.getName()) +
+                            "\nActual path: " + (filename != null ? new File(realDestPath, filename) : realDestPath));
+                }
+                Path file;
+                if (entry.isDirectory()) {
+                    file = dest.createDirectoriesIfRequired(filename);
+                } else file = dest.createNewArbitraryFile(filename, null);
+                if (!entry.isDirectory() && (!Paths.isUnderFilter(file, dest, filterPatterns)
+                        || Paths.willExclude(file, dest, exclusionPatterns))) {
+                    // Unlike create, there's no efficient way to detect if a directory contains any filters.
+                    // Therefore, directory can't be filtered during extraction
+                    file.delete();
+                    continue;
+                }
+                // Check if the given entry is a link.
+                if (entry.isSymbolicLink() && file.getFilePath() != null) {
+                    if ((!Paths.isUnderFilter(file, dest, filterPatterns) || Paths.willExclude(file, dest, exclusionPatterns))) {
+                        // Do not create this link even if it is a directory
+                        continue;
+                    }
+                    String linkName = entry.getLinkName();
+                    // There's no need to check if the linkName exists as it may be extracted
+                    // after the link has been created
+                    // Special check for /data/app
+                    if (linkName.startsWith("/data/app/")) {
+                        linkName = getAbsolutePathToDataApp(linkName, realDataAppPath);
+                    }
+                    file.delete();
+                    if (!file.createNewSymbolicLink(linkName)) {
+                        throw new IOException("Couldn't create symbolic link " + file + " pointing to " + linkName);
+                    }
+                    continue;  // links do not need permission fixes
+                } else {
+                    // Zip slip vulnerability might still be present
+                    String realFilePath = file.getRealFilePath();
+                    if (realDestPath != null && realFilePath != null && !realFilePath.startsWith(realDestPath)) {
                         throw new IOException("Zip slip vulnerability detected!" +
                                 "\nExpected dest: " + new File(realDestPath, entry.getName()) +
-                                "\nActual path: " + (filename != null ? new File(realDestPath, filename) : realDestPath));
+                                "\nActual path: " + realFilePath);
                     }
-                    Path file;
-                    if (entry.isDirectory()) {
-                        file = dest.createDirectoriesIfRequired(filename);
-                    } else file = dest.createNewArbitraryFile(filename, null);
-                    if (!entry.isDirectory() && (!Paths.isUnderFilter(file, dest, filterPatterns)
-                            || Paths.willExclude(file, dest, exclusionPatterns))) {
-                        // Unlike create, there's no efficient way to detect if a directory contains any filters.
-                        // Therefore, directory can't be filtered during extraction
-                        file.delete();
-                        continue;
-                    }
-                    // Check if the given entry is a link.
-                    if (entry.isSymbolicLink() && file.getFilePath() != null) {
-                        if ((!Paths.isUnderFilter(file, dest, filterPatterns) || Paths.willExclude(file, dest, exclusionPatterns))) {
-                            // Do not create this link even if it is a directory
-                            continue;
-                        }
-                        String linkName = entry.getLinkName();
-                        // There's no need to check if the linkName exists as it may be extracted
-                        // after the link has been created
-                        // Special check for /data/app
-                        if (linkName.startsWith("/data/app/")) {
-                            linkName = getAbsolutePathToDataApp(linkName, realDataAppPath);
-                        }
-                        file.delete();
-                        if (!file.createNewSymbolicLink(linkName)) {
-                            throw new IOException("Couldn't create symbolic link " + file + " pointing to " + linkName);
-                        }
-                        continue;  // links do not need permission fixes
-                    } else {
-                        // Zip slip vulnerability might still be present
-                        String realFilePath = file.getRealFilePath();
-                        if (realDestPath != null && realFilePath != null && !realFilePath.startsWith(realDestPath)) {
-                            throw new IOException("Zip slip vulnerability detected!" +
-                                    "\nExpected dest: " + new File(realDestPath, entry.getName()) +
-                                    "\nActual path: " + realFilePath);
-                        }
-                        if (!entry.isDirectory()) {
-                            try (OutputStream os = file.openOutputStream()) {
-                                IoUtils.copy(tis, os);
-                            }
+                    if (!entry.isDirectory()) {
+                        try (OutputStream os = file.openOutputStream()) {
+                            IoUtils.copy(tis, os);
                         }
                     }
-                    // Fix permissions
-                    TarArchiveEntry finalEntry = entry;
-                    ExUtils.exceptionAsIgnored(() -> Paths.setPermissions(file, finalEntry.getMode(),
-                            finalEntry.getUserId(), finalEntry.getGroupId()));
-                    // Restore timestamp
-                    long modificationTime = entry.getModTime().getTime();
-                    if (modificationTime > 0) { // Backward-compatibility
-                        file.setLastModified(entry.getModTime().getTime());
-                    }
                 }
-            } finally {
-                is.close();
+                // Fix permissions
+                TarArchiveEntry finalEntry = entry;
+                ExUtils.exceptionAsIgnored(() -> Paths.setPermissions(file, finalEntry.getMode(),
+                        finalEntry.getUserId(), finalEntry.getGroupId()));
+                // Restore timestamp
+                long modificationTime = entry.getModTime().getTime();
+                if (modificationTime > 0) { // Backward-compatibility
+                    file.setLastModified(entry.getModTime().getTime());
+                }
             }
+        } finally {
+            is.close();
         }
     }
 
@@ -8,6 +8,7 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.provider.DocumentsContract;
 import android.system.OsConstants;
+import android.webkit.MimeTypeMap;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -18,16 +19,30 @@ import androidx.documentfile.provider.ExtendedRawDocumentFile;
 import androidx.documentfile.provider.VirtualDocumentFile;
 
 import java.io.IOException;
-
-import io.github.muntashirakon.AppManager.utils.ExUtils;
+import java.util.Locale;
 
 class PathAttributesImpl extends PathAttributes {
     @NonNull
     public static PathAttributesImpl fromFile(@NonNull ExtendedRawDocumentFile file) {
-        ExtendedFile f = file.getFile();
-        int mode = ExUtils.requireNonNullElse(f::getMode, 0);
-        return new PathAttributesImpl(f.getName(), file.getType(), f.lastModified(), f.lastAccess(), f.creationTime(),
-                OsConstants.S_ISREG(mode), OsConstants.S_ISDIR(mode), OsConstants.S_ISLNK(mode), f.length());
+        // Fetch all the attributes at once rather than one at a time
+        return fromFileStat(file.getFile().stat(FileStat.STAT_BASIC));
+    }
+
+    @NonNull
+    public static PathAttributesImpl fromFileStat(@NonNull FileStat stat) {
+        String type = null;
+        if (stat.isDirectory()) {
+            type = "resource/folder";
+        } else if (stat.isFile()) {
+            int lastDot = stat.name.lastIndexOf('.');
+            if (lastDot >= 0) {
+                String extension = stat.name.substring(lastDot + 1).toLowerCase(Locale.ROOT);
+                type = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
+            }
+        }
+        return new PathAttributesImpl(stat.name, type, stat.lastModified, stat.lastAccess, stat.creationTime,
+                OsConstants.S_ISREG(stat.mode), OsConstants.S_ISDIR(stat.mode), OsConstants.S_ISLNK(stat.mode),
+                stat.size);
     }
 
     @NonNull
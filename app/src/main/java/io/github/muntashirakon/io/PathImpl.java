@@ -40,8 +40,11 @@ import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 import io.github.muntashirakon.AppManager.compat.StorageManagerCompat;
@@ -235,7 +238,7 @@ class PathImpl extends Path {
         documentFile = DocumentFileUtils.newTreeDocumentFile(parentDocumentFile, context, documentUri);
     }
 
-    private PathImpl(@NonNull Context context, @NonNull DocumentFile documentFile) {
+    /* package */ PathImpl(@NonNull Context context, @NonNull DocumentFile documentFile) {
         super(context, null);
         if (documentFile instanceof ExtendedRawDocumentFile) {
             ExtendedFile file = ((ExtendedRawDocumentFile) documentFile).getFile();
@@ -1157,6 +1160,35 @@ class PathImpl extends Path {
         return paths.toArray(new Path[0]);
     }
 
+    @NonNull
+    public Map<Path, PathAttributes> listFilesWithAttributes() {
+        DocumentFile documentFile = getRealDocumentFile(this.documentFile);
+        if (documentFile instanceof ExtendedRawDocumentFile
+                && ((ExtendedRawDocumentFile) documentFile).getFile() instanceof RemoteFile
+                && VirtualFileSystem.getFileSystemsAtUri(documentFile.getUri()).length == 0) {
+            // Fetch the files and their attributes in a single call. Only remote files are fetched this way since
+            // local files may need to be replaced with overlays.
+            ExtendedRawDocumentFile rawDocumentFile = (ExtendedRawDocumentFile) documentFile;
+            ExtendedFile file = rawDocumentFile.getFile();
+            FileStat[] stats = file.listWithAttributes(FileStat.STAT_BASIC);
+            if (stats == null) {
+                return Collections.emptyMap();
+            }
+            Map<Path, PathAttributes> paths = new LinkedHashMap<>(stats.length);
+            for (FileStat stat : stats) {
+                DocumentFile child = new ExtendedRawDocumentFile(rawDocumentFile, file.getChildFile(stat.name));
+                paths.put(new PathImpl(context, child), PathAttributesImpl.fromFileStat(stat));
+            }
+            return paths;
+        }
+        Path[] ss = listFiles();
+        Map<Path, PathAttributes> paths = new LinkedHashMap<>(ss.length);
+        for (Path s : ss) {
+            paths.put(s, null);
+        }
+        return paths;
+    }
+
     @NonNull
     public String[] listFileNames(@Nullable FilenameFilter filter) {
         Path[] ss = listFiles();
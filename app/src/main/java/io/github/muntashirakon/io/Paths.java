@@ -3,6 +3,7 @@
 package io.github.muntashirakon.io;
 
 import android.content.ContentResolver;
+import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.RemoteException;
@@ -16,19 +17,25 @@ import androidx.annotation.IntDef;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
+import androidx.documentfile.provider.ExtendedRawDocumentFile;
 
 import org.jetbrains.annotations.Contract;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Stack;
 import java.util.regex.Pattern;
 
+import io.github.muntashirakon.AppManager.logs.Log;
 import io.github.muntashirakon.AppManager.utils.ContextUtils;
 import io.github.muntashirakon.AppManager.utils.ThreadUtils;
 import io.github.muntashirakon.io.fs.VirtualFileSystem;
@@ -514,6 +521,36 @@ public final class Paths {
         if (root == null) {
             return 0;
         }
+        ExtendedFile file = root.getFile();
+        if (file instanceof RemoteFile && !VirtualFileSystem.hasFileSystemsUnder(root.getUri())) {
+            // Walk the tree in the remote process instead of fetching each file
+            try {
+                return remoteSize((RemoteFile) file);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not walk " + root + " remotely", e);
+            }
+        }
+        return localSize(root);
+    }
+
+    private static long remoteSize(@NonNull RemoteFile root) throws IOException {
+        long[] length = new long[1];
+        try {
+            root.walk(null, null, null, false, (path, stat) -> {
+                if (stat.isFile()) {
+                    length[0] += stat.size;
+                }
+                if (ThreadUtils.isInterrupted()) {
+                    // Size could be too long
+                    throw new InterruptedIOException();
+                }
+            });
+        } catch (InterruptedIOException ignore) {
+        }
+        return length[0];
+    }
+
+    private static long localSize(@NonNull Path root) {
         if (root.isFile()) {
             return root.length();
         }
@@ -531,7 +568,7 @@ public final class Paths {
                 // Size could be too long
                 return length;
             }
-            length += size(file);
+            length += localSize(file);
         }
         return length;
     }
@@ -599,7 +636,53 @@ public final class Paths {
     @NonNull
     public static List<Path> getAll(@Nullable Path base, @NonNull Path source, @Nullable String[] filters,
                                     @Nullable String[] exclusions, boolean followLinks) {
+        return new ArrayList<>(getAllWithAttributes(base, source, filters, exclusions, followLinks).keySet());
+    }
+
+    /**
+     * Same as {@link #getAll(Path, Path, String[], String[], boolean)}, but also returns the attributes of the files
+     * if they can be fetched along with the files. This is the case for the files accessed via the privileged file
+     * system, where the whole tree is walked by the file system service instead of fetching each file one by one.
+     *
+     * @return Files and directories inside {@code source} (inclusive) mapped to their attributes. An attribute is
+     * {@code null} if it could not be fetched along with the file.
+     */
+    @NonNull
+    public static Map<Path, FileStat> getAllWithAttributes(@Nullable Path base, @NonNull Path source,
+                                                           @Nullable String[] filters, @Nullable String[] exclusions,
+                                                           boolean followLinks) {
         Objects.requireNonNull(source);
+        ExtendedFile file = source.getFile();
+        if (file instanceof RemoteFile && !VirtualFileSystem.hasFileSystemsUnder(source.getUri())) {
+            // Mounted file systems have to be walked locally
+            String baseDir = base == null ? null : base.getUri().getPath() + (base.isDirectory() ? File.separator : "");
+            try {
+                return getAllRemote((RemoteFile) file, baseDir, filters, exclusions, followLinks);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not walk " + source + " remotely", e);
+            }
+        }
+        Map<Path, FileStat> allFiles = new LinkedHashMap<>();
+        for (Path path : getAllLocal(base, source, filters, exclusions, followLinks)) {
+            allFiles.put(path, null);
+        }
+        return allFiles;
+    }
+
+    @NonNull
+    private static Map<Path, FileStat> getAllRemote(@NonNull RemoteFile source, @Nullable String baseDir,
+                                                    @Nullable String[] filters, @Nullable String[] exclusions,
+                                                    boolean followLinks) throws IOException {
+        Context context = ContextUtils.getContext();
+        Map<Path, FileStat> allFiles = new LinkedHashMap<>();
+        source.walk(baseDir, filters, exclusions, followLinks, (path, stat) ->
+                allFiles.put(new PathImpl(context, new ExtendedRawDocumentFile(source.create(path))), stat));
+        return allFiles;
+    }
+
+    @NonNull
+    private static List<Path> getAllLocal(@Nullable Path base, @NonNull Path source, @Nullable String[] filters,
+                                          @Nullable String[] exclusions, boolean followLinks) {
         // Convert filters into patterns to reduce overheads
         Pattern[] filterPatterns;
         if (filters != null) {
@@ -724,26 +807,6 @@ public final class Paths {
     @VisibleForTesting
     @NonNull
     public static String relativePath(@NonNull String targetPath, @NonNull String baseDir, @NonNull String separator) {
-        String[] base = baseDir.split(Pattern.quote(separator));
-        String[] target = targetPath.split(Pattern.quote(separator));
-
-        // Count common elements and their length
-        int commonCount = 0, commonLength = 0, maxCount = Math.min(target.length, base.length);
-        while (commonCount < maxCount) {
-            String targetElement = target[commonCount];
-            if (!targetElement.equals(base[commonCount])) break;
-            commonCount++;
-            commonLength += targetElement.length() + 1; // Directory name length plus slash
-        }
-        if (commonCount == 0) return targetPath; // No common path element
-
-        int targetLength = targetPath.length();
-        int dirsUp = base.length - commonCount;
-        StringBuilder relative = new StringBuilder(dirsUp * 3 + targetLength - commonLength + 1);
-        for (int i = 0; i < dirsUp; i++) {
-            relative.append("..").append(separator);
-        }
-        if (commonLength < targetLength) relative.append(targetPath.substring(commonLength));
-        return relative.toString();
+        return FileTreeWalker.relativePath(targetPath, baseDir, separator);
     }
 }
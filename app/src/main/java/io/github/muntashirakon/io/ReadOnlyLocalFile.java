@@ -90,6 +90,20 @@ class ReadOnlyLocalFile extends LocalFile {
         }
     }
 
+    @SuppressWarnings("OctalInteger")
+    @NonNull
+    @Override
+    public FileStat stat(int mask) {
+        FileStat stat = super.stat(mask);
+        if (stat.exists()) {
+            return stat;
+        }
+        // Folder + read-only
+        stat = new FileStat(getName(), 0);
+        stat.mode = stat.targetMode = 0040444;
+        return stat;
+    }
+
     @Override
     public UidGidPair getUidGid() {
         try {
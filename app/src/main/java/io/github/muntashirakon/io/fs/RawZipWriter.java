@@ -0,0 +1,301 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.io.fs;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.apksig.internal.zip.CentralDirectoryRecord;
+import com.android.apksig.internal.zip.LocalFileRecord;
+import com.android.apksig.internal.zip.ZipUtils;
+import com.android.apksig.util.DataSinks;
+import com.android.apksig.util.DataSource;
+import com.android.apksig.zip.ZipFormatException;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+import io.github.muntashirakon.AppManager.apk.signing.ZipAlign;
+import io.github.muntashirakon.io.IoUtils;
+
+/**
+ * A minimal ZIP writer that copies the entries of an existing ZIP file as is, i.e. without decompressing and
+ * compressing them again, and only compresses the new entries. The data of the uncompressed entries are aligned the
+ * same way as {@link ZipAlign} (4 bytes, and 4096 bytes for shared libraries), so that an APK file remains aligned.
+ * <p>
+ * ZIP64 is not supported, {@link ZipException} is thrown if the file would require it.
+ */
+class RawZipWriter implements Closeable {
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int LOCAL_FILE_HEADER_SIZE = 30;
+    private static final int VERSION = 20;
+
+    private static final int GP_FLAG_DATA_DESCRIPTOR = 1 << 3;
+    private static final int GP_FLAG_UTF8 = 1 << 11;
+    private static final int EXTERNAL_ATTR_DIRECTORY = 0x10;
+
+    private static final int ALIGNMENT_PAGE = 4096;
+
+    private static final class CentralDirectoryEntry {
+        byte[] name;
+        int gpFlags;
+        int method;
+        int time;
+        int date;
+        long crc;
+        long compressedSize;
+        long uncompressedSize;
+        long localFileHeaderOffset;
+    }
+
+    @NonNull
+    private final OutputStream mOs;
+    private final List<CentralDirectoryEntry> mEntries = new ArrayList<>();
+    private final byte[] mBuffer = new byte[IoUtils.DEFAULT_BUFFER_SIZE];
+    private long mOffset = 0;
+
+    public RawZipWriter(@NonNull OutputStream os) {
+        mOs = new BufferedOutputStream(os);
+    }
+
+    /**
+     * Copy an entry from another ZIP file without decompressing it.
+     *
+     * @param name       Name of the entry in this file, which can be different from the original name
+     * @param lfhSection The section of the other ZIP file containing the local file records, i.e. the file up to its
+     *                   central directory
+     * @param cdRecord   The central directory record of the entry in the other ZIP file
+     */
+    public void copyEntry(@NonNull String name, @NonNull DataSource lfhSection, @NonNull CentralDirectoryRecord cdRecord)
+            throws IOException {
+        LocalFileRecord localFileRecord;
+        try {
+            localFileRecord = LocalFileRecord.getRecord(lfhSection, cdRecord, lfhSection.size());
+        } catch (ZipFormatException e) {
+            throw new ZipException(e.getMessage());
+        }
+        long dataStartOffset = localFileRecord.getStartOffsetInArchive() + localFileRecord.getDataStartOffsetInRecord();
+        CentralDirectoryEntry entry = new CentralDirectoryEntry();
+        entry.name = name.getBytes(StandardCharsets.UTF_8);
+        // The data descriptor is not needed since the sizes are known beforehand
+        entry.gpFlags = (cdRecord.getGpFlags() & ~(GP_FLAG_DATA_DESCRIPTOR | GP_FLAG_UTF8)) | getUtf8Flag(name);
+        entry.method = cdRecord.getCompressionMethod();
+        entry.time = cdRecord.getLastModificationTime();
+        entry.date = cdRecord.getLastModificationDate();
+        entry.crc = cdRecord.getCrc32();
+        entry.compressedSize = cdRecord.getCompressedSize();
+        entry.uncompressedSize = cdRecord.getUncompressedSize();
+        int alignment = entry.method == ZipUtils.COMPRESSION_METHOD_STORED && !name.endsWith("/")
+                ? getAlignment(name) : 1;
+        writeLocalFileHeader(entry, alignment);
+        lfhSection.feed(dataStartOffset, entry.compressedSize, DataSinks.asDataSink(mOs));
+        mOffset += entry.compressedSize;
+        mEntries.add(entry);
+    }
+
+    /**
+     * Add a new entry with the contents of the given file, which is compressed using the best compression.
+     *
+     * @param name Name of the entry, must end with a {@code /} if it is a directory
+     * @param file The contents of the entry or {@code null} if it is an empty file or a directory
+     * @param time Modification time of the entry in milliseconds
+     */
+    public void putEntry(@NonNull String name, @Nullable File file, long time) throws IOException {
+        boolean isDirectory = name.endsWith("/");
+        CentralDirectoryEntry entry = new CentralDirectoryEntry();
+        entry.name = name.getBytes(StandardCharsets.UTF_8);
+        entry.gpFlags = getUtf8Flag(name);
+        entry.method = isDirectory ? ZipUtils.COMPRESSION_METHOD_STORED : ZipUtils.COMPRESSION_METHOD_DEFLATED;
+        int[] dosTime = toDosTime(time);
+        entry.date = dosTime[0];
+        entry.time = dosTime[1];
+        if (isDirectory) {
+            writeLocalFileHeader(entry, 1);
+            mEntries.add(entry);
+            return;
+        }
+        // The sizes and checksum are only known after compressing the file, which are written after the data
+        entry.gpFlags |= GP_FLAG_DATA_DESCRIPTOR;
+        writeLocalFileHeader(entry, 1);
+        CRC32 crc32 = new CRC32();
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try (InputStream is = file != null ? new FileInputStream(file) : null) {
+            byte[] compressed = new byte[IoUtils.DEFAULT_BUFFER_SIZE];
+            int len;
+            while (is != null && (len = is.read(mBuffer)) != -1) {
+                crc32.update(mBuffer, 0, len);
+                deflater.setInput(mBuffer, 0, len);
+                while (!deflater.needsInput()) {
+                    writeCompressed(deflater, compressed);
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                writeCompressed(deflater, compressed);
+            }
+            entry.crc = crc32.getValue();
+            entry.compressedSize = deflater.getBytesWritten();
+            entry.uncompressedSize = deflater.getBytesRead();
+        } finally {
+            deflater.end();
+        }
+        checkZip32(entry.compressedSize);
+        checkZip32(entry.uncompressedSize);
+        writeInt(DATA_DESCRIPTOR_SIGNATURE);
+        writeInt(entry.crc);
+        writeInt(entry.compressedSize);
+        writeInt(entry.uncompressedSize);
+        mEntries.add(entry);
+    }
+
+    /**
+     * Write the central directory and close the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (mEntries.size() > 0xffff) {
+                throw new ZipException("Too many entries: " + mEntries.size());
+            }
+            long centralDirectoryOffset = mOffset;
+            for (CentralDirectoryEntry entry : mEntries) {
+                writeInt(CENTRAL_DIRECTORY_SIGNATURE);
+                writeShort(VERSION); // Version made by
+                writeShort(VERSION); // Version needed to extract
+                writeShort(entry.gpFlags);
+                writeShort(entry.method);
+                writeShort(entry.time);
+                writeShort(entry.date);
+                writeInt(entry.crc);
+                writeInt(entry.compressedSize);
+                writeInt(entry.uncompressedSize);
+                writeShort(entry.name.length);
+                writeShort(0); // Extra field length
+                writeShort(0); // Comment length
+                writeShort(0); // Disk number
+                writeShort(0); // Internal attributes
+                writeInt(entry.name[entry.name.length - 1] == '/' ? EXTERNAL_ATTR_DIRECTORY : 0);
+                writeInt(entry.localFileHeaderOffset);
+                writeBytes(entry.name);
+            }
+            long centralDirectorySize = mOffset - centralDirectoryOffset;
+            checkZip32(mOffset);
+            writeInt(EOCD_SIGNATURE);
+            writeShort(0); // Disk number
+            writeShort(0); // Disk containing the central directory
+            writeShort(mEntries.size());
+            writeShort(mEntries.size());
+            writeInt(centralDirectorySize);
+            writeInt(centralDirectoryOffset);
+            writeShort(0); // Comment length
+            mOs.flush();
+        } finally {
+            mOs.close();
+        }
+    }
+
+    private void writeLocalFileHeader(@NonNull CentralDirectoryEntry entry, int alignment) throws IOException {
+        checkZip32(mOffset);
+        entry.localFileHeaderOffset = mOffset;
+        boolean hasDataDescriptor = (entry.gpFlags & GP_FLAG_DATA_DESCRIPTOR) != 0;
+        // Pad the extra field so that the data starts at the alignment boundary
+        long dataStartOffset = mOffset + LOCAL_FILE_HEADER_SIZE + entry.name.length;
+        int padding = (int) ((alignment - dataStartOffset % alignment) % alignment);
+        writeInt(LOCAL_FILE_HEADER_SIGNATURE);
+        writeShort(VERSION);
+        writeShort(entry.gpFlags);
+        writeShort(entry.method);
+        writeShort(entry.time);
+        writeShort(entry.date);
+        writeInt(hasDataDescriptor ? 0 : entry.crc);
+        writeInt(hasDataDescriptor ? 0 : entry.compressedSize);
+        writeInt(hasDataDescriptor ? 0 : entry.uncompressedSize);
+        writeShort(entry.name.length);
+        writeShort(padding);
+        writeBytes(entry.name);
+        writeBytes(new byte[padding]);
+    }
+
+    private void writeCompressed(@NonNull Deflater deflater, @NonNull byte[] buffer) throws IOException {
+        int len = deflater.deflate(buffer);
+        if (len > 0) {
+            mOs.write(buffer, 0, len);
+            mOffset += len;
+        }
+    }
+
+    private void writeShort(int value) throws IOException {
+        mOs.write(value & 0xff);
+        mOs.write((value >>> 8) & 0xff);
+        mOffset += 2;
+    }
+
+    private void writeInt(long value) throws IOException {
+        mOs.write((int) (value & 0xff));
+        mOs.write((int) ((value >>> 8) & 0xff));
+        mOs.write((int) ((value >>> 16) & 0xff));
+        mOs.write((int) ((value >>> 24) & 0xff));
+        mOffset += 4;
+    }
+
+    private void writeBytes(@NonNull byte[] bytes) throws IOException {
+        mOs.write(bytes);
+        mOffset += bytes.length;
+    }
+
+    private static void checkZip32(long value) throws ZipException {
+        if (value > 0xffffffffL) {
+            throw new ZipException("ZIP64 is required");
+        }
+    }
+
+    private static int getUtf8Flag(@NonNull String name) {
+        for (int i = 0; i < name.length(); ++i) {
+            if (name.charAt(i) > 0x7f) {
+                return GP_FLAG_UTF8;
+            }
+        }
+        return 0;
+    }
+
+    private static int getAlignment(@NonNull String name) {
+        if (name.startsWith("lib/") && name.endsWith(".so")) {
+            return ALIGNMENT_PAGE;
+        }
+        return ZipAlign.ALIGNMENT_4;
+    }
+
+    /**
+     * @return The date and the time in MS-DOS format
+     */
+    @NonNull
+    private static int[] toDosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            // 1980-01-01 00:00:00
+            return new int[]{(1 << 5) | 1, 0};
+        }
+        int date = ((year - 1980) << 9) | ((calendar.get(Calendar.MONTH) + 1) << 5)
+                | calendar.get(Calendar.DAY_OF_MONTH);
+        int dosTime = (calendar.get(Calendar.HOUR_OF_DAY) << 11) | (calendar.get(Calendar.MINUTE) << 5)
+                | (calendar.get(Calendar.SECOND) >> 1);
+        return new int[]{date, dosTime};
+    }
+}
@@ -288,6 +288,27 @@ public abstract class VirtualFileSystem {
         return fs;
     }
 
+    /**
+     * Whether any file system is mounted at or under the given URI.
+     */
+    public static boolean hasFileSystemsUnder(@NonNull Uri parentUri) {
+        String parentPath = Objects.requireNonNull(parentUri.getPath());
+        String parentDir = parentPath.endsWith(File.separator) ? parentPath : parentPath + File.separator;
+        synchronized (sUriVfsIdsMap) {
+            for (Uri mountPoint : sUriVfsIdsMap.keySet()) {
+                if (!Objects.equals(mountPoint.getScheme(), parentUri.getScheme())
+                        || !Objects.equals(mountPoint.getAuthority(), parentUri.getAuthority())) {
+                    continue;
+                }
+                String path = mountPoint.getPath();
+                if (path != null && (path.equals(parentPath) || path.startsWith(parentDir))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /* Static members ends */
 
     public interface OnFileSystemUnmounted {
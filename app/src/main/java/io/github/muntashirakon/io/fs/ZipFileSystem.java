@@ -9,6 +9,13 @@ import android.util.LruCache;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.android.apksig.apk.ApkFormatException;
+import com.android.apksig.apk.ApkUtils;
+import com.android.apksig.internal.zip.CentralDirectoryRecord;
+import com.android.apksig.internal.zip.ZipUtils;
+import com.android.apksig.util.DataSource;
+import com.android.apksig.util.DataSources;
+import com.android.apksig.zip.ZipFormatException;
 import com.j256.simplemagic.ContentType;
 
 import java.io.File;
@@ -17,6 +24,7 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -27,9 +35,11 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
+import io.github.muntashirakon.AppManager.logs.Log;
 import io.github.muntashirakon.AppManager.self.filecache.FileCache;
 import io.github.muntashirakon.AppManager.utils.DigestUtils;
 import io.github.muntashirakon.io.IoUtils;
@@ -37,6 +47,7 @@ import io.github.muntashirakon.io.Path;
 import io.github.muntashirakon.io.Paths;
 
 class ZipFileSystem extends VirtualFileSystem {
+    public static final String TAG = ZipFileSystem.class.getSimpleName();
     public static final String TYPE = ContentType.ZIP.getMimeType();
 
     private static class VirtualZipEntry extends ZipEntry {
@@ -140,6 +151,63 @@ class ZipFileSystem extends VirtualFileSystem {
                 }
             }
         }
+        try {
+            writeZipFileRaw(file, zipEntries);
+        } catch (ZipException e) {
+            // Unsupported archive (e.g. ZIP64), compress everything again
+            Log.w(TAG, "Could not copy entries of %s, rebuilding the archive", e, getFile());
+            writeZipFile(file, zipEntries);
+        }
+        return file;
+    }
+
+    /**
+     * Write the entries to the given file by copying the unmodified entries as is from the current ZIP file, and
+     * compressing only the new and modified entries.
+     *
+     * @throws ZipException If the current ZIP file cannot be copied this way, e.g. it is a ZIP64 file
+     */
+    private void writeZipFileRaw(@NonNull File file, @NonNull Map<String, ZipEntry> zipEntries) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(Objects.requireNonNull(getFile().getFile()), "r")) {
+            DataSource zip = DataSources.asDataSource(raf);
+            DataSource lfhSection;
+            Map<String, CentralDirectoryRecord> cdRecords = new HashMap<>();
+            try {
+                ApkUtils.ZipSections zipSections = ApkUtils.findZipSections(zip);
+                lfhSection = zip.slice(0, zipSections.getZipCentralDirectoryOffset());
+                for (CentralDirectoryRecord cdRecord : ZipUtils.parseZipCentralDirectory(zip, zipSections)) {
+                    cdRecords.put(cdRecord.getName(), cdRecord);
+                }
+            } catch (ZipFormatException | ApkFormatException e) {
+                throw (ZipException) new ZipException(e.getMessage()).initCause(e);
+            }
+            try (RawZipWriter writer = new RawZipWriter(new FileOutputStream(file))) {
+                List<String> paths = new ArrayList<>(zipEntries.keySet());
+                Collections.sort(paths);
+                for (String path : paths) {
+                    ZipEntry zipEntry = zipEntries.get(path);
+                    if (zipEntry == null) continue;
+                    if (zipEntry instanceof VirtualZipEntry) {
+                        // Our custom zip files
+                        long time = zipEntry.getTime() != -1 ? zipEntry.getTime() : System.currentTimeMillis();
+                        writer.putEntry(zipEntry.getName(), ((VirtualZipEntry) zipEntry).getCachedFile(), time);
+                        continue;
+                    }
+                    // Not our custom files, copy the compressed data with the new name
+                    CentralDirectoryRecord cdRecord = cdRecords.get(zipEntry.getName());
+                    if (cdRecord == null) {
+                        throw new ZipException("Central directory record not found for " + zipEntry.getName());
+                    }
+                    writer.copyEntry(getZipEntryName(path, zipEntry), lfhSection, cdRecord);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the entries to the given file by compressing all of them again.
+     */
+    private void writeZipFile(@NonNull File file, @NonNull Map<String, ZipEntry> zipEntries) throws IOException {
         try (FileOutputStream os = new FileOutputStream(file);
              ZipOutputStream zos = new ZipOutputStream(os)) {
             zos.setMethod(ZipOutputStream.DEFLATED);
@@ -180,7 +248,6 @@ class ZipFileSystem extends VirtualFileSystem {
                 }
             }
         }
-        return file;
     }
 
     @NonNull
@@ -215,11 +282,7 @@ class ZipFileSystem extends VirtualFileSystem {
 
     @NonNull
     private ZipEntry getZipEntry(@NonNull String path, @NonNull ZipEntry zipEntry) {
-        String name = Paths.sanitize(File.separator + path, false);
-        if (zipEntry.isDirectory()) {
-            name += File.separator;
-        }
-        ZipEntry zipEntry1 = new VirtualZipEntry(name);
+        ZipEntry zipEntry1 = new VirtualZipEntry(getZipEntryName(path, zipEntry));
         zipEntry1.setMethod(ZipEntry.DEFLATED);
         zipEntry1.setSize(zipEntry.getSize());
         zipEntry1.setCrc(zipEntry.getCrc());
@@ -229,6 +292,15 @@ class ZipFileSystem extends VirtualFileSystem {
         return zipEntry1;
     }
 
+    @NonNull
+    private static String getZipEntryName(@NonNull String path, @NonNull ZipEntry zipEntry) {
+        String name = Paths.sanitize(File.separator + path, false);
+        if (zipEntry.isDirectory()) {
+            name += File.separator;
+        }
+        return name;
+    }
+
     @Nullable
     @Override
     protected Node<?> getNode(String path) {
@@ -23,6 +23,7 @@ import java.util.List;
 import java.util.Map;
 
 import io.github.muntashirakon.io.ExtendedFile;
+import io.github.muntashirakon.io.FileStat;
 import io.github.muntashirakon.io.Path;
 import io.github.muntashirakon.io.Paths;
 import io.github.muntashirakon.io.UidGidPair;
@@ -459,6 +460,40 @@ public class TarArchiveEntry implements ArchiveEntry, TarConstants, EntryStreamO
         preserveAbsolutePath = false;
     }
 
+    /**
+     * Construct an entry for a file whose attributes are already known. File is set to file, and the header is
+     * constructed from the given attributes instead of fetching them from the file.
+     *
+     * @param file     The file that the entry represents.
+     * @param fileName the name to be used for the entry.
+     * @param stat     The attributes of the file
+     * @see #TarArchiveEntry(Path, String)
+     */
+    public TarArchiveEntry(@NonNull final Path file, final String fileName, @NonNull final FileStat stat) {
+        final String normalizedName = normalizeFileName(fileName, false);
+        this.path = file;
+        this.file = null;
+        if (stat.isDirectory()) {
+            this.linkFlag = LF_DIR;
+            final int nameLength = normalizedName.length();
+            if (nameLength == 0 || normalizedName.charAt(nameLength - 1) != '/') {
+                this.name = normalizedName + "/";
+            } else {
+                this.name = normalizedName;
+            }
+        } else {
+            this.linkFlag = LF_NORMAL;
+            this.name = normalizedName;
+            this.size = stat.size;
+        }
+        this.mode = stat.mode;
+        this.userId = stat.uid;
+        this.groupId = stat.gid;
+        this.modTime = stat.lastModified / MILLIS_PER_SECOND;
+        this.userName = "";
+        preserveAbsolutePath = false;
+    }
+
     private void readFileMode(@NonNull final Path file, final String normalizedName)
             throws IOException, ErrnoException, RemoteException {
         if (file.isDirectory()) {
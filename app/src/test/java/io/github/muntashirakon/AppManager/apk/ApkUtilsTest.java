@@ -0,0 +1,101 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.apk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.android.apksig.util.DataSource;
+import com.android.apksig.util.DataSources;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import io.github.muntashirakon.io.IoUtils;
+
+@RunWith(RobolectricTestRunner.class)
+public class ApkUtilsTest {
+    private final ClassLoader classLoader = getClass().getClassLoader();
+    private File deflatedBundle;
+    private File storedBundle;
+
+    @Before
+    public void setUp() throws IOException {
+        assert classLoader != null;
+        deflatedBundle = new File(classLoader.getResource("AppManager_v2.5.22.apks").getFile());
+        // The bundle in the resources has compressed APK files, store them instead
+        storedBundle = new File("/tmp", "AppManager_v2.5.22_stored.apks");
+        try (ZipFile zipFile = new ZipFile(deflatedBundle);
+             ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(storedBundle))) {
+            Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+            while (zipEntries.hasMoreElements()) {
+                ZipEntry zipEntry = zipEntries.nextElement();
+                byte[] bytes;
+                try (InputStream is = zipFile.getInputStream(zipEntry)) {
+                    bytes = IoUtils.readFully(is, -1, true);
+                }
+                CRC32 crc32 = new CRC32();
+                crc32.update(bytes);
+                ZipEntry storedEntry = new ZipEntry(zipEntry.getName());
+                storedEntry.setMethod(ZipEntry.STORED);
+                storedEntry.setSize(bytes.length);
+                storedEntry.setCompressedSize(bytes.length);
+                storedEntry.setCrc(crc32.getValue());
+                zos.putNextEntry(storedEntry);
+                zos.write(bytes);
+                zos.closeEntry();
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        storedBundle.delete();
+    }
+
+    @Test
+    public void testGetStoredApksFromBundle() throws Throwable {
+        try (RandomAccessFile raf = new RandomAccessFile(storedBundle, "r");
+             ZipFile zipFile = new ZipFile(storedBundle)) {
+            Map<String, DataSource> storedApks = ApkUtils.getStoredApksFromBundle(DataSources.asDataSource(raf));
+            assertEquals(zipFile.size(), storedApks.size());
+            Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+            while (zipEntries.hasMoreElements()) {
+                ZipEntry zipEntry = zipEntries.nextElement();
+                DataSource storedApk = storedApks.get(zipEntry.getName());
+                assertNotNull(zipEntry.getName(), storedApk);
+                assertEquals(zipEntry.getSize(), storedApk.size());
+                // Reading the manifest directly must be the same as extracting it
+                ByteBuffer expectedManifest;
+                try (InputStream is = zipFile.getInputStream(zipEntry)) {
+                    expectedManifest = ApkUtils.getManifestFromApk(is);
+                }
+                assertEquals(zipEntry.getName(), expectedManifest, ApkUtils.getManifestFromApk(storedApk));
+            }
+        }
+    }
+
+    @Test
+    public void testGetStoredApksFromCompressedBundle() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(deflatedBundle, "r")) {
+            assertTrue(ApkUtils.getStoredApksFromBundle(DataSources.asDataSource(raf)).isEmpty());
+        }
+    }
+}
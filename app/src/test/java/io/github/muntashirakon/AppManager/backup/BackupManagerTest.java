@@ -0,0 +1,75 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.backup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.Nullable;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class BackupManagerTest {
+    @Test
+    public void testDeleteAllBackups() throws BackupException {
+        // 0 <- 0_inc1 <- 0_inc2, 0_other
+        List<MetadataManager.Metadata> allBackups = Arrays.asList(newMetadata("0", null),
+                newMetadata("0_inc1", "0"), newMetadata("0_inc2", "0_inc1"), newMetadata("0_other", null));
+        // The base backups come first when the backups are listed
+        List<String> deletedNames = getNames(BackupManager.getDeletionOrder(allBackups, allBackups));
+        assertEquals(4, deletedNames.size());
+        assertTrue(deletedNames.containsAll(Arrays.asList("0", "0_inc1", "0_inc2", "0_other")));
+        assertTrue(deletedNames.indexOf("0_inc2") < deletedNames.indexOf("0_inc1"));
+        assertTrue(deletedNames.indexOf("0_inc1") < deletedNames.indexOf("0"));
+        // Same for any order
+        List<MetadataManager.Metadata> reversedBackups = new ArrayList<>(allBackups);
+        Collections.reverse(reversedBackups);
+        deletedNames = getNames(BackupManager.getDeletionOrder(reversedBackups, allBackups));
+        assertTrue(deletedNames.indexOf("0_inc2") < deletedNames.indexOf("0_inc1"));
+        assertTrue(deletedNames.indexOf("0_inc1") < deletedNames.indexOf("0"));
+    }
+
+    @Test
+    public void testDeleteChain() throws BackupException {
+        List<MetadataManager.Metadata> allBackups = Arrays.asList(newMetadata("0", null),
+                newMetadata("0_inc1", "0"), newMetadata("0_inc2", "0_inc1"), newMetadata("0_other", null));
+        // The last incremental backup and the independent backup can be deleted on their own
+        assertEquals(Collections.singletonList("0_inc2"), getNames(BackupManager.getDeletionOrder(
+                Collections.singletonList(allBackups.get(2)), allBackups)));
+        assertEquals(Arrays.asList("0_inc2", "0_inc1"), getNames(BackupManager.getDeletionOrder(
+                Arrays.asList(allBackups.get(1), allBackups.get(2)), allBackups)));
+        assertEquals(Collections.singletonList("0_other"), getNames(BackupManager.getDeletionOrder(
+                Collections.singletonList(allBackups.get(3)), allBackups)));
+    }
+
+    @Test(expected = BackupException.class)
+    public void testDeleteRequiredBackup() throws BackupException {
+        List<MetadataManager.Metadata> allBackups = Arrays.asList(newMetadata("0", null),
+                newMetadata("0_inc1", "0"), newMetadata("0_inc2", "0_inc1"));
+        // 0_inc2 still depends on 0_inc1
+        BackupManager.getDeletionOrder(Arrays.asList(allBackups.get(0), allBackups.get(1)), allBackups);
+    }
+
+    private static MetadataManager.Metadata newMetadata(String backupName, @Nullable String baseBackupName) {
+        MetadataManager.Metadata metadata = new MetadataManager.Metadata();
+        metadata.backupName = backupName;
+        metadata.baseBackupName = baseBackupName;
+        return metadata;
+    }
+
+    private static List<String> getNames(List<MetadataManager.Metadata> metadataList) {
+        List<String> names = new ArrayList<>(metadataList.size());
+        for (MetadataManager.Metadata metadata : metadataList) {
+            names.add(metadata.backupName);
+        }
+        return names;
+    }
+}
@@ -0,0 +1,121 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.backup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.github.muntashirakon.AppManager.utils.DigestUtils;
+import io.github.muntashirakon.io.Path;
+import io.github.muntashirakon.io.Paths;
+
+@RunWith(RobolectricTestRunner.class)
+public class BackupManifestTest {
+    private final List<Path> junkFiles = new ArrayList<>();
+    private Path tmpPath;
+
+    @Before
+    public void setUp() throws IOException {
+        tmpPath = Paths.get("/tmp").findOrCreateDirectory("backup_manifest_test");
+        junkFiles.add(tmpPath);
+        writeFile(tmpPath.findOrCreateDirectory("shared_prefs"), "prefs.xml", "<map />");
+        writeFile(tmpPath.findOrCreateDirectory("databases"), "app.db", "database");
+        writeFile(tmpPath, "file.txt", "text");
+        tmpPath.findOrCreateDirectory("empty");
+    }
+
+    @After
+    public void tearDown() {
+        for (Path file : junkFiles) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testDigestMatchesDirectoryDigest() {
+        BackupManifest manifest = BackupManifest.generate(tmpPath, null);
+        assertEquals(DigestUtils.getHexDigest(DigestUtils.SHA_256, tmpPath), manifest.getHexDigest());
+    }
+
+    @Test
+    public void testEntries() {
+        BackupManifest manifest = BackupManifest.generate(tmpPath, null);
+        BackupManifest.Entry entry = manifest.get("shared_prefs/prefs.xml");
+        assertNotNull(entry);
+        assertEquals(BackupManifest.TYPE_FILE, entry.type);
+        assertEquals(7, entry.size);
+        assertEquals(DigestUtils.getHexDigest(DigestUtils.SHA_256, "<map />".getBytes()), entry.hash);
+        BackupManifest.Entry dirEntry = manifest.get("empty/");
+        assertNotNull(dirEntry);
+        assertEquals(BackupManifest.TYPE_DIRECTORY, dirEntry.type);
+        assertNull(dirEntry.hash);
+    }
+
+    @Test
+    public void testReadWrite() throws IOException {
+        BackupManifest manifest = BackupManifest.generate(tmpPath, null);
+        manifest.add(new BackupManifest.Entry(BackupManifest.TYPE_FILE, "weird\tname\\with\nescapes", 1, 2, "ab"));
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        manifest.write(os);
+        BackupManifest readManifest = BackupManifest.read(new ByteArrayInputStream(os.toByteArray()));
+        assertEquals(new ArrayList<>(manifest.getEntries()), new ArrayList<>(readManifest.getEntries()));
+        assertTrue(readManifest.contains("weird\tname\\with\nescapes"));
+    }
+
+    @Test
+    public void testChangedFiles() throws IOException {
+        BackupManifest base = BackupManifest.generate(tmpPath, null);
+        // Modify one file, add another and keep the rest as is
+        writeFile(tmpPath, "file.txt", "modified text");
+        writeFile(tmpPath, "new.txt", "new");
+        BackupManifest manifest = BackupManifest.generate(tmpPath, base);
+        assertTrue(base.hasChanged(manifest.get("file.txt")));
+        assertTrue(base.hasChanged(manifest.get("new.txt")));
+        assertFalse(base.hasChanged(manifest.get("databases/app.db")));
+        assertFalse(base.hasChanged(manifest.get("shared_prefs/prefs.xml")));
+        // Directories are always included
+        assertTrue(base.hasChanged(manifest.get("databases/")));
+        // The digest must still match the directory digest
+        assertEquals(DigestUtils.getHexDigest(DigestUtils.SHA_256, tmpPath), manifest.getHexDigest());
+    }
+
+    @Test
+    public void testUnchangedContentWithDifferentModificationTime() throws IOException {
+        BackupManifest base = BackupManifest.generate(tmpPath, null);
+        Path file = tmpPath.findFile("file.txt");
+        assertTrue(file.setLastModified(file.lastModified() - 10_000));
+        BackupManifest manifest = BackupManifest.generate(tmpPath, base);
+        assertFalse(base.hasChanged(manifest.get("file.txt")));
+    }
+
+    @Test
+    public void testIllegalLine() {
+        ByteArrayInputStream is = new ByteArrayInputStream("f\t1\t2\n".getBytes(StandardCharsets.UTF_8));
+        assertThrows(IOException.class, () -> BackupManifest.read(is));
+    }
+
+    private static void writeFile(Path dir, String name, String content) throws IOException {
+        Path file = dir.findOrCreateFile(name, null);
+        try (OutputStream os = file.openOutputStream()) {
+            os.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,69 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.backup;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.github.muntashirakon.AppManager.crypto.DummyCrypto;
+import io.github.muntashirakon.AppManager.utils.DigestUtils;
+import io.github.muntashirakon.io.IoUtils;
+import io.github.muntashirakon.io.Path;
+import io.github.muntashirakon.io.Paths;
+
+@RunWith(RobolectricTestRunner.class)
+public class BackupSplitOutputStreamTest {
+    private final ClassLoader classLoader = getClass().getClassLoader();
+    private final List<Path> junkFiles = new ArrayList<>();
+    private Path tmpPath;
+
+    @Before
+    public void setUp() throws IOException {
+        tmpPath = Paths.get("/tmp").findOrCreateDirectory("backup_split_test");
+        junkFiles.add(tmpPath);
+    }
+
+    @After
+    public void tearDown() {
+        for (Path file : junkFiles) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testChecksumsMatchSplits() throws IOException {
+        assert classLoader != null;
+        File sampleFile = new File(classLoader.getResource("AppManager_v2.5.22.apks").getFile());
+        Path checksumFile = tmpPath.createNewFile(BackupFiles.CHECKSUMS_TXT, null);
+        BackupFiles.Checksum checksum = new BackupFiles.Checksum(checksumFile, "w");
+        List<Path> files;
+        try (InputStream is = new FileInputStream(sampleFile);
+             BackupSplitOutputStream sos = new BackupSplitOutputStream(tmpPath, "AppManager_v2.5.22.apks", 1024000,
+                     new DummyCrypto(), CryptoUtils.MODE_NO_ENCRYPTION, DigestUtils.SHA_256, checksum)) {
+            IoUtils.copy(is, sos);
+            files = sos.getFiles();
+        }
+        checksum.close();
+        assertEquals(8, files.size());
+        for (int i = 0; i < files.size(); ++i) {
+            Path file = files.get(i);
+            assertEquals("AppManager_v2.5.22.apks." + i, file.getName());
+            String expectedChecksum = DigestUtils.getHexDigest(DigestUtils.SHA_256, new File(classLoader
+                    .getResource("AppManager_v2.5.22.apks." + i).getFile()));
+            assertEquals(expectedChecksum, checksum.get(file.getName()));
+            assertEquals(expectedChecksum, DigestUtils.getHexDigest(DigestUtils.SHA_256, file));
+        }
+    }
+}
@@ -0,0 +1,172 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.backup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.muntashirakon.io.Paths;
+
+@RunWith(RobolectricTestRunner.class)
+public class BlockDeviceSchedulerTest {
+    @Test
+    public void testLimits() throws Exception {
+        BlockDeviceScheduler scheduler = new BlockDeviceScheduler(3, 2);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        Map<Long, AtomicInteger> runningPerDevice = new HashMap<>();
+        Map<Long, AtomicInteger> maxRunningPerDevice = new HashMap<>();
+        Set<Integer> finishedTasks = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        for (long device = 1; device <= 3; ++device) {
+            runningPerDevice.put(device, new AtomicInteger());
+            maxRunningPerDevice.put(device, new AtomicInteger());
+        }
+        for (int i = 0; i < 12; ++i) {
+            // Device 1 has most of the tasks
+            long device = i < 8 ? 1 : (i < 10 ? 2 : 3);
+            int taskId = i;
+            scheduler.add(device, () -> {
+                AtomicInteger deviceCount = runningPerDevice.get(device);
+                updateMax(maxRunning, running.incrementAndGet());
+                updateMax(maxRunningPerDevice.get(device), deviceCount.incrementAndGet());
+                Thread.sleep(20);
+                deviceCount.decrementAndGet();
+                running.decrementAndGet();
+                finishedTasks.add(taskId);
+            });
+        }
+        scheduler.runAll();
+        assertEquals(12, finishedTasks.size());
+        assertTrue(maxRunning.get() <= 3);
+        // Tasks on different devices must have run in parallel
+        assertTrue(maxRunning.get() > 1);
+        for (AtomicInteger max : maxRunningPerDevice.values()) {
+            assertTrue(max.get() <= 2);
+        }
+    }
+
+    @Test
+    public void testFailure() throws InterruptedException {
+        BlockDeviceScheduler scheduler = new BlockDeviceScheduler(1, 1);
+        AtomicInteger finishedTasks = new AtomicInteger();
+        IOException error = new IOException("Failed");
+        scheduler.add(1, finishedTasks::incrementAndGet);
+        scheduler.add(1, () -> {
+            throw error;
+        });
+        // Not started after the failure
+        scheduler.add(1, finishedTasks::incrementAndGet);
+        try {
+            scheduler.runAll();
+            fail("Failure was not reported.");
+        } catch (ExecutionException e) {
+            assertSame(error, e.getCause());
+        }
+        assertEquals(1, finishedTasks.get());
+    }
+
+    @Test
+    public void testInterrupt() throws InterruptedException {
+        BlockDeviceScheduler scheduler = new BlockDeviceScheduler(2, 1);
+        CountDownLatch started = new CountDownLatch(2);
+        AtomicInteger finishedTasks = new AtomicInteger();
+        for (long device = 1; device <= 2; ++device) {
+            scheduler.add(device, () -> {
+                started.countDown();
+                try {
+                    new CountDownLatch(1).await();
+                } catch (InterruptedException e) {
+                    // Clean up after the interruption
+                    Thread.sleep(50);
+                    finishedTasks.incrementAndGet();
+                }
+            });
+        }
+        AtomicInteger finishedTasksOnReturn = new AtomicInteger(-1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        Thread waiter = new Thread(() -> {
+            try {
+                scheduler.runAll();
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            } catch (ExecutionException ignore) {
+            }
+            finishedTasksOnReturn.set(finishedTasks.get());
+        });
+        waiter.start();
+        started.await();
+        waiter.interrupt();
+        waiter.join(5000);
+        assertFalse(waiter.isAlive());
+        assertTrue(interrupted.get());
+        // The running tasks finish before runAll() returns
+        assertEquals(2, finishedTasksOnReturn.get());
+    }
+
+    @Test
+    public void testGetDeviceId() {
+        long tmpDevice = BlockDeviceScheduler.getDeviceId(Paths.get("/tmp"));
+        assertTrue(tmpDevice != BlockDeviceScheduler.UNKNOWN_DEVICE);
+        assertEquals(BlockDeviceScheduler.UNKNOWN_DEVICE,
+                BlockDeviceScheduler.getDeviceId(Paths.get("/tmp/block_device_scheduler_test_missing")));
+    }
+
+    @Test
+    public void testGetMountSource() {
+        String mountInfo = "1 0 253:5 / / ro,relatime shared:1 - ext4 /dev/block/dm-5 ro,seclabel\n"
+                + "30 1 259:7 / /data rw,nosuid,nodev,noatime shared:27 - f2fs /dev/block/dm-42 rw,seclabel\n"
+                + "31 30 259:7 /media /mnt/pass_through/0/emulated rw shared:28 - f2fs /dev/block/dm-42 rw\n"
+                + "45 44 0:56 / /mnt/runtime/default/emulated rw,nosuid - sdcardfs /data/media rw,fsuid=1023\n"
+                + "46 44 0:57 / /mnt/media\\040rw rw master:2 master:3 - sdcardfs /data/my\\040media rw\n";
+        assertEquals("/dev/block/dm-5", BlockDeviceScheduler.getMountSource(mountInfo, "253:5"));
+        // The first mount of a filesystem is used
+        assertEquals("/dev/block/dm-42", BlockDeviceScheduler.getMountSource(mountInfo, "259:7"));
+        assertEquals("/data/media", BlockDeviceScheduler.getMountSource(mountInfo, "0:56"));
+        // Optional fields and escaped spaces
+        assertEquals("/data/my media", BlockDeviceScheduler.getMountSource(mountInfo, "0:57"));
+        assertNull(BlockDeviceScheduler.getMountSource(mountInfo, "0:58"));
+        assertNull(BlockDeviceScheduler.getMountSource("", "253:5"));
+    }
+
+    @Test
+    public void testDeviceId() {
+        long deviceId = BlockDeviceScheduler.makeDeviceId(259, 7);
+        assertEquals(259, BlockDeviceScheduler.getMajor(deviceId));
+        assertEquals(7, BlockDeviceScheduler.getMinor(deviceId));
+        // Same as makedev(259, 7)
+        assertEquals(0x10307, deviceId);
+        // Large numbers use the upper bits
+        deviceId = BlockDeviceScheduler.makeDeviceId(0x12345, 0x123456);
+        assertEquals(0x12345, BlockDeviceScheduler.getMajor(deviceId));
+        assertEquals(0x123456, BlockDeviceScheduler.getMinor(deviceId));
+        assertEquals(Long.valueOf(BlockDeviceScheduler.makeDeviceId(8, 0)), BlockDeviceScheduler.parseMajorMinor("8:0"));
+        assertNull(BlockDeviceScheduler.parseMajorMinor(""));
+        assertNull(BlockDeviceScheduler.parseMajorMinor("8"));
+        assertNull(BlockDeviceScheduler.parseMajorMinor("a:b"));
+    }
+
+    private static void updateMax(AtomicInteger max, int value) {
+        int current;
+        while ((current = max.get()) < value && !max.compareAndSet(current, value)) {
+        }
+    }
+}
@@ -0,0 +1,242 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.backup;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import io.github.muntashirakon.io.Path;
+import io.github.muntashirakon.io.Paths;
+
+@RunWith(RobolectricTestRunner.class)
+public class ChunkStoreTest {
+    private static final int MAX_CHUNK_SIZE = ChunkingOutputStream.MIN_CHUNK_SIZE * 2;
+
+    private final List<Path> junkFiles = new ArrayList<>();
+    private Path tmpPath;
+    private ChunkStore chunkStore;
+
+    @Before
+    public void setUp() throws IOException {
+        tmpPath = Paths.get("/tmp").findOrCreateDirectory("chunk_store_test");
+        junkFiles.add(tmpPath);
+        chunkStore = new ChunkStore(tmpPath.findOrCreateDirectory("store"));
+    }
+
+    @After
+    public void tearDown() {
+        for (Path file : junkFiles) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        byte[] data = randomBytes(1, MAX_CHUNK_SIZE * 3 + 123);
+        Path indexFile = store("a", data);
+        assertTrue(ChunkStore.readIndex(indexFile).size() > 1);
+        assertArrayEquals(data, read(indexFile));
+    }
+
+    @Test
+    public void testEmptyStream() throws IOException {
+        Path indexFile = store("a", new byte[0]);
+        assertEquals(0, ChunkStore.readIndex(indexFile).size());
+        assertArrayEquals(new byte[0], read(indexFile));
+    }
+
+    @Test
+    public void testIdenticalDataIsStoredOnce() throws IOException {
+        byte[] data = randomBytes(2, MAX_CHUNK_SIZE * 2);
+        List<String> chunks1 = ChunkStore.readIndex(store("a", data)).hashes;
+        List<String> chunks2 = ChunkStore.readIndex(store("b", data)).hashes;
+        assertEquals(chunks1, chunks2);
+        for (String hash : chunks1) {
+            assertEquals(2, chunkStore.getReferenceCount(hash));
+        }
+    }
+
+    @Test
+    public void testInsertionOnlyAffectsNearbyChunks() throws IOException {
+        // Use the default chunk sizes so that the boundaries are content-defined
+        byte[] data = randomBytes(3, ChunkingOutputStream.MAX_CHUNK_SIZE * 4);
+        // Insert a few bytes near the beginning, shifting the rest of the data
+        byte[] shiftedData = new byte[data.length + 7];
+        System.arraycopy(data, 0, shiftedData, 0, 1000);
+        System.arraycopy(data, 1000, shiftedData, 1007, data.length - 1000);
+        List<String> chunks1 = ChunkStore.readIndex(store("a", data, ChunkingOutputStream.MAX_CHUNK_SIZE)).hashes;
+        List<String> chunks2 = ChunkStore.readIndex(store("b", shiftedData, ChunkingOutputStream.MAX_CHUNK_SIZE))
+                .hashes;
+        assertTrue(chunks1.size() > 4);
+        Set<String> common = new HashSet<>(chunks1);
+        common.retainAll(chunks2);
+        assertTrue(common.size() >= chunks1.size() / 2);
+        assertArrayEquals(shiftedData, read(tmpPath.findFile("b" + ChunkStore.INDEX_EXT)));
+    }
+
+    @Test
+    public void testUnreferencedChunksAreDeleted() throws IOException {
+        byte[] data = randomBytes(4, MAX_CHUNK_SIZE);
+        Path indexFile1 = store("a", data);
+        Path indexFile2 = store("b", data);
+        List<String> chunks = ChunkStore.readIndex(indexFile1).hashes;
+        chunkStore.removeReferences(chunks);
+        for (String hash : chunks) {
+            assertEquals(1, chunkStore.getReferenceCount(hash));
+            assertTrue(chunkStore.contains(hash));
+        }
+        assertArrayEquals(data, read(indexFile2));
+        chunkStore.removeReferences(chunks);
+        for (String hash : chunks) {
+            assertEquals(0, chunkStore.getReferenceCount(hash));
+            assertFalse(chunkStore.contains(hash));
+        }
+    }
+
+    @Test
+    public void testSweep() throws IOException {
+        byte[] data = randomBytes(7, MAX_CHUNK_SIZE * 2);
+        List<String> committedChunks = ChunkStore.readIndex(store("a", data)).hashes;
+        // Neither referenced nor pending, as if the process was killed before the backup was committed
+        List<String> discardedChunks = storeWithoutCommit("b", randomBytes(8, MAX_CHUNK_SIZE * 2));
+        chunkStore.releasePendingChunks(discardedChunks);
+        // Still being stored by another backup
+        List<String> pendingChunks = storeWithoutCommit("c", randomBytes(9, MAX_CHUNK_SIZE * 2));
+        // Partially written chunk
+        tmpPath.findFile("store").findOrCreateDirectory("ab").findOrCreateFile("ab12.1.tmp", null);
+        assertEquals(discardedChunks.size() + 1, chunkStore.sweep());
+        for (String hash : committedChunks) {
+            assertTrue(chunkStore.contains(hash));
+        }
+        for (String hash : discardedChunks) {
+            assertFalse(chunkStore.contains(hash));
+        }
+        for (String hash : pendingChunks) {
+            assertTrue(chunkStore.contains(hash));
+        }
+        assertArrayEquals(data, read(tmpPath.findFile("a" + ChunkStore.INDEX_EXT)));
+        chunkStore.releasePendingChunks(pendingChunks);
+        assertEquals(pendingChunks.size(), chunkStore.sweep());
+    }
+
+    @Test
+    public void testDeleteUnreferencedChunks() throws IOException {
+        byte[] data = randomBytes(10, MAX_CHUNK_SIZE * 2);
+        List<String> committedChunks = ChunkStore.readIndex(store("a", data)).hashes;
+        // The failed backup shares its first chunks with the committed backup
+        byte[] otherData = new byte[data.length * 2];
+        System.arraycopy(data, 0, otherData, 0, data.length);
+        System.arraycopy(randomBytes(11, data.length), 0, otherData, data.length, data.length);
+        List<String> discardedChunks = storeWithoutCommit("b", otherData);
+        chunkStore.releasePendingChunks(discardedChunks);
+        chunkStore.deleteUnreferencedChunks(discardedChunks);
+        int deleteCount = 0;
+        for (String hash : discardedChunks) {
+            if (committedChunks.contains(hash)) {
+                assertTrue(chunkStore.contains(hash));
+            } else {
+                assertFalse(chunkStore.contains(hash));
+                ++deleteCount;
+            }
+        }
+        assertTrue(deleteCount > 0);
+        assertArrayEquals(data, read(tmpPath.findFile("a" + ChunkStore.INDEX_EXT)));
+    }
+
+    @Test
+    public void testCorruptedChunk() throws IOException {
+        Path indexFile = store("a", randomBytes(5, 1000));
+        String hash = ChunkStore.readIndex(indexFile).hashes.get(0);
+        // Replace the chunk with a different one under the same name
+        Path otherIndexFile = store("b", randomBytes(6, 1000));
+        String otherHash = ChunkStore.readIndex(otherIndexFile).hashes.get(0);
+        Path shard = tmpPath.findFile("store").findFile(hash.substring(0, 2));
+        shard.findFile(hash).delete();
+        Path otherChunk = tmpPath.findFile("store").findFile(otherHash.substring(0, 2)).findFile(otherHash);
+        try (InputStream is = otherChunk.openInputStream();
+             OutputStream os = shard.findOrCreateFile(hash, null).openOutputStream()) {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = is.read(buffer)) != -1) {
+                os.write(buffer, 0, count);
+            }
+        }
+        assertThrows(IOException.class, () -> read(indexFile));
+    }
+
+    private Path store(String name, byte[] data) throws IOException {
+        return store(name, data, MAX_CHUNK_SIZE);
+    }
+
+    /**
+     * Store and commit the given data, i.e. the index file refers to its chunks.
+     */
+    private Path store(String name, byte[] data, int maxChunkSize) throws IOException {
+        List<String> pendingChunks = storeWithoutCommit(name, data, maxChunkSize);
+        Path indexFile = tmpPath.findFile(name + ChunkStore.INDEX_EXT);
+        chunkStore.addReferences(new LinkedHashSet<>(ChunkStore.readIndex(indexFile).hashes));
+        chunkStore.releasePendingChunks(pendingChunks);
+        return indexFile;
+    }
+
+    /**
+     * Store the given data without adding any references.
+     *
+     * @return The pending chunks
+     */
+    private List<String> storeWithoutCommit(String name, byte[] data) throws IOException {
+        return storeWithoutCommit(name, data, MAX_CHUNK_SIZE);
+    }
+
+    private List<String> storeWithoutCommit(String name, byte[] data, int maxChunkSize) throws IOException {
+        Path indexFile = tmpPath.findOrCreateFile(name + ChunkStore.INDEX_EXT, null);
+        ChunkingOutputStream os = new ChunkingOutputStream(chunkStore, indexFile, maxChunkSize);
+        try {
+            // Write in odd-sized blocks to cross the chunk boundaries
+            for (int off = 0; off < data.length; off += 10_007) {
+                os.write(data, off, Math.min(10_007, data.length - off));
+            }
+        } finally {
+            os.close();
+        }
+        return os.getChunks();
+    }
+
+    private byte[] read(Path indexFile) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (InputStream is = new ChunkedInputStream(chunkStore, indexFile)) {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = is.read(buffer)) != -1) {
+                os.write(buffer, 0, count);
+            }
+        }
+        return os.toByteArray();
+    }
+
+    private static byte[] randomBytes(long seed, int length) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
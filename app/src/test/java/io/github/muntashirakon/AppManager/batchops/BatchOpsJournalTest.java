@@ -0,0 +1,105 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.batchops;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Bundle;
+
+import androidx.room.Room;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import io.github.muntashirakon.AppManager.db.AppsDb;
+import io.github.muntashirakon.AppManager.db.dao.BatchOpsJournalDao;
+import io.github.muntashirakon.AppManager.db.entity.BatchOpsJournalEntry;
+import io.github.muntashirakon.AppManager.types.UserPackagePair;
+
+@RunWith(RobolectricTestRunner.class)
+public class BatchOpsJournalTest {
+    private static final UserPackagePair[] PAIRS = new UserPackagePair[]{
+            new UserPackagePair("com.example.a", 0),
+            new UserPackagePair("com.example.b", 0),
+            new UserPackagePair("com.example.c", 10),
+    };
+
+    private AppsDb db;
+    private BatchOpsJournalDao dao;
+
+    @Before
+    public void setUp() {
+        db = Room.inMemoryDatabaseBuilder(RuntimeEnvironment.getApplication(), AppsDb.class)
+                .allowMainThreadQueries()
+                .build();
+        dao = db.batchOpsJournalDao();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void testResume() {
+        String batchId = BatchOpsJournal.getBatchId(BatchOpsManager.OP_BACKUP, PAIRS, null);
+        BatchOpsJournal journal = new BatchOpsJournal(dao, batchId, PAIRS, false);
+        assertFalse(journal.isResumed());
+        assertEquals(3, dao.get(batchId).size());
+        journal.setState(PAIRS[0], BatchOpsJournalEntry.STATE_COMPLETED);
+        journal.setState(PAIRS[1], BatchOpsJournalEntry.STATE_RUNNING);
+        // The process is killed here, and the batch operation is redelivered
+        journal = new BatchOpsJournal(dao, batchId, PAIRS, true);
+        assertTrue(journal.isResumed());
+        assertEquals(BatchOpsJournalEntry.STATE_COMPLETED, journal.getPreviousState(PAIRS[0]));
+        assertEquals(BatchOpsJournalEntry.STATE_RUNNING, journal.getPreviousState(PAIRS[1]));
+        assertEquals(BatchOpsJournalEntry.STATE_PENDING, journal.getPreviousState(PAIRS[2]));
+        journal.finish();
+        assertTrue(dao.get(batchId).isEmpty());
+    }
+
+    @Test
+    public void testRunAgain() {
+        String batchId = BatchOpsJournal.getBatchId(BatchOpsManager.OP_BACKUP, PAIRS, null);
+        BatchOpsJournal journal = new BatchOpsJournal(dao, batchId, PAIRS, false);
+        journal.setState(PAIRS[0], BatchOpsJournalEntry.STATE_COMPLETED);
+        // The process is killed here, and the same batch operation is submitted again
+        journal = new BatchOpsJournal(dao, batchId, PAIRS, false);
+        assertFalse(journal.isResumed());
+        assertEquals(BatchOpsJournalEntry.STATE_PENDING, journal.getPreviousState(PAIRS[0]));
+        for (BatchOpsJournalEntry entry : dao.get(batchId)) {
+            assertEquals(BatchOpsJournalEntry.STATE_PENDING, entry.state);
+        }
+        // Nothing to resume
+        journal.finish();
+        journal = new BatchOpsJournal(dao, batchId, PAIRS, true);
+        assertFalse(journal.isResumed());
+        assertEquals(3, dao.get(batchId).size());
+    }
+
+    @Test
+    public void testBatchId() {
+        Bundle args = new Bundle();
+        args.putInt(BatchOpsManager.ARG_FLAGS, 1);
+        args.putStringArray(BatchOpsManager.ARG_BACKUP_NAMES, new String[]{"a", "b"});
+        Bundle sameArgs = new Bundle();
+        sameArgs.putStringArray(BatchOpsManager.ARG_BACKUP_NAMES, new String[]{"a", "b"});
+        sameArgs.putInt(BatchOpsManager.ARG_FLAGS, 1);
+        Bundle otherArgs = new Bundle();
+        otherArgs.putInt(BatchOpsManager.ARG_FLAGS, 2);
+        otherArgs.putStringArray(BatchOpsManager.ARG_BACKUP_NAMES, new String[]{"a", "b"});
+        String batchId = BatchOpsJournal.getBatchId(BatchOpsManager.OP_BACKUP, PAIRS, args);
+        assertEquals(batchId, BatchOpsJournal.getBatchId(BatchOpsManager.OP_BACKUP, PAIRS, sameArgs));
+        assertNotEquals(batchId, BatchOpsJournal.getBatchId(BatchOpsManager.OP_BACKUP, PAIRS, otherArgs));
+        assertNotEquals(batchId, BatchOpsJournal.getBatchId(BatchOpsManager.OP_RESTORE_BACKUP, PAIRS, args));
+        assertNotEquals(batchId, BatchOpsJournal.getBatchId(BatchOpsManager.OP_BACKUP,
+                new UserPackagePair[]{PAIRS[0], PAIRS[1]}, args));
+    }
+}
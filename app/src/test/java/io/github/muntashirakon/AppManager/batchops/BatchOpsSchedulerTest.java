@@ -0,0 +1,125 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.batchops;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(RobolectricTestRunner.class)
+public class BatchOpsSchedulerTest {
+    @Test
+    public void testConcurrencyLimit() {
+        BatchOpsScheduler scheduler = BatchOpsScheduler.withConcurrencyLimit(3);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        for (int i = 0; i < 12; ++i) {
+            scheduler.submit("task" + i, BatchOpsScheduler.PRIORITY_DEFAULT, () -> {
+                int current = running.incrementAndGet();
+                int max;
+                while ((max = maxRunning.get()) < current && !maxRunning.compareAndSet(max, current)) {
+                }
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException ignore) {
+                }
+                running.decrementAndGet();
+            });
+        }
+        List<BatchOpsScheduler.OpLatency> latencies = scheduler.awaitCompletion();
+        assertEquals(12, latencies.size());
+        assertTrue(maxRunning.get() <= 3);
+        assertTrue(maxRunning.get() > 1);
+    }
+
+    @Test
+    public void testPriority() throws InterruptedException {
+        BatchOpsScheduler scheduler = BatchOpsScheduler.withConcurrencyLimit(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch blocker = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        // Occupy the only thread so that the rest of the tasks are queued
+        scheduler.submit("blocker", BatchOpsScheduler.PRIORITY_DEFAULT, () -> {
+            started.countDown();
+            try {
+                blocker.await();
+            } catch (InterruptedException ignore) {
+            }
+        });
+        started.await();
+        scheduler.submit("low", BatchOpsScheduler.PRIORITY_LOW, () -> order.add("low"));
+        scheduler.submit("default1", BatchOpsScheduler.PRIORITY_DEFAULT, () -> order.add("default1"));
+        scheduler.submit("high", BatchOpsScheduler.PRIORITY_HIGH, () -> order.add("high"));
+        scheduler.submit("default2", BatchOpsScheduler.PRIORITY_DEFAULT, () -> order.add("default2"));
+        blocker.countDown();
+        List<BatchOpsScheduler.OpLatency> latencies = scheduler.awaitCompletion();
+        assertEquals(Arrays.asList("high", "default1", "default2", "low"), order);
+        // Latencies are reported in the order the tasks finished
+        List<String> labels = new ArrayList<>();
+        List<Integer> sequences = new ArrayList<>();
+        for (BatchOpsScheduler.OpLatency latency : latencies) {
+            labels.add(latency.label);
+            sequences.add(latency.sequence);
+            assertTrue(latency.queuedMillis >= 0);
+            assertTrue(latency.runMillis >= 0);
+        }
+        assertEquals(Arrays.asList("blocker", "high", "default1", "default2", "low"), labels);
+        // The order the tasks were submitted in
+        assertEquals(Arrays.asList(0, 3, 2, 4, 1), sequences);
+    }
+
+    @Test
+    public void testInterrupt() throws InterruptedException {
+        BatchOpsScheduler scheduler = BatchOpsScheduler.withConcurrencyLimit(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch taskInterrupted = new CountDownLatch(1);
+        AtomicInteger completed = new AtomicInteger();
+        scheduler.submit("blocker", BatchOpsScheduler.PRIORITY_DEFAULT, () -> {
+            started.countDown();
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                taskInterrupted.countDown();
+            }
+        });
+        scheduler.submit("queued", BatchOpsScheduler.PRIORITY_DEFAULT, completed::incrementAndGet);
+        started.await();
+        AtomicBoolean interrupted = new AtomicBoolean();
+        Thread waiter = new Thread(() -> {
+            scheduler.awaitCompletion();
+            interrupted.set(Thread.currentThread().isInterrupted());
+        });
+        waiter.start();
+        waiter.interrupt();
+        waiter.join(5000);
+        // The waiting thread stops waiting after the running task and keeps its interrupt status
+        assertFalse(waiter.isAlive());
+        assertTrue(interrupted.get());
+        // The running task is interrupted and finishes before the waiting thread returns, and the queued task never
+        // runs
+        assertEquals(0, taskInterrupted.getCount());
+        assertEquals(0, completed.get());
+    }
+
+    @Test
+    public void testResourceType() {
+        assertEquals(BatchOpsScheduler.RESOURCE_IO, BatchOpsScheduler.getResourceType(BatchOpsManager.OP_BACKUP));
+        assertEquals(BatchOpsScheduler.RESOURCE_CPU,
+                BatchOpsScheduler.getResourceType(BatchOpsManager.OP_BLOCK_TRACKERS));
+        assertEquals(BatchOpsScheduler.RESOURCE_BINDER,
+                BatchOpsScheduler.getResourceType(BatchOpsManager.OP_FORCE_STOP));
+        assertTrue(BatchOpsScheduler.getConcurrencyLimit(BatchOpsScheduler.RESOURCE_IO) >= 1);
+    }
+}
@@ -0,0 +1,49 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.database.Cursor;
+
+import androidx.room.testing.MigrationTestHelper;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppsDbTest {
+    private static final String TEST_DB = "migration_test.db";
+
+    @Rule
+    public final MigrationTestHelper helper = new MigrationTestHelper(InstrumentationRegistry.getInstrumentation(),
+            AppsDb.class);
+
+    @Test
+    public void testMigrate2To3() throws IOException {
+        try (SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 2)) {
+            db.execSQL("INSERT INTO file_hash (path, hash) VALUES ('/data/app/base.apk', 'abc')");
+        }
+        // Validated against schemas/.../3.json
+        try (SupportSQLiteDatabase db = helper.runMigrationsAndValidate(TEST_DB, 3, true, AppsDb.MIGRATION_2_3)) {
+            // Existing tables are left untouched
+            try (Cursor cursor = db.query("SELECT hash FROM file_hash WHERE path = '/data/app/base.apk'")) {
+                assertTrue(cursor.moveToFirst());
+                assertEquals("abc", cursor.getString(0));
+            }
+            db.execSQL("INSERT INTO batch_ops_journal (batch_id, package_name, user_id) VALUES ('1', 'a', 0)");
+            try (Cursor cursor = db.query("SELECT state, last_update_time FROM batch_ops_journal")) {
+                assertTrue(cursor.moveToFirst());
+                assertEquals(0, cursor.getInt(0));
+                assertEquals(0, cursor.getLong(1));
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.db.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import io.github.muntashirakon.AppManager.db.entity.App;
+import io.github.muntashirakon.AppManager.db.entity.Backup;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppDbTest {
+    @Test
+    public void testUnchangedBackups() {
+        Backup backup = newBackup("backed.up", 0, 1000);
+        List<App> apps = Arrays.asList(newInstalledApp("installed", 0), App.fromBackup(backup),
+                newUninstalledSystemApp("system", 0));
+        assertTrue(AppDb.getPackagesWithChangedBackups(apps, Collections.singletonList(backup)).isEmpty());
+        // Backups of the installed apps are not loaded from the backups
+        assertTrue(AppDb.getPackagesWithChangedBackups(apps, Arrays.asList(backup, newBackup("installed", 0, 2000)))
+                .isEmpty());
+    }
+
+    @Test
+    public void testChangedBackups() {
+        Backup backup = newBackup("backed.up", 0, 1000);
+        Backup deletedBackup = newBackup("deleted", 0, 1000);
+        List<App> apps = Arrays.asList(newInstalledApp("installed", 0), App.fromBackup(backup),
+                App.fromBackup(deletedBackup), newUninstalledSystemApp("system", 0));
+        List<Backup> backups = Arrays.asList(
+                // Replaced by a newer backup
+                newBackup("backed.up", 0, 2000),
+                // New backup of an app that was never installed
+                newBackup("new", 0, 1000),
+                // New backup for another user
+                newBackup("installed", 10, 1000));
+        assertEquals(new HashSet<>(Arrays.asList("backed.up", "deleted", "new", "installed")),
+                AppDb.getPackagesWithChangedBackups(apps, backups));
+    }
+
+    private static Backup newBackup(String packageName, int userId, long backupTime) {
+        Backup backup = new Backup();
+        backup.packageName = packageName;
+        backup.backupName = String.valueOf(userId);
+        backup.userId = userId;
+        backup.backupTime = backupTime;
+        return backup;
+    }
+
+    private static App newInstalledApp(String packageName, int userId) {
+        App app = new App();
+        app.packageName = packageName;
+        app.userId = userId;
+        app.isInstalled = true;
+        app.sdk = 34;
+        return app;
+    }
+
+    private static App newUninstalledSystemApp(String packageName, int userId) {
+        App app = newInstalledApp(packageName, userId);
+        app.isInstalled = false;
+        return app;
+    }
+}
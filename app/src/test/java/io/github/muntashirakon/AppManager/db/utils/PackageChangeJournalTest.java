@@ -0,0 +1,34 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.db.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class PackageChangeJournalTest {
+    @Test
+    public void testParse() {
+        PackageChangeJournal journal = new PackageChangeJournal(3, 42, new int[]{0, 10});
+        assertEquals("3:42:0,10", journal.toString());
+        PackageChangeJournal parsedJournal = PackageChangeJournal.parse(journal.toString());
+        assertNotNull(parsedJournal);
+        assertEquals(42, parsedJournal.getSequenceNumber());
+        assertEquals(journal.toString(), parsedJournal.toString());
+    }
+
+    @Test
+    public void testParseInvalid() {
+        assertNull(PackageChangeJournal.parse(null));
+        assertNull(PackageChangeJournal.parse(""));
+        assertNull(PackageChangeJournal.parse("3:42"));
+        assertNull(PackageChangeJournal.parse("3:42:"));
+        assertNull(PackageChangeJournal.parse("3:x:0"));
+        assertNull(PackageChangeJournal.parse("3:42:0,,10"));
+    }
+}
@@ -0,0 +1,76 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.db.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import io.github.muntashirakon.AppManager.db.entity.App;
+
+@RunWith(RobolectricTestRunner.class)
+public class PackageUserMapTest {
+    private static final int PACKAGE_COUNT = 5000;
+    private static final int[] USER_IDS = new int[]{0, 10};
+
+    @Test
+    public void testPutGetRemove() {
+        PackageUserMap<String> map = new PackageUserMap<>();
+        assertNull(map.put("a", 0, "a0"));
+        assertNull(map.put("a", 10, "a10"));
+        assertNull(map.put("b", 0, "b0"));
+        assertEquals("a0", map.put("a", 0, "a0'"));
+        assertEquals(3, map.size());
+        assertEquals("a0'", map.get("a", 0));
+        assertEquals("a10", map.get("a", 10));
+        assertNull(map.get("b", 10));
+        assertNull(map.get("c", 0));
+        assertEquals("a10", map.remove("a", 10));
+        assertNull(map.remove("a", 10));
+        assertNull(map.remove("a", 11));
+        assertEquals(2, map.size());
+        List<String> values = map.values();
+        Collections.sort(values);
+        assertEquals(Arrays.asList("a0'", "b0"), values);
+    }
+
+    @Test
+    public void testMatchApps() {
+        List<App> oldApps = getApps();
+        List<App> installedApps = new ArrayList<>(oldApps);
+        Collections.shuffle(installedApps, new Random(0));
+        PackageUserMap<App> appMap = new PackageUserMap<>();
+        for (App app : oldApps) {
+            appMap.put(app.packageName, app.userId, app);
+        }
+        assertEquals(oldApps.size(), appMap.size());
+        for (App installedApp : installedApps) {
+            assertSame(installedApp, appMap.remove(installedApp.packageName, installedApp.userId));
+        }
+        assertTrue(appMap.isEmpty());
+    }
+
+    private static List<App> getApps() {
+        List<App> apps = new ArrayList<>(PACKAGE_COUNT * USER_IDS.length);
+        for (int userId : USER_IDS) {
+            for (int i = 0; i < PACKAGE_COUNT; ++i) {
+                App app = new App();
+                app.packageName = "com.example.package" + i;
+                app.userId = userId;
+                apps.add(app);
+            }
+        }
+        return apps;
+    }
+}
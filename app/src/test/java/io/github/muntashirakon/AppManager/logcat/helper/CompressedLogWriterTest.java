@@ -0,0 +1,220 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logcat.helper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.github.luben.zstd.ZstdInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import io.github.muntashirakon.AppManager.logcat.struct.SavedLog;
+import io.github.muntashirakon.io.Path;
+import io.github.muntashirakon.io.Paths;
+
+@RunWith(RobolectricTestRunner.class)
+public class CompressedLogWriterTest {
+    private static final String FILENAME = "test.am.log";
+
+    private File mDirectory;
+    private Path mDirectoryPath;
+
+    @Before
+    public void setUp() {
+        mDirectory = new File("/tmp/CompressedLogWriterTest");
+        mDirectory.mkdirs();
+        mDirectoryPath = Paths.get(mDirectory);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void testPartNames() {
+        assertEquals("test.am.log.12.zst", CompressedLogWriter.getPartName(FILENAME, 12));
+        assertEquals(FILENAME, CompressedLogWriter.getLogName("test.am.log.12.zst"));
+        assertEquals(12, CompressedLogWriter.getPartIndex("test.am.log.12.zst"));
+        assertNull(CompressedLogWriter.getLogName(FILENAME));
+        assertNull(CompressedLogWriter.getLogName("test.am.log.zst"));
+        assertEquals(-1, CompressedLogWriter.getPartIndex(FILENAME));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        List<String> lines = generateLines(20_000);
+        try (CompressedLogWriter writer = newWriter(Long.MAX_VALUE, 10)) {
+            for (String line : lines) {
+                writer.writeLine(line);
+            }
+        }
+        Path part = mDirectoryPath.findFile(CompressedLogWriter.getPartName(FILENAME, 1));
+        // Readable as a single zstd stream
+        assertEquals(lines, readSequentially(part));
+        // Readable from the end using the seek table
+        SavedLog savedLog = CompressedLogReader.openLog(part, Integer.MAX_VALUE);
+        assertEquals(lines, savedLog.getLogLines());
+        assertFalse(savedLog.isTruncated());
+        savedLog = CompressedLogReader.openLog(part, 1000);
+        assertEquals(lines.subList(lines.size() - 1000, lines.size()), savedLog.getLogLines());
+        assertTrue(savedLog.isTruncated());
+    }
+
+    @Test
+    public void testFlush() throws IOException {
+        List<String> lines = generateLines(1000);
+        Path part;
+        try (CompressedLogWriter writer = newWriter(Long.MAX_VALUE, 10)) {
+            for (String line : lines.subList(0, 100)) {
+                writer.writeLine(line);
+            }
+            writer.flush();
+            // The flushed lines are on the disk before the frame is full
+            part = mDirectoryPath.findFile(CompressedLogWriter.getPartName(FILENAME, 1));
+            assertEquals(lines.subList(0, 100), CompressedLogReader.openLog(part, Integer.MAX_VALUE).getLogLines());
+            for (String line : lines.subList(100, lines.size())) {
+                writer.writeLine(line);
+                writer.flush();
+            }
+        }
+        assertEquals(lines, readSequentially(part));
+        assertEquals(lines, CompressedLogReader.openLog(part, Integer.MAX_VALUE).getLogLines());
+        // Flushing does not end the frame
+        assertEquals(1, getFrameCount(new File(mDirectory, part.getName())));
+    }
+
+    @Test
+    public void testRotation() throws IOException {
+        List<String> lines = generateLines(50_000);
+        CompressedLogWriter writer = newWriter(CompressedLogWriter.FRAME_SIZE * 2, 3);
+        for (String line : lines) {
+            writer.writeLine(line);
+        }
+        writer.close();
+        String lastPartName = writer.getCurrentPartName();
+        // Only the last parts are kept
+        List<Path> parts = CompressedLogReader.getParts(mDirectoryPath.findFile(lastPartName));
+        assertEquals(3, parts.size());
+        assertEquals(lastPartName, parts.get(2).getName());
+        List<String> keptLines = new ArrayList<>();
+        for (Path part : parts) {
+            keptLines.addAll(readSequentially(part));
+        }
+        assertTrue(keptLines.size() < lines.size());
+        assertEquals(lines.subList(lines.size() - keptLines.size(), lines.size()), keptLines);
+        // The parts are opened together
+        SavedLog savedLog = CompressedLogReader.openLog(parts.get(0), Integer.MAX_VALUE);
+        assertEquals(keptLines, savedLog.getLogLines());
+        savedLog = CompressedLogReader.openLog(parts.get(1), keptLines.size() - 10);
+        assertEquals(keptLines.subList(10, keptLines.size()), savedLog.getLogLines());
+        assertTrue(savedLog.isTruncated());
+    }
+
+    @Test
+    public void testInterruptedPart() throws IOException {
+        List<String> lines = generateLines(20_000);
+        try (CompressedLogWriter writer = newWriter(Long.MAX_VALUE, 10)) {
+            for (String line : lines) {
+                writer.writeLine(line);
+            }
+        }
+        // Remove the seek table and a part of the last frame
+        File file = new File(mDirectory, CompressedLogWriter.getPartName(FILENAME, 1));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() / 2);
+        }
+        SavedLog savedLog = CompressedLogReader.openLog(Paths.get(file), Integer.MAX_VALUE);
+        List<String> readLines = savedLog.getLogLines();
+        assertFalse(readLines.isEmpty());
+        assertTrue(readLines.size() < lines.size());
+        assertEquals(lines.subList(0, readLines.size()), readLines);
+    }
+
+    @Test
+    @Ignore("Benchmark, run manually")
+    public void benchmarkCompression() throws IOException {
+        // Not a strict benchmark: it only reports the size of a recording with and without compression, and the time
+        // taken to open its last lines
+        List<String> lines = generateLines(200_000);
+        long start = System.nanoTime();
+        try (CompressedLogWriter writer = newWriter(Long.MAX_VALUE, 10)) {
+            for (String line : lines) {
+                writer.writeLine(line);
+            }
+        }
+        long writeNanos = System.nanoTime() - start;
+        long plainSize = 0;
+        for (String line : lines) {
+            plainSize += line.getBytes(StandardCharsets.UTF_8).length + 1;
+        }
+        Path part = mDirectoryPath.findFile(CompressedLogWriter.getPartName(FILENAME, 1));
+        start = System.nanoTime();
+        SavedLog savedLog = CompressedLogReader.openLog(part, 10_000);
+        long openNanos = System.nanoTime() - start;
+        System.out.printf(Locale.ROOT, "Recorded %d lines: plain %d KB, compressed %d KB, writing %.2f ms, " +
+                        "opening the last 10000 lines %.2f ms%n", lines.size(), plainSize / 1024, part.length() / 1024,
+                writeNanos / 1_000_000.0, openNanos / 1_000_000.0);
+        assertEquals(lines.subList(lines.size() - 10_000, lines.size()), savedLog.getLogLines());
+    }
+
+    private CompressedLogWriter newWriter(long maxPartSize, int maxParts) {
+        return new CompressedLogWriter(mDirectoryPath, FILENAME, maxPartSize, Long.MAX_VALUE, maxParts);
+    }
+
+    private static int getFrameCount(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(raf.length() - CompressedLogWriter.SEEK_TABLE_FOOTER_SIZE);
+            // Little endian
+            return Integer.reverseBytes(raf.readInt());
+        }
+    }
+
+    private static List<String> readSequentially(Path part) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ZstdInputStream(
+                part.openInputStream()), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private static List<String> generateLines(int count) {
+        String[] tags = new String[]{"ActivityManager", "PackageManager", "WindowManager", "chatty"};
+        char[] levels = new char[]{'V', 'D', 'I', 'W', 'E'};
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            lines.add(String.format(Locale.ROOT, "01-23 12:%02d:%02d.%03d %c/%-8s(%5d): Message number %d é",
+                    i / 60000 % 60, i / 1000 % 60, i % 1000, levels[i % levels.length], tags[i % tags.length],
+                    1000 + i % 300, i));
+        }
+        return lines;
+    }
+}
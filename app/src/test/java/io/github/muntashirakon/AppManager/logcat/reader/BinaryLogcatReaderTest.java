@@ -0,0 +1,263 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logcat.reader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.regex.Pattern;
+
+import io.github.muntashirakon.AppManager.logcat.struct.LogLine;
+import io.github.muntashirakon.AppManager.logcat.struct.LogLineParser;
+
+@RunWith(RobolectricTestRunner.class)
+public class BinaryLogcatReaderTest {
+    // 2021-03-04 05:06:07 UTC
+    private static final int SECONDS = 1614834367;
+
+    private TimeZone mTimeZone;
+
+    @Before
+    public void setUp() {
+        mTimeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(mTimeZone);
+    }
+
+    @Test
+    public void testReadLine() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        writeEntry(os, 28, 0, 1234, SECONDS, 89_000_000, 4, "ActivityManager", "Start proc");
+        // v1 header
+        writeEntry(os, 0, 0, 42, SECONDS + 1, 1_000_000, 6, "Tag", "First line\nSecond line\n");
+        writeEntry(os, 24, 0, 7, SECONDS + 2, 0, 7, "", "");
+        BinaryLogcatReader reader = new BinaryLogcatReader(new ByteArrayInputStream(os.toByteArray()), false);
+        assertEquals("--------- beginning of main", reader.readLine());
+        assertEquals("03-04 05:06:07.089 I/ActivityManager( 1234): Start proc", reader.readLine());
+        assertEquals("03-04 05:06:08.001 E/Tag     (   42): First line", reader.readLine());
+        assertEquals("03-04 05:06:08.001 E/Tag     (   42): Second line", reader.readLine());
+        assertEquals("03-04 05:06:09.000 F/        (    7): ", reader.readLine());
+        assertNull(reader.readLine());
+    }
+
+    @Test
+    public void testReadLogLine() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        writeEntry(os, 28, 0, 1234, SECONDS, 89_000_000, 4, "ActivityManager", "Start proc");
+        writeEntry(os, 28, 0, 42, SECONDS + 1, 1_000_000, 6, "Tag", "First line\nSecond line\n");
+        writeEntry(os, 28, 3, 7, SECONDS + 2, 0, 7, "", "");
+        writeEntry(os, 28, 3, 7, SECONDS + 2, 0, 5, "Tag", "maxLineHeight exceeded");
+        byte[] bytes = os.toByteArray();
+        // The lines are the same as the parsed text lines
+        BinaryLogcatReader textReader = new BinaryLogcatReader(new ByteArrayInputStream(bytes), false);
+        BinaryLogcatReader reader = new BinaryLogcatReader(new ByteArrayInputStream(bytes), false);
+        LogLineParser parser = new LogLineParser(null);
+        String line;
+        int count = 0;
+        while ((line = textReader.readLine()) != null) {
+            LogLine expected = parser.parseLogLine(line, true);
+            LogLine actual = reader.readLogLine(parser, true);
+            assertEquals(expected.getLogLevel(), actual.getLogLevel());
+            assertEquals(expected.getTagName(), actual.getTagName());
+            assertEquals(expected.getProcessId(), actual.getProcessId());
+            assertEquals(expected.getTimestamp(), actual.getTimestamp());
+            assertEquals(expected.getLogOutput(), actual.getLogOutput());
+            assertEquals(expected.isExpanded(), actual.isExpanded());
+            if (expected.getLogLevel() != android.util.Log.VERBOSE) {
+                // The level of the original line is adjusted
+                assertEquals(line, actual.getOriginalLine());
+            }
+            ++count;
+        }
+        assertNull(reader.readLogLine(parser, true));
+        assertEquals(7, count);
+    }
+
+    @Test
+    public void testReadLogLineFiltered() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        writeEntry(os, 28, 0, 1, SECONDS, 0, 3, "Debug", "Debug");
+        writeEntry(os, 28, 0, 1, SECONDS, 0, 5, "Excluded", "Warn");
+        writeEntry(os, 28, 0, 2, SECONDS, 0, 5, "OtherProcess", "Warn");
+        writeEntry(os, 28, 0, 1, SECONDS, 0, 6, "Error", "Error\nSecond line");
+        BinaryLogcatReader reader = new BinaryLogcatReader(new ByteArrayInputStream(os.toByteArray()), false);
+        LogLineParser parser = new LogLineParser(Pattern.compile("Excluded"));
+        parser.setMinLogLevel(android.util.Log.INFO);
+        parser.setProcessIdFilter(1);
+        // Filtered out by its level like the lines
+        assertNull(parser.parseLogLine("--------- beginning of main", false));
+        LogLine logLine = reader.readLogLine(parser, false);
+        assertEquals("Error   ", logLine.getTagName());
+        assertEquals("Error", logLine.getLogOutput());
+        assertEquals("Second line", reader.readLogLine(parser, false).getLogOutput());
+        assertNull(reader.readLogLine(parser, false));
+    }
+
+    @Test
+    public void testBeginningMarkers() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        writeEntry(os, 28, 0, 1, SECONDS, 0, 4, "Main", "1");
+        writeEntry(os, 28, 0, 1, SECONDS, 0, 4, "Main", "2");
+        writeEntry(os, 24, 3, 1, SECONDS, 0, 4, "System", "3");
+        writeEntry(os, 28, 0, 1, SECONDS, 0, 4, "Main", "4");
+        writeEntry(os, 28, 4, 1, SECONDS, 0, 4, "Crash", "5");
+        BinaryLogcatReader reader = new BinaryLogcatReader(new ByteArrayInputStream(os.toByteArray()), false);
+        assertEquals("--------- beginning of main", reader.readLine());
+        assertEquals("03-04 05:06:07.000 I/Main    (    1): 1", reader.readLine());
+        assertEquals("03-04 05:06:07.000 I/Main    (    1): 2", reader.readLine());
+        assertEquals("--------- beginning of system", reader.readLine());
+        assertEquals("03-04 05:06:07.000 I/System  (    1): 3", reader.readLine());
+        // Switching back to a buffer is not marked
+        assertEquals("03-04 05:06:07.000 I/Main    (    1): 4", reader.readLine());
+        assertEquals("--------- beginning of crash", reader.readLine());
+        assertEquals("03-04 05:06:07.000 I/Crash   (    1): 5", reader.readLine());
+        assertNull(reader.readLine());
+    }
+
+    @Test
+    public void testKernelLogger() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        // v2 headers have the effective UID instead of the log ID
+        writeEntry(os, 24, 1000, 1, SECONDS, 0, 4, "Tag", "1");
+        writeEntry(os, 24, 0, 1, SECONDS, 0, 4, "Tag", "2");
+        BinaryLogcatReader reader = new BinaryLogcatReader(new ByteArrayInputStream(os.toByteArray()), true);
+        LoggerEntry entry = reader.readEntry();
+        assertEquals(LoggerEntry.LOG_ID_UNKNOWN, entry.getLogId());
+        reader = new BinaryLogcatReader(new ByteArrayInputStream(os.toByteArray()), true);
+        assertEquals("03-04 05:06:07.000 I/Tag     (    1): 1", reader.readLine());
+        assertEquals("03-04 05:06:07.000 I/Tag     (    1): 2", reader.readLine());
+        assertNull(reader.readLine());
+    }
+
+    @Test
+    public void testPreFilter() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        writeEntry(os, 28, 0, 1, SECONDS, 0, 3, "Debug", "Debug");
+        writeEntry(os, 28, 0, 1, SECONDS, 0, 5, "Warn", "Warn");
+        writeEntry(os, 28, 0, 2, SECONDS, 0, 5, "OtherWarn", "Warn");
+        writeEntry(os, 28, 0, 1, SECONDS, 0, 6, "Error", "Error");
+        BinaryLogcatReader reader = new BinaryLogcatReader(new ByteArrayInputStream(os.toByteArray()), false);
+        reader.setPreFilter(android.util.Log.WARN, 1);
+        LoggerEntry entry = reader.readEntry();
+        assertEquals("Warn", entry.getTag());
+        assertEquals(android.util.Log.WARN, entry.getLogLevel());
+        entry = reader.readEntry();
+        assertEquals("Error", entry.getTag());
+        assertEquals(1, entry.getPid());
+        assertNull(reader.readEntry());
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedEntry() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        writeEntry(os, 28, 0, 1, SECONDS, 0, 4, "Tag", "Message");
+        byte[] bytes = os.toByteArray();
+        BinaryLogcatReader reader = new BinaryLogcatReader(new ByteArrayInputStream(bytes, 0, bytes.length - 3), false);
+        reader.readLine();
+    }
+
+    @Test
+    @Ignore("Benchmark, run manually")
+    public void benchmarkRead() throws IOException {
+        // Not a strict benchmark: it only reports the time taken to read and parse the same log from the text output
+        // of logcat (as before), from the binary output formatted as text, and from the binary output as log lines
+        int count = 200_000;
+        String[] tags = new String[]{"ActivityManager", "PackageManager", "WindowManager", "chatty"};
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        for (int i = 0; i < count; ++i) {
+            writeEntry(os, 28, 0, 100 + i % 3000, SECONDS + i / 100, (i % 1000) * 1_000_000, 2 + i % 5,
+                    tags[i % tags.length], "Message number " + i + " with some text");
+        }
+        byte[] binary = os.toByteArray();
+        StringBuilder sb = new StringBuilder();
+        BinaryLogcatReader reader = new BinaryLogcatReader(new ByteArrayInputStream(binary), false);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            sb.append(line).append('\n');
+        }
+        byte[] text = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        LogLineParser parser = new LogLineParser(null);
+        parser.setMinLogLevel(android.util.Log.WARN);
+        long start = System.nanoTime();
+        int textLines = 0;
+        BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(text)),
+                8192);
+        while ((line = bufferedReader.readLine()) != null) {
+            LogLine logLine = parser.parseLogLine(line, false);
+            if (logLine != null) {
+                ++textLines;
+            }
+        }
+        long textNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        int binaryLines = 0;
+        reader = new BinaryLogcatReader(new ByteArrayInputStream(binary), false);
+        reader.setPreFilter(android.util.Log.WARN, -1);
+        while ((line = reader.readLine()) != null) {
+            LogLine logLine = parser.parseLogLine(line, false);
+            if (logLine != null) {
+                ++binaryLines;
+            }
+        }
+        long binaryNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        int entryLines = 0;
+        reader = new BinaryLogcatReader(new ByteArrayInputStream(binary), false);
+        while (reader.readLogLine(parser, false) != null) {
+            ++entryLines;
+        }
+        long entryNanos = System.nanoTime() - start;
+        System.out.printf(Locale.ROOT, "Read %d entries (%d KB as text, %d KB as binary): text %.2f ms, " +
+                        "binary as text %.2f ms, binary as log lines %.2f ms%n", count, text.length / 1024,
+                binary.length / 1024, textNanos / 1_000_000.0, binaryNanos / 1_000_000.0, entryNanos / 1_000_000.0);
+        assertEquals(textLines, binaryLines);
+        assertEquals(textLines, entryLines);
+    }
+
+    private static void writeEntry(ByteArrayOutputStream os, int headerSize, int logId, int pid, int seconds,
+                                   int nanoseconds, int priority, String tag, String message) {
+        byte[] tagBytes = tag.getBytes(StandardCharsets.UTF_8);
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+        int payloadLength = 1 + tagBytes.length + 1 + messageBytes.length + 1;
+        int actualHeaderSize = headerSize == 0 ? 20 : headerSize;
+        ByteBuffer buffer = ByteBuffer.allocate(actualHeaderSize + payloadLength).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putShort((short) payloadLength);
+        buffer.putShort((short) headerSize);
+        buffer.putInt(pid);
+        buffer.putInt(pid); // tid
+        buffer.putInt(seconds);
+        buffer.putInt(nanoseconds);
+        if (actualHeaderSize >= 24) {
+            buffer.putInt(logId); // lid, or euid in v2
+        }
+        if (actualHeaderSize >= 28) {
+            buffer.putInt(1000); // uid
+        }
+        buffer.put((byte) priority);
+        buffer.put(tagBytes).put((byte) 0);
+        buffer.put(messageBytes).put((byte) 0);
+        os.write(buffer.array(), 0, buffer.capacity());
+    }
+}
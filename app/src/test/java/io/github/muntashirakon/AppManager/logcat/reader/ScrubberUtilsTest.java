@@ -0,0 +1,185 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logcat.reader;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import io.github.muntashirakon.AppManager.logcat.struct.LogLineParser;
+
+@RunWith(RobolectricTestRunner.class)
+public class ScrubberUtilsTest {
+    private static final String[] MESSAGES = new String[]{
+            "",
+            "Nothing to scrub here",
+            "192.168.1.1",
+            "192.168.1.1\n",
+            "192.168.1.1\r\n",
+            "255.255.255.255\r",
+            "256.1.1.1",
+            "10.0.0.1 is not alone",
+            "john.doe@example.com sent a message",
+            "mail to john.doe%40example.com and jane@mail.example.org",
+            "user@a.b.c.d.example.com",
+            "(555) 234-5678",
+            "+1 555.234.5678 ext. 42",
+            "555-234-5678 x 7\n",
+            "1-800-234-5678",
+            "Call 555-234-5678 now",
+            "Visit https://example.com/path?q=1&r=2 or ftp://ftp.example.org/file.txt",
+            "file:///sdcard/Download/test.apk",
+            "HTTP://EXAMPLE.COM",
+            "onSubscriptionsChanged: msisdn=15552345678 iccid=8901234567890123456 mImsi=310260000000000",
+            "MSISDN=123 ICCID: 8901 mMsisdn=abc",
+            "UserInfo{0:Owner:c13} UserInfo{10:Work profile:30}",
+            "userinfo{1:Guest user}",
+            "Account {name=johndoe, type=com.google}",
+            "account {NAME=JohnDoe}",
+            "Loading /data/resource-cache/john@example.com",
+            "Opening /data/dalvik-cache/arm64/192.168.1.1",
+            "/cache/dalvik-cache/https://example.com",
+            "Größe: john@example.com ı iccıd=123 ımsi",
+            "All at once: 192.168.0.1 john@example.com https://example.com msisdn=1 UserInfo{0:A} Account {name=a}",
+            "@%40://",
+            "mimsi mimsi= account {name",
+    };
+
+    @Test
+    public void testScrubLine() {
+        for (String message : MESSAGES) {
+            assertEquals(message, scrubLineWithRegexOnly(message), ScrubberUtils.scrubLine(message));
+        }
+    }
+
+    @Test
+    public void testScrubRandomLines() {
+        Random random = new Random(42);
+        String[] parts = new String[]{"192", ".", "168", "1", "255", "@", "%40", "%4", "://", "http", "https", "ftp",
+                "file", "example", ".com", "msisdn=", "mMsisdn=", "iccid=", "iccid: ", "mImsi=", "UserInfo{",
+                "Account {name=", "0:", "555", "-", "234", "5678", "(", ")", "+1", " ", "ext", "x", "#", "\n", "\r",
+                "/data/dalvik-cache", "/cache", "a", "Z", "_", "é"};
+        for (int i = 0; i < 100_000; ++i) {
+            StringBuilder sb = new StringBuilder();
+            int count = random.nextInt(12);
+            for (int j = 0; j < count; ++j) {
+                String part = parts[random.nextInt(parts.length)];
+                sb.append(random.nextBoolean() ? part : part.toUpperCase(Locale.ROOT));
+            }
+            String line = sb.toString();
+            assertEquals(line, scrubLineWithRegexOnly(line), ScrubberUtils.scrubLine(line));
+        }
+    }
+
+    @Test
+    public void testScrubLogLines() {
+        List<String> lines = generateLines(10_000);
+        List<String> scrubbedLines = ScrubberUtils.scrubLogLines(lines);
+        // Only the messages are scrubbed
+        LogLineParser parser = new LogLineParser(null);
+        List<String> expected = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            int result = parser.parse(line);
+            if (result == LogLineParser.RESULT_LOG_LINE) {
+                int messageStart = parser.getMessageStart();
+                expected.add(line.substring(0, messageStart) + scrubLineWithRegexOnly(line.substring(messageStart)));
+            } else if (result == LogLineParser.RESULT_UNKNOWN) {
+                expected.add(scrubLineWithRegexOnly(line));
+            } else {
+                expected.add(line);
+            }
+        }
+        assertEquals(expected, scrubbedLines);
+        // Small logs are scrubbed in the current thread
+        assertEquals(expected.subList(0, 100), ScrubberUtils.scrubLogLines(lines.subList(0, 100)));
+    }
+
+    @Test
+    @Ignore("Benchmark, run manually")
+    public void benchmarkScrubLogLines() {
+        // Not a strict benchmark: it only reports the time taken to scrub a large log by running every pattern on
+        // every line (as before) and by the current implementation
+        List<String> lines = generateLines(200_000);
+        LogLineParser parser = new LogLineParser(null);
+        long start = System.nanoTime();
+        List<String> expected = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            if (parser.parse(line) == LogLineParser.RESULT_LOG_LINE) {
+                int messageStart = parser.getMessageStart();
+                expected.add(line.substring(0, messageStart) + scrubLineWithRegexOnly(line.substring(messageStart)));
+            } else {
+                expected.add(scrubLineWithRegexOnly(line));
+            }
+        }
+        long regexNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        List<String> sequentialLines = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            sequentialLines.add(ScrubberUtils.scrubLogLine(line, parser));
+        }
+        long sequentialNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        List<String> parallelLines = ScrubberUtils.scrubLogLines(lines);
+        long parallelNanos = System.nanoTime() - start;
+        System.out.printf(Locale.ROOT, "Scrubbed %d lines: regex only %.2f ms, prefiltered %.2f ms, prefiltered in " +
+                        "parallel %.2f ms%n", lines.size(), regexNanos / 1_000_000.0, sequentialNanos / 1_000_000.0,
+                parallelNanos / 1_000_000.0);
+        assertEquals(expected, sequentialLines);
+        assertEquals(expected, parallelLines);
+    }
+
+    private static List<String> generateLines(int count) {
+        String[] tags = new String[]{"ActivityManager", "PackageManager", "WindowManager", "chatty"};
+        char[] levels = new char[]{'V', 'D', 'I', 'W', 'E'};
+        List<String> lines = new ArrayList<>(count);
+        lines.add("--------- beginning of main");
+        for (int i = 0; i < count; ++i) {
+            String message;
+            if (i % 50 == 0) {
+                message = MESSAGES[i / 50 % MESSAGES.length];
+            } else {
+                message = "Message number " + i + " for " + tags[i % tags.length].toLowerCase(Locale.ROOT);
+            }
+            lines.add(String.format(Locale.ROOT, "01-23 12:%02d:%02d.%03d %c/%-8s(%5d): %s", i / 60000 % 60,
+                    i / 1000 % 60, i % 1000, levels[i % levels.length], tags[i % tags.length], 1000 + i % 300,
+                    message));
+            if (i % 1000 == 0) {
+                lines.add("\tat john@example.com.Foo.bar(Foo.java:1)");
+            }
+        }
+        return lines;
+    }
+
+    // The previous implementation of ScrubberUtils.scrubLine(), which runs every pattern on every line
+    private static final Pattern EMAIL_PATTERN = Pattern.compile("[a-zA-Z0-9_]+(?:\\.[A-Za-z0-9!#$%&'*+/=?^_`{|}~-]+)*(@|%40)(?!([a-zA-Z0-9]*\\.[a-zA-Z0-9]*\\.[a-zA-Z0-9]*\\.))(?:[A-Za-z0-9](?:[a-zA-Z0-9-]*[A-Za-z0-9])?\\.)+[a-zA-Z](?:[a-zA-Z0-9-]*[a-zA-Z0-9])?");
+    private static final Pattern PHONE_NUMBER_PATTERN = Pattern.compile("^(?:(?:\\+?1\\s*(?:[.-]\\s*)?)?(?:\\(\\s*([2-9]1[02-9]|[2-9][02-8]1|[2-9][02-8][02-9])\\s*\\)|([2-9]1[02-9]|[2-9][02-8]1|[2-9][02-8][02-9]))\\s*(?:[.-]\\s*)?)?([2-9]1[02-9]|[2-9][02-9]1|[2-9][02-9]{2})\\s*(?:[.-]\\s*)?([0-9]{4})(?:\\s*(?:#|x\\.?|ext\\.?|extension)\\s*(\\d+))?$");
+    private static final Pattern WEB_URL_PATTERN = Pattern.compile("\\b(https?|ftp|file)://[-a-zA-Z0-9+&@#/%?=~_|!:,.;]*[-a-zA-Z0-9+&@#/%=~_|]");
+    private static final Pattern IP_ADDRESS_PATTERN = Pattern.compile("^([01]?\\d\\d?|2[0-4]\\d|25[0-5])\\.([01]?\\d\\d?|2[0-4]\\d|25[0-5])\\.([01]?\\d\\d?|2[0-4]\\d|25[0-5])\\.([01]?\\d\\d?|2[0-4]\\d|25[0-5])$");
+    private static final Pattern PHONE_INFO_PATTERN = Pattern.compile("(msisdn=|mMsisdn=|iccid=|iccid: |mImsi=)[a-zA-Z0-9]*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern USER_INFO_PATTERN = Pattern.compile("(UserInfo\\{\\d:)[a-zA-Z0-9\\s]*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ACCOUNT_INFO_PATTERN = Pattern.compile("(Account \\{name=)[a-zA-Z0-9]*", Pattern.CASE_INSENSITIVE);
+
+    private static String scrubLineWithRegexOnly(String line) {
+        if (line.contains("/data/resource-cache") || line.contains("/data/dalvik-cache")
+                || line.contains("/cache/dalvik-cache")) {
+            return line;
+        }
+        line = IP_ADDRESS_PATTERN.matcher(line).replaceAll("<IP address omitted>");
+        line = EMAIL_PATTERN.matcher(line).replaceAll("<email omitted>");
+        line = PHONE_NUMBER_PATTERN.matcher(line).replaceAll("<phone number omitted>");
+        line = WEB_URL_PATTERN.matcher(line).replaceAll("<web url omitted>");
+        line = PHONE_INFO_PATTERN.matcher(line).replaceAll("<omitted>");
+        line = USER_INFO_PATTERN.matcher(line).replaceAll("<omitted>");
+        line = ACCOUNT_INFO_PATTERN.matcher(line).replaceAll("<omitted>");
+        return line;
+    }
+}
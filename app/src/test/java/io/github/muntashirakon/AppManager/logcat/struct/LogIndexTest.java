@@ -0,0 +1,341 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logcat.struct;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import io.github.muntashirakon.io.Path;
+import io.github.muntashirakon.io.Paths;
+
+@RunWith(RobolectricTestRunner.class)
+public class LogIndexTest {
+    private static final String[] TAGS = new String[]{"ActivityManager", "PackageManager", "WindowManager", "chatty",
+            "AndroidRuntime", "wpa_supplicant", "Zygote", "System.err"};
+    private static final char[] LEVELS = new char[]{'V', 'D', 'I', 'W', 'E'};
+
+    private final List<File> junkFiles = new ArrayList<>();
+    private Path mLogFile;
+    private Path mIndexFile;
+
+    @Before
+    public void setUp() {
+        File logFile = new File("/tmp/LogIndexTest.log");
+        File indexFile = new File("/tmp/LogIndexTest.log.idx");
+        junkFiles.add(logFile);
+        junkFiles.add(indexFile);
+        mLogFile = Paths.get(logFile);
+        mIndexFile = Paths.get(indexFile);
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : junkFiles) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testBlocks() throws IOException {
+        writeLines(generateLines(0, 1000), false);
+        LogIndex index = LogIndex.open(mLogFile, mIndexFile);
+        assertEquals(1000, index.getLineCount());
+        assertEquals((1000 + LogIndex.LINES_PER_BLOCK - 1) / LogIndex.LINES_PER_BLOCK, index.getBlockCount());
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < index.getBlockCount(); ++i) {
+            lines.addAll(index.readBlock(mLogFile, i));
+        }
+        assertEquals(readLines(), lines);
+    }
+
+    @Test
+    public void testUpdate() throws IOException {
+        writeLines(generateLines(0, 1000), false);
+        LogIndex.open(mLogFile, mIndexFile);
+        writeLines(generateLines(1000, 500), true);
+        // The new lines are indexed
+        LogIndex index = LogIndex.open(mLogFile, mIndexFile);
+        assertEquals(1500, index.getLineCount());
+        assertSearch(index, "tag:Zygote", Log.VERBOSE);
+        // A different log with the same name
+        writeLines(generateLines(5000, 200), false);
+        index = LogIndex.open(mLogFile, mIndexFile);
+        assertEquals(200, index.getLineCount());
+        assertSearch(index, "pid:1210", Log.VERBOSE);
+    }
+
+    @Test
+    public void testSearch() throws IOException {
+        List<String> lines = generateLines(0, 5000);
+        lines.add("--------- beginning of crash");
+        lines.add("01-23 12:34:56.789 E/AndroidRuntime( 4321): FATAL EXCEPTION: main");
+        lines.add("\tat android.os.Looper.loop(Looper.java:123)");
+        lines.add("01-23 12:34:56.789 W/Ünïcödé( 4321): Größe ÄNDERN");
+        writeLines(lines, false);
+        LogIndex index = LogIndex.open(mLogFile, mIndexFile);
+        String[] queries = new String[]{"", "ANR", "anr in", "tag:ActivityManager pid:1234 \"ANR\"", "tag:zyg",
+                "pid:1234", "1234", "Looper.java", "FATAL", "message 4999", "größe", "tag:ünï", "ändern",
+                "not found anywhere", "tag:NotFound", "pid:99999", "ab"};
+        for (String query : queries) {
+            for (int logLevel = Log.VERBOSE; logLevel <= Log.ERROR; ++logLevel) {
+                assertSearch(index, query, logLevel);
+            }
+        }
+        // The blocks without matches are skipped
+        SearchCriteria searchCriteria = new SearchCriteria("not found anywhere");
+        for (int i = 0; i < index.getBlockCount(); ++i) {
+            assertFalse(index.mayMatch(i, searchCriteria, Log.VERBOSE));
+        }
+    }
+
+    @Test
+    public void testFalsePositiveRate() throws IOException {
+        List<String> lines = generateRealisticLines(20_000);
+        writeLines(lines, false);
+        LogIndex index = LogIndex.open(mLogFile, mIndexFile);
+        List<String> blockTexts = new ArrayList<>();
+        for (int i = 0; i < index.getBlockCount(); ++i) {
+            StringBuilder sb = new StringBuilder();
+            for (String line : index.readBlock(mLogFile, i)) {
+                sb.append(line.toLowerCase(Locale.ROOT)).append('\n');
+            }
+            blockTexts.add(sb.toString());
+        }
+        // Trigrams test the Bloom filters themselves, as a query passes only if all its trigrams do
+        Random random = new Random(42);
+        String alphabet = "abcdefghijklmnopqrstuvwxyz.:_";
+        int negatives = 0;
+        int falsePositives = 0;
+        for (int i = 0; i < 500; ++i) {
+            char[] query = new char[3];
+            for (int j = 0; j < query.length; ++j) {
+                query[j] = alphabet.charAt(random.nextInt(alphabet.length()));
+            }
+            SearchCriteria searchCriteria = new SearchCriteria(new String(query));
+            for (int j = 0; j < blockTexts.size(); ++j) {
+                if (blockTexts.get(j).contains(new String(query))) {
+                    continue;
+                }
+                ++negatives;
+                if (index.mayMatch(j, searchCriteria, Log.VERBOSE)) {
+                    ++falsePositives;
+                }
+            }
+        }
+        assertTrue(negatives > 10_000);
+        double falsePositiveRate = (double) falsePositives / negatives;
+        assertTrue("False positive rate: " + falsePositiveRate, falsePositiveRate < 0.03);
+    }
+
+    @Test
+    public void testPages() throws IOException {
+        writeLines(generateLines(0, 3000), false);
+        LogIndex index = LogIndex.open(mLogFile, mIndexFile);
+        List<String> expected = linearSearch("tag:ActivityManager", Log.VERBOSE);
+        LogIndex.Search search = index.search(mLogFile, new SearchCriteria("tag:ActivityManager"), Log.VERBOSE, null);
+        List<String> actual = new ArrayList<>();
+        while (search.hasMore()) {
+            // Pages are returned from the newest to the oldest
+            actual.addAll(0, search.nextPage(50));
+        }
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testQuotedSearchText() throws IOException {
+        List<String> lines = generateLines(0, 1000);
+        lines.add("01-23 12:34:56.789 E/ActivityManager( 1234): ANR in com.example.app");
+        lines.add("01-23 12:34:56.789 E/ActivityManager( 1234): Not responding");
+        lines.add("01-23 12:34:56.789 E/ActivityManager( 4321): ANR in com.example.other");
+        writeLines(lines, false);
+        String query = "tag:ActivityManager pid:1234 \"ANR\"";
+        SearchCriteria searchCriteria = new SearchCriteria(query);
+        assertEquals("ActivityManager", searchCriteria.getTag());
+        assertEquals(1234, searchCriteria.getPid());
+        // The quotes are not a part of the text
+        assertEquals("ANR", searchCriteria.getSearchText());
+        LogIndex index = LogIndex.open(mLogFile, mIndexFile);
+        List<String> expected = Collections.singletonList(lines.get(1000));
+        assertEquals(expected, linearSearch(query, Log.VERBOSE));
+        assertEquals(expected, index.search(mLogFile, searchCriteria, Log.VERBOSE, null).nextPage(Integer.MAX_VALUE));
+        // Phrases
+        assertEquals("ANR in", new SearchCriteria("\"ANR in\"").getSearchText());
+        assertEquals("\"", new SearchCriteria("\"").getSearchText());
+    }
+
+    @Test
+    @Ignore("Benchmark, run manually")
+    public void benchmarkSearch() throws IOException {
+        // Not a strict benchmark: it only reports the time taken to search a large log by reading every line (as
+        // before) and by using the index
+        writeLines(generateLines(0, 200_000), false);
+        long start = System.nanoTime();
+        LogIndex index = LogIndex.open(mLogFile, mIndexFile);
+        long indexNanos = System.nanoTime() - start;
+        String query = "tag:ActivityManager pid:1234 \"ANR\"";
+        start = System.nanoTime();
+        List<String> expected = linearSearch(query, Log.VERBOSE);
+        long linearNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        List<String> actual = index.search(mLogFile, new SearchCriteria(query), Log.VERBOSE, null)
+                .nextPage(Integer.MAX_VALUE);
+        long searchNanos = System.nanoTime() - start;
+        System.out.printf(Locale.ROOT, "Searched %d lines (%d KB, index %d KB): indexing %.2f ms, linear search " +
+                        "%.2f ms, indexed search %.2f ms%n", index.getLineCount(), mLogFile.length() / 1024,
+                mIndexFile.length() / 1024, indexNanos / 1_000_000.0, linearNanos / 1_000_000.0,
+                searchNanos / 1_000_000.0);
+        assertEquals(expected, actual);
+    }
+
+    private void assertSearch(LogIndex index, String query, int logLevel) throws IOException {
+        List<String> expected = linearSearch(query, logLevel);
+        List<String> actual = index.search(mLogFile, new SearchCriteria(query), logLevel, null)
+                .nextPage(Integer.MAX_VALUE);
+        assertEquals(query + " at " + logLevel, expected, actual);
+        // The index must not skip a block with a match
+        SearchCriteria searchCriteria = new SearchCriteria(query);
+        LogLineParser parser = new LogLineParser(null);
+        parser.setMinLogLevel(logLevel);
+        for (int i = 0; i < index.getBlockCount(); ++i) {
+            for (String line : index.readBlock(mLogFile, i)) {
+                LogLine logLine = parser.parseLogLine(line, false);
+                if (logLine != null && searchCriteria.matches(logLine)) {
+                    assertTrue(query + " in " + line, index.mayMatch(i, searchCriteria, logLevel));
+                }
+            }
+        }
+    }
+
+    private List<String> linearSearch(String query, int logLevel) throws IOException {
+        SearchCriteria searchCriteria = new SearchCriteria(query);
+        LogLineParser parser = new LogLineParser(null);
+        parser.setMinLogLevel(logLevel);
+        parser.setProcessIdFilter(searchCriteria.getPid());
+        List<String> result = new ArrayList<>();
+        for (String line : readLines()) {
+            LogLine logLine = parser.parseLogLine(line, false);
+            if (logLine != null && searchCriteria.matches(logLine)) {
+                result.add(line);
+            }
+        }
+        return result;
+    }
+
+    private List<String> readLines() throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(mLogFile.openInputStream(),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private void writeLines(List<String> lines, boolean append) throws IOException {
+        try (OutputStream os = mLogFile.openOutputStream(append);
+             PrintStream out = new PrintStream(os, false, "UTF-8")) {
+            for (String line : lines) {
+                out.print(line);
+                out.print('\n');
+            }
+        }
+    }
+
+    private static List<String> generateLines(int start, int count) {
+        List<String> lines = new ArrayList<>(count);
+        for (int i = start; i < start + count; ++i) {
+            String tag = TAGS[i % TAGS.length];
+            int pid = 1000 + i % 300;
+            String message;
+            if (i % 997 == 0) {
+                message = "ANR in com.example.app" + i;
+            } else {
+                message = "Message " + i + " for " + tag.toLowerCase(Locale.ROOT);
+            }
+            lines.add(String.format(Locale.ROOT, "%s %c/%-8s(%5d): %s", getTimestamp(i), LEVELS[i % LEVELS.length],
+                    tag, pid, message));
+        }
+        return lines;
+    }
+
+    /**
+     * Lines with varied messages, package names and numbers similar to those of a real log.
+     */
+    private static List<String> generateRealisticLines(int count) {
+        String[] words = new String[]{"activity", "service", "broadcast", "intent", "receiver", "start", "stop",
+                "resume", "pause", "destroy", "bind", "unbind", "window", "focus", "display", "surface", "buffer",
+                "layer", "vsync", "frame", "dropped", "skipped", "choreographer", "network", "wifi", "connected",
+                "disconnected", "scan", "results", "battery", "level", "temperature", "voltage", "alarm", "wakelock",
+                "acquire", "release", "timeout", "exception", "null", "failed", "success", "permission", "denied",
+                "granted", "package", "installed", "removed", "updated", "uid", "user", "process", "killed", "died",
+                "memory", "trim", "gc", "freed", "objects", "heap", "bytes", "thread", "looper", "handler",
+                "message", "queue", "binder", "transaction", "sync", "account", "provider", "cursor", "database",
+                "query", "insert", "delete", "storage", "mount", "volume", "media", "audio", "stream", "volume",
+                "bluetooth", "location", "gps", "sensor", "accelerometer", "camera", "preview", "config", "changed"};
+        String[] packages = new String[]{"com.android.systemui", "com.google.android.gms", "com.android.phone",
+                "com.example.app", "org.mozilla.firefox", "com.whatsapp", "com.android.vending",
+                "io.github.muntashirakon.appmanager"};
+        Random random = new Random(1);
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            StringBuilder message = new StringBuilder();
+            int wordCount = 3 + random.nextInt(10);
+            for (int j = 0; j < wordCount; ++j) {
+                if (j > 0) {
+                    message.append(' ');
+                }
+                switch (random.nextInt(8)) {
+                    case 0:
+                        message.append(packages[random.nextInt(packages.length)]);
+                        break;
+                    case 1:
+                        message.append(random.nextInt(100_000));
+                        break;
+                    case 2:
+                        message.append("0x").append(Integer.toHexString(random.nextInt()));
+                        break;
+                    default:
+                        message.append(words[random.nextInt(words.length)]);
+                }
+            }
+            lines.add(String.format(Locale.ROOT, "%s %c/%-8s(%5d): %s", getTimestamp(i),
+                    LEVELS[random.nextInt(LEVELS.length)], TAGS[random.nextInt(TAGS.length)],
+                    1000 + random.nextInt(3000), message));
+        }
+        return lines;
+    }
+
+    private static String getTimestamp(int i) {
+        // One line per second
+        int seconds = i % 60;
+        int minutes = i / 60 % 60;
+        int hours = i / 3600 % 24;
+        int days = 1 + i / 86400;
+        return String.format(Locale.ROOT, "01-%02d %02d:%02d:%02d.000", days, hours, minutes, seconds);
+    }
+}
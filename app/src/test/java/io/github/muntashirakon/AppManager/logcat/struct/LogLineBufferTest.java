@@ -0,0 +1,265 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logcat.struct;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+@RunWith(RobolectricTestRunner.class)
+public class LogLineBufferTest {
+    private static final String[] TAGS = new String[]{"ActivityManager", "PackageManager", "WindowManager", "chatty"};
+
+    @Test
+    public void testAppendAndGet() {
+        LogLineBuffer buffer = new LogLineBuffer(16);
+        LogLine logLine = newLogLine(0);
+        long id = buffer.append(logLine);
+        assertEquals(0, id);
+        assertLogLineEquals(logLine, buffer.get(id));
+        assertEquals(logLine.getOriginalLine(), buffer.getOriginalLine(id));
+        // Scrubbed output is not a part of the original line
+        LogLine scrubbed = newLogLine(1);
+        scrubbed.setLogOutputUnmodified("scrubbed");
+        id = buffer.append(scrubbed);
+        assertLogLineEquals(scrubbed, buffer.get(id));
+        // No output, no timestamp
+        LogLine begin = new LogLine("--------- beginning of main");
+        id = buffer.append(begin);
+        assertLogLineEquals(begin, buffer.get(id));
+        // Timestamp that cannot be packed
+        LogLine custom = newLogLine(3);
+        custom.setTimestamp("1970-01-01 00:00:00");
+        id = buffer.append(custom);
+        assertLogLineEquals(custom, buffer.get(id));
+        assertEquals(4, buffer.size());
+    }
+
+    @Test
+    public void testFormattedOnDemand() {
+        LogLineBuffer buffer = new LogLineBuffer(16);
+        LogLineParser parser = new LogLineParser(null);
+        LogLine logLine = parser.newLogLine("01-02 03:04:05.006", android.util.Log.INFO, "Tag     ", 42, "Message",
+                false);
+        long id = buffer.append(logLine);
+        LogLine stored = buffer.get(id);
+        assertTrue(stored.isFormattedOnDemand());
+        assertEquals("Message", stored.getMessage());
+        assertLogLineEquals(logLine, stored);
+        assertEquals("01-02 03:04:05.006 I/Tag     (   42): Message", buffer.getOriginalLine(id));
+        // Same as the parsed line
+        assertLogLineEquals(LogLine.newLogLine(buffer.getOriginalLine(id), false, null), stored);
+        // Scrubbed output is not a part of the original line
+        LogLine scrubbed = parser.newLogLine("01-02 03:04:05.006", android.util.Log.WARN, "ActivityManager", 1234,
+                "john@example.com", false);
+        scrubbed.setLogOutputUnmodified("<email omitted>");
+        id = buffer.append(scrubbed);
+        assertLogLineEquals(scrubbed, buffer.get(id));
+        assertEquals("01-02 03:04:05.006 W/ActivityManager( 1234): john@example.com", buffer.getOriginalLine(id));
+    }
+
+    @Test
+    public void testEvictionByLines() {
+        LogLineBuffer buffer = new LogLineBuffer(10);
+        List<LogLine> logLines = new ArrayList<>();
+        for (int i = 0; i < 25; ++i) {
+            logLines.add(newLogLine(i));
+            assertEquals(i, buffer.append(logLines.get(i)));
+        }
+        assertEquals(10, buffer.size());
+        assertEquals(15, buffer.getFirstId());
+        assertEquals(25, buffer.getNextId());
+        assertFalse(buffer.contains(14));
+        for (long id = buffer.getFirstId(); id < buffer.getNextId(); ++id) {
+            assertLogLineEquals(logLines.get((int) id), buffer.get(id));
+        }
+        buffer.removeFirst(3);
+        assertEquals(7, buffer.size());
+        assertEquals(18, buffer.getFirstId());
+        buffer.clear();
+        assertTrue(buffer.isEmpty());
+        // IDs are not reused
+        assertEquals(25, buffer.append(newLogLine(0)));
+    }
+
+    @Test
+    public void testEvictionByChars() {
+        LogLineBuffer buffer = new LogLineBuffer(1000, 500);
+        List<LogLine> logLines = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            logLines.add(newLogLine(i));
+            buffer.append(logLines.get(i));
+        }
+        assertTrue(buffer.size() < 100);
+        assertEquals(100, buffer.getNextId());
+        // The lines wrap around the end of the arena
+        for (long id = buffer.getFirstId(); id < buffer.getNextId(); ++id) {
+            assertLogLineEquals(logLines.get((int) id), buffer.get(id));
+        }
+        // Longer than the arena
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; ++i) {
+            sb.append('x');
+        }
+        long id = buffer.append(new LogLine(sb.toString()));
+        assertEquals(500 / 3, buffer.getOriginalLine(id).length());
+    }
+
+    @Test
+    public void testWideLines() {
+        LogLineBuffer buffer = new LogLineBuffer(1000, 500);
+        List<LogLine> logLines = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            // Latin-1 lines mixed with lines that are stored in UTF-16
+            String line = getLine(i) + (i % 3 == 0 ? " \u65e5\u672c\u8a9e \ud83d\ude00" : " caf\u00e9");
+            logLines.add(LogLine.newLogLine(line, false, null));
+            buffer.append(logLines.get(i));
+        }
+        assertTrue(buffer.size() < 100);
+        // The lines wrap around the end of the arena
+        for (long id = buffer.getFirstId(); id < buffer.getNextId(); ++id) {
+            assertLogLineEquals(logLines.get((int) id), buffer.get(id));
+        }
+        // Scrubbed output in UTF-16 after a Latin-1 line
+        LogLine scrubbed = newLogLine(1);
+        scrubbed.setLogOutputUnmodified("\u2026");
+        long id = buffer.append(scrubbed);
+        assertLogLineEquals(scrubbed, buffer.get(id));
+        // Longer than the arena
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; ++i) {
+            sb.append('\u2026');
+        }
+        id = buffer.append(new LogLine(sb.toString()));
+        assertEquals(500 / 2 / 3, buffer.getOriginalLine(id).length());
+    }
+
+    @Test
+    public void testMaxLines() {
+        // Larger limits are capped to what the arena can hold
+        LogLineBuffer buffer = new LogLineBuffer(LogLineBuffer.MAX_LINES * 2);
+        for (int i = 0; i < LogLineBuffer.MAX_LINES + 100; ++i) {
+            buffer.append(newLogLine(i));
+        }
+        assertEquals(LogLineBuffer.MAX_LINES, buffer.size());
+        assertEquals(100, buffer.getFirstId());
+        assertLogLineEquals(newLogLine(LogLineBuffer.MAX_LINES + 99), buffer.get(buffer.getNextId() - 1));
+    }
+
+    @Test
+    public void testExpanded() {
+        LogLineBuffer buffer = new LogLineBuffer(16);
+        long id1 = buffer.append(newLogLine(1));
+        long id2 = buffer.append(newLogLine(2));
+        assertFalse(buffer.isExpanded(id1));
+        buffer.setExpanded(id1, true);
+        assertTrue(buffer.isExpanded(id1));
+        assertTrue(buffer.get(id1).isExpanded());
+        assertFalse(buffer.isExpanded(id2));
+        buffer.setAllExpanded(true);
+        assertTrue(buffer.isExpanded(id2));
+        buffer.setAllExpanded(false);
+        assertFalse(buffer.isExpanded(id1));
+    }
+
+    @Test
+    public void testInternedTags() {
+        LogLineBuffer buffer = new LogLineBuffer(16);
+        long id1 = buffer.append(newLogLine(0));
+        long id2 = buffer.append(newLogLine(TAGS.length));
+        assertSame(buffer.getTagName(id1), buffer.getTagName(id2));
+    }
+
+    @Test
+    public void testPackTimestamp() {
+        String timestamp = "12-31 23:59:58.123";
+        long packed = LogLineBuffer.packTimestamp(timestamp);
+        assertTrue(packed >= 0);
+        assertEquals(timestamp, LogLineBuffer.unpackTimestamp(packed));
+        assertEquals("01-02 03:04:05.006", LogLineBuffer.unpackTimestamp(LogLineBuffer.packTimestamp("01-02 03:04:05.006")));
+        assertTrue(LogLineBuffer.packTimestamp("12-31 23:59:58,123") < 0);
+        assertTrue(LogLineBuffer.packTimestamp("12-31 23:59") < 0);
+    }
+
+    @Test
+    @Ignore("Benchmark, run manually")
+    public void benchmarkMemoryAndThroughput() {
+        // Not a strict benchmark: it only reports the time taken to append lines to the buffer and to a list of
+        // LogLine objects trimmed to the same limit (as before), and the memory retained by each
+        int limit = 100_000;
+        int count = 300_000;
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            lines.add(getLine(i));
+        }
+        Runtime runtime = Runtime.getRuntime();
+        long before = getUsedMemory(runtime);
+        long start = System.nanoTime();
+        List<LogLine> list = new ArrayList<>();
+        for (String line : lines) {
+            LogLine logLine = LogLine.newLogLine(line, false, null);
+            if (logLine == null) continue;
+            list.add(logLine);
+            if (list.size() > limit) {
+                list = new ArrayList<>(list.subList(list.size() - limit, list.size()));
+            }
+        }
+        long listNanos = System.nanoTime() - start;
+        long listBytes = getUsedMemory(runtime) - before;
+        int listSize = list.size();
+        // noinspection UnusedAssignment
+        list = null;
+        before = getUsedMemory(runtime);
+        start = System.nanoTime();
+        LogLineBuffer buffer = new LogLineBuffer(limit);
+        for (String line : lines) {
+            LogLine logLine = LogLine.newLogLine(line, false, null);
+            if (logLine == null) continue;
+            buffer.append(logLine);
+        }
+        long bufferNanos = System.nanoTime() - start;
+        long bufferBytes = getUsedMemory(runtime) - before;
+        System.out.printf(Locale.ROOT, "Appended %d lines with a limit of %d: list %.2f ms (~%d KB), " +
+                        "buffer %.2f ms (~%d KB, %d KB allocated)%n", count, limit, listNanos / 1_000_000.0,
+                listBytes / 1024, bufferNanos / 1_000_000.0, bufferBytes / 1024,
+                buffer.getAllocatedBytes() / 1024);
+        assertEquals(listSize, buffer.size());
+    }
+
+    private static long getUsedMemory(Runtime runtime) {
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void assertLogLineEquals(LogLine expected, LogLine actual) {
+        assertEquals(expected.getOriginalLine(), actual.getOriginalLine());
+        assertEquals(expected.getLogLevel(), actual.getLogLevel());
+        assertEquals(expected.getTagName(), actual.getTagName());
+        assertEquals(expected.getProcessId(), actual.getProcessId());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getLogOutput(), actual.getLogOutput());
+        assertEquals(expected.isExpanded(), actual.isExpanded());
+    }
+
+    private static LogLine newLogLine(int i) {
+        return LogLine.newLogLine(getLine(i), false, null);
+    }
+
+    private static String getLine(int i) {
+        return String.format(Locale.ROOT, "%02d-%02d %02d:%02d:%02d.%03d %c/%s(%5d): Message number %d",
+                i % 12 + 1, i % 28 + 1, i % 24, i % 60, (i / 60) % 60, i % 1000, "VDIWE".charAt(i % 5),
+                TAGS[i % TAGS.length], 1000 + i % 500, i);
+    }
+}
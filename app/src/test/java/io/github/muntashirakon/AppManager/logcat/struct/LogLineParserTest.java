@@ -0,0 +1,206 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logcat.struct;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.util.Log;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+@RunWith(RobolectricTestRunner.class)
+public class LogLineParserTest {
+    // The regular expression used before
+    private static final Pattern LOG_PATTERN = Pattern.compile("(\\w)/([^(].+)\\(\\s*(\\d+)(?:\\*\\s*\\d+)?\\): ");
+
+    private static final String[] TAGS = new String[]{"ActivityManager", "PackageManager", "WindowManager", "chatty",
+            "AndroidRuntime", "wpa_supplicant", "Zygote", "System.err"};
+
+    @Test
+    public void testParse() {
+        LogLineParser parser = new LogLineParser(null);
+        String line = "01-23 12:34:56.789 W/ActivityManager( 1234): Slow operation: 52ms so far (now=1)";
+        assertEquals(LogLineParser.RESULT_LOG_LINE, parser.parse(line));
+        assertEquals(Log.WARN, parser.getLogLevel());
+        assertEquals(1234, parser.getProcessId());
+        assertTrue(parser.hasTimestamp());
+        assertEquals("ActivityManager", parser.getTagName());
+        assertEquals("Slow operation: 52ms so far (now=1)", line.substring(parser.getMessageStart()));
+        LogLine logLine = parser.parseLogLine(line, true);
+        assertNotNull(logLine);
+        assertEquals("01-23 12:34:56.789", logLine.getTimestamp());
+        assertEquals("ActivityManager", logLine.getTagName());
+        assertEquals(1234, logLine.getProcessId());
+        assertEquals(Log.WARN, logLine.getLogLevel());
+        assertEquals("Slow operation: 52ms so far (now=1)", logLine.getLogOutput());
+        assertTrue(logLine.isExpanded());
+        // Without a timestamp, with an empty message
+        assertEquals(LogLineParser.RESULT_LOG_LINE, parser.parse("E/Tag with spaces (42): "));
+        assertFalse(parser.hasTimestamp());
+        assertEquals("Tag with spaces ", parser.getTagName());
+        assertEquals(42, parser.getProcessId());
+        // ZTE Blade
+        assertEquals(LogLineParser.RESULT_LOG_LINE, parser.parse("01-23 12:34:56.789 I/Tag(  12* 34): Message"));
+        assertEquals(12, parser.getProcessId());
+        // Known messages logged with a wrong level
+        assertEquals(LogLineParser.RESULT_LOG_LINE, parser.parse("01-23 12:34:56.789 E/Tag(1): maxLineHeight 0"));
+        assertEquals(Log.VERBOSE, parser.getLogLevel());
+        // Other lines
+        assertEquals(LogLineParser.RESULT_BEGINNING_OF_BUFFER, parser.parse("--------- beginning of main"));
+        assertEquals(LogLineParser.RESULT_UNKNOWN, parser.parse("\tat android.os.Looper.loop(Looper.java:123)"));
+        logLine = parser.parseLogLine("Unknown", false);
+        assertNotNull(logLine);
+        assertEquals(-1, logLine.getLogLevel());
+        assertEquals("Unknown", logLine.getLogOutput());
+        assertEquals(LogLineParser.RESULT_UNKNOWN, parser.parse("01-23 12:34:56.789 W/(1234): No tag"));
+        assertEquals(LogLineParser.RESULT_UNKNOWN, parser.parse("01-23 12:34:56.789 W/Tag(abc): No PID"));
+    }
+
+    @Test
+    public void testFilters() {
+        LogLineParser parser = new LogLineParser(Pattern.compile("chatty|Zygote"));
+        assertEquals(LogLineParser.RESULT_FILTERED, parser.parse("01-23 12:34:56.789 I/chatty( 1): Message"));
+        assertEquals(LogLineParser.RESULT_LOG_LINE, parser.parse("01-23 12:34:56.789 I/chattyTag( 1): Message"));
+        assertNull(parser.parseLogLine("01-23 12:34:56.789 I/Zygote( 1): Message", false));
+        parser.setMinLogLevel(Log.INFO);
+        assertEquals(LogLineParser.RESULT_FILTERED, parser.parse("01-23 12:34:56.789 D/Tag( 1): Message"));
+        assertEquals(LogLineParser.RESULT_LOG_LINE, parser.parse("01-23 12:34:56.789 I/Tag( 1): Message"));
+        // Lines without a level
+        assertEquals(LogLineParser.RESULT_FILTERED, parser.parse("--------- beginning of main"));
+        assertEquals(LogLineParser.RESULT_FILTERED, parser.parse("Unknown"));
+        parser.setProcessIdFilter(2);
+        assertEquals(LogLineParser.RESULT_FILTERED, parser.parse("01-23 12:34:56.789 I/Tag( 1): Message"));
+        assertEquals(LogLineParser.RESULT_LOG_LINE, parser.parse("01-23 12:34:56.789 I/Tag( 2): Message"));
+    }
+
+    @Test
+    public void testSameAsRegex() {
+        LogLineParser parser = new LogLineParser(null);
+        for (String line : getCorpus(10_000)) {
+            Matcher matcher = LOG_PATTERN.matcher(line);
+            boolean matched = matcher.find(line.length() >= 19 && Character.isDigit(line.charAt(0)) ? 19 : 0);
+            int result = parser.parse(line);
+            assertEquals(line, matched, result == LogLineParser.RESULT_LOG_LINE);
+            if (matched) {
+                // Messages like these are always demoted to verbose
+                int logLevel = line.startsWith("Failed to read", matcher.end()) ? Log.VERBOSE
+                        : LogLine.convertCharToLogLevel(matcher.group(1).charAt(0));
+                assertEquals(line, logLevel, parser.getLogLevel());
+                assertEquals(line, matcher.group(2), parser.getTagName());
+                assertEquals(line, Integer.parseInt(matcher.group(3)), parser.getProcessId());
+                assertEquals(line, matcher.end(), parser.getMessageStart());
+            }
+        }
+    }
+
+    @Test
+    @Ignore("Benchmark, run manually")
+    public void benchmarkParse() {
+        // Not a strict benchmark: it only reports the time taken to parse a log using the regular expression (as
+        // before) and using the parser, with and without filtering out the lines below the warning level
+        List<String> lines = getCorpus(200_000);
+        Pattern filterPattern = Pattern.compile("chatty");
+        long start = System.nanoTime();
+        int regexLines = 0;
+        for (String line : lines) {
+            if (parseWithRegex(line, filterPattern) != null) {
+                ++regexLines;
+            }
+        }
+        long regexNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        LogLineParser parser = new LogLineParser(filterPattern);
+        int parserLines = 0;
+        for (String line : lines) {
+            if (parser.parseLogLine(line, false) != null) {
+                ++parserLines;
+            }
+        }
+        long parserNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        parser.setMinLogLevel(Log.WARN);
+        int filteredLines = 0;
+        for (String line : lines) {
+            if (parser.parseLogLine(line, false) != null) {
+                ++filteredLines;
+            }
+        }
+        long filteredNanos = System.nanoTime() - start;
+        System.out.printf(Locale.ROOT, "Parsed %d lines: regex %.2f ms, parser %.2f ms, parser with level filter " +
+                        "%.2f ms (%d lines kept)%n", lines.size(), regexNanos / 1_000_000.0,
+                parserNanos / 1_000_000.0, filteredNanos / 1_000_000.0, filteredLines);
+        assertEquals(regexLines, parserLines);
+    }
+
+    private static LogLine parseWithRegex(String line, Pattern filterPattern) {
+        LogLine logLine = new LogLine(line);
+        int startIdx = 0;
+        if (line.length() >= 19 && Character.isDigit(line.charAt(0))) {
+            logLine.setTimestamp(line.substring(0, 18));
+            startIdx = 19;
+        }
+        Matcher matcher = LOG_PATTERN.matcher(line);
+        if (matcher.find(startIdx)) {
+            String logText = line.substring(matcher.end());
+            if (logText.matches("^maxLineHeight.*|Failed to read.*")) {
+                logLine.setLogLevel(Log.VERBOSE);
+            } else {
+                logLine.setLogLevel(LogLine.convertCharToLogLevel(matcher.group(1).charAt(0)));
+            }
+            String tagText = matcher.group(2);
+            if (filterPattern.matcher(tagText).matches()) {
+                return null;
+            }
+            logLine.setTag(tagText);
+            logLine.setProcessId(Integer.parseInt(matcher.group(3)));
+            logLine.setLogOutput(logText);
+        } else {
+            logLine.setLogOutput(line);
+            logLine.setLogLevel(-1);
+        }
+        return logLine;
+    }
+
+    private static List<String> getCorpus(int count) {
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            String timestamp = String.format(Locale.ROOT, "%02d-%02d %02d:%02d:%02d.%03d", i % 12 + 1, i % 28 + 1,
+                    i % 24, i % 60, (i / 60) % 60, i % 1000);
+            char level = "VDIWEF".charAt(i % 6);
+            String tag = TAGS[i % TAGS.length];
+            int pid = 100 + i % 3000;
+            switch (i % 20) {
+                case 0:
+                    lines.add("--------- beginning of " + (i % 40 == 0 ? "main" : "system"));
+                    break;
+                case 1:
+                    lines.add("\tat com.example.Foo.bar(Foo.java:" + i + ")");
+                    break;
+                case 2:
+                    lines.add(String.format(Locale.ROOT, "%s %c/%s(%5d): Failed to read %d", timestamp, level, tag,
+                            pid, i));
+                    break;
+                case 3:
+                    lines.add(String.format(Locale.ROOT, "%c/%s(%5d): No timestamp", level, tag, pid));
+                    break;
+                default:
+                    lines.add(String.format(Locale.ROOT, "%s %c/%s(%5d): Message number %d with some text " +
+                            "(status=%d)", timestamp, level, tag, pid, i, i % 7));
+            }
+        }
+        return lines;
+    }
+}
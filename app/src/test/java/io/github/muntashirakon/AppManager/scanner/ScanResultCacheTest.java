@@ -0,0 +1,93 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.scanner;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import android.util.Pair;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+@RunWith(RobolectricTestRunner.class)
+public class ScanResultCacheTest {
+    private static final String SHA_256 = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+    private static final String[] TRACKER_SIGNATURES = new String[]{"com.google.ads.", "com.facebook.ads."};
+    private static final String[] LIBRARY_SIGNATURES = new String[]{"okhttp3.", "androidx.core."};
+
+    private File cacheDir;
+    private int signaturesHash;
+
+    @Before
+    public void setUp() {
+        cacheDir = new File("/tmp", "scan_result_cache_test");
+        signaturesHash = ScanResultCache.getSignaturesHash(TRACKER_SIGNATURES, LIBRARY_SIGNATURES);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        cacheDir.delete();
+    }
+
+    @Test
+    public void testPutGet() {
+        ScanResultCache cache = new ScanResultCache(cacheDir, signaturesHash);
+        assertNull(cache.get(SHA_256));
+        cache.put(SHA_256, getEntry());
+        ScanResultCache.Entry entry = cache.get(SHA_256);
+        assertNotNull(entry);
+        assertEquals(1, entry.digests.length);
+        assertEquals("SHA-256", entry.digests[0].first);
+        assertEquals(SHA_256, entry.digests[0].second);
+        assertEquals(Collections.singletonList("libfoo.so"), entry.nativeLibraries);
+        assertEquals(Arrays.asList("com.example.Main", "com.google.ads.AdView", "okhttp3.OkHttpClient"), entry.classes);
+        assertArrayEquals(new int[]{-1, 0, -1}, entry.trackerIndices);
+        assertArrayEquals(new int[]{-1, -1, 0}, entry.libraryIndices);
+    }
+
+    @Test
+    public void testSignaturesChanged() {
+        new ScanResultCache(cacheDir, signaturesHash).put(SHA_256, getEntry());
+        int newSignaturesHash = ScanResultCache.getSignaturesHash(TRACKER_SIGNATURES, new String[]{"okhttp3."});
+        assertNull(new ScanResultCache(cacheDir, newSignaturesHash).get(SHA_256));
+        // Invalid entries are removed
+        assertFalse(new File(cacheDir, SHA_256).exists());
+    }
+
+    @Test
+    public void testCorruptedEntry() throws IOException {
+        cacheDir.mkdirs();
+        try (FileOutputStream os = new FileOutputStream(new File(cacheDir, SHA_256))) {
+            os.write(new byte[]{1, 2, 3});
+        }
+        assertNull(new ScanResultCache(cacheDir, signaturesHash).get(SHA_256));
+        assertFalse(new File(cacheDir, SHA_256).exists());
+    }
+
+    private static ScanResultCache.Entry getEntry() {
+        @SuppressWarnings("unchecked")
+        Pair<String, String>[] digests = new Pair[]{new Pair<>("SHA-256", SHA_256)};
+        return new ScanResultCache.Entry(digests, Collections.singletonList("libfoo.so"),
+                Arrays.asList("com.example.Main", "com.google.ads.AdView", "okhttp3.OkHttpClient"),
+                new int[]{-1, 0, -1}, new int[]{-1, -1, 0});
+    }
+}
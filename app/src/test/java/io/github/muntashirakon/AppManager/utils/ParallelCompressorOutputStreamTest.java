@@ -0,0 +1,139 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import androidx.annotation.NonNull;
+
+import com.github.luben.zstd.ZstdInputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Random;
+
+import io.github.muntashirakon.io.IoUtils;
+
+@RunWith(RobolectricTestRunner.class)
+public class ParallelCompressorOutputStreamTest {
+    private static final int THREAD_COUNT = 4;
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    @Test
+    public void testGzipRoundTrip() throws IOException {
+        byte[] data = getCompressibleData(BLOCK_SIZE * 10 + 123);
+        byte[] compressed = compressParallel(TarUtils.TAR_GZIP, data, BLOCK_SIZE);
+        assertArrayEquals(data, decompress(TarUtils.TAR_GZIP, compressed));
+    }
+
+    @Test
+    public void testBzip2RoundTrip() throws IOException {
+        byte[] data = getCompressibleData(BLOCK_SIZE * 3 + 7);
+        byte[] compressed = compressParallel(TarUtils.TAR_BZIP2, data, BLOCK_SIZE);
+        assertArrayEquals(data, decompress(TarUtils.TAR_BZIP2, compressed));
+    }
+
+    @Test
+    public void testZstdRoundTrip() throws IOException {
+        byte[] data = getCompressibleData(BLOCK_SIZE * 5 + 31);
+        byte[] compressed = compressParallel(TarUtils.TAR_ZSTD, data, BLOCK_SIZE);
+        assertArrayEquals(data, decompress(TarUtils.TAR_ZSTD, compressed));
+    }
+
+    @Test
+    public void testExactBlockBoundary() throws IOException {
+        byte[] data = getCompressibleData(BLOCK_SIZE * 2);
+        byte[] compressed = compressParallel(TarUtils.TAR_GZIP, data, BLOCK_SIZE);
+        assertArrayEquals(data, decompress(TarUtils.TAR_GZIP, compressed));
+    }
+
+    @Test
+    public void testEmptyStream() throws IOException {
+        byte[] compressed = compressParallel(TarUtils.TAR_GZIP, new byte[0], BLOCK_SIZE);
+        assertArrayEquals(new byte[0], decompress(TarUtils.TAR_GZIP, compressed));
+    }
+
+    @Test
+    @Ignore("Benchmark, run manually")
+    public void benchmarkGzip() throws IOException {
+        // Not a strict benchmark: it only reports the throughput of both writers on this machine
+        byte[] data = getCompressibleData(16 * 1024 * 1024);
+        long start = System.nanoTime();
+        byte[] single = compressSingle(TarUtils.TAR_GZIP, data);
+        long singleNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        byte[] parallel = compressParallel(TarUtils.TAR_GZIP, data, ParallelCompressorOutputStream.DEFAULT_BLOCK_SIZE);
+        long parallelNanos = System.nanoTime() - start;
+        System.out.printf(Locale.ROOT, "GZip single stream: %.2f MB/s (%d bytes), parallel (%d threads): %.2f MB/s (%d bytes)%n",
+                getMbps(data.length, singleNanos), single.length, THREAD_COUNT, getMbps(data.length, parallelNanos),
+                parallel.length);
+        assertArrayEquals(data, decompress(TarUtils.TAR_GZIP, parallel));
+    }
+
+    private static double getMbps(long bytes, long nanos) {
+        return (bytes / (1024.0 * 1024.0)) / (nanos / 1_000_000_000.0);
+    }
+
+    @NonNull
+    private static byte[] compressParallel(@NonNull String type, @NonNull byte[] data, int blockSize)
+            throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (OutputStream os = new ParallelCompressorOutputStream(bos, type, THREAD_COUNT, blockSize)) {
+            // Write in odd-sized chunks to cross block boundaries
+            int off = 0;
+            while (off < data.length) {
+                int len = Math.min(10_000, data.length - off);
+                os.write(data, off, len);
+                off += len;
+            }
+        }
+        return bos.toByteArray();
+    }
+
+    @NonNull
+    private static byte[] compressSingle(@NonNull String type, @NonNull byte[] data) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (OutputStream os = TarUtils.getCompressorOutputStream(type, bos)) {
+            os.write(data);
+        }
+        return bos.toByteArray();
+    }
+
+    @NonNull
+    private static byte[] decompress(@NonNull String type, @NonNull byte[] data) throws IOException {
+        ByteArrayInputStream bis = new ByteArrayInputStream(data);
+        InputStream is;
+        if (TarUtils.TAR_BZIP2.equals(type)) {
+            is = new BZip2CompressorInputStream(bis, true);
+        } else if (TarUtils.TAR_ZSTD.equals(type)) {
+            is = new ZstdInputStream(bis);
+        } else is = new GzipCompressorInputStream(bis, true);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (InputStream ignore = is) {
+            IoUtils.copy(is, bos);
+        }
+        return bos.toByteArray();
+    }
+
+    @NonNull
+    private static byte[] getCompressibleData(int size) {
+        Random random = new Random(size);
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; ++i) {
+            // Small alphabet so that the data is compressible
+            data[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return data;
+    }
+}
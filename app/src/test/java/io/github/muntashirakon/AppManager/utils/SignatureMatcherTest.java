@@ -0,0 +1,138 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import io.github.muntashirakon.AppManager.R;
+
+@RunWith(RobolectricTestRunner.class)
+public class SignatureMatcherTest {
+    private static final int CLASS_COUNT = 100_000;
+
+    @Test
+    public void testFindFirst() {
+        SignatureMatcher matcher = new SignatureMatcher(new String[]{"com.google.ads.", "com.google.", "ads.", "ads"});
+        assertEquals(0, matcher.findFirst("com.google.ads.AdView"));
+        assertEquals(1, matcher.findFirst("com.google.firebase.App"));
+        // Signatures are not necessarily prefixes
+        assertEquals(2, matcher.findFirst("org.example.ads.Banner"));
+        assertEquals(3, matcher.findFirst("org.example.ads"));
+        assertEquals(-1, matcher.findFirst("org.example.Main"));
+        assertTrue(matcher.matches("org.example.ads"));
+        assertFalse(matcher.matches("org.example.Main"));
+        assertFalse(matcher.matches(""));
+    }
+
+    @Test
+    public void testOverlappingSignatures() {
+        // "abcd" fails over to "bcd", which contains "c"
+        SignatureMatcher matcher = new SignatureMatcher(new String[]{"abcdx", "bcde", "c"});
+        assertEquals(1, matcher.findFirst("abcde"));
+        assertEquals(2, matcher.findFirst("abcdf"));
+        assertEquals(0, matcher.findFirst("abcdx"));
+    }
+
+    @Test
+    public void testEmptySignature() {
+        SignatureMatcher matcher = new SignatureMatcher(new String[]{"abc", ""});
+        assertEquals(1, matcher.findFirst("xyz"));
+        assertEquals(0, matcher.findFirst("abc"));
+        assertTrue(matcher.matches(""));
+    }
+
+    @Test
+    public void testMatchesLoopForAllTrackers() {
+        String[] signatures = getSignatures();
+        SignatureMatcher matcher = new SignatureMatcher(signatures);
+        for (String className : getClassNames(signatures, 10_000)) {
+            assertEquals(className, findFirstLinear(signatures, className), matcher.findFirst(className));
+        }
+    }
+
+    @Test
+    @Ignore("Benchmark, run manually")
+    public void benchmarkTrackers() {
+        // Not a strict benchmark: it only reports the time taken to match the classes of a large APK against the
+        // tracker signatures using String#contains (as before) and using the matcher
+        String[] signatures = getSignatures();
+        List<String> classNames = getClassNames(signatures, CLASS_COUNT);
+        long start = System.nanoTime();
+        int linearMatches = 0;
+        for (String className : classNames) {
+            if (findFirstLinear(signatures, className) != -1) {
+                ++linearMatches;
+            }
+        }
+        long linearNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        SignatureMatcher matcher = new SignatureMatcher(signatures);
+        long buildNanos = System.nanoTime() - start;
+        int matcherMatches = 0;
+        for (String className : classNames) {
+            if (matcher.findFirst(className) != -1) {
+                ++matcherMatches;
+            }
+        }
+        long matcherNanos = System.nanoTime() - start;
+        System.out.printf(Locale.ROOT, "Matched %d classes against %d signatures: String#contains %.2f ms, " +
+                        "matcher %.2f ms (including %.2f ms to build)%n", classNames.size(), signatures.length,
+                linearNanos / 1_000_000.0, matcherNanos / 1_000_000.0, buildNanos / 1_000_000.0);
+        assertEquals(linearMatches, matcherMatches);
+    }
+
+    private static String[] getSignatures() {
+        return RuntimeEnvironment.getApplication().getResources().getStringArray(R.array.tracker_signatures);
+    }
+
+    private static int findFirstLinear(String[] signatures, String className) {
+        for (int i = 0; i < signatures.length; i++) {
+            if (className.contains(signatures[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Generate class names, about 5% of which contain a signature.
+     */
+    private static List<String> getClassNames(String[] signatures, int count) {
+        Random random = new Random(0);
+        List<String> classNames = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            StringBuilder sb = new StringBuilder();
+            if (random.nextInt(20) == 0) {
+                sb.append(signatures[random.nextInt(signatures.length)]);
+            } else {
+                sb.append(random.nextBoolean() ? "com." : "org.").append(randomWord(random)).append('.');
+            }
+            sb.append(randomWord(random)).append('.').append(Character.toUpperCase((char) ('a' + random.nextInt(26))))
+                    .append(randomWord(random));
+            classNames.add(sb.toString());
+        }
+        return classNames;
+    }
+
+    private static String randomWord(Random random) {
+        int length = 3 + random.nextInt(8);
+        char[] chars = new char[length];
+        for (int i = 0; i < length; ++i) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+}
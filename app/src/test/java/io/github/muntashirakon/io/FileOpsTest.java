@@ -0,0 +1,135 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.github.muntashirakon.AppManager.utils.DigestUtils;
+
+@RunWith(RobolectricTestRunner.class)
+public class FileOpsTest {
+    private static final int FILE_SIZE = 3 * 1024 * 1024 + 123;
+
+    private final AtomicInteger transactionCount = new AtomicInteger();
+    private IFileSystemService fs;
+    private File testDir;
+    private File srcFile;
+    private byte[] contents;
+
+    @Before
+    public void setUp() throws IOException {
+        // Count the calls to the service, each of which is a binder transaction in a real remote file system
+        FileSystemService service = new FileSystemService();
+        fs = (IFileSystemService) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{IFileSystemService.class}, (proxy, method, args) -> {
+                    if (!method.getName().equals("asBinder")) {
+                        transactionCount.incrementAndGet();
+                    }
+                    try {
+                        return method.invoke(service, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        testDir = new File("/tmp", "file_ops_test");
+        assertTrue(testDir.mkdirs() || testDir.isDirectory());
+        contents = new byte[FILE_SIZE];
+        new Random(1).nextBytes(contents);
+        srcFile = new File(testDir, "src.bin");
+        try (FileOutputStream os = new FileOutputStream(srcFile)) {
+            os.write(contents);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = testDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        testDir.delete();
+    }
+
+    @Test
+    public void testDigest() throws IOException {
+        String[] algorithms = new String[]{DigestUtils.CRC32, DigestUtils.MD5, DigestUtils.SHA_1,
+                DigestUtils.SHA_256, DigestUtils.SHA_512};
+        String[] expected = new String[algorithms.length];
+        for (int i = 0; i < algorithms.length; ++i) {
+            try (InputStream is = new FileInputStream(srcFile)) {
+                expected[i] = DigestUtils.getHexDigest(algorithms[i], is);
+            }
+        }
+        AtomicLong progress = new AtomicLong();
+        transactionCount.set(0);
+        String[] digests = new RemoteFile(fs, srcFile.getAbsolutePath()).getHexDigests(algorithms, progress::set);
+        assertEquals(1, transactionCount.get());
+        assertArrayEquals(expected, digests);
+        assertEquals(FILE_SIZE, progress.get());
+        // Same as the local file
+        assertArrayEquals(expected, new LocalFile(srcFile.getAbsolutePath()).getHexDigests(algorithms, null));
+    }
+
+    @Test(expected = IOException.class)
+    public void testDigestInvalidAlgorithm() throws IOException {
+        new RemoteFile(fs, srcFile.getAbsolutePath()).getHexDigests(new String[]{"SHA-0"}, null);
+    }
+
+    @Test
+    public void testCopy() throws IOException {
+        File dstFile = new File(testDir, "dst.bin");
+        assertTrue(srcFile.setLastModified(1_000_000_000L));
+        AtomicLong progress = new AtomicLong();
+        transactionCount.set(0);
+        long count = new RemoteFile(fs, srcFile.getAbsolutePath()).copyTo(new RemoteFile(fs,
+                dstFile.getAbsolutePath()), ExtendedFile.COPY_PRESERVE_ATTRIBUTES, progress::set);
+        assertEquals(1, transactionCount.get());
+        assertEquals(FILE_SIZE, count);
+        assertEquals(FILE_SIZE, progress.get());
+        assertArrayEquals(contents, readFile(dstFile));
+        assertEquals(srcFile.lastModified(), dstFile.lastModified());
+        // Append
+        count = new RemoteFile(fs, srcFile.getAbsolutePath()).copyTo(new RemoteFile(fs,
+                dstFile.getAbsolutePath()), ExtendedFile.COPY_APPEND, null);
+        assertEquals(FILE_SIZE, count);
+        assertEquals(2L * FILE_SIZE, dstFile.length());
+        // Truncate
+        count = new RemoteFile(fs, srcFile.getAbsolutePath()).copyTo(new RemoteFile(fs,
+                dstFile.getAbsolutePath()), 0, null);
+        assertEquals(FILE_SIZE, count);
+        assertArrayEquals(contents, readFile(dstFile));
+    }
+
+    @Test(expected = IOException.class)
+    public void testCopyMissingFile() throws IOException {
+        new RemoteFile(fs, new File(testDir, "missing").getAbsolutePath())
+                .copyTo(new RemoteFile(fs, new File(testDir, "dst.bin").getAbsolutePath()), 0, null);
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        try (InputStream is = new FileInputStream(file)) {
+            return IoUtils.readFully(is, -1, true);
+        }
+    }
+}
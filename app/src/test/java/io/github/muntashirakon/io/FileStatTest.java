@@ -0,0 +1,126 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.system.OsConstants;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(RobolectricTestRunner.class)
+public class FileStatTest {
+    private static final int FILE_COUNT = 1000;
+
+    private final AtomicInteger transactionCount = new AtomicInteger();
+    private IFileSystemService fs;
+    private File testDir;
+
+    @Before
+    public void setUp() throws IOException {
+        // Count the calls to the service, each of which is a binder transaction in a real remote file system
+        FileSystemService service = new FileSystemService();
+        fs = (IFileSystemService) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{IFileSystemService.class}, (proxy, method, args) -> {
+                    transactionCount.incrementAndGet();
+                    try {
+                        return method.invoke(service, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        testDir = new File("/tmp", "file_stat_test");
+        assertTrue(testDir.mkdirs() || testDir.isDirectory());
+        assertTrue(new File(testDir, "dir").mkdir());
+        try (FileOutputStream os = new FileOutputStream(new File(testDir, "file.txt"))) {
+            os.write(new byte[123]);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = testDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        testDir.delete();
+    }
+
+    @Test
+    public void testListWithAttributes() {
+        RemoteFile dir = new RemoteFile(fs, testDir.getAbsolutePath());
+        transactionCount.set(0);
+        FileStat[] stats = dir.listWithAttributes(FileStat.STAT_BASIC);
+        assertEquals(1, transactionCount.get());
+        assertNotNull(stats);
+        assertEquals(2, stats.length);
+        Map<String, FileStat> statMap = new HashMap<>();
+        for (FileStat stat : stats) {
+            statMap.put(stat.name, stat);
+        }
+        FileStat dirStat = statMap.get("dir");
+        assertNotNull(dirStat);
+        assertTrue(dirStat.exists());
+        assertTrue(dirStat.isDirectory());
+        assertTrue(OsConstants.S_ISDIR(dirStat.mode));
+        FileStat fileStat = statMap.get("file.txt");
+        assertNotNull(fileStat);
+        assertTrue(fileStat.isFile());
+        assertEquals(123, fileStat.size);
+        assertEquals(new File(testDir, "file.txt").lastModified() / 1000, fileStat.lastModified / 1000);
+        // Not a directory
+        assertNull(new RemoteFile(fs, new File(testDir, "file.txt").getAbsolutePath())
+                .listWithAttributes(FileStat.STAT_BASIC));
+    }
+
+    @Test
+    public void testStat() {
+        FileStat stat = new RemoteFile(fs, new File(testDir, "file.txt").getAbsolutePath()).stat(FileStat.STAT_BASIC);
+        assertEquals("file.txt", stat.name);
+        assertTrue(stat.exists());
+        assertEquals(123, stat.size);
+        stat = new RemoteFile(fs, new File(testDir, "missing").getAbsolutePath()).stat(FileStat.STAT_BASIC);
+        assertFalse(stat.exists());
+        assertEquals(OsConstants.ENOENT, stat.errno);
+    }
+
+    @Test
+    public void testListManyFilesWithAttributes() throws IOException {
+        for (int i = 0; i < FILE_COUNT; ++i) {
+            assertTrue(new File(testDir, String.format(Locale.ROOT, "%05d.txt", i)).createNewFile());
+        }
+        RemoteFile dir = new RemoteFile(fs, testDir.getAbsolutePath());
+        transactionCount.set(0);
+        FileStat[] stats = dir.listWithAttributes(FileStat.STAT_BASIC);
+        // A single call regardless of the number of files
+        assertEquals(1, transactionCount.get());
+        assertNotNull(stats);
+        String[] names = new String[stats.length];
+        for (int i = 0; i < stats.length; ++i) {
+            names[i] = stats[i].name;
+            assertEquals(new File(testDir, names[i]).length(), stats[i].size);
+        }
+        assertEquals(Arrays.asList(dir.list()), Arrays.asList(names));
+    }
+}
@@ -0,0 +1,132 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@RunWith(RobolectricTestRunner.class)
+public class FileTreeWalkerTest {
+    private File testDir;
+
+    @Before
+    public void setUp() throws IOException {
+        testDir = new File("/tmp", "file_tree_walker_test");
+        assertTrue(new File(testDir, "a/b/c").mkdirs());
+        assertTrue(new File(testDir, "a/empty").mkdirs());
+        assertTrue(new File(testDir, "d").mkdirs());
+        writeFile(new File(testDir, "x.txt"), 10);
+        writeFile(new File(testDir, "a/y.log"), 20);
+        writeFile(new File(testDir, "a/b/z.txt"), 30);
+        writeFile(new File(testDir, "a/b/c/w.txt"), 40);
+    }
+
+    @After
+    public void tearDown() {
+        Paths.get(testDir).delete();
+    }
+
+    @Test
+    public void testWalkAll() throws IOException {
+        Path source = Paths.get(testDir);
+        assertEquals(getAll(null, source, null, null), walk(null, null, null));
+    }
+
+    @Test
+    public void testWalkWithFilters() throws IOException {
+        Path source = Paths.get(testDir);
+        String[] filters = new String[]{".*\\.txt", "a/empty/"};
+        String[] exclusions = new String[]{"a/b/c/.*"};
+        assertEquals(getAll(source, source, filters, exclusions),
+                walk(testDir.getAbsolutePath() + File.separator, filters, exclusions));
+        // Without a base directory, the absolute paths are matched
+        filters = new String[]{".*/a/b/.*"};
+        assertEquals(getAll(null, source, filters, null), walk(null, filters, null));
+    }
+
+    @Test
+    public void testWalkFile() throws IOException {
+        File file = new File(testDir, "x.txt");
+        List<String> paths = new ArrayList<>();
+        new FileTreeWalker(null, null, null, false).walk(file.getAbsolutePath(), (path, stat) -> {
+            assertTrue(stat.isFile());
+            assertEquals(10, stat.size);
+            paths.add(path);
+        });
+        assertEquals(getAll(null, Paths.get(file), null, null), paths);
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        FileTreeWalker walker = new FileTreeWalker(null, null, null, false);
+        Map<String, FileStat> expected = new LinkedHashMap<>();
+        walker.walk(testDir.getAbsolutePath(), expected::put);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        walker.walk(testDir.getAbsolutePath(), new DataOutputStream(bos));
+        Map<String, FileStat> actual = new LinkedHashMap<>();
+        FileTreeWalker.read(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())), actual::put);
+        assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(actual.keySet()));
+        for (Map.Entry<String, FileStat> entry : expected.entrySet()) {
+            FileStat expectedStat = entry.getValue();
+            FileStat actualStat = actual.get(entry.getKey());
+            assertEquals(new File(entry.getKey()).getName(), actualStat.name);
+            assertEquals(expectedStat.errno, actualStat.errno);
+            assertEquals(expectedStat.mode, actualStat.mode);
+            assertEquals(expectedStat.targetMode, actualStat.targetMode);
+            assertEquals(expectedStat.uid, actualStat.uid);
+            assertEquals(expectedStat.gid, actualStat.gid);
+            assertEquals(expectedStat.size, actualStat.size);
+            assertEquals(expectedStat.lastModified, actualStat.lastModified);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadTruncated() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        new FileTreeWalker(null, null, null, false).walk(testDir.getAbsolutePath(), new DataOutputStream(bos));
+        byte[] bytes = bos.toByteArray();
+        // Drop the end marker
+        FileTreeWalker.read(new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 1)),
+                (path, stat) -> {
+                });
+    }
+
+    private List<String> walk(String baseDir, String[] filters, String[] exclusions) throws IOException {
+        List<String> paths = new ArrayList<>();
+        new FileTreeWalker(baseDir, filters, exclusions, false)
+                .walk(testDir.getAbsolutePath(), (path, stat) -> paths.add(path));
+        return paths;
+    }
+
+    private static List<String> getAll(Path base, Path source, String[] filters, String[] exclusions) {
+        List<String> paths = new ArrayList<>();
+        for (Path path : Paths.getAll(base, source, filters, exclusions, false)) {
+            paths.add(path.getFilePath());
+        }
+        return paths;
+    }
+
+    private static void writeFile(File file, int size) throws IOException {
+        try (FileOutputStream os = new FileOutputStream(file)) {
+            os.write(new byte[size]);
+        }
+    }
+}
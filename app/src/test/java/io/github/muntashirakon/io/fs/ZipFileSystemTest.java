@@ -2,6 +2,7 @@
 
 package io.github.muntashirakon.io.fs;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
@@ -18,11 +19,17 @@ import org.robolectric.RobolectricTestRunner;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.Objects;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
+import io.github.muntashirakon.AppManager.apk.signing.ZipAlign;
+import io.github.muntashirakon.io.IoUtils;
 import io.github.muntashirakon.io.Path;
 import io.github.muntashirakon.io.Paths;
 
@@ -880,6 +887,52 @@ public class ZipFileSystemTest {
         assertTrue(modifiedApk.get().delete());
     }
 
+    @Test
+    public void copyUnmodifiedEntriesRW() throws IOException {
+        Path base = Paths.get(classLoader.getResource("oandbackups/dnsfilter.android").getFile());
+        Path apkFile = base.findFile("base.apk");
+        Path mountPoint = Paths.get("/tmp/am_mount_point_27");
+        AtomicReference<File> modifiedApk = new AtomicReference<>();
+        VirtualFileSystem.MountOptions options = getRWOptions((fs, cachedFile) -> {
+            modifiedApk.set(cachedFile);
+            return true;
+        });
+        int fsId = VirtualFileSystem.mount(mountPoint.getUri(), apkFile, "application/zip", options);
+        Path testText = mountPoint.createNewFile("test.txt", null);
+        try (OutputStream os = testText.openOutputStream()) {
+            os.write("This is a test file".getBytes(StandardCharsets.UTF_8));
+        }
+        VirtualFileSystem.unmount(fsId);
+        assertNotNull(modifiedApk.get());
+        // Unmodified entries are copied as is, and the new entry is compressed
+        try (ZipFile originalZip = new ZipFile(Objects.requireNonNull(apkFile.getFile()));
+             ZipFile modifiedZip = new ZipFile(modifiedApk.get())) {
+            assertEquals(originalZip.size() + 1, modifiedZip.size());
+            for (ZipEntry originalEntry : Collections.list(originalZip.entries())) {
+                ZipEntry modifiedEntry = modifiedZip.getEntry(originalEntry.getName());
+                assertNotNull(originalEntry.getName(), modifiedEntry);
+                assertEquals(originalEntry.getName(), originalEntry.getMethod(), modifiedEntry.getMethod());
+                assertEquals(originalEntry.getName(), originalEntry.getCompressedSize(),
+                        modifiedEntry.getCompressedSize());
+                assertEquals(originalEntry.getName(), originalEntry.getCrc(), modifiedEntry.getCrc());
+                try (InputStream originalIs = originalZip.getInputStream(originalEntry);
+                     InputStream modifiedIs = modifiedZip.getInputStream(modifiedEntry)) {
+                    assertArrayEquals(originalEntry.getName(), IoUtils.readFully(originalIs, -1, true),
+                            IoUtils.readFully(modifiedIs, -1, true));
+                }
+            }
+            ZipEntry testEntry = modifiedZip.getEntry("test.txt");
+            assertEquals(ZipEntry.DEFLATED, testEntry.getMethod());
+            try (InputStream is = modifiedZip.getInputStream(testEntry)) {
+                assertEquals("This is a test file", new String(IoUtils.readFully(is, -1, true),
+                        StandardCharsets.UTF_8));
+            }
+        }
+        // Uncompressed entries remain aligned
+        assertTrue(ZipAlign.verify(modifiedApk.get(), ZipAlign.ALIGNMENT_4, true));
+        assertTrue(modifiedApk.get().delete());
+    }
+
     @Test
     public void setLastModified() {
         // TODO: 25/11/22
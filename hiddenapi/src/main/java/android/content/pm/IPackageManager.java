@@ -671,6 +671,21 @@ public interface IPackageManager extends IInterface {
     @RequiresApi(Build.VERSION_CODES.UPSIDE_DOWN_CAKE)
     void setComponentEnabledSetting(ComponentName componentName, int newState, int flags, int userId, String callingPackage) throws RemoteException;
 
+    /**
+     * As per {@link android.content.pm.PackageManager#setComponentEnabledSettings}.
+     *
+     * @deprecated Replaced by {@link #setComponentEnabledSettings(List, int, String)} in Android 14 (SDK 34)
+     */
+    @Deprecated
+    @RequiresApi(Build.VERSION_CODES.TIRAMISU)
+    void setComponentEnabledSettings(List<PackageManager.ComponentEnabledSetting> settings, int userId) throws RemoteException;
+
+    /**
+     * As per {@link android.content.pm.PackageManager#setComponentEnabledSettings}.
+     */
+    @RequiresApi(Build.VERSION_CODES.UPSIDE_DOWN_CAKE)
+    void setComponentEnabledSettings(List<PackageManager.ComponentEnabledSetting> settings, int userId, String callingPackage) throws RemoteException;
+
     /**
      * As per {@link android.content.pm.PackageManager#getComponentEnabledSetting}.
      */
@@ -14,6 +14,8 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 
 /**
@@ -38,6 +40,16 @@ import java.net.URI;
 // Copyright 2022 John "topjohnwu" Wu
 // Copyright 2022 Muntashir Al-Islam
 public abstract class ExtendedFile extends File {
+    /**
+     * Append to the destination instead of truncating it, see
+     * {@link #copyTo(ExtendedFile, int, IoUtils.ProgressListener)}.
+     */
+    public static final int COPY_APPEND = 1;
+    /**
+     * Copy the mode, UID, GID and the modification time of the source to the destination, see
+     * {@link #copyTo(ExtendedFile, int, IoUtils.ProgressListener)}.
+     */
+    public static final int COPY_PRESERVE_ATTRIBUTES = 1 << 1;
 
     /**
      * @see File#File(String)
@@ -100,6 +112,26 @@ public abstract class ExtendedFile extends File {
 
     public abstract boolean setSelinuxContext(@NonNull String context);
 
+    /**
+     * Fetch the attributes of the abstract pathname at once.
+     *
+     * @param mask Attributes to fetch, a combination of {@link FileStat#STAT_BASIC} and
+     *             {@link FileStat#STAT_SELINUX_CONTEXT}
+     */
+    @NonNull
+    public abstract FileStat stat(int mask);
+
+    /**
+     * Same as {@link #list()}, but also fetches the attributes of each file, which is much faster than fetching them
+     * one by one for a remote file system.
+     *
+     * @param mask Attributes to fetch, a combination of {@link FileStat#STAT_BASIC} and
+     *             {@link FileStat#STAT_SELINUX_CONTEXT}
+     * @return {@code null} if the abstract pathname does not denote a directory, or if an I/O error occurs.
+     */
+    @Nullable
+    public abstract FileStat[] listWithAttributes(int mask);
+
     /**
      * @return true if the abstract pathname denotes a block device.
      */
@@ -203,6 +235,52 @@ public abstract class ExtendedFile extends File {
     @NonNull
     public abstract FileOutputStream newOutputStream(boolean append) throws IOException;
 
+    /**
+     * Calculate the digests of the file in a single pass using the matching file system backend of the file. A remote
+     * file is read by the remote process itself instead of being transferred to this process.
+     *
+     * @param algorithms Names of the {@link java.security.MessageDigest} algorithms or {@code CRC32}
+     * @param listener   Notified periodically with the number of bytes read
+     * @return Lowercase hex encoded digests in the order of {@code algorithms}
+     */
+    @NonNull
+    public String[] getHexDigests(@NonNull String[] algorithms, @Nullable IoUtils.ProgressListener listener)
+            throws IOException {
+        try (InputStream is = newInputStream()) {
+            return FileOps.digest(is, algorithms, listener);
+        }
+    }
+
+    /**
+     * Copy the contents of the file to {@code dest}. If both of them belong to the same remote file system, the file
+     * is copied by the remote process itself instead of being transferred to this process and back.
+     *
+     * @param flags    A combination of {@link #COPY_APPEND} and {@link #COPY_PRESERVE_ATTRIBUTES}
+     * @param listener Notified periodically with the number of bytes copied
+     * @return Number of bytes copied
+     */
+    @SuppressWarnings("OctalInteger")
+    public long copyTo(@NonNull ExtendedFile dest, int flags, @Nullable IoUtils.ProgressListener listener)
+            throws IOException {
+        long count;
+        try (InputStream is = newInputStream();
+             OutputStream os = dest.newOutputStream((flags & COPY_APPEND) != 0)) {
+            count = IoUtils.copy(is, os, Runnable::run, listener);
+        }
+        if ((flags & COPY_PRESERVE_ATTRIBUTES) != 0) {
+            try {
+                dest.setMode(getMode() & 07777);
+                UidGidPair uidGid = getUidGid();
+                dest.setUidGid(uidGid.uid, uidGid.gid);
+            } catch (ErrnoException e) {
+                throw new IOException(e);
+            }
+            //noinspection ResultOfMethodCallIgnored
+            dest.setLastModified(lastModified());
+        }
+        return count;
+    }
+
     /**
      * Create a child relative to the abstract pathname using the same file system backend.
      *
@@ -0,0 +1,193 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.io;
+
+import static android.system.OsConstants.EINVAL;
+import static android.system.OsConstants.ENOSYS;
+import static android.system.OsConstants.O_APPEND;
+import static android.system.OsConstants.O_CREAT;
+import static android.system.OsConstants.O_RDONLY;
+import static android.system.OsConstants.O_TRUNC;
+import static android.system.OsConstants.O_WRONLY;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructStat;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/**
+ * File operations that can be run entirely inside the file system service, so that the contents of a file do not
+ * have to be transferred to the app through a pipe.
+ */
+final class FileOps {
+    /**
+     * Same as {@code DigestUtils#CRC32}, which is not a {@link MessageDigest} algorithm.
+     */
+    static final String CRC32 = "CRC32";
+
+    private static final int PROGRESS_INTERVAL = 1 << 19; // 512 kB
+    private static final long SENDFILE_CHUNK_SIZE = 1 << 20; // 1 MB
+
+    /**
+     * Calculate the digests of a stream in a single pass.
+     *
+     * @param algorithms Names of the {@link MessageDigest} algorithms or {@link #CRC32}
+     * @return Lowercase hex encoded digests in the order of {@code algorithms}
+     */
+    @NonNull
+    static String[] digest(@NonNull InputStream is, @NonNull String[] algorithms,
+                           @Nullable IoUtils.ProgressListener listener) throws IOException {
+        MessageDigest[] messageDigests = new MessageDigest[algorithms.length];
+        CRC32 crc32 = null;
+        for (int i = 0; i < algorithms.length; ++i) {
+            if (CRC32.equals(algorithms[i])) {
+                if (crc32 == null) {
+                    crc32 = new CRC32();
+                }
+                continue;
+            }
+            try {
+                messageDigests[i] = MessageDigest.getInstance(algorithms[i]);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+        }
+        byte[] buffer = new byte[FileSystemService.PIPE_CAPACITY];
+        long count = 0;
+        long checkpoint = 0;
+        int n;
+        while ((n = is.read(buffer)) != -1) {
+            for (MessageDigest messageDigest : messageDigests) {
+                if (messageDigest != null) {
+                    messageDigest.update(buffer, 0, n);
+                }
+            }
+            if (crc32 != null) {
+                crc32.update(buffer, 0, n);
+            }
+            count += n;
+            checkpoint += n;
+            if (checkpoint >= PROGRESS_INTERVAL) {
+                if (listener != null) {
+                    listener.onProgress(count);
+                }
+                checkpoint = 0;
+            }
+        }
+        if (listener != null) {
+            listener.onProgress(count);
+        }
+        String[] digests = new String[algorithms.length];
+        for (int i = 0; i < algorithms.length; ++i) {
+            if (messageDigests[i] != null) {
+                digests[i] = toHex(messageDigests[i].digest());
+            } else {
+                // Same as DigestUtils#longToBytes
+                long value = crc32.getValue();
+                byte[] bytes = new byte[8];
+                for (int j = 7; j >= 0; --j) {
+                    bytes[j] = (byte) (value & 0xFF);
+                    value >>= 8;
+                }
+                digests[i] = toHex(bytes);
+            }
+        }
+        return digests;
+    }
+
+    /**
+     * Copy the contents of one file to another using {@code sendfile(2)} if possible.
+     *
+     * @param flags A combination of {@link ExtendedFile#COPY_APPEND} and
+     *              {@link ExtendedFile#COPY_PRESERVE_ATTRIBUTES}
+     * @return Number of bytes copied
+     */
+    @SuppressWarnings("OctalInteger")
+    static long copy(@NonNull String src, @NonNull String dst, int flags,
+                     @Nullable IoUtils.ProgressListener listener) throws ErrnoException, IOException {
+        boolean append = (flags & ExtendedFile.COPY_APPEND) != 0;
+        FileDescriptor in = Os.open(src, O_RDONLY, 0);
+        StructStat st;
+        long count = 0;
+        try {
+            st = Os.fstat(in);
+            FileDescriptor out = Os.open(dst, O_CREAT | O_WRONLY | (append ? O_APPEND : O_TRUNC), 0666);
+            try {
+                long checkpoint = 0;
+                boolean useSendfile = true;
+                byte[] buffer = null;
+                while (true) {
+                    long n;
+                    if (useSendfile) {
+                        try {
+                            n = FileUtils.sendfile(out, in, null, SENDFILE_CHUNK_SIZE);
+                        } catch (ErrnoException e) {
+                            if (count != 0 || (e.errno != EINVAL && e.errno != ENOSYS)) {
+                                throw e;
+                            }
+                            // sendfile is not supported for these files, copy through a buffer instead
+                            useSendfile = false;
+                            continue;
+                        }
+                    } else {
+                        if (buffer == null) {
+                            buffer = new byte[FileSystemService.PIPE_CAPACITY];
+                        }
+                        n = Os.read(in, buffer, 0, buffer.length);
+                        for (int off = 0; off < n; ) {
+                            off += Os.write(out, buffer, off, (int) n - off);
+                        }
+                    }
+                    if (n <= 0) {
+                        break;
+                    }
+                    count += n;
+                    checkpoint += n;
+                    if (checkpoint >= PROGRESS_INTERVAL) {
+                        if (listener != null) {
+                            listener.onProgress(count);
+                        }
+                        checkpoint = 0;
+                    }
+                }
+                if ((flags & ExtendedFile.COPY_PRESERVE_ATTRIBUTES) != 0) {
+                    Os.fchmod(out, st.st_mode & 07777);
+                    Os.fchown(out, st.st_uid, st.st_gid);
+                }
+            } finally {
+                Os.close(out);
+            }
+        } finally {
+            Os.close(in);
+        }
+        if ((flags & ExtendedFile.COPY_PRESERVE_ATTRIBUTES) != 0) {
+            //noinspection ResultOfMethodCallIgnored
+            new File(dst).setLastModified(st.st_mtime * 1000);
+        }
+        if (listener != null) {
+            listener.onProgress(count);
+        }
+        return count;
+    }
+
+    @NonNull
+    private static String toHex(@NonNull byte[] bytes) {
+        char[] hexDigits = "0123456789abcdef".toCharArray();
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; ++i) {
+            chars[i * 2] = hexDigits[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = hexDigits[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
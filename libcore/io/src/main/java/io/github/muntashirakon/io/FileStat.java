@@ -0,0 +1,195 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.io;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.SELinux;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructStat;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Attributes of a file fetched at once, so that they can be transferred in a single transaction instead of one
+ * transaction per attribute.
+ * <p>
+ * The mode, UID and GID are of the file itself, i.e. a symbolic link is not followed. The rest of the attributes
+ * (such as the size) are of the file the link points to, which is the same as {@link File}.
+ */
+public class FileStat implements Parcelable {
+    /**
+     * Fetch the mode, UID, GID, size and times.
+     */
+    public static final int STAT_BASIC = 1;
+    /**
+     * Fetch the SELinux context.
+     */
+    public static final int STAT_SELINUX_CONTEXT = 1 << 1;
+
+    @NonNull
+    static FileStat from(@NonNull String path, @NonNull String name, int mask) {
+        StructStat lstat;
+        try {
+            lstat = Os.lstat(path);
+        } catch (ErrnoException e) {
+            return new FileStat(name, e.errno);
+        }
+        FileStat stat = new FileStat(name, 0);
+        if ((mask & STAT_BASIC) != 0) {
+            stat.mode = lstat.st_mode;
+            stat.uid = lstat.st_uid;
+            stat.gid = lstat.st_gid;
+            stat.dev = lstat.st_dev;
+            stat.lastAccess = lstat.st_atime * 1000;
+            stat.creationTime = lstat.st_ctime * 1000;
+            StructStat s = lstat;
+            if (OsConstants.S_ISLNK(lstat.st_mode)) {
+                try {
+                    s = Os.stat(path);
+                } catch (ErrnoException e) {
+                    // Broken link
+                    s = null;
+                }
+            }
+            if (s != null) {
+                stat.targetMode = s.st_mode;
+                stat.size = s.st_size;
+                stat.lastModified = s.st_mtime * 1000;
+            }
+        }
+        if ((mask & STAT_SELINUX_CONTEXT) != 0) {
+            stat.selinuxContext = SELinux.getFileContext(path);
+        }
+        return stat;
+    }
+
+    /**
+     * Name of the file.
+     */
+    @NonNull
+    public final String name;
+    /**
+     * Error number if the file could not be accessed, {@code 0} otherwise.
+     */
+    public final int errno;
+    public int mode;
+    /**
+     * Mode of the file a symbolic link points to, same as {@link #mode} if the file is not a symbolic link, and
+     * {@code 0} if the link is broken.
+     */
+    public int targetMode;
+    public int uid;
+    public int gid;
+    /**
+     * ID of the device containing the file.
+     */
+    public long dev;
+    public long size;
+    public long lastModified;
+    public long lastAccess;
+    public long creationTime;
+    @Nullable
+    public String selinuxContext;
+
+    FileStat(@NonNull String name, int errno) {
+        this.name = name;
+        this.errno = errno;
+    }
+
+    protected FileStat(@NonNull Parcel in) {
+        name = in.readString();
+        errno = in.readInt();
+        mode = in.readInt();
+        targetMode = in.readInt();
+        uid = in.readInt();
+        gid = in.readInt();
+        dev = in.readLong();
+        size = in.readLong();
+        lastModified = in.readLong();
+        lastAccess = in.readLong();
+        creationTime = in.readLong();
+        selinuxContext = in.readString();
+    }
+
+    public static final Creator<FileStat> CREATOR = new Creator<FileStat>() {
+        @Override
+        public FileStat createFromParcel(Parcel in) {
+            return new FileStat(in);
+        }
+
+        @Override
+        public FileStat[] newArray(int size) {
+            return new FileStat[size];
+        }
+    };
+
+    public boolean exists() {
+        return errno == 0;
+    }
+
+    public boolean isDirectory() {
+        return OsConstants.S_ISDIR(targetMode);
+    }
+
+    public boolean isFile() {
+        return OsConstants.S_ISREG(targetMode);
+    }
+
+    void writeTo(@NonNull DataOutput out) throws IOException {
+        out.writeInt(errno);
+        out.writeInt(mode);
+        out.writeInt(targetMode);
+        out.writeInt(uid);
+        out.writeInt(gid);
+        out.writeLong(dev);
+        out.writeLong(size);
+        out.writeLong(lastModified);
+        out.writeLong(lastAccess);
+        out.writeLong(creationTime);
+    }
+
+    @NonNull
+    static FileStat readFrom(@NonNull DataInput in, @NonNull String name) throws IOException {
+        FileStat stat = new FileStat(name, in.readInt());
+        stat.mode = in.readInt();
+        stat.targetMode = in.readInt();
+        stat.uid = in.readInt();
+        stat.gid = in.readInt();
+        stat.dev = in.readLong();
+        stat.size = in.readLong();
+        stat.lastModified = in.readLong();
+        stat.lastAccess = in.readLong();
+        stat.creationTime = in.readLong();
+        return stat;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(@NonNull Parcel dest, int flags) {
+        dest.writeString(name);
+        dest.writeInt(errno);
+        dest.writeInt(mode);
+        dest.writeInt(targetMode);
+        dest.writeInt(uid);
+        dest.writeInt(gid);
+        dest.writeLong(dev);
+        dest.writeLong(size);
+        dest.writeLong(lastModified);
+        dest.writeLong(lastAccess);
+        dest.writeLong(creationTime);
+        dest.writeString(selinuxContext);
+    }
+}
@@ -21,12 +21,19 @@ import android.system.OsConstants;
 import android.system.StructStat;
 import android.util.LruCache;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.regex.PatternSyntaxException;
 
+import aosp.android.content.pm.ParceledListSlice;
 import aosp.android.content.pm.StringParceledListSlice;
 import io.github.muntashirakon.compat.system.OsCompat;
 import io.github.muntashirakon.compat.system.StructTimespec;
@@ -267,6 +274,76 @@ class FileSystemService extends IFileSystemService.Stub {
         }
     }
 
+    @Override
+    public ParceledListSlice<FileStat> listWithAttributes(String path, int mask) {
+        String[] list = mCache.get(path).list();
+        if (list == null) {
+            return null;
+        }
+        List<FileStat> stats = new ArrayList<>(list.length);
+        for (String name : list) {
+            stats.add(FileStat.from(new File(path, name).getPath(), name, mask));
+        }
+        return new ParceledListSlice<>(stats);
+    }
+
+    @Override
+    public ParceledListSlice<FileStat> statBatch(String[] paths, int mask) {
+        List<FileStat> stats = new ArrayList<>(paths.length);
+        for (String path : paths) {
+            stats.add(FileStat.from(path, new File(path).getName(), mask));
+        }
+        return new ParceledListSlice<>(stats);
+    }
+
+    @Override
+    public IOResult walk(String path, String baseDir, String[] filters, String[] exclusions, boolean followLinks,
+                         ParcelFileDescriptor fd) {
+        FileTreeWalker walker;
+        try {
+            walker = new FileTreeWalker(baseDir, filters, exclusions, followLinks);
+        } catch (PatternSyntaxException e) {
+            return new IOResult(e);
+        }
+        streamPool.execute(() -> {
+            try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(
+                    new ParcelFileDescriptor.AutoCloseOutputStream(fd), PIPE_CAPACITY))) {
+                walker.walk(path, os);
+            } catch (IOException ignored) {}
+        });
+        return new IOResult();
+    }
+
+    @Override
+    public IOResult digest(String path, String[] algorithms, IProgressCallback callback) {
+        try (FileInputStream is = new FileInputStream(path)) {
+            return new IOResult(FileOps.digest(is, algorithms, getProgressListener(callback)));
+        } catch (IOException e) {
+            return new IOResult(e);
+        }
+    }
+
+    @Override
+    public IOResult copy(String src, String dst, int flags, IProgressCallback callback) {
+        try {
+            return new IOResult(FileOps.copy(src, dst, flags, getProgressListener(callback)));
+        } catch (ErrnoException | IOException e) {
+            return new IOResult(e);
+        }
+    }
+
+    private static IoUtils.ProgressListener getProgressListener(IProgressCallback callback) {
+        if (callback == null) {
+            return null;
+        }
+        return progress -> {
+            try {
+                callback.onProgress(progress);
+            } catch (RemoteException ignore) {
+            }
+        };
+    }
+
     // I/O APIs
 
     private final FileContainer openFiles = new FileContainer();
@@ -0,0 +1,195 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.io;
+
+import android.system.OsConstants;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.regex.Pattern;
+
+/**
+ * Walks a file tree using the same rules as {@code Paths#getAll()}, but on the plain file system so that it can be run
+ * inside the file system service and the whole tree can be sent back at once instead of fetching every file and its
+ * attributes one by one.
+ * <p>
+ * The files are written as a stream of records, each containing the absolute path and the {@link FileStat} of a file.
+ */
+class FileTreeWalker {
+    interface OnFileListener {
+        void onFile(@NonNull String path, @NonNull FileStat stat) throws IOException;
+    }
+
+    @Nullable
+    private final String mBaseDir;
+    @Nullable
+    private final Pattern[] mFilters;
+    @Nullable
+    private final Pattern[] mExclusions;
+    private final boolean mFollowLinks;
+
+    /**
+     * @param baseDir     Path in respect to which the filters and the exclusions are applied, ending with a separator
+     *                    if it is a directory, or {@code null} if the absolute paths are to be matched.
+     * @param filters     Regular expressions of the files to be included, all files are included if {@code null}.
+     * @param exclusions  Regular expressions of the files to be excluded
+     * @param followLinks Whether to walk into the linked directories
+     */
+    FileTreeWalker(@Nullable String baseDir, @Nullable String[] filters, @Nullable String[] exclusions,
+                   boolean followLinks) {
+        mBaseDir = baseDir;
+        mFilters = compile(filters);
+        mExclusions = compile(exclusions);
+        mFollowLinks = followLinks;
+    }
+
+    public void walk(@NonNull String source, @NonNull OnFileListener listener) throws IOException {
+        FileStat sourceStat = FileStat.from(source, new File(source).getName(), FileStat.STAT_BASIC);
+        if (sourceStat.isFile()) {
+            listener.onFile(source, sourceStat);
+            return;
+        } else if (sourceStat.isDirectory()) {
+            if (!mFollowLinks && OsConstants.S_ISLNK(sourceStat.mode)) {
+                // Add the directory only if it's a symbolic link and followLinks is disabled
+                listener.onFile(source, sourceStat);
+                return;
+            }
+        } else {
+            // No support for any other files
+            return;
+        }
+        LinkedList<String> dirCheckList = new LinkedList<>();
+        dirCheckList.add(source);
+        LinkedList<FileStat> dirStats = new LinkedList<>();
+        dirStats.add(sourceStat);
+        while (!dirCheckList.isEmpty()) {
+            String dir = dirCheckList.removeFirst();
+            FileStat dirStat = dirStats.removeFirst();
+            String[] names = new File(dir).list();
+            LinkedList<String> children = new LinkedList<>();
+            LinkedList<FileStat> childStats = new LinkedList<>();
+            if (names != null) {
+                for (String name : names) {
+                    String path = new File(dir, name).getPath();
+                    FileStat stat = FileStat.from(path, name, FileStat.STAT_BASIC);
+                    if (stat.isDirectory() || matches(path, false)) {
+                        children.add(path);
+                        childStats.add(stat);
+                    }
+                }
+            }
+            if (children.isEmpty()) {
+                // Add this directory nonetheless if it matches one of the filters, no symlink checks needed
+                if (matches(dir, true)) {
+                    listener.onFile(dir, dirStat);
+                }
+                continue;
+            }
+            // Has children, don't check for filters, just add the directory
+            listener.onFile(dir, dirStat);
+            while (!children.isEmpty()) {
+                String path = children.removeFirst();
+                FileStat stat = childStats.removeFirst();
+                if (stat.isFile()) {
+                    listener.onFile(path, stat);
+                } else if (stat.isDirectory()) {
+                    if (!mFollowLinks && OsConstants.S_ISLNK(stat.mode)) {
+                        // Add the directory only if it's a symbolic link and followLinks is disabled
+                        listener.onFile(path, stat);
+                    } else {
+                        dirCheckList.add(path);
+                        dirStats.add(stat);
+                    }
+                } // else No support for any other files
+            }
+        }
+    }
+
+    public void walk(@NonNull String source, @NonNull DataOutputStream os) throws IOException {
+        walk(source, (path, stat) -> {
+            os.writeBoolean(true);
+            os.writeUTF(path);
+            stat.writeTo(os);
+        });
+        os.writeBoolean(false);
+        os.flush();
+    }
+
+    /**
+     * Read the files written by {@link #walk(String, DataOutputStream)}.
+     */
+    public static void read(@NonNull DataInputStream is, @NonNull OnFileListener listener) throws IOException {
+        try {
+            while (is.readBoolean()) {
+                String path = is.readUTF();
+                listener.onFile(path, FileStat.readFrom(is, new File(path).getName()));
+            }
+        } catch (EOFException e) {
+            throw new IOException("File tree was not fully read.", e);
+        }
+    }
+
+    private boolean matches(@NonNull String path, boolean isDirectory) {
+        String pathStr = path;
+        if (mBaseDir != null) {
+            pathStr = relativePath(isDirectory ? path + File.separator : path, mBaseDir, File.separator);
+        }
+        if (mFilters != null && !matchesAny(pathStr, mFilters)) {
+            return false;
+        }
+        return mExclusions == null || !matchesAny(pathStr, mExclusions);
+    }
+
+    private static boolean matchesAny(@NonNull String path, @NonNull Pattern[] patterns) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(path).matches()) return true;
+        }
+        return false;
+    }
+
+    @Nullable
+    private static Pattern[] compile(@Nullable String[] regexes) {
+        if (regexes == null) {
+            return null;
+        }
+        Pattern[] patterns = new Pattern[regexes.length];
+        for (int i = 0; i < regexes.length; ++i) {
+            patterns[i] = Pattern.compile(regexes[i]);
+        }
+        return patterns;
+    }
+
+    @VisibleForTesting
+    @NonNull
+    static String relativePath(@NonNull String targetPath, @NonNull String baseDir, @NonNull String separator) {
+        String[] base = baseDir.split(Pattern.quote(separator));
+        String[] target = targetPath.split(Pattern.quote(separator));
+
+        // Count common elements and their length
+        int commonCount = 0, commonLength = 0, maxCount = Math.min(target.length, base.length);
+        while (commonCount < maxCount) {
+            String targetElement = target[commonCount];
+            if (!targetElement.equals(base[commonCount])) break;
+            commonCount++;
+            commonLength += targetElement.length() + 1; // Directory name length plus slash
+        }
+        if (commonCount == 0) return targetPath; // No common path element
+
+        int targetLength = targetPath.length();
+        int dirsUp = base.length - commonCount;
+        StringBuilder relative = new StringBuilder(dirsUp * 3 + targetLength - commonLength + 1);
+        for (int i = 0; i < dirsUp; i++) {
+            relative.append("..").append(separator);
+        }
+        if (commonLength < targetLength) relative.append(targetPath.substring(commonLength));
+        return relative.toString();
+    }
+}
@@ -71,9 +71,18 @@ public final class IoUtils {
         return new String(IoUtils.readFully(inputStream, -1, true), Charset.defaultCharset());
     }
 
+    /**
+     * Copy the contents of one file to another. If both of them belong to the same remote file system, the file is
+     * copied by the remote process itself.
+     */
     @AnyThread
     public static long copy(@NonNull Path from, @NonNull Path to)
             throws IOException {
+        ExtendedFile src = from.getFile();
+        ExtendedFile dst = to.getFile();
+        if (src instanceof RemoteFile && dst instanceof RemoteFile && !from.isMountPoint() && !to.isMountPoint()) {
+            return src.copyTo(dst, 0, null);
+        }
         try (InputStream in = from.openInputStream();
              OutputStream out = to.openOutputStream()) {
             return copy(in, out);
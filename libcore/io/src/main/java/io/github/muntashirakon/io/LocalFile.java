@@ -84,6 +84,26 @@ class LocalFile extends FileImpl<LocalFile> {
         return SELinux.setFileContext(getPath(), context);
     }
 
+    @NonNull
+    @Override
+    public FileStat stat(int mask) {
+        return FileStat.from(getPath(), getName(), mask);
+    }
+
+    @Nullable
+    @Override
+    public FileStat[] listWithAttributes(int mask) {
+        String[] list = list();
+        if (list == null) {
+            return null;
+        }
+        FileStat[] stats = new FileStat[list.length];
+        for (int i = 0; i < list.length; ++i) {
+            stats[i] = getChildFile(list[i]).stat(mask);
+        }
+        return stats;
+    }
+
     @Override
     public boolean isBlock() {
         try {
@@ -25,6 +25,7 @@ import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -467,6 +468,16 @@ public abstract class Path implements Comparable<Path> {
     @NonNull
     public abstract Path[] listFiles();
 
+    /**
+     * Same as {@link #listFiles()}, but also returns the attributes of the files if they can be fetched in bulk, which
+     * is much faster than calling {@link #getAttributes()} for each file when they are accessed via a privileged
+     * file system.
+     *
+     * @return Files mapped to their attributes. An attribute is {@code null} if it cannot be fetched in bulk.
+     */
+    @NonNull
+    public abstract Map<Path, PathAttributes> listFilesWithAttributes();
+
     @NonNull
     public Path[] listFiles(@Nullable FileFilter filter) {
         Path[] ss = listFiles();
@@ -10,11 +10,15 @@ import android.system.OsConstants;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.List;
 
+import aosp.android.content.pm.ParceledListSlice;
 import aosp.android.content.pm.StringParceledListSlice;
 
 // Copyright 2022 John "topjohnwu" Wu
@@ -171,6 +175,28 @@ class RemoteFile extends FileImpl<RemoteFile> {
         }
     }
 
+    @NonNull
+    @Override
+    public FileStat stat(int mask) {
+        try {
+            List<FileStat> stats = fs.statBatch(new String[]{getPath()}, mask).getList();
+            return stats.get(0);
+        } catch (RemoteException e) {
+            return new FileStat(getName(), OsConstants.EIO);
+        }
+    }
+
+    @Nullable
+    @Override
+    public FileStat[] listWithAttributes(int mask) {
+        try {
+            ParceledListSlice<FileStat> stats = fs.listWithAttributes(getPath(), mask);
+            return stats != null ? stats.getList().toArray(new FileStat[0]) : null;
+        } catch (RemoteException e) {
+            return null;
+        }
+    }
+
     @Override
     public boolean isBlock() {
         try {
@@ -322,6 +348,66 @@ class RemoteFile extends FileImpl<RemoteFile> {
         }
     }
 
+    /**
+     * Walk the file tree in the remote process, see {@link FileTreeWalker}.
+     */
+    void walk(@Nullable String baseDir, @Nullable String[] filters, @Nullable String[] exclusions,
+              boolean followLinks, @NonNull FileTreeWalker.OnFileListener listener) throws IOException {
+        ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
+        try {
+            fs.walk(getPath(), baseDir, filters, exclusions, followLinks, pipe[1]).checkException();
+        } catch (RemoteException e) {
+            pipe[0].close();
+            throw new IOException(e);
+        } catch (IOException e) {
+            pipe[0].close();
+            throw e;
+        } finally {
+            pipe[1].close();
+        }
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(
+                new ParcelFileDescriptor.AutoCloseInputStream(pipe[0])))) {
+            FileTreeWalker.read(is, listener);
+        }
+    }
+
+    @NonNull
+    @Override
+    public String[] getHexDigests(@NonNull String[] algorithms, @Nullable IoUtils.ProgressListener listener)
+            throws IOException {
+        try {
+            return fs.digest(getPath(), algorithms, getProgressCallback(listener)).tryAndGet();
+        } catch (RemoteException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public long copyTo(@NonNull ExtendedFile dest, int flags, @Nullable IoUtils.ProgressListener listener)
+            throws IOException {
+        if (!(dest instanceof RemoteFile) || ((RemoteFile) dest).fs.asBinder() != fs.asBinder()) {
+            return super.copyTo(dest, flags, listener);
+        }
+        try {
+            return fs.copy(getPath(), dest.getPath(), flags, getProgressCallback(listener)).tryAndGet();
+        } catch (RemoteException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Nullable
+    private static IProgressCallback getProgressCallback(@Nullable IoUtils.ProgressListener listener) {
+        if (listener == null) {
+            return null;
+        }
+        return new IProgressCallback.Stub() {
+            @Override
+            public void onProgress(long progress) {
+                listener.onProgress(progress);
+            }
+        };
+    }
+
     @Override
     public boolean mkdir() {
         try {
@@ -3,6 +3,7 @@
 package io.github.muntashirakon.io;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
 import java.io.IOException;
@@ -10,13 +11,20 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Write a stream into multiple files, each containing at most {@code maxBytesPerFile} bytes. A part is closed as soon
+ * as the next part is opened, which allows subclasses to post-process the part (e.g. generate its checksum) via
+ * {@link #onPartClosed(Path)} without re-reading it.
+ */
 public class SplitOutputStream extends OutputStream {
     private static final long MAX_BYTES_WRITTEN = 1024 * 1024 * 1024;  // 1GB
 
-    private final List<OutputStream> mOutputStreams = new ArrayList<>(1);
     private final List<Path> mFiles = new ArrayList<>(1);
+    @Nullable
+    private OutputStream mCurrentStream;
     private int mCurrentIndex = -1;
     private long mBytesWritten;
+    private boolean mClosed;
     private final long mMaxBytesPerFile;
     private final String mBaseName;
     private final Path mBasePath;
@@ -40,7 +48,7 @@ public class SplitOutputStream extends OutputStream {
     @Override
     public void write(int b) throws IOException {
         checkCurrentStream(1);
-        mOutputStreams.get(mCurrentIndex).write(b);
+        mCurrentStream.write(b);
         ++mBytesWritten;
     }
 
@@ -48,7 +56,7 @@ public class SplitOutputStream extends OutputStream {
     @Override
     public void write(@NonNull byte[] b) throws IOException {
         checkCurrentStream(b.length);
-        mOutputStreams.get(mCurrentIndex).write(b);
+        mCurrentStream.write(b);
         mBytesWritten += b.length;
     }
 
@@ -56,40 +64,82 @@ public class SplitOutputStream extends OutputStream {
     @Override
     public void write(byte[] b, int off, int len) throws IOException {
         checkCurrentStream(len);
-        mOutputStreams.get(mCurrentIndex).write(b, off, len);
+        mCurrentStream.write(b, off, len);
         mBytesWritten += len;
     }
 
     @WorkerThread
     @Override
     public void flush() throws IOException {
-        for (OutputStream stream : mOutputStreams) {
-            stream.flush();
+        if (mCurrentStream != null) {
+            mCurrentStream.flush();
         }
     }
 
     @WorkerThread
     @Override
     public void close() throws IOException {
-        for (OutputStream stream : mOutputStreams) {
-            stream.close();
+        if (mClosed) {
+            return;
         }
+        mClosed = true;
+        closeCurrentStream();
+    }
+
+    /**
+     * Name of the part at the given index. By default, it is the base name followed by a dot and the index.
+     */
+    @NonNull
+    protected String getPartName(@NonNull String baseName, int index) {
+        return baseName + "." + index;
+    }
+
+    /**
+     * Open an output stream for a newly created part. Subclasses may wrap the stream to transform or inspect the bytes
+     * written to the part.
+     */
+    @WorkerThread
+    @NonNull
+    protected OutputStream openPart(@NonNull Path file) throws IOException {
+        return file.openOutputStream();
+    }
+
+    /**
+     * Called when a part is closed, i.e. no more bytes will be written to it.
+     */
+    @WorkerThread
+    protected void onPartClosed(@NonNull Path file) throws IOException {
     }
 
     @WorkerThread
     private void checkCurrentStream(int nextBytesSize) throws IOException {
+        if (mClosed) {
+            throw new IOException("Stream closed.");
+        }
         if (mBytesWritten + nextBytesSize > mMaxBytesPerFile) {
             // Need to create a new stream
+            closeCurrentStream();
             Path newFile = getNextFile();
             mFiles.add(newFile);
-            mOutputStreams.add(newFile.openOutputStream());
+            mCurrentStream = openPart(newFile);
             ++mCurrentIndex;
             mBytesWritten = 0;
         }
     }
 
+    @WorkerThread
+    private void closeCurrentStream() throws IOException {
+        if (mCurrentStream == null) {
+            return;
+        }
+        OutputStream stream = mCurrentStream;
+        mCurrentStream = null;
+        stream.close();
+        onPartClosed(mFiles.get(mCurrentIndex));
+    }
+
     @NonNull
     private Path getNextFile() throws IOException {
-        return mBasePath.createNewFile(mBaseName + "." + (mCurrentIndex + 1), null);
+        return mBasePath.createNewFile(getPartName(mBaseName, mCurrentIndex + 1), null);
     }
 }